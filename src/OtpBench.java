@@ -0,0 +1,599 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import otp.KeyRing;
+import otp.Result;
+import otp.Rng;
+import otp.helpr.BlockAssignList;
+import otp.helpr.BlockPlan;
+import otp.helpr.ByteArray;
+import otp.helpr.KnownMsgs;
+import otp.impl.BaInfile;
+import otp.impl.BaOutfile;
+import otp.impl.CtrDrbgRng;
+import otp.impl.LocalInfile;
+import otp.impl.NullOutfile;
+import otp.impl.RealKeyRing;
+import otp.impl.RealOtp;
+import otp.impl.TestRng;
+import otp.impl.TestUi;
+import otp.impl.WegCarAuth;
+import otp.response.Response;
+
+/**
+ * Micro and end-to-end benchmarks for the hot paths. All inputs are generated
+ * from fixed seeds, every benchmark is warmed up and the median of the
+ * measured iterations is reported, so runs of different releases on the same
+ * machine can be compared.
+ * 
+ * Usage: OtpBench [filter] [-i iterations] [-w warmup] [-d directory] [-j
+ * file.json]
+ */
+public class OtpBench
+{
+	private static final long seed = 4711;
+	private static final String[] rings = new String[] { "33333330", "33333331" };
+	
+	private static int iterations = 10;
+	private static int warmup = 3;
+	private static String filter = null;
+	private static List<String> results = new LinkedList<String>();
+	private static int keys = 0;
+	
+	private static TestUi ui = new TestUi(false, false, true);
+	private static File dir;
+	
+	/**
+	 * A single benchmark operation
+	 */
+	private static abstract class Op
+	{
+		/**
+		 * Runs the operation once
+		 * 
+		 * @return Number of payload bytes processed
+		 */
+		abstract long run() throws Throwable;
+	}
+	
+	public static void main(String[] args)
+	{
+		String json = null;
+		String dirName = null;
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-i") && i + 1 < args.length)
+				OtpBench.iterations = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-w") && i + 1 < args.length)
+				OtpBench.warmup = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-d") && i + 1 < args.length)
+				dirName = args[++i];
+			else if (args[i].equals("-j") && i + 1 < args.length)
+				json = args[++i];
+			else
+				OtpBench.filter = args[i];
+		}
+		
+		System.out.println("OtpBench: java " + System.getProperty("java.version") + ", " + System.getProperty("os.name") +
+				" " + System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " cpus, " +
+				OtpBench.warmup + " warmup, " + OtpBench.iterations + " iterations");
+		System.out.println(String.format("%-40s %14s %14s %10s", "benchmark", "median ns/op", "min ns/op", "MB/s"));
+		
+		try
+		{
+			if (dirName != null)
+				OtpBench.dir = new File(dirName);
+			else
+			{
+				OtpBench.dir = File.createTempFile("otpbench", "");
+				OtpBench.dir.delete();
+			}
+			OtpBench.dir.mkdirs();
+			
+			OtpBench.benchXor();
+			OtpBench.benchRadix64();
+			OtpBench.benchCrc24();
+			OtpBench.benchBlockAssignList();
+			OtpBench.benchKnownMsgs();
+			
+			String key = OtpBench.createKeyPair(128 * 1024 * 1024, 8 * 1024, 16 * 1024 * 1024, 32);
+			OtpBench.benchOtpNext(key);
+			OtpBench.benchAuth();
+			OtpBench.benchEndToEnd(key);
+			OtpBench.benchRange(key);
+			OtpBench.benchRing(key);
+			
+			if (json != null)
+				OtpBench.writeJson(json);
+		}
+		catch (Throwable e)
+		{
+			e.printStackTrace();
+			ui.printCache();
+			System.exit(1);
+		}
+		finally
+		{
+			if (dirName == null)
+				OtpBench.delete(OtpBench.dir);
+		}
+	}
+	
+	private static void benchXor()
+	{
+		for (int size : new int[] { 16, 1024, 64 * 1024, 1024 * 1024 })
+		{
+			Random r = new Random(OtpBench.seed);
+			final byte[] a = new byte[size];
+			final byte[] b = new byte[size];
+			final byte[] out = new byte[size];
+			r.nextBytes(a);
+			r.nextBytes(b);
+			
+			final int reps = Math.max(1, (4 * 1024 * 1024) / size);
+			OtpBench.bench("ByteArray.xor size=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					for (int i = 0; i < reps; i++)
+						ByteArray.xor(a, 0, b, 0, out, 0, a.length);
+					return (long) reps * a.length;
+				}
+			});
+		}
+	}
+	
+	private static void benchRadix64()
+	{
+		for (int size : new int[] { 1024, 64 * 1024, 1024 * 1024 })
+		{
+			final byte[] a = new byte[size];
+			new Random(OtpBench.seed).nextBytes(a);
+			final String s = ByteArray.toRadix64(a);
+			
+			OtpBench.bench("ByteArray.toRadix64 size=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					return ByteArray.toRadix64(a).length() > 0 ? a.length : 0;
+				}
+			});
+			OtpBench.bench("ByteArray.fromRadix64 size=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					return ByteArray.fromRadix64(s).length;
+				}
+			});
+		}
+	}
+	
+	private static void benchCrc24()
+	{
+		for (int size : new int[] { 1024, 64 * 1024, 1024 * 1024 })
+		{
+			final byte[] a = new byte[size];
+			new Random(OtpBench.seed).nextBytes(a);
+			
+			OtpBench.bench("ByteArray.crc24 size=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					ByteArray.crc24(a, 0xB704CE);
+					return a.length;
+				}
+			});
+		}
+	}
+	
+	private static void benchBlockAssignList()
+	{
+		for (final int size : new int[] { 256, 1024, 4096 })
+		{
+			final BlockAssignList[] others = new BlockAssignList[] { new BlockAssignList(new BlockAssignList[0]) };
+			for (int i = 0; i < size; i++)
+				others[0].addBlock(2 * i + 1);
+			
+			OtpBench.bench("BlockAssignList.addBlock n=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					BlockAssignList l = new BlockAssignList(others);
+					for (int i = 0; i < size; i++)
+						l.addBlock(2 * i);
+					return 0;
+				}
+			});
+			
+			final BlockAssignList full = new BlockAssignList(others);
+			for (int i = 0; i < size; i++)
+				full.addBlock(2 * i);
+			final byte[] exported = full.exportList();
+			
+			OtpBench.bench("BlockAssignList.blockPos n=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					for (int i = 0; i < 256; i++)
+						full.blockPos(2 * ((i * 31) % size));
+					return 0;
+				}
+			});
+			OtpBench.bench("BlockAssignList.export+import n=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					new BlockAssignList(full.exportList(), others);
+					return exported.length;
+				}
+			});
+		}
+	}
+	
+	private static void benchKnownMsgs() throws Exception
+	{
+		for (final int size : new int[] { 100, 250, 500 })
+		{
+			final BlockAssignList list = new BlockAssignList(new BlockAssignList[0]);
+			for (int i = 0; i < 2 * size; i++)
+				list.addBlock(i);
+			
+			final byte[][] hashes = new byte[size][32];
+			Random r = new Random(OtpBench.seed);
+			for (int i = 0; i < size; i++)
+				r.nextBytes(hashes[i]);
+			
+			OtpBench.bench("KnownMsgs.isLegit n=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					KnownMsgs k = new KnownMsgs(null, null, new BlockAssignList[] { list });
+					for (int i = 0; i < size; i++)
+						k.isLegit(hashes[i], new BlockPlan(0, 2 * i, list), new BlockPlan(100, 2 * i, list), new BlockPlan(0,
+								2 * i + 1, list), new BlockPlan(100, 2 * i + 1, list));
+					return 0;
+				}
+			});
+			
+			KnownMsgs k = new KnownMsgs(null, null, new BlockAssignList[] { list });
+			for (int i = 0; i < size; i++)
+				k.isLegit(hashes[i], new BlockPlan(0, 2 * i, list), new BlockPlan(100, 2 * i, list), new BlockPlan(0,
+						2 * i + 1, list), new BlockPlan(100, 2 * i + 1, list));
+			final byte[] h = k.exportHashes();
+			final byte[] a = k.exportAreas();
+			
+			OtpBench.bench("KnownMsgs.import n=" + size, new Op()
+			{
+				@Override
+				long run()
+				{
+					new KnownMsgs(h, a, new BlockAssignList[] { list });
+					return h.length + a.length;
+				}
+			});
+		}
+	}
+	
+	private static void benchOtpNext(String key) throws Response
+	{
+		final RealKeyRing ring = OtpBench.ring(0);
+		ring.selectKey(key);
+		ring.initialize();
+		final RealOtp otp = new RealOtp(ring, ui);
+		otp.setPosition(ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E).clone());
+		otp.initialize();
+		
+		try
+		{
+			for (int size : new int[] { 16, 256, 4096, 64 * 1024, 1024 * 1024 })
+			{
+				final byte[] b = new byte[size];
+				final int reps = (1024 * 1024) / size;
+				OtpBench.bench("RealOtp.next size=" + size, new Op()
+				{
+					@Override
+					long run() throws Throwable
+					{
+						otp.setPosition(ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E).clone());
+						for (int i = 0; i < reps; i++)
+							otp.next(b);
+						return (long) reps * b.length;
+					}
+				});
+			}
+		}
+		finally
+		{
+			otp.finish(true);
+			ring.finish(true);
+		}
+	}
+	
+	private static void benchAuth() throws Response
+	{
+		for (int authLength : new int[] { 16, 32, 64 })
+		{
+			String key = OtpBench.createKey(0, 4 * 1024 * 1024, 4 * 1024, 256 * 1024, authLength);
+			final RealKeyRing ring = OtpBench.ring(0);
+			ring.selectKey(key);
+			ring.initialize();
+			final RealOtp otp = new RealOtp(ring, ui);
+			otp.setPosition(ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A).clone());
+			otp.initialize();
+			
+			try
+			{
+				for (int size : new int[] { 1024, 64 * 1024, 1024 * 1024 })
+				{
+					final byte[] data = new byte[size];
+					new Random(OtpBench.seed).nextBytes(data);
+					OtpBench.bench("WegCarAuth auth=" + authLength + " size=" + size, new Op()
+					{
+						@Override
+						long run() throws Throwable
+						{
+							otp.setPosition(ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A).clone());
+							WegCarAuth auth = new WegCarAuth(ring, otp);
+							auth.setInputSize(data.length);
+							auth.initialize();
+							auth.next(data);
+							auth.doFinal();
+							auth.finish(true);
+							return data.length;
+						}
+					});
+				}
+			}
+			finally
+			{
+				otp.finish(true);
+				ring.finish(true);
+			}
+		}
+	}
+	
+	private static void benchEndToEnd(final String key)
+	{
+		for (int size : new int[] { 1024, 64 * 1024, 256 * 1024 })
+		{
+			final byte[] data = new byte[size];
+			new Random(OtpBench.seed).nextBytes(data);
+			final Rng rng = new TestRng(0, OtpBench.seed);
+			final byte[][] msg = new byte[1][];
+			
+			final Op encrypt = new Op()
+			{
+				@Override
+				long run() throws Throwable
+				{
+					BaOutfile out = new BaOutfile();
+					OtpBench.check(OtpCmdLine.encrypt(ui, OtpBench.ring(0), key, new BaInfile(data), out, false, false, false, rng));
+					msg[0] = out.getContent();
+					return data.length;
+				}
+			};
+			final Op decrypt = new Op()
+			{
+				@Override
+				long run() throws Throwable
+				{
+					BaOutfile out = new BaOutfile();
+					OtpBench.check(OtpCmdLine.decrypt(ui, OtpBench.ring(1), new BaInfile(msg[0]), out, rng));
+					if (!Arrays.equals(out.getContent(), data))
+						throw new IllegalStateException("Decrypted message differs");
+					return data.length;
+				}
+			};
+			
+			// every message is decrypted once to keep both rings in the same state
+			OtpBench.bench("OtpWorker.encrypt size=" + size, null, encrypt, decrypt);
+			OtpBench.bench("OtpWorker.decrypt size=" + size, encrypt, decrypt, null);
+		}
+	}
+	
+	private static void benchRange(final String key) throws Throwable
+	{
+		final int size = 2 * 1024 * 1024;
+		final int slice = 64 * 1024;
+		final byte[] data = new byte[size];
+		new Random(OtpBench.seed).nextBytes(data);
+		final Rng rng = new TestRng(0, OtpBench.seed);
+		
+		BaOutfile enc = new BaOutfile();
+		OtpBench.check(OtpCmdLine.encrypt(ui, OtpBench.ring(0), key, new BaInfile(data), enc, false, false, false, rng));
+		final File msg = new File(OtpBench.dir, "range.otp");
+		FileOutputStream out = new FileOutputStream(msg);
+		out.write(enc.getContent());
+		out.close();
+		
+		// the last slice of the body, everything in front is skipped
+		OtpBench.bench("OtpWorker.decryptRange " + slice + " of " + size, new Op()
+		{
+			@Override
+			long run() throws Throwable
+			{
+				BaOutfile part = new BaOutfile();
+				OtpBench.check(OtpCmdLine.decryptRange(ui, OtpBench.ring(1), new LocalInfile(msg.getPath()), part, size -
+						slice, slice));
+				if (!Arrays.equals(part.getContent(), Arrays.copyOfRange(data, size - slice, size)))
+					throw new IllegalStateException("Decrypted range differs");
+				return slice;
+			}
+		});
+		
+		// keeps both rings in the same state for the ring benchmarks
+		OtpBench.check(OtpCmdLine.decrypt(ui, OtpBench.ring(1), new LocalInfile(msg.getPath()), new NullOutfile(), rng));
+	}
+	
+	private static void benchRing(final String key)
+	{
+		// the ring has collected all messages of the end-to-end benchmarks
+		OtpBench.bench("RealKeyRing.readSettings", new Op()
+		{
+			@Override
+			long run() throws Throwable
+			{
+				RealKeyRing ring = OtpBench.ring(1);
+				ring.selectKey(key);
+				ring.initialize();
+				ring.finish(false);
+				return 0;
+			}
+		});
+		OtpBench.bench("RealKeyRing.readSettings+storeSettings", new Op()
+		{
+			@Override
+			long run() throws Throwable
+			{
+				RealKeyRing ring = OtpBench.ring(1);
+				ring.selectKey(key);
+				ring.initialize();
+				OtpBench.check(new Result(ring.finish(true)));
+				return 0;
+			}
+		});
+	}
+	
+	/**
+	 * Creates a key in ring 0, exports it and imports it into ring 1.
+	 */
+	private static String createKeyPair(long padSize, int blockSize, long windowSize, int authLength) throws Response
+	{
+		String key = OtpBench.createKey(0, padSize, blockSize, windowSize, authLength);
+		Rng rng = new TestRng(0, OtpBench.seed);
+		OtpBench.check(OtpCmdLine.exportKey(ui, OtpBench.ring(0), key, OtpBench.dir.getPath(), rng));
+		
+		RealKeyRing ring = OtpBench.ring(1);
+		ring.overwritePath(new File(OtpBench.dir, key + "-1.pad").getPath());
+		OtpBench.check(OtpCmdLine.importKey(ui, ring, new File(OtpBench.dir, key + ".key").getPath(), rng));
+		return key;
+	}
+	
+	private static String createKey(int part, long padSize, int blockSize, long windowSize, int authLength)
+			throws Response
+	{
+		String alias = "bench" + (++OtpBench.keys);
+		Rng rng = new TestRng(0, OtpBench.seed + OtpBench.keys);
+		CtrDrbgRng padRng = new CtrDrbgRng(rng, null);
+		RealKeyRing ring = OtpBench.ring(part);
+		ring.overwritePath(new File(OtpBench.dir, alias + "-" + part + ".pad").getPath());
+		RealOtp otp = new RealOtp(ring, padRng, ui);
+		boolean success = false;
+		
+		try
+		{
+			padRng.initialize();
+			ring.createKey(padSize, blockSize, windowSize, windowSize / 2, 64, 128, 70, authLength, alias);
+			otp.createPad(1);
+			success = true;
+			return ByteArray.toHex(ring.getKeyId());
+		}
+		finally
+		{
+			ring.finish(success);
+			otp.finish(success);
+			padRng.finish(success);
+		}
+	}
+	
+	private static RealKeyRing ring(int part)
+	{
+		RealKeyRing ring = new RealKeyRing(new TestRng(0, OtpBench.seed), ui);
+		ring.setBasePath(OtpBench.dir.getPath());
+		ring.selectKeyRing(OtpBench.rings[part]);
+		return ring;
+	}
+	
+	private static void check(Result res) throws Response
+	{
+		ui.clearCache();
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+	}
+	
+	private static void bench(String name, Op op)
+	{
+		OtpBench.bench(name, null, op, null);
+	}
+	
+	/**
+	 * Runs and reports one benchmark. Only the operation op is measured, before
+	 * and after run unmeasured around each call and may be null.
+	 */
+	private static void bench(String name, Op before, Op op, Op after)
+	{
+		if (OtpBench.filter != null && !name.contains(OtpBench.filter))
+			return;
+		
+		try
+		{
+			long[] times = new long[OtpBench.iterations];
+			long bytes = 0;
+			for (int i = -OtpBench.warmup; i < OtpBench.iterations; i++)
+			{
+				if (before != null)
+					before.run();
+				long start = System.nanoTime();
+				bytes = op.run();
+				long time = System.nanoTime() - start;
+				if (after != null)
+					after.run();
+				if (i >= 0)
+					times[i] = time;
+			}
+			
+			Arrays.sort(times);
+			long median = times[times.length / 2];
+			String rate = bytes > 0 ? String.format("%.1f", bytes / (median / 1e9) / (1024 * 1024)) : "-";
+			System.out.println(String.format("%-40s %14d %14d %10s", name, median, times[0], rate));
+			OtpBench.results.add(String.format("{\"name\": \"%s\", \"median\": %d, \"min\": %d, \"bytes\": %d}", name,
+					median, times[0], bytes));
+		}
+		catch (Throwable e)
+		{
+			System.out.println(String.format("%-40s failed: %s", name, e.getMessage()));
+		}
+	}
+	
+	private static void writeJson(String filename) throws IOException
+	{
+		Writer w = new OutputStreamWriter(new FileOutputStream(filename), "UTF-8");
+		try
+		{
+			w.write("[\n");
+			int i = 0;
+			for (String r : OtpBench.results)
+				w.write("  " + r + (++i < OtpBench.results.size() ? ",\n" : "\n"));
+			w.write("]\n");
+		}
+		finally
+		{
+			w.close();
+		}
+	}
+	
+	private static void delete(File f)
+	{
+		File[] files = f.listFiles();
+		if (files != null)
+			for (File c : files)
+				OtpBench.delete(c);
+		f.delete();
+	}
+}
@@ -0,0 +1,174 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import otp.Rng;
+import otp.helpr.BlockAssignList;
+import otp.helpr.BlockPlan;
+import otp.helpr.ByteArray;
+import otp.impl.RealKeyRing;
+import otp.impl.RealOtp;
+import otp.impl.TestRng;
+import otp.impl.TestUi;
+import otp.response.Response;
+
+/**
+ * Checks pad addressing beyond 2 GB and 4 GB. A sparse 6 GB pad is created,
+ * key is written to blocks in front of, across and behind both limits and read
+ * back. Every block must land at its own offset of the pad file, not at an
+ * offset that wrapped around. Needs about 10 MB of disk space.
+ */
+public class OtpBigPadTest
+{
+	private final static String basePath = "/tmp/otpbig";
+	private final static String ringId = "44444440";
+	private final static long padSize = 6L * 1024 * 1024 * 1024;
+	private final static int blockSize = 1024 * 1024;
+	
+	// 2 GB = block 2048, 4 GB = block 4096; the second block of each list
+	// follows directly
+	private final static int[] blocks = { 10, 2047, 2100, 4095, 4200, 6000 };
+	
+	// key is written from the last 96 KB of the first block into the second
+	private final static int start = OtpBigPadTest.blockSize - 96 * 1024;
+	private final static int length = 128 * 1024;
+	
+	public static void main(String[] args)
+	{
+		TestUi ui = new TestUi(false, false, false);
+		Rng rng = new TestRng(4, 4711);
+		Response.setStackTraces(true);
+		
+		File dir = new File(OtpBigPadTest.basePath);
+		dir.mkdirs();
+		for (File f : dir.listFiles())
+			f.delete();
+		File pad = new File(dir, "big.pad");
+		
+		int errors = 0;
+		try
+		{
+			RandomAccessFile rf = new RandomAccessFile(pad, "rw");
+			rf.setLength(OtpBigPadTest.padSize);
+			rf.close();
+			
+			RealKeyRing keyring = OtpBigPadTest.ring(rng, ui);
+			keyring.overwritePath(pad.getPath());
+			keyring.createKey(OtpBigPadTest.padSize, OtpBigPadTest.blockSize, 1024 * 1024, 512 * 1024, 64, 128, 70, 32,
+					"big");
+			RealOtp otp = new RealOtp(keyring, rng, ui);
+			otp.createPad(0);
+			String key = ByteArray.toHex(keyring.getKeyId());
+			otp.finish(true);
+			keyring.finish(true);
+			
+			if (keyring.getOtpSize() != OtpBigPadTest.padSize)
+			{
+				System.err.println("ERROR pad size " + keyring.getOtpSize());
+				errors++;
+			}
+			
+			byte[] data = new byte[OtpBigPadTest.length];
+			Random r = new Random(1);
+			
+			for (int block : OtpBigPadTest.blocks)
+			{
+				r.nextBytes(data);
+				BlockAssignList list = new BlockAssignList(new BlockAssignList[0]);
+				list.addBlock(block);
+				list.addBlock(block + 1);
+				
+				keyring = OtpBigPadTest.ring(rng, ui);
+				keyring.selectKey(key);
+				keyring.initialize();
+				otp = new RealOtp(keyring, ui);
+				otp.initialize();
+				otp.setPosition(new BlockPlan(OtpBigPadTest.start, block, list));
+				otp.writeNext(data);
+				otp.finish(true);
+				keyring.finish(true);
+				
+				keyring = OtpBigPadTest.ring(rng, ui);
+				keyring.selectKey(key);
+				keyring.initialize();
+				otp = new RealOtp(keyring, ui);
+				otp.initialize();
+				otp.setPosition(new BlockPlan(OtpBigPadTest.start, block, list));
+				byte[] back = otp.next(data.length);
+				otp.finish(true);
+				keyring.finish(true);
+				
+				long offset = (long) block * OtpBigPadTest.blockSize;
+				long[] probes = { offset + OtpBigPadTest.start + 8192, offset + OtpBigPadTest.blockSize + 8192 };
+				boolean roundtrip = Arrays.equals(data, back);
+				boolean inPlace = true;
+				boolean wrapped = false;
+				for (long probe : probes)
+				{
+					inPlace &= OtpBigPadTest.written(pad, probe);
+					// 32 bit arithmetic would have written behind 4 GB at offset mod 4 GB
+					wrapped |= probe >= (1L << 32) && OtpBigPadTest.written(pad, probe & 0xffffffffL);
+				}
+				
+				System.out.println("block " + block + " at " + offset + ": roundtrip " + roundtrip + ", in place " +
+						inPlace + ", wrapped " + wrapped);
+				if (!roundtrip || !inPlace || wrapped)
+					errors++;
+			}
+		}
+		catch (Response e)
+		{
+			e.printStackTrace();
+			errors++;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			errors++;
+		}
+		finally
+		{
+			for (File f : dir.listFiles())
+				f.delete();
+		}
+		
+		System.out.println(errors == 0 ? "BIG PAD TEST PASSED" : "BIG PAD TEST FAILED: " + errors + " errors");
+		System.exit(errors == 0 ? 0 : 1);
+	}
+	
+	private static RealKeyRing ring(Rng rng, TestUi ui) throws Response
+	{
+		RealKeyRing keyring = new RealKeyRing(rng, ui);
+		keyring.setBasePath(OtpBigPadTest.basePath);
+		keyring.selectKeyRing(OtpBigPadTest.ringId);
+		return keyring;
+	}
+	
+	/**
+	 * Checks if the pad file holds anything but zeros at an offset. Offsets
+	 * behind the end of the file, or negative ones, hold nothing.
+	 */
+	private static boolean written(File pad, long offset) throws Exception
+	{
+		if (offset < 0 || offset + 4096 > pad.length())
+			return false;
+		
+		RandomAccessFile rf = new RandomAccessFile(pad, "r");
+		byte[] raw = new byte[4096];
+		try
+		{
+			rf.seek(offset);
+			rf.readFully(raw);
+		}
+		finally
+		{
+			rf.close();
+		}
+		
+		for (byte b : raw)
+			if (b != 0)
+				return true;
+		return false;
+	}
+}
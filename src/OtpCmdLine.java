@@ -1,4 +1,18 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
 import otp.Infile;
+import otp.Metrics;
 import otp.OtpWorker;
 import otp.Outfile;
 import otp.Result;
@@ -8,15 +22,20 @@ import otp.impl.ArmoredInfile;
 import otp.impl.ArmoredOutfile;
 import otp.impl.BaInfile;
 import otp.impl.CommandLineUI;
+import otp.impl.CtrDrbgRng;
+import otp.impl.DeflateCodec;
 import otp.impl.InfileRNG;
 import otp.impl.LocalInfile;
 import otp.impl.LocalOutfile;
+import otp.impl.MixingPoolRng;
+import otp.impl.OsRng;
 import otp.impl.PseudoRNG;
 import otp.impl.RealKeyRing;
 import otp.impl.RealOtp;
 import otp.impl.WegCarAuth;
 import otp.impl.stdInfile;
 import otp.impl.stdOutfile;
+import otp.response.InfileResponse;
 import otp.response.KeyringResponse;
 import otp.response.Response;
 import otp.response.RngResponse;
@@ -39,6 +58,11 @@ public class OtpCmdLine
 	static final int PARAM_PASSPHRASE = 9;
 	static final int PARAM_KEYFILE = 10;
 	static final int PARAM_PASSPHRASE_NUM = 11;
+	static final int PARAM_STATSFILE = 12;
+	static final int PARAM_BATCH = 13;
+	static final int PARAM_COMMIT = 14;
+	static final int PARAM_THREADS = 15;
+	static final int PARAM_RANGE = 16;
 	
 	public static void main(String[] args)
 	{
@@ -53,7 +77,19 @@ public class OtpCmdLine
 		String basepath = null;
 		String keyfile = null;
 		boolean armor = false;
+		boolean compress = false;
+		boolean framed = false;
 		boolean verbose = false;
+		boolean mixrng = false;
+		boolean drbg = false;
+		String rngfile = null;
+		boolean stats = false;
+		String statsfile = null;
+		List<String> batch = new LinkedList<String>();
+		int commitEvery = 0;
+		int threads = 1;
+		long rangeOffset = -1;
+		long rangeLength = -1;
 		int stdpassphrase = 0;
 		
 		int paramfollows = 0;
@@ -75,6 +111,16 @@ public class OtpCmdLine
 				action = 'e';
 				paramfollows = PARAM_INFILE;
 			}
+			else if (args[i].equals("--encrypt-batch"))
+			{
+				action = 'b';
+				paramfollows = PARAM_BATCH;
+			}
+			else if (args[i].equals("--decrypt-batch"))
+			{
+				action = 'c';
+				paramfollows = PARAM_BATCH;
+			}
 			else if (args[i].equals("--decrypt") || args[i].equals("-d"))
 			{
 				action = 'd';
@@ -145,6 +191,14 @@ public class OtpCmdLine
 			{
 				armor = true;
 			}
+			else if (args[i].equals("--compress") || args[i].equals("-z"))
+			{
+				compress = true;
+			}
+			else if (args[i].equals("--framed"))
+			{
+				framed = true;
+			}
 			else if (args[i].equals("--outfile") || args[i].equals("-o"))
 			{
 				paramfollows = PARAM_OUTFILE;
@@ -161,6 +215,14 @@ public class OtpCmdLine
 			{
 				paramfollows = PARAM_RNGFILE;
 			}
+			else if (args[i].equals("--mix-rng"))
+			{
+				mixrng = true;
+			}
+			else if (args[i].equals("--drbg"))
+			{
+				drbg = true;
+			}
 			else if (args[i].equals("--otplocation"))
 			{
 				paramfollows = PARAM_KEYPATH;
@@ -182,6 +244,27 @@ public class OtpCmdLine
 			{
 				ui.setVerbose();
 				verbose = true;
+				Response.setStackTraces(true);
+			}
+			else if (args[i].equals("--commit-every"))
+			{
+				paramfollows = PARAM_COMMIT;
+			}
+			else if (args[i].equals("--threads"))
+			{
+				paramfollows = PARAM_THREADS;
+			}
+			else if (args[i].equals("--range"))
+			{
+				paramfollows = PARAM_RANGE;
+			}
+			else if (args[i].equals("--stats"))
+			{
+				stats = true;
+			}
+			else if (args[i].equals("--stats-json"))
+			{
+				paramfollows = PARAM_STATSFILE;
 			}
 			else if (args[i].equals("--quiet") || args[i].equals("-q"))
 			{
@@ -215,6 +298,7 @@ public class OtpCmdLine
 						break;
 					case PARAM_RNGFILE:
 						rng = new InfileRNG(args[i], rng, ui);
+						rngfile = args[i];
 						break;
 					case PARAM_RINGID:
 						ringid = args[i];
@@ -245,6 +329,53 @@ public class OtpCmdLine
 					case PARAM_KEYFILE:
 						keyfile = args[i];
 						break;
+					case PARAM_STATSFILE:
+						statsfile = args[i];
+						break;
+					case PARAM_BATCH:
+						batch.add(args[i]);
+						paramfollows = PARAM_BATCH;
+						break;
+					case PARAM_COMMIT:
+						try
+						{
+							commitEvery = Integer.parseInt(args[i]);
+						}
+						catch (NumberFormatException e)
+						{
+							ui.warningMessage("Invalid command detectet. Use --help to see a list of valid commands.");
+							System.exit(254);
+						}
+						break;
+					case PARAM_THREADS:
+						try
+						{
+							threads = Math.max(1, Integer.parseInt(args[i]));
+						}
+						catch (NumberFormatException e)
+						{
+							ui.warningMessage("Invalid command detectet. Use --help to see a list of valid commands.");
+							System.exit(254);
+						}
+						break;
+					case PARAM_RANGE:
+						int sep = args[i].indexOf(':');
+						try
+						{
+							if (sep < 0)
+								rangeOffset = Long.parseLong(args[i]);
+							else
+							{
+								rangeOffset = Long.parseLong(args[i].substring(0, sep));
+								rangeLength = Long.parseLong(args[i].substring(sep + 1));
+							}
+						}
+						catch (NumberFormatException e)
+						{
+							ui.warningMessage("Invalid command detectet. Use --help to see a list of valid commands.");
+							System.exit(254);
+						}
+						break;
 				}
 			}
 			else
@@ -265,6 +396,10 @@ public class OtpCmdLine
 			System.exit(255);
 		}
 		
+		// mix the selected rng with the system source and a DRBG
+		if (mixrng)
+			rng = new MixingPoolRng(new Rng[] { rng, new OsRng(), new CtrDrbgRng(null, null) }, ui);
+		
 		RealKeyRing keyring = new RealKeyRing(rng, ui);
 		
 		if (keypath != null)
@@ -280,6 +415,7 @@ public class OtpCmdLine
 		}
 		
 		Infile in;
+		Infile stdin = null;
 		Outfile out;
 		
 		if (input != null)
@@ -288,7 +424,9 @@ public class OtpCmdLine
 		}
 		else
 		{
-			in = new stdInfile();
+			// a spooled copy of the input stays next to the key rings
+			stdin = new stdInfile(basepath != null ? new File(basepath) : null);
+			in = stdin;
 		}
 		
 		if (output != null)
@@ -305,14 +443,29 @@ public class OtpCmdLine
 		switch (action)
 		{
 			case 'e': // encrypt
-				res = OtpCmdLine.encrypt(ui, keyring, keyid, in, out, armor, rng);
+				res = OtpCmdLine.encrypt(ui, keyring, keyid, in, out, armor, compress, framed, rng);
+				break;
+			
+			case 'b': // encrypt batch
+				res = OtpCmdLine.encryptBatch(ui, keyring, keyid, batch, output, armor, compress, framed, commitEvery,
+						threads, rng);
 				break;
 			
 			case 'd': // decrypt
 				if (keyid != null)
 					ui.message("Key-id given unnecessarily, will be ignored.");
 				
-				res = OtpCmdLine.decrypt(ui, keyring, in, out, rng);
+				if (rangeOffset >= 0)
+					res = OtpCmdLine.decryptRange(ui, keyring, in, out, rangeOffset, rangeLength);
+				else
+					res = OtpCmdLine.decrypt(ui, keyring, in, out, rng);
+				break;
+			
+			case 'c': // decrypt batch
+				if (keyid != null)
+					ui.message("Key-id given unnecessarily, will be ignored.");
+				
+				res = OtpCmdLine.decryptBatch(ui, keyring, batch, output, rng);
 				break;
 			
 			case 'm': // modify key
@@ -350,7 +503,25 @@ public class OtpCmdLine
 			case 'g': // generate key
 				if (keyid != null)
 					ui.message("Key-id given unnecessarily, will be ignored.");
-				res = OtpCmdLine.generateKey(ui, keyring, rng);
+				// the DRBG is only used on request, as its output has no more
+				// entropy than its seeds; a given random file is never replaced
+				Rng padRng = rng;
+				if (drbg && rngfile != null)
+					ui.warningMessage("--drbg ignored, the pad is taken from the random file");
+				else if (drbg && !mixrng)
+					padRng = new CtrDrbgRng(rng, ui);
+				
+				if (mixrng)
+					ui.message("Pad source: mixing pool of " + (rngfile != null ? "'" + rngfile + "', " : "") +
+							"system source and DRBG");
+				else if (rngfile != null)
+					ui.message("Pad source: random file '" + rngfile + "'");
+				else if (padRng != rng)
+					ui.message("Pad source: AES-CTR DRBG seeded from the system source (not a true one-time pad)");
+				else
+					ui.message("Pad source: system source");
+				
+				res = OtpCmdLine.generateKey(ui, keyring, padRng);
 				break;
 			
 			case 't': // delete key
@@ -393,6 +564,19 @@ public class OtpCmdLine
 		if (res == null)
 			res = new Result(new WorkResponse(0));
 		
+		// wipes a spooled copy of standard input
+		if (stdin != null)
+		{
+			InfileResponse closed = stdin.close();
+			if (!closed.getSuccess())
+				ui.warningMessage(closed.getMessage());
+		}
+		
+		if (stats)
+			System.err.print(res.getMetrics().toString());
+		if (statsfile != null)
+			OtpCmdLine.writeStats(ui, res.getMetrics(), statsfile);
+		
 		if (res.getSuccess())
 		{
 			int ex = res.getExitCode();
@@ -430,7 +614,7 @@ public class OtpCmdLine
 	}
 	
 	public static Result encrypt(UserInterface ui, RealKeyRing keyring, String key, Infile in, Outfile out,
-			boolean armor, Rng rng)
+			boolean armor, boolean compress, boolean framed, Rng rng)
 	{
 		Result res;
 		ui.message("Encrypting...");
@@ -451,10 +635,284 @@ public class OtpCmdLine
 		RealOtp aotp = new RealOtp(keyring, ui);
 		WegCarAuth auth = new WegCarAuth(keyring, aotp);
 		Outfile out1 = armor ? new ArmoredOutfile(out) : out;
-		res = OtpWorker.encrypt(keyring, in, out1, eotp, aotp, auth, rng, ui);
+		DeflateCodec codec = compress ? new DeflateCodec() : null;
+		res = OtpWorker.encrypt(keyring, in, out1, eotp, aotp, auth, codec, framed, rng, ui);
+		return res;
+	}
+	
+	public static Result encryptBatch(UserInterface ui, RealKeyRing keyring, String key, List<String> inputs,
+			String outdir, boolean armor, boolean compress, boolean framed, int commitEvery, int threads, Rng rng)
+	{
+		ui.message("Encrypting...");
+		
+		if (!keyring.selectKey(key))
+		{
+			ui.warningMessage("Please use the '--key' parameter so specify the key id (as 8-digit hex number) or alias to be used!");
+			return new Result(new WorkResponse(0));
+		}
+		
+		List<File> files = new LinkedList<File>();
+		Result res = OtpCmdLine.expandInputs(ui, inputs, files);
+		if (res != null)
+			return res;
+		
+		Infile[] in = new Infile[files.size()];
+		Outfile[] out = new Outfile[files.size()];
+		int i = 0;
+		for (File f : files)
+		{
+			String name = f.getName() + (armor ? ".asc" : ".otp");
+			File o = outdir != null ? new File(outdir, name) : new File(f.getAbsoluteFile().getParentFile(), name);
+			in[i] = new LocalInfile(f.getPath());
+			out[i] = armor ? new ArmoredOutfile(new LocalOutfile(o.getPath(), ui)) : new LocalOutfile(o.getPath(), ui);
+			i++;
+		}
+		
+		// every thread gets its own Otps and rng, forked from one generator
+		// seeded by the selected rng, as the selected rng is not thread-safe
+		threads = Math.min(threads, files.size());
+		RealOtp[] eotp = new RealOtp[threads];
+		RealOtp[] aotp = new RealOtp[threads];
+		WegCarAuth[] auth = new WegCarAuth[threads];
+		DeflateCodec[] codecs = compress ? new DeflateCodec[threads] : null;
+		Rng[] rngs = new Rng[threads];
+		CtrDrbgRng parent = threads > 1 ? new CtrDrbgRng(rng, null) : null;
+		try
+		{
+			if (parent != null)
+				parent.initialize();
+			for (int t = 0; t < threads; t++)
+			{
+				eotp[t] = new RealOtp(keyring, ui);
+				aotp[t] = new RealOtp(keyring, ui);
+				auth[t] = new WegCarAuth(keyring, aotp[t]);
+				if (compress)
+					codecs[t] = new DeflateCodec();
+				rngs[t] = parent != null ? parent.fork() : rng;
+			}
+		}
+		catch (RngResponse e)
+		{
+			res = new Result(e);
+			if (parent != null)
+				res.add(parent.finish(false));
+			return res;
+		}
+		Result[] perMessage = new Result[files.size()];
+		res = OtpWorker.encryptBatch(keyring, in, out, eotp, aotp, auth, codecs, framed, rngs, ui, commitEvery,
+				perMessage);
+		// the forks are finished by the worker, the selected rng with the parent
+		if (parent != null)
+			res.add(parent.finish(res.getSuccess()));
+		
+		int done = 0;
+		i = 0;
+		for (File f : files)
+		{
+			if (perMessage[i] == null)
+				break;
+			if (perMessage[i].getSuccess())
+				done++;
+			else
+				ui.warningMessage(f.getPath() + ": " + perMessage[i].getErrors().get(0).getMessage());
+			i++;
+		}
+		ui.message(done + " of " + files.size() + " files encrypted.");
+		return res;
+	}
+	
+	public static Result decryptBatch(UserInterface ui, RealKeyRing keyring, List<String> inputs, String outdir,
+			Rng rng)
+	{
+		ui.message("Decrypting...");
+		
+		// stdin is read as a stream of concatenated armored messages
+		List<File> files = new LinkedList<File>();
+		boolean stdin = inputs.remove("-");
+		Result res = null;
+		if (!stdin || inputs.size() > 0)
+			res = OtpCmdLine.expandInputs(ui, inputs, files);
+		if (res != null)
+			return res;
+		
+		List<Infile> in = new LinkedList<Infile>();
+		List<String> names = new LinkedList<String>();
+		
+		Infile std = null;
+		if (stdin)
+		{
+			std = new stdInfile();
+			OtpCmdLine.splitArmored(std, new File(outdir != null ? outdir : ".", "message"), in, names);
+		}
+		
+		for (File f : files)
+		{
+			String name = f.getName();
+			if (name.endsWith(".otp") || name.endsWith(".asc"))
+				name = name.substring(0, name.length() - 4);
+			else
+				name = name + ".out";
+			File o = outdir != null ? new File(outdir, name) : new File(f.getAbsoluteFile().getParentFile(), name);
+			
+			if (OtpCmdLine.isBinaryMessage(f))
+			{
+				in.add(new LocalInfile(f.getPath()));
+				names.add(o.getPath());
+			}
+			else
+				OtpCmdLine.splitArmored(new LocalInfile(f.getPath()), o, in, names);
+		}
+		
+		Outfile[] out = new Outfile[names.size()];
+		int i = 0;
+		for (String name : names)
+			out[i++] = new LocalOutfile(name, ui);
+		
+		RealOtp eotp = new RealOtp(keyring, ui);
+		RealOtp aotp = new RealOtp(keyring, ui);
+		WegCarAuth auth = new WegCarAuth(keyring, aotp);
+		Result[] perMessage = new Result[names.size()];
+		res = OtpWorker.decryptBatch(keyring, in.toArray(new Infile[0]), out, eotp, aotp, auth, new DeflateCodec(),
+				rng, ui, perMessage);
+		if (std != null)
+			std.close();
+		
+		int done = 0;
+		i = 0;
+		for (String name : names)
+		{
+			if (perMessage[i] != null && perMessage[i].getSuccess())
+				done++;
+			else if (perMessage[i] != null)
+				ui.warningMessage(name + ": " + perMessage[i].getErrors().get(0).getMessage());
+			i++;
+		}
+		ui.message(done + " of " + names.size() + " messages decrypted.");
 		return res;
 	}
 	
+	/**
+	 * Expands directories and list files (@file) into single files.
+	 * 
+	 * @return null if successful, otherwise the Result to be returned
+	 */
+	private static Result expandInputs(UserInterface ui, List<String> inputs, List<File> files)
+	{
+		for (String s : inputs)
+		{
+			if (s.startsWith("@"))
+			{
+				try
+				{
+					BufferedReader br = new BufferedReader(new FileReader(s.substring(1)));
+					try
+					{
+						String line;
+						while ((line = br.readLine()) != null)
+						{
+							line = line.trim();
+							if (line.length() > 0 && !line.startsWith("#"))
+								files.add(new File(line));
+						}
+					}
+					finally
+					{
+						br.close();
+					}
+				}
+				catch (IOException e)
+				{
+					ui.warningMessage("Could not read list file " + s.substring(1));
+					return new Result(new WorkResponse(17, e));
+				}
+			}
+			else if (new File(s).isDirectory())
+			{
+				File[] list = new File(s).listFiles();
+				Arrays.sort(list);
+				for (File f : list)
+					if (f.isFile())
+						files.add(f);
+			}
+			else
+				files.add(new File(s));
+		}
+		
+		if (files.size() == 0)
+		{
+			ui.warningMessage("Please enter the input file names!");
+			return new Result(new WorkResponse(0));
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks if a file starts like a binary message (format version 2 or the
+	 * framed format 3).
+	 */
+	private static boolean isBinaryMessage(File f)
+	{
+		try
+		{
+			FileInputStream fis = new FileInputStream(f);
+			try
+			{
+				int format = fis.read();
+				return format == 2 || format == 3;
+			}
+			finally
+			{
+				fis.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// reported when the file is processed
+			return true;
+		}
+	}
+	
+	/**
+	 * Splits an input of one or more concatenated armored messages. Binary
+	 * messages can not be concatenated, their length is only known from the
+	 * end of the input.
+	 */
+	private static void splitArmored(Infile src, File out, List<Infile> in, List<String> names)
+	{
+		String begin = "-----BEGIN OTP MESSAGE-----";
+		int n = 0;
+		while (true)
+		{
+			BaInfile rest = new BaInfile(new byte[0]);
+			ArmoredInfile a = new ArmoredInfile(src, rest);
+			in.add(a);
+			names.add(n == 0 ? out.getPath() : out.getPath() + "-" + (n + 1));
+			n++;
+			
+			try
+			{
+				a.initialize();
+				rest.initialize();
+				if (!new String(rest.read((int) rest.getLength()), "US-ASCII").contains(begin))
+					break;
+			}
+			catch (InfileResponse e)
+			{
+				// reported when the message is processed
+				break;
+			}
+			catch (UnsupportedEncodingException e)
+			{
+				break;
+			}
+			src = rest;
+		}
+		
+		// the first message keeps the plain name if there is only one
+		if (n > 1)
+			names.set(names.size() - n, out.getPath() + "-1");
+	}
+	
 	public static Result syncReq(UserInterface ui, RealKeyRing keyring, String key, Outfile out, boolean armor, Rng rng)
 	{
 		Result res = null;
@@ -508,14 +966,37 @@ public class OtpCmdLine
 			return new Result(new WorkResponse(0));
 		}
 		
-		ui.message("Verifying...");
-		
 		Infile in2 = in;
 		RealOtp eotp = new RealOtp(keyring, ui);
 		RealOtp aotp = new RealOtp(keyring, ui);
 		WegCarAuth auth = new WegCarAuth(keyring, aotp);
 		boolean[] msginfo = new boolean[2];
 		
+		// messages in format 3 are verified frame by frame while they are
+		// decrypted, without a separate pass
+		int format = -1;
+		try
+		{
+			format = OtpWorker.messageFormat(in);
+			if (format != 2 && format != 3)
+			{
+				in2 = new ArmoredInfile(in);
+				format = OtpWorker.messageFormat(in2);
+			}
+		}
+		catch (InfileResponse e)
+		{
+			in2 = in;
+		}
+		
+		if (format == 3)
+		{
+			ui.message("Decrypting...");
+			return OtpWorker.decrypt(keyring, in2, out, eotp, aotp, auth, new DeflateCodec(), rng, ui, true);
+		}
+		
+		ui.message("Verifying...");
+		
 		res = OtpWorker.verify(keyring, in2, aotp, auth, rng, ui, msginfo);
 		
 		if (!res.getSuccess())
@@ -536,9 +1017,43 @@ public class OtpCmdLine
 		if (res.getSuccess())
 		{
 			ui.message("Decrypting...");
-			res = OtpWorker.decrypt(keyring, in2, out, eotp, aotp, auth, rng, ui, msginfo[1]);
+			Metrics verifyMetrics = res.getMetrics();
+			res = OtpWorker.decrypt(keyring, in2, out, eotp, aotp, auth, new DeflateCodec(), rng, ui, msginfo[1]);
+			res.getMetrics().add(verifyMetrics);
+		}
+		
+		return res;
+	}
+	
+	public static Result decryptRange(UserInterface ui, RealKeyRing keyring, Infile in, Outfile out, long offset,
+			long length)
+	{
+		if (in == null)
+		{
+			ui.warningMessage("Please enter the input file name!");
+			return new Result(new WorkResponse(0));
+		}
+		
+		RealOtp eotp = new RealOtp(keyring, ui);
+		RealOtp aotp = new RealOtp(keyring, ui);
+		WegCarAuth auth = new WegCarAuth(keyring, aotp);
+		DeflateCodec codec = new DeflateCodec();
+		Result res = OtpWorker.decryptRange(keyring, in, out, eotp, aotp, auth, codec, ui, offset, length);
+		
+		boolean tryagain = false;
+		if (!res.getSuccess())
+		{
+			for (Response r : res.getErrors())
+			{
+				if (r instanceof WorkResponse && r.getErrorCode() == 1)
+					tryagain = true;
+			}
 		}
 		
+		if (tryagain)
+			res = OtpWorker.decryptRange(keyring, new ArmoredInfile(in), out, eotp, aotp, auth, codec, ui, offset,
+					length);
+		
 		return res;
 	}
 	
@@ -550,6 +1065,7 @@ public class OtpCmdLine
 		RealOtp eotp = new RealOtp(keyring, ui);
 		RealOtp aotp = new RealOtp(keyring, ui);
 		WegCarAuth auth = new WegCarAuth(keyring, aotp);
+		DeflateCodec codec = new DeflateCodec();
 		Result res = null;
 		boolean tryagain = false;
 		
@@ -557,7 +1073,7 @@ public class OtpCmdLine
 			tryagain = true;
 		else
 		{
-			res = OtpWorker.modifyKey(keyring, oldin, newin, eotp, aotp, auth, rng, ui);
+			res = OtpWorker.modifyKey(keyring, oldin, newin, eotp, aotp, auth, codec, rng, ui);
 			
 			if (!res.getSuccess())
 			{
@@ -580,7 +1096,7 @@ public class OtpCmdLine
 			else
 				oldin = new ArmoredInfile(oldin);
 			
-			res = OtpWorker.modifyKey(keyring, oldin, newin, eotp, aotp, auth, rng, ui);
+			res = OtpWorker.modifyKey(keyring, oldin, newin, eotp, aotp, auth, codec, rng, ui);
 		}
 		
 		return res;
@@ -631,8 +1147,8 @@ public class OtpCmdLine
 			int blocksize = (int) (padsize / blocks);
 			
 			// default window: 1MB, but max pad/16
-			long windowsize = Math.min(1024 * 1024, (int) (padsize / 16));
-			long warningsize = Math.min(2048 * 1024, (int) (padsize / 32));
+			long windowsize = Math.min(1024 * 1024, padsize / 16);
+			long warningsize = Math.min(2048 * 1024, padsize / 32);
 			
 			if (!ui.promptYN("Use key parameter default values? ", true))
 			{
@@ -719,7 +1235,8 @@ public class OtpCmdLine
 		{
 			ui.message("(1) Edit key ring passphrase");
 			ui.message("(2) Edit key alias");
-			Long menu = ui.promptNumber("Please choose task", null, 1L, 2L);
+			ui.message("(3) Enable / disable compact key-sync");
+			Long menu = ui.promptNumber("Please choose task", null, 1L, 3L);
 			
 			if (menu.intValue() == 1)
 			{
@@ -743,6 +1260,21 @@ public class OtpCmdLine
 				
 				success = true;
 			}
+			else if (menu.intValue() == 3)
+			{
+				rng.initialize();
+				keyring.initialize();
+				
+				// only a partner with a version reading types 6 and 7 may get them,
+				// it is enabled by itself as soon as the partner sends one
+				Boolean compact = ui.promptYN("Does the partner's version read compact key-sync containers?",
+						keyring.keyPartnerCompact());
+				
+				if (compact != null)
+					keyring.keySetPartnerCompact(compact);
+				
+				success = true;
+			}
 		}
 		catch (RngResponse e)
 		{
@@ -887,6 +1419,42 @@ public class OtpCmdLine
 		return res;
 	}
 	
+	/**
+	 * Writes the metrics of an operation as JSON file
+	 * 
+	 * @param ui
+	 * UserInterface for error messages
+	 * @param metrics
+	 * The metrics to be written
+	 * @param filename
+	 * Name of the file, will be overwritten
+	 */
+	public static void writeStats(UserInterface ui, Metrics metrics, String filename)
+	{
+		Writer w = null;
+		try
+		{
+			w = new OutputStreamWriter(new FileOutputStream(filename), "UTF-8");
+			w.write(metrics.toJson());
+		}
+		catch (IOException e)
+		{
+			ui.warningMessage("Statistics could not be written to " + filename);
+		}
+		finally
+		{
+			try
+			{
+				if (w != null)
+					w.close();
+			}
+			catch (IOException e)
+			{
+				ui.warningMessage("Statistics could not be written to " + filename);
+			}
+		}
+	}
+	
 	public static Result help(UserInterface ui)
 	{
 		String[] h = new String[] {
@@ -897,7 +1465,11 @@ public class OtpCmdLine
 				"",
 				"Commands: (exactly one has to be used)",
 				"-e, --encrypt <filename>	Encrypts the specified file",
+				"--encrypt-batch <file|dir|@list> ...	Encrypts every file to its own message",
+				"				(output next to the input or in the '--outfile' directory)",
 				"-d, --decrypt <filename>	Decrypts the specified file",
+				"--decrypt-batch <file|dir|@list|-> ...	Decrypts every message to its own file",
+				"				(armored files and stdin may contain several messages)",
 				// "-s, --sign <filename>	Signs the specified file",
 				// "-y, --verify <filename>  Verifies the specified file",
 				" (If no filename is given stdin is used by default)",
@@ -913,13 +1485,27 @@ public class OtpCmdLine
 				"--key-info <key-id>		Displays the key status page (combine with -v for details)", "",
 				"--list-keys			Lists all locally installed keys", "-h, --help			Display this help page", "",
 				"Options: (several may be combined)", "-a, --armor			Use ascii-armored output (for e-mail)",
+				"-z, --compress			Compress the message body, where that makes it smaller",
+				"--framed			Authenticate the message in frames (format 3), so the receiver",
+				"				only gets authenticated output, even when decrypting a stream",
 				"-o, --outfile <filename>	Write Output to 'filename' instead of stdout",
 				"-k, --key <key-id>		Use specfied key for encryption or export, as id or alias",
 				"-r, --ring <ring-id>		Specify key-ring id, may be 'new' for generated or imported keys",
-				"--otplocation <path/file.pad> 	Specify new OTP location",
+				"--otplocation <path/file.pad> 	Specify new OTP location, several files separated by '" +
+						File.pathSeparator + "'",
+				"				stripe a new pad across these files",
+				"--commit-every <num>		Store the key ring after every 'num' files of a batch",
+				"--threads <num>			Encrypt a batch with 'num' threads",
+				"--range <offset>[:<length>]	Decrypt only part of the message body (only authenticated",
+				"				for messages encrypted with --framed)",
 				"--rngfile <path/file>		Specify source file for random numbers",
+				"--mix-rng			Mix random numbers with system source and DRBG",
+				"--drbg				Generate the pad with a fast AES-CTR DRBG instead of the system",
+				"				source. Faster, but only as strong as AES",
 				"--basedir <path>		Change default location for keys and settings", "--passphrase <pwd>		Use given passphrase",
 				"--passphrase-stdin <num>	Read passphrase from stdin (before reading any other input)", "",
+				"--stats			Print timing and throughput of the operation",
+				"--stats-json <file>		Write timing and throughput as JSON to 'file'",
 				"-v, --verbose			Verbose status messages", "-q, --quiet			Less status messages",
 				"--yes / --no			Assume yes/no on confirmation questions", "", "" };
 		
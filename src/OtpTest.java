@@ -1,23 +1,32 @@
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.SecureRandom;
 import java.util.Arrays;
 
 import otp.Infile;
+import otp.KeyRing;
 import otp.Outfile;
 import otp.Result;
 import otp.Rng;
 import otp.UserInterface;
 import otp.helpr.BlockAssignList;
+import otp.helpr.BlockListCodec;
 import otp.helpr.BlockPlan;
 import otp.helpr.ByteArray;
+import otp.helpr.ByteArrayBuilder;
+import otp.helpr.FileLocks;
 import otp.impl.BaInfile;
 import otp.impl.BaOutfile;
+import otp.impl.CtrDrbgRng;
+import otp.impl.MixingPoolRng;
 import otp.impl.RealKeyRing;
 import otp.impl.RealOtp;
 import otp.impl.TestInfile;
 import otp.impl.TestOutfile;
 import otp.impl.TestRng;
 import otp.impl.TestUi;
+import otp.response.KeyringResponse;
 import otp.response.Response;
 import otp.response.WorkResponse;
 
@@ -28,10 +37,23 @@ public class OtpTest
 	{
 		
 		TestUi ui = new TestUi(false, false, false);
+		Response.setStackTraces(true);
 		
 		int start = (int) (Math.random() * 32000);
 		// int[] runs = new int[] {2216, 2220, 2224, 2233};
 		
+		// single checks, run once with the seed of the first test run
+		System.out.println("CHECKS WITH SEED " + start);
+		OtpTest.report("DRBG determinism", OtpTest.checkDrbg(start));
+		OtpTest.report("Mixing pool determinism and reseed", OtpTest.checkMixingPool(start, ui));
+		OtpTest.report("Reservations of concurrent writers", OtpTest.checkReservations(start, ui));
+		OtpTest.report("File lock timeout", OtpTest.checkFileLocks());
+		OtpTest.report("Ranges of format 2 and 3 messages", OtpTest.checkRanges(start));
+		OtpTest.report("Striped pads", OtpTest.checkStripes(start, ui));
+		OtpTest.report("Failed key modification", OtpTest.checkModifyKey(start, ui));
+		OtpTest.report("Compact key-sync", OtpTest.checkCompactSync(start, ui));
+		OtpTest.report("Compact block lists", OtpTest.checkBlockLists(start));
+		
 		for (int run = start; run < start + 64; run++)
 		// for (int run :runs)
 		{
@@ -46,62 +68,20 @@ public class OtpTest
 			int part = 0;
 			Result res;
 			
-			File f = new File("/tmp/keys.ini");
-			if (f.exists())
-				f.delete();
-			f = new File("/tmp/33333330.set");
-			if (f.exists())
-				f.delete();
-			f = new File("/tmp/33333331.set");
-			if (f.exists())
-				f.delete();
-			f = new File("/tmp/08090a0b.key");
-			if (f.exists())
-				f.delete();
-			f = new File("/tmp/08090a0b.pad");
-			if (f.exists())
-				f.delete();
-			f = new File("/tmp/otp0.pad");
-			if (f.exists())
-				f.delete();
-			f = new File("/tmp/otp1.pad");
-			if (f.exists())
-				f.delete();
+			File f;
 			
 			try
 			{
 				System.out.print("\n GENERATING: ");
-				// generate new key
-				keyring = new RealKeyRing(rng, ui);
-				keyring.selectKeyRing(rings[0]);
-				keyring.setBasePath("/tmp");
-				keyring.overwritePath("otp0.pad");
-				
-				res = OtpCmdLine.generateKey(ui, keyring, rng);
-				if (!res.getSuccess())
-					throw res.getErrors().get(0);
-				System.out.print(".");
-				
-				// export key
-				keyring = new RealKeyRing(rng, ui);
-				keyring.selectKeyRing(rings[0]);
-				keyring.setBasePath("/tmp");
-				
-				res = OtpCmdLine.exportKey(ui, keyring, key, "/tmp", rng);
-				if (!res.getSuccess())
-					throw res.getErrors().get(0);
-				System.out.print(".");
-				
-				// import key
-				keyring = new RealKeyRing(rng, ui);
-				keyring.selectKeyRing(rings[1]);
-				keyring.setBasePath("/tmp");
-				keyring.overwritePath("otp1.pad");
+				OtpTest.createKeys(rng, ui, key, rings);
 				
-				res = OtpCmdLine.importKey(ui, keyring, "/tmp/08090a0b.key", rng);
-				if (!res.getSuccess())
-					throw res.getErrors().get(0);
-				System.out.print(".");
+				// every other run sends compact key-syncs (types 6 and 7)
+				if (rng.nextInt(2) == 0)
+				{
+					System.out.print("compact ");
+					OtpTest.setPartnerCompact(rng, ui, rings[0], key, true);
+					OtpTest.setPartnerCompact(rng, ui, rings[1], key, true);
+				}
 				
 				System.out.print("\n SENDING (" + part + "): ");
 				int rate = 30 + rng.nextInt(50);
@@ -126,7 +106,8 @@ public class OtpTest
 						keyring.setBasePath("/tmp");
 						keyring.selectKeyRing(rings[part]);
 						
-						res = OtpCmdLine.encrypt(ui, keyring, key, inc, oute, rng.nextInt(100) < 50, rng);
+						res = OtpCmdLine.encrypt(ui, keyring, key, inc, oute, rng.nextInt(100) < 50, rng.nextInt(100) < 50,
+								rng.nextInt(100) < 50, rng);
 						if (!res.getSuccess())
 							throw res.getErrors().get(0);
 						send++;
@@ -371,6 +352,929 @@ public class OtpTest
 		}
 	}
 	
+	/**
+	 * Removes the files of earlier runs, creates a new key in the first ring and
+	 * imports it into the second one
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param key
+	 * @param rings
+	 * @throws Response
+	 */
+	public static void createKeys(Rng rng, UserInterface ui, String key, String[] rings) throws Response
+	{
+		OtpTest.createKeys(rng, ui, key, rings, new String[] { "otp0.pad", "otp1.pad" });
+	}
+	
+	/**
+	 * Removes the files of earlier runs, creates a new key in the first ring and
+	 * imports it into the second one
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param key
+	 * @param rings
+	 * @param pads
+	 * Pad files of both rings, the files of a striped pad separated by
+	 * File.pathSeparator
+	 * @throws Response
+	 */
+	public static void createKeys(Rng rng, UserInterface ui, String key, String[] rings, String[] pads)
+			throws Response
+	{
+		RealKeyRing keyring;
+		Result res;
+		
+		for (String pad : pads)
+			for (String stripe : pad.split(File.pathSeparator))
+				new File("/tmp/" + stripe).delete();
+		File f = new File("/tmp/keys.ini");
+		if (f.exists())
+			f.delete();
+		f = new File("/tmp/33333330.set");
+		if (f.exists())
+			f.delete();
+		f = new File("/tmp/33333331.set");
+		if (f.exists())
+			f.delete();
+		f = new File("/tmp/08090a0b.key");
+		if (f.exists())
+			f.delete();
+		f = new File("/tmp/08090a0b.pad");
+		if (f.exists())
+			f.delete();
+		f = new File("/tmp/otp0.pad");
+		if (f.exists())
+			f.delete();
+		f = new File("/tmp/otp1.pad");
+		if (f.exists())
+			f.delete();
+		
+		// generate new key
+		keyring = new RealKeyRing(rng, ui);
+		keyring.selectKeyRing(rings[0]);
+		keyring.setBasePath("/tmp");
+		keyring.overwritePath(pads[0]);
+		
+		res = OtpCmdLine.generateKey(ui, keyring, rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		System.out.print(".");
+		
+		// export key
+		keyring = new RealKeyRing(rng, ui);
+		keyring.selectKeyRing(rings[0]);
+		keyring.setBasePath("/tmp");
+		
+		res = OtpCmdLine.exportKey(ui, keyring, key, "/tmp", rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		System.out.print(".");
+		
+		// import key
+		keyring = new RealKeyRing(rng, ui);
+		keyring.selectKeyRing(rings[1]);
+		keyring.setBasePath("/tmp");
+		keyring.overwritePath(pads[1]);
+		
+		res = OtpCmdLine.importKey(ui, keyring, "/tmp/08090a0b.key", rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		System.out.print(".");
+	}
+	
+	/**
+	 * Prints the result of a single check
+	 * 
+	 * @param name
+	 * @param passed
+	 */
+	public static void report(String name, boolean passed)
+	{
+		System.out.println(" " + name + (passed ? " PASSED" : " FAILED"));
+	}
+	
+	/**
+	 * Two DRBGs with the same seeds have to produce the same output, across
+	 * reseeds and in forked generators. Another seed has to change it.
+	 * 
+	 * @param seed
+	 * @return True, if the check passed
+	 */
+	public static boolean checkDrbg(int seed)
+	{
+		try
+		{
+			byte[][] out = new byte[3][];
+			for (int i = 0; i < out.length; i++)
+			{
+				int s = i < 2 ? seed : seed + 1;
+				SecureRandom system = SecureRandom.getInstance("SHA1PRNG");
+				system.setSeed(s);
+				CtrDrbgRng drbg = new CtrDrbgRng(new TestRng(0, s), null);
+				drbg.setSystemSource(system);
+				drbg.setReseedInterval(64 * 1024);
+				drbg.initialize();
+				
+				// more than one request and several reseeds
+				out[i] = new byte[3 * 1024 * 1024 + 1024];
+				drbg.next(out[i], 0, 3 * 1024 * 1024);
+				drbg.fork().next(out[i], 3 * 1024 * 1024, 512);
+				drbg.reseed();
+				drbg.next(out[i], 3 * 1024 * 1024 + 512, 512);
+				drbg.finish(true);
+			}
+			return Arrays.equals(out[0], out[1]) && !Arrays.equals(out[0], out[2]);
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Two mixing pools with the same sources have to produce the same output.
+	 * A reseed has to discard the buffered rest of a mixed block, so the
+	 * following bytes are the ones after that block.
+	 * 
+	 * @param seed
+	 * @param ui
+	 * @return True, if the check passed
+	 */
+	public static boolean checkMixingPool(int seed, UserInterface ui)
+	{
+		try
+		{
+			byte[][] out = new byte[3][];
+			for (int i = 0; i < out.length; i++)
+			{
+				MixingPoolRng pool = new MixingPoolRng(new Rng[] { new TestRng(0, seed), new TestRng(0, seed + 1) },
+						ui);
+				pool.initialize();
+				
+				// the first request is mixed as one block of 4096 bytes
+				out[i] = new byte[300];
+				pool.next(out[i], 0, 100);
+				if (i < 2)
+					pool.reseed();
+				else
+					pool.next(new byte[4096 - 100]);
+				pool.next(out[i], 100, 200);
+				pool.finish(true);
+			}
+			return Arrays.equals(out[0], out[1]) && Arrays.equals(out[0], out[2]);
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Several rings on the same file reserve key areas at the same time, like
+	 * processes encrypting with one key. They merge the reservations of each
+	 * other, so none may overlap or get lost. A ring file replaced by one that
+	 * can not be merged has to be refused.
+	 * 
+	 * @param seed
+	 * @param ui
+	 * @return True, if the check passed
+	 */
+	public static boolean checkReservations(final int seed, UserInterface ui)
+	{
+		final String key = "08090a0b";
+		final String[] rings = new String[] { "33333330", "33333331" };
+		final int writers = 4;
+		final int reservations = 25;
+		final long[][] enc = new long[writers][reservations];
+		final long[][] auth = new long[writers][reservations];
+		final BlockPlan[][][] reserved = new BlockPlan[writers][reservations][];
+		final Response[] errors = new Response[writers];
+		
+		try
+		{
+			Rng rng = new TestRng(4, seed);
+			OtpTest.createKeys(rng, ui, key, rings);
+			
+			RealKeyRing keyring = OtpTest.openRing(rng, ui, rings[0], key);
+			BlockPlan eFirst = keyring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E);
+			BlockPlan aFirst = keyring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A);
+			// the window of the key has to take all reservations
+			final int eMax = (int) (keyring.remainingBytes(eFirst) / (writers * reservations));
+			final int aMax = (int) (keyring.remainingBytes(aFirst) / (writers * reservations));
+			keyring.finish(true);
+			
+			Thread[] threads = new Thread[writers];
+			for (int t = 0; t < writers; t++)
+			{
+				final int w = t;
+				threads[t] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							// every writer has its own rng and ui, they are not thread-safe
+							Rng own = new TestRng(0, seed + w);
+							RealKeyRing ring = OtpTest.openRing(own, new TestUi(false, false, false), rings[0], key);
+							for (int i = 0; i < reservations; i++)
+							{
+								enc[w][i] = own.nextInt(eMax) + 1;
+								auth[w][i] = own.nextInt(aMax) + 1;
+								reserved[w][i] = ring.reservePlans(enc[w][i], auth[w][i]);
+							}
+							ring.finish(true);
+						}
+						catch (Response r)
+						{
+							errors[w] = r;
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread t : threads)
+				t.join();
+			for (Response r : errors)
+				if (r != null)
+					throw r;
+			
+			// every area ends before the next one starts, and the plans stored at
+			// the end are behind all of them
+			keyring = OtpTest.openRing(rng, ui, rings[0], key);
+			boolean passed = true;
+			for (int type = 0; type < 2; type++)
+			{
+				long[][] size = type == 0 ? enc : auth;
+				BlockPlan first = type == 0 ? eFirst : aFirst;
+				int blockType = type == 0 ? KeyRing.BLOCKTYPE_E : KeyRing.BLOCKTYPE_A;
+				
+				long[][] areas = new long[writers * reservations][];
+				long total = 0;
+				for (int t = 0; t < writers; t++)
+					for (int i = 0; i < reservations; i++)
+					{
+						areas[t * reservations + i] = new long[] {
+								keyring.remainingBytes(first) - keyring.remainingBytes(reserved[t][i][type]),
+								size[t][i] };
+						total += size[t][i];
+					}
+				Arrays.sort(areas, new java.util.Comparator<long[]>()
+				{
+					@Override
+					public int compare(long[] a, long[] b)
+					{
+						return Long.compare(a[0], b[0]);
+					}
+				});
+				
+				long end = 0;
+				for (long[] area : areas)
+				{
+					passed &= area[0] >= end;
+					end = area[0] + area[1];
+				}
+				BlockPlan last = keyring.getCurrentPlan(KeyRing.PARTICIP_ME, blockType);
+				passed &= keyring.remainingBytes(first) - keyring.remainingBytes(last) == total;
+			}
+			
+			// the other ring has another salt, as after a new passphrase
+			byte[] other = OtpTest.readFile(new File("/tmp/" + rings[1] + ".set"));
+			RandomAccessFile rf = new RandomAccessFile("/tmp/" + rings[0] + ".set", "rw");
+			rf.setLength(0);
+			rf.write(other);
+			rf.close();
+			try
+			{
+				keyring.reservePlans(1, 1);
+				passed = false;
+			}
+			catch (KeyringResponse r)
+			{
+				passed &= r.getErrorCode() == 13;
+			}
+			keyring.finish(false);
+			passed &= Arrays.equals(other, OtpTest.readFile(new File("/tmp/" + rings[0] + ".set")));
+			return passed;
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * A lock held by someone else has to be waited for until the timeout, and
+	 * has to be taken as soon as it is released.
+	 * 
+	 * @return True, if the check passed
+	 */
+	public static boolean checkFileLocks()
+	{
+		try
+		{
+			File f = new File("/tmp/locks.tmp");
+			RandomAccessFile holder = new RandomAccessFile(f, "rw");
+			RandomAccessFile waiter = new RandomAccessFile(f, "rw");
+			boolean passed = true;
+			
+			final FileLock held = FileLocks.acquire(holder.getChannel(), false, 0);
+			passed &= held != null;
+			
+			long before = System.currentTimeMillis();
+			FileLock lock = FileLocks.acquire(waiter.getChannel(), false, 300);
+			long waited = System.currentTimeMillis() - before;
+			passed &= lock == null && waited >= 300 && waited < 3000;
+			
+			Thread release = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Thread.sleep(200);
+					}
+					catch (InterruptedException e)
+					{
+						// released early
+					}
+					FileLocks.release(held);
+				}
+			});
+			release.start();
+			before = System.currentTimeMillis();
+			lock = FileLocks.acquire(waiter.getChannel(), false, 10000);
+			waited = System.currentTimeMillis() - before;
+			release.join();
+			passed &= lock != null && waited >= 150 && waited < 3000;
+			
+			FileLocks.release(lock);
+			holder.close();
+			waiter.close();
+			f.delete();
+			return passed;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Decrypts random parts of messages in format 2 and 3, many of them across
+	 * the 64 KiB body containers or frames and the key blocks, and compares
+	 * them with the fully decrypted message.
+	 * 
+	 * @param seed
+	 * @return True, if the check passed
+	 */
+	public static boolean checkRanges(int seed)
+	{
+		String key = "08090a0b";
+		String[] rings = new String[] { "33333330", "33333331" };
+		Rng rng = new TestRng(4, seed);
+		// a key of 2 MB has blocks of 32 KiB and a window of 128 KiB
+		UserInterface ui = new TestUi(false, false, false)
+		{
+			@Override
+			public Long promptNumber(String prompt, Long def, Long min, Long max)
+			{
+				return 2L;
+			}
+		};
+		
+		try
+		{
+			OtpTest.createKeys(rng, ui, key, rings);
+			
+			boolean passed = true;
+			for (int m = 0; m < 8; m++)
+			{
+				// the participants take turns, so their windows move on
+				int sender = m & 1;
+				boolean framed = (m & 2) != 0;
+				boolean streamed = (m & 4) != 0;
+				boolean compress = rng.nextInt(2) == 0;
+				
+				// compressible in the first half, if compressed
+				final byte[] plain = rng.next(70 * 1024 + rng.nextInt(40 * 1024));
+				for (int i = 0; compress && i < plain.length / 2; i++)
+					plain[i] = (byte) (i % 251);
+				
+				// streamed messages are sent in body containers
+				Infile in = new BaInfile(plain);
+				if (streamed)
+					in = new BaInfile(plain)
+					{
+						@Override
+						public boolean isLengthKnown()
+						{
+							return false;
+						}
+					};
+				BaOutfile msg = new BaOutfile();
+				Result res = OtpCmdLine.encrypt(ui, OtpTest.selectRing(rng, ui, rings[sender]), key, in, msg, false,
+						compress, framed, rng);
+				if (!res.getSuccess())
+					throw res.getErrors().get(0);
+				
+				BaOutfile full = new BaOutfile();
+				res = OtpCmdLine.decrypt(ui, OtpTest.selectRing(rng, ui, rings[1 - sender]), new BaInfile(msg.getContent()),
+						full, rng);
+				if (!res.getSuccess())
+					throw res.getErrors().get(0);
+				passed &= Arrays.equals(plain, full.getContent());
+				
+				for (int i = 0; i < 12; i++)
+				{
+					long offset;
+					if (i % 2 == 0)
+						offset = rng.nextInt(plain.length);
+					else
+						offset = Math.max(0, (long) (1 + rng.nextInt(plain.length / 65536)) * 65536 - rng.nextInt(64));
+					long length = i % 4 == 3 ? -1 : rng.nextInt((int) (plain.length - offset) + 1);
+					long end = length < 0 ? plain.length : offset + length;
+					
+					BaOutfile part = new BaOutfile();
+					res = OtpCmdLine.decryptRange(ui, OtpTest.selectRing(rng, ui, rings[1 - sender]),
+							new BaInfile(msg.getContent()), part, offset, length);
+					if (!res.getSuccess()
+							|| !Arrays.equals(part.getContent(),
+									Arrays.copyOfRange(full.getContent(), (int) offset, (int) end)))
+					{
+						System.out.println(" range " + offset + ":" + length + " of message " + m + " differs");
+						passed = false;
+					}
+				}
+			}
+			return passed;
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Stripes the pad of one participant across three files and the one of the
+	 * other across two. Messages crossing several blocks, and so stripes, have
+	 * to be decrypted in both directions and both pads have to be equal. A
+	 * striped pad given with a missing file has to be refused.
+	 * 
+	 * @param seed
+	 * @param ui
+	 * @return True, if the check passed
+	 */
+	public static boolean checkStripes(int seed, UserInterface ui)
+	{
+		String key = "08090a0b";
+		String[] rings = new String[] { "33333330", "33333331" };
+		String sep = File.pathSeparator;
+		String[] pads = new String[] { "s0.pad" + sep + "s1.pad" + sep + "s2.pad", "t0.pad" + sep + "t1.pad" };
+		Rng rng = new TestRng(4, seed);
+		
+		try
+		{
+			OtpTest.createKeys(rng, ui, key, rings, pads);
+			
+			boolean passed = true;
+			for (int p = 0; p < pads.length; p++)
+				for (String stripe : pads[p].split(sep))
+					passed &= new File("/tmp/" + stripe).length() > 0;
+			
+			// blocks of this key have 16 KiB
+			for (int m = 0; m < 8; m++)
+			{
+				byte[] plain = rng.next(1 + rng.nextInt(m % 2 == 0 ? 1024 : 20 * 1024));
+				BaOutfile msg = new BaOutfile();
+				Result res = OtpCmdLine.encrypt(ui, OtpTest.selectRing(rng, ui, rings[m % 2]), key, new BaInfile(plain),
+						msg, false, false, rng.nextInt(2) == 0, rng);
+				if (!res.getSuccess())
+					throw res.getErrors().get(0);
+				
+				BaOutfile dec = new BaOutfile();
+				res = OtpCmdLine.decrypt(ui, OtpTest.selectRing(rng, ui, rings[1 - m % 2]), new BaInfile(msg.getContent()),
+						dec, rng);
+				if (!res.getSuccess())
+					throw res.getErrors().get(0);
+				passed &= Arrays.equals(plain, dec.getContent());
+			}
+			passed &= OtpTest.compareKeys(rng, ui, rings, key);
+			
+			RealKeyRing keyring = OtpTest.selectRing(rng, ui, rings[1]);
+			keyring.overwritePath("t0.pad");
+			Result res = OtpCmdLine.encrypt(ui, keyring, key, new BaInfile(new byte[10]), new BaOutfile(), false, false,
+					false, rng);
+			passed &= !res.getSuccess();
+			return passed;
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * A key modification of a message with a wrong MAC has to fail and leave
+	 * the pad as it was, although the MAC is only found after the key was
+	 * rewritten. The journal of an interrupted modification has to make the
+	 * key unusable until it is removed.
+	 * 
+	 * @param seed
+	 * @param ui
+	 * @return True, if the check passed
+	 */
+	public static boolean checkModifyKey(int seed, UserInterface ui)
+	{
+		String key = "08090a0b";
+		String[] rings = new String[] { "33333330", "33333331" };
+		File pad = new File("/tmp/otp1.pad");
+		Rng rng = new TestRng(4, seed);
+		
+		try
+		{
+			OtpTest.createKeys(rng, ui, key, rings);
+			
+			boolean passed = true;
+			for (int m = 0; m < 2; m++)
+			{
+				byte[] plain = rng.next(1000 + rng.nextInt(3000));
+				byte[] other = rng.next(1 + rng.nextInt(plain.length / 2));
+				BaOutfile msg = new BaOutfile();
+				Result res = OtpCmdLine.encrypt(ui, OtpTest.selectRing(rng, ui, rings[0]), key, new BaInfile(plain), msg,
+						false, false, m == 1, rng);
+				if (!res.getSuccess())
+					throw res.getErrors().get(0);
+				
+				// the last byte of the message belongs to its (last) MAC
+				byte[] before = OtpTest.readFile(pad);
+				byte[] bad = msg.getContent().clone();
+				bad[bad.length - 1] ^= 1;
+				res = OtpCmdLine.modifyKey(ui, OtpTest.selectRing(rng, ui, rings[1]), new BaInfile(bad), new BaInfile(
+						other), rng);
+				passed &= !res.getSuccess();
+				passed &= Arrays.equals(before, OtpTest.readFile(pad));
+				
+				res = OtpCmdLine.modifyKey(ui, OtpTest.selectRing(rng, ui, rings[1]), new BaInfile(msg.getContent()),
+						new BaInfile(other), rng);
+				passed &= res.getSuccess() && !Arrays.equals(before, OtpTest.readFile(pad));
+				
+				BaOutfile dec = new BaOutfile();
+				res = OtpCmdLine.decrypt(ui, OtpTest.selectRing(rng, ui, rings[1]), new BaInfile(msg.getContent()), dec,
+						rng);
+				passed &= res.getSuccess() && Arrays.equals(other, dec.getContent());
+			}
+			
+			File journal = new File("/tmp/otp0-" + key + ".jnl");
+			journal.createNewFile();
+			try
+			{
+				OtpTest.openRing(rng, ui, rings[1], key).finish(false);
+				passed = false;
+			}
+			catch (KeyringResponse r)
+			{
+				passed &= r.getErrorCode() == 14;
+			}
+			journal.delete();
+			OtpTest.openRing(rng, ui, rings[1], key).finish(false);
+			return passed;
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * With the partner marked as reading compact plans on both sides, messages
+	 * (key-sync type 6) and a sync-request answered by a sync-ack (type 7) have
+	 * to round-trip. A receiver that does not know it yet has to learn from
+	 * either type that its partner reads compact plans.
+	 * 
+	 * @param seed
+	 * @param ui
+	 * @return True, if the check passed
+	 */
+	public static boolean checkCompactSync(int seed, UserInterface ui)
+	{
+		String key = "08090a0b";
+		String[] rings = new String[] { "33333330", "33333331" };
+		Rng rng = new TestRng(4, seed);
+		
+		try
+		{
+			OtpTest.createKeys(rng, ui, key, rings);
+			OtpTest.setPartnerCompact(rng, ui, rings[0], key, true);
+			OtpTest.setPartnerCompact(rng, ui, rings[1], key, true);
+			
+			boolean passed = true;
+			for (int m = 0; m < 6; m++)
+				passed &= OtpTest.roundTrip(rng, ui, rings[m % 2], rings[1 - m % 2], key);
+			
+			passed &= OtpTest.syncRoundTrip(rng, ui, rings[1], rings[0], key);
+			for (int m = 0; m < 2; m++)
+				passed &= OtpTest.roundTrip(rng, ui, rings[m % 2], rings[1 - m % 2], key);
+			
+			// the receiver learns from a key-sync of type 6 ...
+			OtpTest.setPartnerCompact(rng, ui, rings[1], key, false);
+			passed &= OtpTest.roundTrip(rng, ui, rings[0], rings[1], key);
+			passed &= OtpTest.isPartnerCompact(rng, ui, rings[1], key);
+			
+			// ... and from a sync-ack of type 7
+			OtpTest.setPartnerCompact(rng, ui, rings[1], key, false);
+			passed &= OtpTest.syncRoundTrip(rng, ui, rings[1], rings[0], key);
+			passed &= OtpTest.isPartnerCompact(rng, ui, rings[1], key);
+			
+			passed &= OtpTest.roundTrip(rng, ui, rings[1], rings[0], key);
+			passed &= OtpTest.compareKeys(rng, ui, rings, key);
+			return passed;
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Block lists and plans encoded by BlockListCodec have to decode to what
+	 * was encoded: ascending, descending, mixed and empty lists and ids close
+	 * to Integer.MAX_VALUE. Truncated or extended encodings have to be
+	 * rejected.
+	 * 
+	 * @param seed
+	 * @return True, if the check passed
+	 */
+	public static boolean checkBlockLists(int seed)
+	{
+		Rng rng = new TestRng(4, seed);
+		int max = Integer.MAX_VALUE;
+		
+		try
+		{
+			int[] mixed = new int[200];
+			for (int i = 0; i < mixed.length; i++)
+				mixed[i] = rng.nextInt(1 << 20) * mixed.length + i; // no duplicates
+			
+			int[][] lists = new int[][] { {}, { 7 }, { 2, 3, 4, 5, 6, 12, 14, 16, 18, 21 },
+					{ 61, 60, 59, 58, 57, 50, 48, 47 }, mixed, { max - 6, max - 5, max - 4, max },
+					{ max, max - 1, 0, max - 2, 1, max - 3 } };
+			
+			boolean passed = true;
+			for (int[] blocks : lists)
+			{
+				// encoded between other bytes
+				int[] padded = new int[blocks.length + 2];
+				System.arraycopy(blocks, 0, padded, 1, blocks.length);
+				ByteArrayBuilder out = new ByteArrayBuilder();
+				BlockListCodec.encode(out, padded, 1, blocks.length);
+				byte[] encoded = out.toArray();
+				int[] pos = new int[] { 0 };
+				passed &= Arrays.equals(blocks, BlockListCodec.decode(encoded, pos)) && pos[0] == encoded.length;
+				
+				ByteArrayBuilder plain = new ByteArrayBuilder();
+				for (int b : blocks)
+					plain.addInt(b);
+				BlockAssignList list = new BlockAssignList(plain.toArray(), new BlockAssignList[0]);
+				byte[] compact = list.exportCompact();
+				passed &= Arrays.equals(list.exportList(), BlockAssignList.importCompact(compact,
+						new BlockAssignList[0]).exportList());
+				passed &= OtpTest.isRejected(Arrays.copyOf(compact, compact.length - 1));
+				passed &= OtpTest.isRejected(Arrays.copyOf(compact, compact.length + 1));
+				
+				int pointer = rng.nextInt(16 * 1024);
+				if (blocks.length == 0)
+				{
+					// a plan needs a current block
+					ByteArrayBuilder empty = new ByteArrayBuilder();
+					empty.addVarInt(pointer);
+					BlockListCodec.encode(empty, blocks, 0, 0);
+					try
+					{
+						BlockPlan.expandPlanCompact(empty.toArray());
+						passed = false;
+					}
+					catch (IllegalArgumentException e)
+					{
+					}
+					continue;
+				}
+				
+				BlockPlan from = new BlockPlan(pointer, blocks[0], list);
+				for (int p : new int[] { 0, blocks.length / 2, blocks.length - 1 })
+				{
+					BlockPlan plan = new BlockPlan(pointer, blocks[p], list);
+					passed &= Arrays.equals(plan.exportPlanComplete(), BlockPlan.expandPlanCompact(plan
+							.exportPlanCompact()));
+					passed &= Arrays.equals(plan.exportPlanBetween(from), BlockPlan.expandPlanBetweenCompact(plan
+							.exportPlanBetweenCompact(from)));
+				}
+			}
+			return passed;
+		}
+		catch (Response r)
+		{
+			r.printStackTrace();
+			return false;
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * @param compact
+	 * @return True, if the compact block list is refused as malformed
+	 */
+	public static boolean isRejected(byte[] compact)
+	{
+		try
+		{
+			BlockAssignList.importCompact(compact, new BlockAssignList[0]);
+			return false;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return true;
+		}
+	}
+	
+	/**
+	 * Sends a random message from one ring to the other
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param from
+	 * @param to
+	 * @param key
+	 * @return True, if the message decrypted to what was sent
+	 * @throws Response
+	 */
+	public static boolean roundTrip(Rng rng, UserInterface ui, String from, String to, String key) throws Response
+	{
+		byte[] plain = rng.next(1 + rng.nextInt(4096));
+		BaOutfile msg = new BaOutfile();
+		Result res = OtpCmdLine.encrypt(ui, OtpTest.selectRing(rng, ui, from), key, new BaInfile(plain), msg, false,
+				false, rng.nextInt(2) == 0, rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		
+		BaOutfile dec = new BaOutfile();
+		res = OtpCmdLine.decrypt(ui, OtpTest.selectRing(rng, ui, to), new BaInfile(msg.getContent()), dec, rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		return Arrays.equals(plain, dec.getContent());
+	}
+	
+	/**
+	 * Sends a sync-request and returns the sync-ack of the partner
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param from
+	 * Ring requesting the sync
+	 * @param to
+	 * @param key
+	 * @return True, if both messages were read
+	 * @throws Response
+	 */
+	public static boolean syncRoundTrip(Rng rng, UserInterface ui, String from, String to, String key) throws Response
+	{
+		BaOutfile req = new BaOutfile();
+		Result res = OtpCmdLine.syncReq(ui, OtpTest.selectRing(rng, ui, from), key, req, false, rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		
+		res = OtpCmdLine.decrypt(ui, OtpTest.selectRing(rng, ui, to), new BaInfile(req.getContent()), new BaOutfile(),
+				rng);
+		// the partner is asked to answer with a sync-ack
+		if (!res.getSuccess() && res.getErrors().get(0).getErrorCode() != 13)
+			throw res.getErrors().get(0);
+		
+		BaOutfile ack = new BaOutfile();
+		res = OtpCmdLine.syncAck(ui, OtpTest.selectRing(rng, ui, to), key, ack, false, rng);
+		if (!res.getSuccess())
+			throw res.getErrors().get(0);
+		
+		res = OtpCmdLine.decrypt(ui, OtpTest.selectRing(rng, ui, from), new BaInfile(ack.getContent()),
+				new BaOutfile(), rng);
+		return res.getSuccess();
+	}
+	
+	/**
+	 * Marks whether the partner of a ring reads compact plans
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param ringId
+	 * @param key
+	 * @param compact
+	 * @throws Response
+	 */
+	public static void setPartnerCompact(Rng rng, UserInterface ui, String ringId, String key, boolean compact)
+			throws Response
+	{
+		RealKeyRing keyring = OtpTest.openRing(rng, ui, ringId, key);
+		keyring.keySetPartnerCompact(compact);
+		keyring.finish(true);
+	}
+	
+	/**
+	 * @param rng
+	 * @param ui
+	 * @param ringId
+	 * @param key
+	 * @return True, if the partner of the ring is known to read compact plans
+	 * @throws Response
+	 */
+	public static boolean isPartnerCompact(Rng rng, UserInterface ui, String ringId, String key) throws Response
+	{
+		RealKeyRing keyring = OtpTest.openRing(rng, ui, ringId, key);
+		boolean compact = keyring.keyPartnerCompact();
+		keyring.finish(false);
+		return compact;
+	}
+	
+	/**
+	 * Creates a ring that is not initialized yet, as the commands expect it
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param ringId
+	 * @return The ring
+	 */
+	public static RealKeyRing selectRing(Rng rng, UserInterface ui, String ringId)
+	{
+		RealKeyRing keyring = new RealKeyRing(rng, ui);
+		keyring.setBasePath("/tmp");
+		keyring.selectKeyRing(ringId);
+		return keyring;
+	}
+	
+	/**
+	 * Opens a ring with a key selected
+	 * 
+	 * @param rng
+	 * @param ui
+	 * @param ringId
+	 * @param key
+	 * @return The initialized ring
+	 * @throws Response
+	 */
+	public static RealKeyRing openRing(Rng rng, UserInterface ui, String ringId, String key) throws Response
+	{
+		RealKeyRing keyring = new RealKeyRing(rng, ui);
+		keyring.setBasePath("/tmp");
+		keyring.selectKeyRing(ringId);
+		keyring.selectKey(key);
+		keyring.initialize();
+		return keyring;
+	}
+	
+	/**
+	 * Reads a whole file
+	 * 
+	 * @param f
+	 * @return The content
+	 * @throws Exception
+	 */
+	public static byte[] readFile(File f) throws Exception
+	{
+		RandomAccessFile rf = new RandomAccessFile(f, "r");
+		byte[] content = new byte[(int) rf.length()];
+		rf.readFully(content);
+		rf.close();
+		return content;
+	}
+	
 	/**
 	 * Can be used to verify both participants otps are equal
 	 * 
@@ -378,10 +1282,12 @@ public class OtpTest
 	 * @param ui
 	 * @param rings
 	 * @param keyId
+	 * @return True, if the otps are equal
 	 * @throws Response
 	 */
-	public static void compareKeys(Rng rng, UserInterface ui, String[] rings, String keyId) throws Response
+	public static boolean compareKeys(Rng rng, UserInterface ui, String[] rings, String keyId) throws Response
 	{
+		boolean equal = true;
 		
 		RealKeyRing keyring0 = new RealKeyRing(rng, ui);
 		RealKeyRing keyring1 = new RealKeyRing(rng, ui);
@@ -435,6 +1341,7 @@ public class OtpTest
 				otp1.next(in1);
 				if (!Arrays.equals(in0, in1))
 				{
+					equal = false;
 					System.err.println("ERROR " + read);
 					System.err.println(" otp0: " + ByteArray.toHex(in0, " "));
 					System.err.println(" otp1: " + ByteArray.toHex(in1, " "));
@@ -457,5 +1364,6 @@ public class OtpTest
 			keyring0.finish(true);
 			keyring1.finish(true);
 		}
+		return equal;
 	}
 }
@@ -1,5 +1,7 @@
 package otp;
 
+import java.nio.ByteBuffer;
+
 import otp.response.AuthResponse;
 
 public abstract class Authenticator
@@ -44,10 +46,45 @@ public abstract class Authenticator
 	 */
 	public void next(byte[] b) throws AuthResponse
 	{
-		for (byte b1 : b)
+		this.next(b, 0, b.length);
+	}
+	
+	/**
+	 * Takes a part of an array of bytes for authentication. Requires initialize()
+	 * to be called first.
+	 * 
+	 * @param b
+	 * The bytes to be authenticated
+	 * @param off
+	 * Position of the first byte to be authenticated
+	 * @param len
+	 * Number of bytes to be authenticated
+	 * @throws AuthResponse
+	 */
+	public void next(byte[] b, int off, int len) throws AuthResponse
+	{
+		for (int i = off; i < off + len; i++)
+			this.next(b[i]);
+	}
+	
+	/**
+	 * Takes the remaining bytes of a buffer for authentication. Requires
+	 * initialize() to be called first.
+	 * 
+	 * @param b
+	 * The bytes to be authenticated
+	 * @throws AuthResponse
+	 */
+	public void next(ByteBuffer b) throws AuthResponse
+	{
+		if (b.hasArray())
 		{
-			this.next(b1);
+			this.next(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
 		}
+		else
+			while (b.hasRemaining())
+				this.next(b.get());
 	}
 	
 	/**
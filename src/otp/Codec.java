@@ -0,0 +1,99 @@
+package otp;
+
+import otp.response.WorkResponse;
+
+/**
+ * Compresses the body of a message in chunks. Every chunk is compressed on its
+ * own, so it can be decoded without its predecessors. A codec instance must
+ * not be shared between threads.
+ */
+public abstract class Codec
+{
+	// after this many chunks in a row that did not get smaller, only every
+	// probeInterval-th chunk is tried again
+	private final static int incompressibleLimit = 4;
+	private final static int probeInterval = 16;
+	
+	private int misses = 0;
+	private int skipped = 0;
+	
+	/**
+	 * Returns the id that marks chunks of this codec in compressed containers
+	 * 
+	 * @return
+	 */
+	public abstract byte getId();
+	
+	/**
+	 * Compresses a chunk, unless it would not get smaller than limit. Input that
+	 * did not compress repeatedly is skipped without trying.
+	 * 
+	 * @param in
+	 * Plain chunk
+	 * @param off
+	 * @param len
+	 * @param out
+	 * Buffer for the compressed chunk, at least limit bytes
+	 * @param limit
+	 * Maximum length of the compressed chunk
+	 * @return Length of the compressed chunk, -1 if the chunk should be stored
+	 * uncompressed
+	 * @throws WorkResponse
+	 */
+	public int compress(byte[] in, int off, int len, byte[] out, int limit) throws WorkResponse
+	{
+		if (this.misses >= Codec.incompressibleLimit && ++this.skipped % Codec.probeInterval != 0)
+			return -1;
+		
+		int n = limit > 0 ? this.encode(in, off, len, out, limit) : -1;
+		this.misses = n < 0 ? this.misses + 1 : 0;
+		return n;
+	}
+	
+	/**
+	 * Compresses a chunk
+	 * 
+	 * @param in
+	 * @param off
+	 * @param len
+	 * @param out
+	 * @param limit
+	 * Maximum length of the compressed chunk
+	 * @return Length of the compressed chunk, -1 if it exceeds limit
+	 * @throws WorkResponse
+	 */
+	protected abstract int encode(byte[] in, int off, int len, byte[] out, int limit) throws WorkResponse;
+	
+	/**
+	 * Restores a compressed chunk
+	 * 
+	 * @param in
+	 * Compressed chunk
+	 * @param off
+	 * @param len
+	 * @param out
+	 * Buffer for the plain chunk
+	 * @param plainLen
+	 * Expected length of the plain chunk
+	 * @throws WorkResponse
+	 * If the chunk is corrupt or has a different length
+	 */
+	public abstract void decode(byte[] in, int off, int len, byte[] out, int plainLen) throws WorkResponse;
+	
+	/**
+	 * Forgets the compressibility of previous input, called for every message.
+	 */
+	public void reset()
+	{
+		this.misses = 0;
+		this.skipped = 0;
+	}
+	
+	/**
+	 * Releases the resources of the codec
+	 * 
+	 * @param success
+	 * @return
+	 */
+	public abstract WorkResponse finish(boolean success);
+}
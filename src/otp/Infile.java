@@ -1,5 +1,7 @@
 package otp;
 
+import java.nio.ByteBuffer;
+
 import otp.response.InfileResponse;
 
 public abstract class Infile
@@ -32,8 +34,7 @@ public abstract class Infile
 	public byte[] read(int numBytes) throws InfileResponse
 	{
 		byte[] res = new byte[numBytes];
-		for (int i = 0; i < numBytes; i++)
-			res[i] = this.read();
+		this.read(res);
 		return res;
 	}
 	
@@ -47,8 +48,102 @@ public abstract class Infile
 	 */
 	public void read(byte[] b) throws InfileResponse
 	{
-		for (int i = 0; i < b.length; i++)
+		this.read(b, 0, b.length);
+	}
+	
+	/**
+	 * Fills a part of a given array with bytes read from the input stream. Needs
+	 * to be initialized first.
+	 * 
+	 * @param b
+	 * The bytearray to be filled.
+	 * @param off
+	 * Position of the first byte to be filled
+	 * @param len
+	 * Number of bytes to be read
+	 * @throws InfileResponse
+	 */
+	public void read(byte[] b, int off, int len) throws InfileResponse
+	{
+		for (int i = off; i < off + len; i++)
+			b[i] = this.read();
+	}
+	
+	/**
+	 * Fills the remaining space of the given buffer with bytes read from the input
+	 * stream. Needs to be initialized first.
+	 * 
+	 * @param b
+	 * The buffer to be filled.
+	 * @throws InfileResponse
+	 */
+	public void read(ByteBuffer b) throws InfileResponse
+	{
+		if (b.hasArray())
+		{
+			this.read(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
+		}
+		else
+			while (b.hasRemaining())
+				b.put(this.read());
+	}
+	
+	/**
+	 * Skips a number of bytes of the input stream. Needs to be initialized first.
+	 * 
+	 * @param count
+	 * Number of bytes to be skipped
+	 * @throws InfileResponse
+	 */
+	public void skip(long count) throws InfileResponse
+	{
+		byte[] discard = new byte[(int) Math.min(count, 64 * 1024)];
+		while (count > 0)
+		{
+			int n = (int) Math.min(count, discard.length);
+			this.read(discard, 0, n);
+			count -= n;
+		}
+	}
+	
+	/**
+	 * Reads up to len bytes from the input stream into the given array, but at
+	 * least one byte, unless the end of the input stream is reached. Unlike
+	 * read(byte[]), this does not wait for more data than is available. Needs to
+	 * be initialized first.
+	 * 
+	 * @param b
+	 * The bytearray to be filled.
+	 * @param off
+	 * Position of the first byte to be filled
+	 * @param len
+	 * Maximal number of bytes to be read
+	 * @return Number of bytes read, or -1 at the end of the input stream
+	 * @throws InfileResponse
+	 */
+	public int readAvailable(byte[] b, int off, int len) throws InfileResponse
+	{
+		long remaining = this.getRemainingLength();
+		if (remaining <= 0)
+			return -1;
+		
+		int num = (int) Math.min(remaining, len);
+		for (int i = off; i < off + num; i++)
 			b[i] = this.read();
+		return num;
+	}
+	
+	/**
+	 * Returns true, if the length of the input is known without reading the input
+	 * completely. For streams that return false, getLength() has to buffer the
+	 * whole input first and should only be called if the length is truly needed.
+	 * 
+	 * @return True, if getLength() is cheap
+	 */
+	public boolean isLengthKnown()
+	{
+		return true;
 	}
 	
 	/**
@@ -76,4 +171,15 @@ public abstract class Infile
 	 */
 	public abstract InfileResponse finish(boolean success);
 	
+	/**
+	 * Releases everything kept for another pass over the input, like temporary
+	 * copies of it. The input can not be initialized again afterwards.
+	 * 
+	 * @return The result of the operation
+	 */
+	public InfileResponse close()
+	{
+		return new InfileResponse(true);
+	}
+	
 }
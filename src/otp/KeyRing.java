@@ -1,5 +1,7 @@
 package otp;
 
+import java.io.File;
+
 import otp.helpr.BlockPlan;
 import otp.response.KeyringResponse;
 
@@ -169,6 +171,24 @@ public abstract class KeyRing
 	public abstract boolean[] verifyMessage(byte[] hash, BlockPlan eStart, BlockPlan eEnd, BlockPlan aStart,
 			BlockPlan aEnd) throws KeyringResponse;
 	
+	/**
+	 * Checks if the OTP areas of a message were used by a message before,
+	 * without recording anything.
+	 * 
+	 * @param eStart
+	 * Blockplan describing the start of the encryption
+	 * @param eEnd
+	 * Blockplan describing the end of the encryption
+	 * @param aStart
+	 * Blockplan describing the start of the authentication
+	 * @param aEnd
+	 * Blockplan describing the end of the authentication
+	 * @return true if any of the areas was used
+	 * @throws KeyringResponse
+	 */
+	public abstract boolean isAreaUsed(BlockPlan eStart, BlockPlan eEnd, BlockPlan aStart, BlockPlan aEnd)
+			throws KeyringResponse;
+	
 	/**
 	 * Checks if key is marked in sync.
 	 * 
@@ -186,6 +206,23 @@ public abstract class KeyRing
 	 */
 	public abstract void keySetSync(boolean inSync) throws KeyringResponse;
 	
+	/**
+	 * Checks if the partner is known to read compact key-sync containers (types 6
+	 * and 7). Older versions only read the 4 byte block lists of types 3 and 5.
+	 * 
+	 * @return
+	 * @throws KeyringResponse
+	 */
+	public abstract boolean keyPartnerCompact() throws KeyringResponse;
+	
+	/**
+	 * Records if the partner reads compact key-sync containers
+	 * 
+	 * @param compact
+	 * @throws KeyringResponse
+	 */
+	public abstract void keySetPartnerCompact(boolean compact) throws KeyringResponse;
+	
 	/**
 	 * Returns the last known positions from a partner, if their key is suspected
 	 * out of sync
@@ -204,6 +241,49 @@ public abstract class KeyRing
 	 */
 	public abstract void keySetPartnerSync(BlockPlan[] partnerPlans) throws KeyringResponse;
 	
+	/**
+	 * Reserves key areas for a message of known size. The current own plans are
+	 * returned as start positions and moved behind the reserved areas at once,
+	 * so the next reservation or message starts after them. Implementations
+	 * have to be thread safe for this method and the ones used while
+	 * encrypting, and have to store the reservation before returning unless the
+	 * key ring is locked.
+	 * 
+	 * @param encBytes
+	 * Number of encryption key bytes to be reserved
+	 * @param authBytes
+	 * Number of authentication key bytes to be reserved
+	 * @return The start plans, [0] for encryption and [1] for authentication
+	 * @throws KeyringResponse
+	 */
+	public abstract BlockPlan[] reservePlans(long encBytes, long authBytes) throws KeyringResponse;
+	
+	/**
+	 * Stores all key values without closing the settings file, e.g. between
+	 * the messages of a batch. The key ring stays initialized.
+	 * 
+	 * @throws KeyringResponse
+	 */
+	public abstract void commit() throws KeyringResponse;
+	
+	/**
+	 * Locks the key ring against changes by other processes until finish is
+	 * called, e.g. while a message of unknown length is encrypted. Changes
+	 * stored by others before are taken over first.
+	 * 
+	 * @throws KeyringResponse
+	 */
+	public abstract void lockExclusive() throws KeyringResponse;
+	
+	/**
+	 * Returns the directory of the key ring settings file, e.g. for temporary
+	 * files holding key material
+	 * 
+	 * @return The directory
+	 * @throws KeyringResponse
+	 */
+	public abstract File getDirectory() throws KeyringResponse;
+	
 	/**
 	 * Initialized and the calling operation finished successfully stores all key
 	 * values and closes the settings file. Otherwise only closes settings file.
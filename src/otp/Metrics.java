@@ -0,0 +1,248 @@
+package otp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects timing, byte and allocation counters for the stages of an
+ * operation. Every Result carries one, the workers fill it and OtpCmdLine
+ * prints or exports it on request. Stages may be entered many times, the
+ * values are summed up. A stage must not be entered again before it was left.
+ */
+public class Metrics
+{
+	public static final String STAGE_TOTAL = "total";
+	public static final String STAGE_SETUP = "setup";
+	public static final String STAGE_RING_LOAD = "ring-load";
+	public static final String STAGE_PAD_INIT = "pad-init";
+	public static final String STAGE_READ = "read";
+	public static final String STAGE_PAD = "pad";
+	public static final String STAGE_XOR = "xor";
+	public static final String STAGE_CODEC = "codec";
+	public static final String STAGE_MAC = "mac";
+	public static final String STAGE_WRITE = "write";
+	public static final String STAGE_RING_UPDATE = "ring-update";
+	public static final String STAGE_RING_SAVE = "ring-save";
+	public static final String STAGE_FINISH = "finish";
+	
+	private static ThreadMXBean threads = null;
+	private static boolean allocationSupported = false;
+	
+	private Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+	
+	static
+	{
+		try
+		{
+			ThreadMXBean t = ManagementFactory.getThreadMXBean();
+			if (t instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) t).isThreadAllocatedMemorySupported())
+			{
+				((com.sun.management.ThreadMXBean) t).setThreadAllocatedMemoryEnabled(true);
+				Metrics.threads = t;
+				Metrics.allocationSupported = true;
+			}
+		}
+		catch (Throwable e)
+		{
+			// allocation is not counted on this platform
+		}
+	}
+	
+	/**
+	 * Enters a stage.
+	 * 
+	 * @param stage
+	 * Name of the stage, one of the STAGE constants or any other name
+	 */
+	public void begin(String stage)
+	{
+		Stage s = this.stages.get(stage);
+		if (s == null)
+		{
+			s = new Stage();
+			this.stages.put(stage, s);
+		}
+		s.allocStart = Metrics.allocated();
+		s.start = System.nanoTime();
+	}
+	
+	/**
+	 * Leaves a stage.
+	 * 
+	 * @param stage
+	 * Name of the stage
+	 */
+	public void end(String stage)
+	{
+		this.end(stage, 0);
+	}
+	
+	/**
+	 * Leaves a stage and counts the bytes processed in it.
+	 * 
+	 * @param stage
+	 * Name of the stage
+	 * @param bytes
+	 * Number of bytes processed since the stage was entered
+	 */
+	public void end(String stage, long bytes)
+	{
+		long now = System.nanoTime();
+		Stage s = this.stages.get(stage);
+		if (s == null || s.start == 0)
+			return;
+		
+		s.nanos += now - s.start;
+		s.start = 0;
+		s.bytes += bytes;
+		s.calls++;
+		if (Metrics.allocationSupported)
+			s.allocated += Metrics.allocated() - s.allocStart;
+	}
+	
+	/**
+	 * Adds the values of other metrics to this one, e.g. of a preceding
+	 * operation.
+	 * 
+	 * @param other
+	 * The metrics to be added
+	 */
+	public void add(Metrics other)
+	{
+		if (other == null)
+			return;
+		
+		for (Map.Entry<String, Stage> e : other.stages.entrySet())
+		{
+			Stage s = this.stages.get(e.getKey());
+			if (s == null)
+			{
+				s = new Stage();
+				this.stages.put(e.getKey(), s);
+			}
+			s.nanos += e.getValue().nanos;
+			s.bytes += e.getValue().bytes;
+			s.calls += e.getValue().calls;
+			s.allocated += e.getValue().allocated;
+		}
+	}
+	
+	/**
+	 * Returns the time spent in a stage.
+	 * 
+	 * @param stage
+	 * Name of the stage
+	 * @return Time in nanoseconds
+	 */
+	public long getNanos(String stage)
+	{
+		Stage s = this.stages.get(stage);
+		return s == null ? 0 : s.nanos;
+	}
+	
+	/**
+	 * Returns the bytes processed in a stage.
+	 * 
+	 * @param stage
+	 * Name of the stage
+	 * @return Number of bytes
+	 */
+	public long getBytes(String stage)
+	{
+		Stage s = this.stages.get(stage);
+		return s == null ? 0 : s.bytes;
+	}
+	
+	/**
+	 * Returns the number of times a stage was entered.
+	 * 
+	 * @param stage
+	 * Name of the stage
+	 * @return Number of calls
+	 */
+	public long getCalls(String stage)
+	{
+		Stage s = this.stages.get(stage);
+		return s == null ? 0 : s.calls;
+	}
+	
+	/**
+	 * Returns the bytes allocated by the thread while in a stage.
+	 * 
+	 * @param stage
+	 * Name of the stage
+	 * @return Number of bytes, -1 if not supported by the platform
+	 */
+	public long getAllocated(String stage)
+	{
+		if (!Metrics.allocationSupported)
+			return -1;
+		Stage s = this.stages.get(stage);
+		return s == null ? 0 : s.allocated;
+	}
+	
+	/**
+	 * Returns a readable table of all stages.
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-12s %8s %10s %14s %10s %14s%n", "stage", "calls", "ms", "bytes", "MB/s", "allocated"));
+		for (Map.Entry<String, Stage> e : this.stages.entrySet())
+		{
+			Stage s = e.getValue();
+			double ms = s.nanos / 1e6;
+			String rate = (s.bytes > 0 && s.nanos > 0) ? String.format("%.1f", s.bytes / (s.nanos / 1e9) / (1024 * 1024))
+					: "-";
+			sb.append(String.format("%-12s %8d %10.2f %14d %10s %14s%n", e.getKey(), s.calls, ms, s.bytes, rate,
+					Metrics.allocationSupported ? Long.toString(s.allocated) : "-"));
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns all stages as JSON object, one member per stage.
+	 * 
+	 * @return The JSON text
+	 */
+	public String toJson()
+	{
+		StringBuilder sb = new StringBuilder("{");
+		boolean first = true;
+		for (Map.Entry<String, Stage> e : this.stages.entrySet())
+		{
+			Stage s = e.getValue();
+			if (!first)
+				sb.append(',');
+			first = false;
+			sb.append("\n  \"").append(e.getKey()).append("\": {\"calls\": ").append(s.calls);
+			sb.append(", \"nanos\": ").append(s.nanos);
+			sb.append(", \"bytes\": ").append(s.bytes);
+			sb.append(", \"allocated\": ").append(Metrics.allocationSupported ? s.allocated : -1).append('}');
+		}
+		sb.append("\n}\n");
+		return sb.toString();
+	}
+	
+	private static long allocated()
+	{
+		if (!Metrics.allocationSupported)
+			return 0;
+		return ((com.sun.management.ThreadMXBean) Metrics.threads).getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+	
+	private static class Stage
+	{
+		private long start = 0;
+		private long allocStart = 0;
+		private long nanos = 0;
+		private long bytes = 0;
+		private long calls = 0;
+		private long allocated = 0;
+	}
+}
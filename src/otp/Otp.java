@@ -1,5 +1,8 @@
 package otp;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import otp.helpr.BlockPlan;
 import otp.response.OtpResponse;
 
@@ -36,8 +39,7 @@ public abstract class Otp
 	public byte[] next(int numBytes) throws OtpResponse
 	{
 		byte[] res = new byte[numBytes];
-		for (int i = 0; i < numBytes; i++)
-			res[i] = this.next();
+		this.next(res);
 		return res;
 	}
 	
@@ -51,10 +53,47 @@ public abstract class Otp
 	 */
 	public void next(byte[] b) throws OtpResponse
 	{
-		for (int i = 0; i < b.length; i++)
+		this.next(b, 0, b.length);
+	}
+	
+	/**
+	 * Fills a part of a given bytearray with key bytes read from the current
+	 * position. Needs to be initialized first.
+	 * 
+	 * @param b
+	 * The bytearray to be filled
+	 * @param off
+	 * Position of the first byte to be filled
+	 * @param len
+	 * Number of bytes to be filled
+	 * @throws OtpResponse
+	 */
+	public void next(byte[] b, int off, int len) throws OtpResponse
+	{
+		for (int i = off; i < off + len; i++)
 			b[i] = this.next();
 	}
 	
+	/**
+	 * Fills the remaining space of a given buffer with key bytes read from the
+	 * current position. Needs to be initialized first.
+	 * 
+	 * @param b
+	 * The buffer to be filled
+	 * @throws OtpResponse
+	 */
+	public void next(ByteBuffer b) throws OtpResponse
+	{
+		if (b.hasArray())
+		{
+			this.next(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
+		}
+		else
+			while (b.hasRemaining())
+				b.put(this.next());
+	}
+	
 	/**
 	 * Overwrites the OTP at current position with a given
 	 * bytearray.
@@ -65,6 +104,22 @@ public abstract class Otp
 	 */
 	public abstract void writeNext(byte[] b) throws OtpResponse;
 	
+	/**
+	 * Overwrites the OTP at current position with a part of a given bytearray.
+	 * 
+	 * @param b
+	 * The bytearray the OTP should be overwritten with
+	 * @param off
+	 * Position of the first byte to be written
+	 * @param len
+	 * Number of bytes to be written
+	 * @throws OtpResponse
+	 */
+	public void writeNext(byte[] b, int off, int len) throws OtpResponse
+	{
+		this.writeNext(Arrays.copyOfRange(b, off, off + len));
+	}
+	
 	/**
 	 * Returns the current OTP position. Needs to be initialized first. Needs to
 	 * be initialized first.
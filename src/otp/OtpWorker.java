@@ -1,12 +1,26 @@
 package otp;
 
+import java.io.File;
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import otp.helpr.BlockPlan;
 import otp.helpr.ByteArray;
+import otp.helpr.KeyJournal;
+import otp.response.AuthResponse;
+import otp.response.InfileResponse;
 import otp.response.KeyringResponse;
+import otp.response.OtpResponse;
+import otp.response.OutfileResponse;
 import otp.response.Response;
 import otp.response.RngResponse;
 import otp.response.WorkResponse;
@@ -15,6 +29,12 @@ public class OtpWorker
 {
 	private final static int blocksize = 16;
 	private final static int headerLength = 22;
+	private final static int streamChunkSize = 64 * 1024;
+	// compressed messages of known length up to this size are prepared in
+	// memory, so their exact size can be reserved
+	private final static int precompressLimit = 16 * 1024 * 1024;
+	// messages in format 3 are authenticated in frames of this size
+	private final static int frameSize = 64 * 1024;
 	
 	private final static int syncValidityThreshold = 60 * 60 * 24 * 7;
 	// 1 week in seconds
@@ -45,6 +65,11 @@ public class OtpWorker
 	 * Otp used for authentication
 	 * @param auth
 	 * Authentication method
+	 * @param codec
+	 * Codec for compressing the body, null to send it uncompressed
+	 * @param framed
+	 * True to authenticate the message in frames (format 3), so it can be
+	 * decrypted as a stream
 	 * @param rng
 	 * Random number generator
 	 * @param ui
@@ -52,109 +77,35 @@ public class OtpWorker
 	 * @return Result of encryption operation
 	 */
 	public static Result encrypt(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth,
-			Rng rng, UserInterface ui)
+			Codec codec, boolean framed, Rng rng, UserInterface ui)
 	{
 		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
 		boolean success = false;
 		
 		try
 		{
+			metrics.begin(Metrics.STAGE_SETUP);
 			MessageDigest md = MessageDigest.getInstance("SHA-256");
 			rng.initialize();
 			in.initialize();
 			out.initialize();
+			metrics.end(Metrics.STAGE_SETUP);
 			
+			metrics.begin(Metrics.STAGE_RING_LOAD);
 			ring.initialize();
+			metrics.end(Metrics.STAGE_RING_LOAD);
+			
+			metrics.begin(Metrics.STAGE_PAD_INIT);
 			encOtp.initialize();
 			authOtp.initialize();
+			metrics.end(Metrics.STAGE_PAD_INIT);
 			
 			if (!ring.keyInSync())
 				throw new WorkResponse(12);
 			
-			BlockPlan eStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E);
-			BlockPlan aStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A);
-			
-			encOtp.setPosition(eStart.clone());
-			authOtp.setPosition(aStart.clone());
-			
-			long fileLength = in.getLength();
-			int paddingLength = OtpWorker.getPaddingLength(ring.getPaddingParam1(), ring.getPaddingParam2(), rng);
-			
-			byte[] header = new byte[OtpWorker.headerLength];
-			
-			byte[] otherPlanE = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_E).exportPlanComplete();
-			
-			byte[] otherPlanA = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_A).exportPlanComplete();
-			byte[] keySync = new byte[10 + otherPlanE.length + otherPlanA.length];
-			
-			long size = keySync.length + 9 + fileLength + paddingLength;
-			
-			if (ring.remainingBytes(eStart) < size)
-				throw new WorkResponse(7);
-			
-			if (ring.remainingBytes(aStart) < auth.setInputSize(size + OtpWorker.headerLength))
-				throw new WorkResponse(7);
-			
-			auth.initialize();
-			
-			header[0] = 2; // message format version
-			System.arraycopy(ring.getKeyId(), 0, header, 1, 4);
-			header[5] = (byte) ring.getKeyOwner();
-			System.arraycopy(eStart.exportPlanShort(), 0, header, 6, 8);
-			System.arraycopy(aStart.exportPlanShort(), 0, header, 14, 8);
-			
-			out.write(header);
-			auth.next(header);
-			md.update(header);
-			
-			keySync[0] = 3; // Type Key-Sync container
-			keySync[1] = (byte) (1 - ring.getKeyOwner());
-			System.arraycopy(ByteArray.fromInt(otherPlanE.length), 0, keySync, 2, 4);
-			System.arraycopy(ByteArray.fromInt(otherPlanA.length), 0, keySync, 6, 4);
-			System.arraycopy(otherPlanE, 0, keySync, 10, otherPlanE.length);
-			System.arraycopy(otherPlanA, 0, keySync, 10 + otherPlanE.length, otherPlanA.length);
-			byte[] ksEnc = ByteArray.xor(keySync, encOtp.next(keySync.length));
-			
-			out.write(ksEnc);
-			auth.next(ksEnc);
-			md.update(ksEnc);
-			
-			byte[] bodyHeader = new byte[9];
-			bodyHeader[0] = 1; // Type Body container
-			System.arraycopy(ByteArray.fromLong(fileLength), 0, bodyHeader, 1, 8);
-			byte[] bhEnc = ByteArray.xor(bodyHeader, encOtp.next(bodyHeader.length));
-			
-			out.write(bhEnc);
-			auth.next(bhEnc);
-			md.update(bhEnc);
-			
-			cryptWorkload(null, OtpWorker.ACTION_ENCRYPT, in, out, auth, encOtp, ui, md);
-			
-			byte[] padding = rng.next(paddingLength);
-			while (padding[0] > 0 && padding[0] < 10)
-				padding[0] = rng.next();
-			// Don't mimic other container types
-			
-			byte[] paddE = ByteArray.xor(padding, encOtp.next(padding.length));
-			out.write(paddE);
-			auth.next(paddE);
-			md.update(paddE);
-			
-			byte[] mac = auth.doFinal();
-			
-			out.write(mac);
-			md.update(mac);
-			
-			BlockPlan eEnd = encOtp.getPosition();
-			BlockPlan aEnd = authOtp.getPosition();
-			
-			ui.verboseMessage("Message areas: " + eStart + "- " + eEnd + ", " + aStart + "- " + aEnd);
-			
-			if (!ring.verifyMessage(md.digest(), eStart, eEnd, aStart, aEnd)[0])
-				throw new WorkResponse(0);
-			
-			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E, eEnd);
-			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A, aEnd);
+			OtpWorker.encryptMessage(ring, in, out, encOtp, authOtp, auth, codec, framed, rng, ui, md, metrics, false);
 			
 			success = true;
 		}
@@ -168,24 +119,36 @@ public class OtpWorker
 		}
 		finally
 		{
+			metrics.begin(Metrics.STAGE_FINISH);
 			res.add(in.finish(success));
 			res.add(out.finish(success));
 			res.add(auth.finish(success));
 			res.add(encOtp.finish(success));
 			res.add(authOtp.finish(success));
+			if (codec != null)
+				res.add(codec.finish(success));
+			metrics.begin(Metrics.STAGE_RING_SAVE);
 			res.add(ring.finish(success));
+			metrics.end(Metrics.STAGE_RING_SAVE);
 			res.add(rng.finish(success));
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
 		}
 		return res;
 	}
 	
 	/**
-	 * Decrypts the specified file or stream
+	 * Encrypts one message with a key ring that is shared with other threads.
+	 * The key areas are reserved in the ring before the message is written, so
+	 * several producers can encrypt with the same key at the same time, each
+	 * with its own Otps, authenticator and rng. The ring has to be initialized
+	 * by the caller and finished after all producers are done. Only inputs of
+	 * known length are supported.
 	 * 
 	 * @param ring
-	 * Settings for the key to be used, without key-id set
+	 * Initialized settings for the key to be used
 	 * @param in
-	 * Input file to be decrypted
+	 * Input file to be encrypted
 	 * @param out
 	 * Output file for the result to be written to
 	 * @param encOtp
@@ -194,414 +157,566 @@ public class OtpWorker
 	 * Otp used for authentication
 	 * @param auth
 	 * Authentication method
+	 * @param codec
+	 * Codec for compressing the body, null to send it uncompressed
+	 * @param framed
+	 * True to authenticate the message in frames (format 3), so it can be
+	 * decrypted as a stream
 	 * @param rng
 	 * Random number generator
 	 * @param ui
 	 * User interface
-	 * @return Result of decryption operation
+	 * @return Result of encryption operation
 	 */
-	public static Result decrypt(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth,
-			Rng rng, UserInterface ui, boolean newmsg)
+	public static Result encryptShared(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, boolean framed, Rng rng, UserInterface ui)
 	{
-		
 		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
 		boolean success = false;
-		boolean sosMessage = false;
+		
 		try
 		{
+			metrics.begin(Metrics.STAGE_SETUP);
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
 			rng.initialize();
 			in.initialize();
 			out.initialize();
+			metrics.end(Metrics.STAGE_SETUP);
 			
-			byte[] header = new byte[OtpWorker.headerLength];
-			in.read(header);
+			metrics.begin(Metrics.STAGE_PAD_INIT);
+			encOtp.initialize();
+			authOtp.initialize();
+			metrics.end(Metrics.STAGE_PAD_INIT);
 			
-			if (header[0] != 2)
-				throw new WorkResponse(1);
+			if (!ring.keyInSync())
+				throw new WorkResponse(12);
 			
-			byte[] padId = new byte[4];
-			System.arraycopy(header, 1, padId, 0, 4);
+			OtpWorker.encryptMessage(ring, in, out, encOtp, authOtp, auth, codec, framed, rng, ui, md, metrics, true);
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			res.add(new WorkResponse(0, e));
+		}
+		finally
+		{
+			metrics.begin(Metrics.STAGE_FINISH);
+			res.add(in.finish(success));
+			res.add(out.finish(success));
+			res.add(auth.finish(success));
+			res.add(encOtp.finish(success));
+			res.add(authOtp.finish(success));
+			if (codec != null)
+				res.add(codec.finish(success));
+			res.add(rng.finish(success));
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
+		}
+		return res;
+	}
+	
+	/**
+	 * Encrypts a list of files, each to its own message. The key ring and the
+	 * Otps are initialized only once and the ring is stored at the end, or
+	 * after every commitEvery messages. A failing message does not stop the
+	 * batch, its output is removed and the key areas stay unused. If more than
+	 * one set of Otps, authenticator and rng is given, the messages are
+	 * encrypted by one thread per set, with key areas reserved in the ring.
+	 * 
+	 * @param ring
+	 * Settings for the key to be used, with key-id set
+	 * @param in
+	 * Input files to be encrypted
+	 * @param out
+	 * Output files for the messages, one for each input file
+	 * @param encOtp
+	 * Otps used for encryption, one per thread
+	 * @param authOtp
+	 * Otps used for authentication, one per thread
+	 * @param auth
+	 * Authentication methods, one per thread
+	 * @param codec
+	 * Codecs for compressing the bodies, one per thread, null to send them
+	 * uncompressed
+	 * @param framed
+	 * True to authenticate the messages in frames (format 3)
+	 * @param rng
+	 * Random number generators, one per thread
+	 * @param ui
+	 * User interface
+	 * @param commitEvery
+	 * Number of messages after which the key ring is stored, 0 to store it
+	 * only at the end
+	 * @param perMessage
+	 * Receives the result of every message, may be null
+	 * @return Result of the whole batch, including the errors of all messages
+	 */
+	public static Result encryptBatch(KeyRing ring, Infile[] in, Outfile[] out, Otp[] encOtp, Otp[] authOtp,
+			Authenticator[] auth, Codec[] codec, boolean framed, Rng[] rng, UserInterface ui, int commitEvery,
+			Result[] perMessage)
+	{
+		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
+		boolean initialized = false;
+		int threads = encOtp.length;
+		Result[] results = new Result[in.length];
+		
+		try
+		{
+			metrics.begin(Metrics.STAGE_SETUP);
+			for (int t = 0; t < threads; t++)
+				rng[t].initialize();
+			metrics.end(Metrics.STAGE_SETUP);
 			
-			int participant = header[5];
+			metrics.begin(Metrics.STAGE_RING_LOAD);
+			ring.initialize();
+			metrics.end(Metrics.STAGE_RING_LOAD);
 			
-			byte[] encPos = new byte[8];
-			byte[] authPos = new byte[8];
+			metrics.begin(Metrics.STAGE_PAD_INIT);
+			for (int t = 0; t < threads; t++)
+			{
+				encOtp[t].initialize();
+				authOtp[t].initialize();
+			}
+			metrics.end(Metrics.STAGE_PAD_INIT);
+			initialized = true;
 			
-			System.arraycopy(header, 6, encPos, 0, 8);
-			System.arraycopy(header, 14, authPos, 0, 8);
+			if (!ring.keyInSync())
+				throw new WorkResponse(12);
 			
-			ring.selectKey(padId, participant);
-			ring.initialize();
-			encOtp.initialize();
-			authOtp.initialize();
+			AtomicInteger next = new AtomicInteger();
+			AtomicInteger done = new AtomicInteger();
+			AtomicBoolean stop = new AtomicBoolean();
+			BatchWorker[] workers = new BatchWorker[threads];
+			for (int t = 0; t < threads; t++)
+				workers[t] = new BatchWorker(ring, in, out, encOtp[t], authOtp[t], auth[t], codec == null ? null
+						: codec[t], framed, rng[t], ui, commitEvery, results, next, done, stop, threads > 1);
+			
+			if (threads == 1)
+				workers[0].run();
+			else
+				BatchWorker.runAll(workers);
+			
+			for (BatchWorker w : workers)
+			{
+				metrics.add(w.commits);
+				res.add(w.error);
+			}
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		finally
+		{
+			for (int i = 0; i < in.length; i++)
+			{
+				if (results[i] == null)
+					continue;
+				if (perMessage != null)
+					perMessage[i] = results[i];
+				metrics.add(results[i].getMetrics());
+				for (Response e : results[i].getErrors())
+					res.add(e);
+			}
 			
-			BlockPlan ePlan, aPlan;
+			// the ring only records completed messages, so it is stored even if
+			// some of them failed
+			metrics.begin(Metrics.STAGE_FINISH);
+			for (int t = 0; t < threads; t++)
+			{
+				res.add(encOtp[t].finish(initialized));
+				res.add(authOtp[t].finish(initialized));
+				if (codec != null)
+					res.add(codec[t].finish(initialized));
+			}
+			metrics.begin(Metrics.STAGE_RING_SAVE);
+			res.add(ring.finish(initialized));
+			metrics.end(Metrics.STAGE_RING_SAVE);
+			for (int t = 0; t < threads; t++)
+				res.add(rng[t].finish(initialized));
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
+		}
+		return res;
+	}
+	
+	/**
+	 * Encrypts the messages of a batch, taking the next unprocessed input until
+	 * all are done. Several workers may run at the same time on one ring. If
+	 * storing the ring fails, all workers stop after their current message.
+	 */
+	private static class BatchWorker implements Runnable
+	{
+		private KeyRing ring;
+		private Infile[] in;
+		private Outfile[] out;
+		private Otp encOtp;
+		private Otp authOtp;
+		private Authenticator auth;
+		private Codec codec;
+		private boolean framed;
+		private Rng rng;
+		private UserInterface ui;
+		private int commitEvery;
+		private Result[] results;
+		private AtomicInteger next;
+		private AtomicInteger done;
+		private AtomicBoolean stop;
+		private boolean shared;
+		private Response error = null;
+		// time spent storing the ring, added to the batch
+		private Metrics commits = new Metrics();
+		
+		private BatchWorker(KeyRing ring, Infile[] in, Outfile[] out, Otp encOtp, Otp authOtp, Authenticator auth,
+				Codec codec, boolean framed, Rng rng, UserInterface ui, int commitEvery, Result[] results,
+				AtomicInteger next, AtomicInteger done, AtomicBoolean stop, boolean shared)
+		{
+			this.ring = ring;
+			this.in = in;
+			this.out = out;
+			this.encOtp = encOtp;
+			this.authOtp = authOtp;
+			this.auth = auth;
+			this.codec = codec;
+			this.framed = framed;
+			this.rng = rng;
+			this.ui = ui;
+			this.commitEvery = commitEvery;
+			this.results = results;
+			this.next = next;
+			this.done = done;
+			this.stop = stop;
+			this.shared = shared;
+		}
+		
+		@Override
+		public void run()
+		{
+			MessageDigest md;
 			try
-			// normal blocks
 			{
-				ePlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos);
-				aPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos);
+				md = MessageDigest.getInstance("SHA-256");
 			}
-			catch (KeyringResponse r)
+			catch (NoSuchAlgorithmException e)
+			{
+				this.error = new WorkResponse(0, e);
+				return;
+			}
+			
+			int i;
+			while (!this.stop.get() && (i = this.next.getAndIncrement()) < this.in.length)
 			{
-				if (r.getErrorCode() == 10) // try sos blocks
+				this.ui.verboseMessage("Encrypting file " + (i + 1) + " of " + this.in.length);
+				Result msg = new Result();
+				Metrics m = msg.getMetrics();
+				m.begin(Metrics.STAGE_TOTAL);
+				boolean success = false;
+				
+				try
 				{
-					ePlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, encPos);
-					aPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, authPos);
-					sosMessage = true;
+					m.begin(Metrics.STAGE_SETUP);
+					this.in[i].initialize();
+					this.out[i].initialize();
+					md.reset();
+					m.end(Metrics.STAGE_SETUP);
+					
+					OtpWorker.encryptMessage(this.ring, this.in[i], this.out[i], this.encOtp, this.authOtp, this.auth,
+							this.codec, this.framed, this.rng, this.ui, md, m, this.shared);
+					success = true;
+				}
+				catch (Response e)
+				{
+					msg.add(e);
+				}
+				finally
+				{
+					m.begin(Metrics.STAGE_FINISH);
+					msg.add(this.in[i].finish(success));
+					msg.add(this.out[i].finish(success));
+					msg.add(this.auth.finish(success));
+					m.end(Metrics.STAGE_FINISH);
+					m.end(Metrics.STAGE_TOTAL);
+				}
+				this.results[i] = msg;
+				
+				if (success && this.commitEvery > 0 && this.done.incrementAndGet() % this.commitEvery == 0)
+				{
+					this.commits.begin(Metrics.STAGE_RING_SAVE);
+					try
+					{
+						this.ring.commit();
+					}
+					catch (Response e)
+					{
+						this.error = e;
+						this.stop.set(true);
+						return;
+					}
+					finally
+					{
+						this.commits.end(Metrics.STAGE_RING_SAVE);
+					}
 				}
-				else
-					throw r;
+			}
+		}
+		
+		/**
+		 * Runs all workers in their own threads and waits for them.
+		 */
+		private static void runAll(BatchWorker[] workers) throws WorkResponse
+		{
+			Thread[] threads = new Thread[workers.length];
+			for (int t = 0; t < workers.length; t++)
+			{
+				threads[t] = new Thread(workers[t], "OtpWorker-" + t);
+				threads[t].start();
 			}
 			
-			encOtp.setPosition(ePlan);
-			authOtp.setPosition(aPlan);
-			
-			long filelength = in.getLength();
+			try
+			{
+				for (Thread t : threads)
+					t.join();
+			}
+			catch (InterruptedException e)
+			{
+				throw new WorkResponse(4, e);
+			}
+		}
+	}
+	
+	/**
+	 * Writes one message to an initialized output and updates the key ring.
+	 * Key ring, Otps and input must be initialized, the authenticator must not.
+	 * If shared, the key areas are reserved in the key ring before anything is
+	 * written, so other threads can encrypt with the same ring at the same time,
+	 * and no progress is shown. With a codec, the body is compressed in chunks;
+	 * chunks that do not get smaller are sent uncompressed. If framed, the
+	 * message is written in format 3 with a MAC for every frame.
+	 */
+	private static void encryptMessage(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, boolean framed, Rng rng, UserInterface ui, MessageDigest md,
+			Metrics metrics, boolean shared) throws Response
+	{
+		// streams of unknown length are sent as a sequence of body containers
+		boolean streaming = !in.isLengthKnown();
+		if (streaming && shared)
+			throw new WorkResponse(18);
+		
+		// the compressed size of large inputs is unknown in advance, they are
+		// streamed instead; shared rings need the exact size and stay uncompressed
+		List<BodyChunk> chunks = null;
+		if (codec != null)
+		{
+			codec.reset();
+			if (!streaming && in.getLength() <= OtpWorker.precompressLimit)
+				chunks = OtpWorker.compressBody(in, codec, metrics);
+			else if (!shared)
+				streaming = true;
+			else
+				codec = null;
+		}
+		
+		long fileLength = streaming ? 0 : in.getLength();
+		int paddingLength = OtpWorker.getPaddingLength(ring.getPaddingParam1(), ring.getPaddingParam2(), rng);
+		
+		byte[] header = new byte[OtpWorker.headerLength];
+		
+		// the plans of the partner are sent in compact form, as runs of blocks, if
+		// the partner is known to read it
+		boolean compactSync = ring.keyPartnerCompact();
+		BlockPlan otherE = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_E);
+		BlockPlan otherA = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_A);
+		byte[] otherPlanE = compactSync ? otherE.exportPlanCompact() : otherE.exportPlanComplete();
+		byte[] otherPlanA = compactSync ? otherA.exportPlanCompact() : otherA.exportPlanComplete();
+		byte[] keySync = new byte[10 + otherPlanE.length + otherPlanA.length];
+		
+		long size = keySync.length + 9 + fileLength + paddingLength;
+		if (chunks != null)
+		{
+			size = keySync.length + paddingLength;
+			for (BodyChunk c : chunks)
+				size += c.size();
+		}
+		
+		// known sizes are reserved and stored at once, streams keep other
+		// processes out of the key ring until they are finished
+		BlockPlan eStart, aStart;
+		if (!streaming)
+		{
+			long authKey = framed ? FrameMac.keyLength(auth, size) : auth.setInputSize(size + OtpWorker.headerLength);
+			BlockPlan[] reserved;
+			try
+			{
+				reserved = ring.reservePlans(size, authKey);
+			}
+			catch (KeyringResponse r)
+			{
+				if (r.getErrorCode() == 11)
+					throw new WorkResponse(7, r);
+				throw r;
+			}
+			eStart = reserved[0];
+			aStart = reserved[1];
+		}
+		else
+		{
+			ring.lockExclusive();
+			eStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E);
+			aStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A);
 			
-			long messageLength = filelength - OtpWorker.headerLength - ring.getAuthLength();
+			if (ring.remainingBytes(eStart) < size)
+				throw new WorkResponse(7);
 			
-			auth.setInputSize(messageLength + OtpWorker.headerLength);
-			auth.initialize();
-			auth.next(header);
+			// the final size of a stream is unknown, reserve authentication key for
+			// the largest possible message
+			long authSize = ring.remainingBytes(eStart);
+			long authKey = framed ? FrameMac.keyLength(auth, authSize) : auth.setInputSize(authSize +
+					OtpWorker.headerLength);
+			if (ring.remainingBytes(aStart) < authKey)
+				throw new WorkResponse(7);
+		}
+		
+		encOtp.setPosition(eStart.clone());
+		authOtp.setPosition(aStart.clone());
+		
+		header[0] = (byte) (framed ? 3 : 2); // message format version
+		System.arraycopy(ring.getKeyId(), 0, header, 1, 4);
+		header[5] = (byte) ring.getKeyOwner();
+		System.arraycopy(eStart.exportPlanShort(), 0, header, 6, 8);
+		System.arraycopy(aStart.exportPlanShort(), 0, header, 14, 8);
+		
+		out.write(header);
+		
+		// the frames are authenticated on their way out, not the message
+		FramedOutfile framedOut = null;
+		if (framed)
+		{
+			framedOut = new FramedOutfile(out, new FrameMac(ring, authOtp, auth, header));
+			out = framedOut;
+			auth = new NoAuth();
+		}
+		
+		auth.initialize();
+		auth.next(header);
+		md.update(header);
+		
+		keySync[0] = (byte) (compactSync ? 6 : 3); // Type (compact) key-sync container
+		keySync[1] = (byte) (1 - ring.getKeyOwner());
+		System.arraycopy(ByteArray.fromInt(otherPlanE.length), 0, keySync, 2, 4);
+		System.arraycopy(ByteArray.fromInt(otherPlanA.length), 0, keySync, 6, 4);
+		System.arraycopy(otherPlanE, 0, keySync, 10, otherPlanE.length);
+		System.arraycopy(otherPlanA, 0, keySync, 10 + otherPlanE.length, otherPlanA.length);
+		byte[] ksEnc = ByteArray.xor(keySync, encOtp.next(keySync.length));
+		
+		out.write(ksEnc);
+		auth.next(ksEnc);
+		md.update(ksEnc);
+		
+		if (streaming)
+		{
+			long capacity = ring.remainingBytes(eStart) - keySync.length - paddingLength;
+			streamWorkload(capacity, in, out, auth, encOtp, codec, md, metrics);
+		}
+		else if (chunks != null)
+		{
+			byte[] key = new byte[OtpWorker.streamChunkSize];
+			for (BodyChunk c : chunks)
+				c.write(out, auth, encOtp, key, md, metrics);
+		}
+		else
+		{
+			byte[] bodyHeader = new byte[9];
+			bodyHeader[0] = 1; // Type Body container
+			System.arraycopy(ByteArray.fromLong(fileLength), 0, bodyHeader, 1, 8);
+			byte[] bhEnc = ByteArray.xor(bodyHeader, encOtp.next(bodyHeader.length));
 			
-			long read = 0;
-			long bodyLength = 0;
-			
-			while (read < messageLength)
-			{
-				byte[] typeEnc = in.read(1);
-				auth.next(typeEnc);
-				byte[] typeKey = encOtp.next(1);
-				byte type = ByteArray.xor(typeKey, typeEnc)[0];
-				read++;
-				
-				switch (type)
-				{
-					case 1: // normal content
-						if (sosMessage)
-							throw new WorkResponse(11);
-						byte[] containerHeaderEnc = in.read(8);
-						auth.next(containerHeaderEnc);
-						bodyLength = ByteArray.toLong(ByteArray.xor(encOtp.next(8), containerHeaderEnc));
-						
-						cryptWorkload(bodyLength, OtpWorker.ACTION_DECRYPT, in, out, auth, encOtp, ui, null);
-						read += 8 + bodyLength;
-						break;
-					
-					case 2: // compressed content
-						if (sosMessage)
-							throw new WorkResponse(11);
-						ui.warningMessage("Blocktype unsupported " + typeEnc[0] + " (+) " + typeKey[0] + " = " + type);
-						throw new WorkResponse(6);
-						// break;
-						
-					case 3: // normal key management
-						if (sosMessage)
-							throw new WorkResponse(11);
-						
-						byte[] ksParticipEnc = in.read(1);
-						auth.next(ksParticipEnc);
-						byte[] kskey1 = encOtp.next(1);
-						byte ksParticip = ByteArray.xor(ksParticipEnc, kskey1)[0];
-						
-						if (ksParticip == participant)
-							throw new WorkResponse(0);
-						
-						byte[] eotpLenEnc = in.read(4);
-						auth.next(eotpLenEnc);
-						byte[] kskey2 = encOtp.next(4);
-						byte[] eotpLen = ByteArray.xor(eotpLenEnc, kskey2);
-						
-						byte[] aotpLenEnc = in.read(4);
-						auth.next(aotpLenEnc);
-						byte[] kskey3 = encOtp.next(4);
-						byte[] aotpLen = ByteArray.xor(aotpLenEnc, kskey3);
-						
-						int eLen = ByteArray.toInt(eotpLen);
-						int aLen = ByteArray.toInt(aotpLen);
-						
-						if (eLen < 0 || eLen % 4 > 0 || eLen < 0 || eLen % 4 > 0)
-							throw new WorkResponse(3);
-						
-						byte[] eotpEnc = in.read(eLen);
-						auth.next(eotpEnc);
-						byte[] kskey4 = encOtp.next(eLen);
-						byte[] ksEotp = ByteArray.xor(eotpEnc, kskey4);
-						
-						byte[] aotpEnc = in.read(aLen);
-						auth.next(aotpEnc);
-						byte[] kskey5 = encOtp.next(aLen);
-						byte[] ksAotp = ByteArray.xor(aotpEnc, kskey5);
-						
-						read += 9 + eLen + aLen;
-						
-						if (newmsg && participant != ring.getKeyOwner())
-						{
-							try
-							{
-								BlockPlan ksEnewPlan = ring.importPlan(ksParticip, KeyRing.BLOCKTYPE_E, ksEotp);
-								BlockPlan ksAnewPlan = ring.importPlan(ksParticip, KeyRing.BLOCKTYPE_A, ksAotp);
-								
-								BlockPlan ksEcurPlan = ring.getCurrentPlan(ksParticip, KeyRing.BLOCKTYPE_E);
-								BlockPlan ksAcurPlan = ring.getCurrentPlan(ksParticip, KeyRing.BLOCKTYPE_A);
-								ring.addBlocks(ksParticip, KeyRing.BLOCKTYPE_E, ksEotp, 4);
-								ring.addBlocks(ksParticip, KeyRing.BLOCKTYPE_A, ksAotp, 4);
-								
-								if (ksEnewPlan.greaterThan(ksEcurPlan) || ksAnewPlan.greaterThan(ksAcurPlan))
-								{
-									if (ring.keyInSync())
-									{
-										ring.keySetSync(false);
-										throw new WorkResponse(12);
-									}
-								}
-							}
-							catch (KeyringResponse r)
-							{
-								if (ring.keyInSync())
-								{
-									ring.keySetSync(false);
-									throw new WorkResponse(12);
-								}
-							}
-						}
-						break;
-					
-					case 4: // sync-req
-						if (!sosMessage)
-							throw new WorkResponse(10);
-						byte[] pLenE = in.read(1);
-						auth.next(pLenE);
-						byte[] pLenK = encOtp.next(1);
-						byte[] pl = { 0, 0, 0, ByteArray.xor(pLenE, pLenK)[0] };
-						int pLen = ByteArray.toInt(pl);
-						read++;
-						
-						byte[] paddE = in.read(pLen);
-						auth.next(paddE);
-						encOtp.next(pLen);
-						read += pLen;
-						
-						BlockPlan[] syncPlans = new BlockPlan[4];
-						{
-							byte[] sync0eE = in.read(8);
-							auth.next(sync0eE);
-							byte[] sync0eP = ByteArray.xor(sync0eE, encOtp.next(8));
-							
-							byte[] sync0aE = in.read(8);
-							auth.next(sync0aE);
-							byte[] sync0aP = ByteArray.xor(sync0aE, encOtp.next(8));
-							
-							byte[] sync1eE = in.read(8);
-							auth.next(sync1eE);
-							byte[] sync1eP = ByteArray.xor(sync1eE, encOtp.next(8));
-							
-							byte[] sync1aE = in.read(8);
-							auth.next(sync1aE);
-							byte[] sync1aP = ByteArray.xor(sync1aE, encOtp.next(8));
-							read += 32;
-							
-							if (newmsg && participant != ring.getKeyOwner())
-							{
-								try
-								{
-									syncPlans[KeyRing.BLOCKTYPE_E | 0] = ring.importPlan(0, KeyRing.BLOCKTYPE_E, sync0eP);
-									syncPlans[KeyRing.BLOCKTYPE_A | 0] = ring.importPlan(0, KeyRing.BLOCKTYPE_A, sync0aP);
-									syncPlans[KeyRing.BLOCKTYPE_E | 1] = ring.importPlan(1, KeyRing.BLOCKTYPE_E, sync1eP);
-									syncPlans[KeyRing.BLOCKTYPE_A | 1] = ring.importPlan(1, KeyRing.BLOCKTYPE_A, sync1aP);
-								}
-								catch (KeyringResponse r)
-								{
-									throw new WorkResponse(11, r);
-								}
-								ring.keySetPartnerSync(syncPlans);
-								// ui.warningMessage("Key-sync request recieved. Please generate and send a sync message as soon as possible by using the '--syncronize' parameter.");
-								res.add(new WorkResponse(true, 13));
-							}
-							else
-							{
-								if (newmsg)
-									throw new WorkResponse(11);
-								else
-									throw new WorkResponse(14);
-							}
-						}
-						break;
-					
-					case 5: // sync-ack
-						if (!sosMessage)
-							throw new WorkResponse(10);
-						
-						ui.message("Syncing key...");
-						
-						byte[] dateE = in.read(4);
-						auth.next(dateE);
-						int dateP = ByteArray.toInt(ByteArray.xor(dateE, encOtp.next(4)));
-						int now = (int) (System.currentTimeMillis() / 1000);
-						
-						// current date has to be within message creation and validity
-						// treshold
-						if (dateP > now + 60 || dateP + OtpWorker.syncValidityThreshold < now)
-							throw new WorkResponse(16);
-						
-						byte[] sync0eLenE = in.read(4);
-						auth.next(sync0eLenE);
-						int sync0eLenP = ByteArray.toInt(ByteArray.xor(sync0eLenE, encOtp.next(4)));
-						
-						byte[] sync0aLenE = in.read(4);
-						auth.next(sync0aLenE);
-						int sync0aLenP = ByteArray.toInt(ByteArray.xor(sync0aLenE, encOtp.next(4)));
-						
-						byte[] sync1eLenE = in.read(4);
-						auth.next(sync1eLenE);
-						int sync1eLenP = ByteArray.toInt(ByteArray.xor(sync1eLenE, encOtp.next(4)));
-						
-						byte[] sync1aLenE = in.read(4);
-						auth.next(sync1aLenE);
-						int sync1aLenP = ByteArray.toInt(ByteArray.xor(sync1aLenE, encOtp.next(4)));
-						
-						byte[] sync0eE = in.read(sync0eLenP);
-						auth.next(sync0eE);
-						byte[] sync0eP = ByteArray.xor(sync0eE, encOtp.next(sync0eLenP));
-						
-						byte[] sync0aE = in.read(sync0aLenP);
-						auth.next(sync0aE);
-						byte[] sync0aP = ByteArray.xor(sync0aE, encOtp.next(sync0aLenP));
-						
-						byte[] sync1eE = in.read(sync1eLenP);
-						auth.next(sync1eE);
-						byte[] sync1eP = ByteArray.xor(sync1eE, encOtp.next(sync1eLenP));
-						
-						byte[] sync1aE = in.read(sync1aLenP);
-						auth.next(sync1aE);
-						byte[] sync1aP = ByteArray.xor(sync1aE, encOtp.next(sync1aLenP));
-						
-						byte[] syncSoseE = in.read(8);
-						auth.next(syncSoseE);
-						byte[] syncSoseP = ByteArray.xor(syncSoseE, encOtp.next(8));
-						
-						byte[] syncSosaE = in.read(8);
-						auth.next(syncSosaE);
-						byte[] syncSosaP = ByteArray.xor(syncSosaE, encOtp.next(8));
-						
-						read += sync0eLenP + sync0aLenP + sync1eLenP + sync1aLenP + 36;
-						
-						if (newmsg && participant != ring.getKeyOwner())
-						{
-							
-							BlockPlan[] syncPlan = new BlockPlan[8];
-							int me = ring.getKeyOwner();
-							
-							ring.addBlocks(0, KeyRing.BLOCKTYPE_E, sync0eP, 4);
-							ring.addBlocks(0, KeyRing.BLOCKTYPE_A, sync0aP, 4);
-							ring.addBlocks(1, KeyRing.BLOCKTYPE_E, sync1eP, 4);
-							ring.addBlocks(1, KeyRing.BLOCKTYPE_A, sync1aP, 4);
-							
-							syncPlan[0 | KeyRing.BLOCKTYPE_E] = ring.importPlan(0, KeyRing.BLOCKTYPE_E, sync0eP);
-							syncPlan[0 | KeyRing.BLOCKTYPE_A] = ring.importPlan(0, KeyRing.BLOCKTYPE_A, sync0aP);
-							syncPlan[1 | KeyRing.BLOCKTYPE_E] = ring.importPlan(1, KeyRing.BLOCKTYPE_E, sync1eP);
-							syncPlan[1 | KeyRing.BLOCKTYPE_A] = ring.importPlan(1, KeyRing.BLOCKTYPE_A, sync1aP);
-							
-							syncPlan[me | KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS] = ring.importPlan(me, KeyRing.BLOCKTYPE_E |
-									KeyRing.BLOCKTYPE_SOS, syncSoseP);
-							syncPlan[me | KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS] = ring.importPlan(me, KeyRing.BLOCKTYPE_A |
-									KeyRing.BLOCKTYPE_SOS, syncSosaP);
-							
-							boolean possible = true;
-							int[] syncTypes = { 0 | KeyRing.BLOCKTYPE_E, 0 | KeyRing.BLOCKTYPE_A, 1 | KeyRing.BLOCKTYPE_E,
-									1 | KeyRing.BLOCKTYPE_A, me | KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS,
-									me | KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, };
-							
-							for (int bType : syncTypes)
-							{
-								BlockPlan curPlan = ring.getCurrentPlan(0, bType);
-								if (curPlan.greaterThan(syncPlan[bType]))
-								{
-									possible = false;
-								}
-							}
-							
-							if (ring.keyInSync())
-							{
-								if (syncPlan[me | KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS].greaterThan(ring.getCurrentPlan(me,
-										KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS)) ||
-										syncPlan[me | KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS].greaterThan(ring.getCurrentPlan(me,
-												KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS)))
-									ring.keySetSync(false);
-							}
-							
-							if (possible)
-							{
-								for (int bType : syncTypes)
-								{
-									ring.updatePlan(0, bType, syncPlan[bType]);
-								}
-								ring.keySetSync(true);
-								// ui.warningMessage("Key synced successfully.");
-								res.add(new WorkResponse(true, 15));
-							}
-							else
-								throw new WorkResponse(11);
-							
-						}
-						else
-							throw new WorkResponse(14);
-						break;
-					
-					default:
-						// message padding
-						byte[] padd = new byte[OtpWorker.blocksize];
-						byte[] paddKey = new byte[OtpWorker.blocksize];
-						while (read < messageLength)
-						{
-							if (messageLength - read < padd.length)
-							{
-								padd = new byte[(int) (messageLength - read)];
-								paddKey = new byte[(int) (messageLength - read)];
-							}
-							
-							in.read(padd);
-							auth.next(padd);
-							encOtp.next(paddKey);
-							
-							read += padd.length;
-						}
-						break;
-				
-				}
-			}
-			
-			byte[] mac = auth.doFinal();
-			byte[] mac2 = in.read(mac.length);
-			
-			if (!Arrays.equals(mac, mac2))
-				throw new WorkResponse(2);
-			
-			if (!sosMessage && bodyLength == 0)
-			{
-				ui.warningMessage("Decoded message does not contain any output data");
-			}
+			out.write(bhEnc);
+			auth.next(bhEnc);
+			md.update(bhEnc);
 			
-			BlockPlan eEndPlan = encOtp.getPosition();
-			BlockPlan aEndPlan = authOtp.getPosition();
+			cryptWorkload(null, OtpWorker.ACTION_ENCRYPT, in, out, auth, encOtp, shared ? null : ui, md, metrics);
+		}
+		
+		byte[] padding = rng.next(paddingLength);
+		while (padding[0] > 0 && padding[0] < 10)
+			padding[0] = rng.next();
+		// Don't mimic other container types
+		
+		byte[] paddE = ByteArray.xor(padding, encOtp.next(padding.length));
+		out.write(paddE);
+		auth.next(paddE);
+		md.update(paddE);
+		
+		byte[] mac = auth.doFinal();
+		
+		out.write(mac);
+		md.update(mac);
+		
+		if (framedOut != null)
+			authOtp.setPosition(framedOut.writeLast());
+		
+		BlockPlan eEnd = encOtp.getPosition();
+		BlockPlan aEnd = authOtp.getPosition();
+		
+		ui.verboseMessage("Message areas: " + eStart + "- " + eEnd + ", " + aStart + "- " + aEnd);
+		
+		metrics.begin(Metrics.STAGE_RING_UPDATE);
+		if (!ring.verifyMessage(md.digest(), eStart, eEnd, aStart, aEnd)[0])
+			throw new WorkResponse(0);
+		
+		ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E, eEnd);
+		ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A, aEnd);
+		metrics.end(Metrics.STAGE_RING_UPDATE);
+	}
+	
+	/**
+	 * Decrypts the specified file or stream
+	 * 
+	 * @param ring
+	 * Settings for the key to be used, without key-id set
+	 * @param in
+	 * Input file to be decrypted
+	 * @param out
+	 * Output file for the result to be written to
+	 * @param encOtp
+	 * Otp used for encryption
+	 * @param authOtp
+	 * Otp used for authentication
+	 * @param auth
+	 * Authentication method
+	 * @param codec
+	 * Codec for compressed bodies, null if they are not supported
+	 * @param rng
+	 * Random number generator
+	 * @param ui
+	 * User interface
+	 * @return Result of decryption operation
+	 */
+	public static Result decrypt(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth,
+			Codec codec, Rng rng, UserInterface ui, boolean newmsg)
+	{
+		
+		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
+		boolean success = false;
+		try
+		{
+			metrics.begin(Metrics.STAGE_SETUP);
+			rng.initialize();
+			in.initialize();
+			out.initialize();
+			metrics.end(Metrics.STAGE_SETUP);
 			
-			if (sosMessage)
-			{
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEndPlan);
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEndPlan);
-			}
-			else
-			{
-				if (participant != ring.getKeyOwner())
-				{
-					ring.fillPlan(eEndPlan);
-					ring.fillPlan(aEndPlan);
-				}
-				
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_E, eEndPlan);
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_A, aEndPlan);
-			}
+			OtpWorker.decryptMessage(ring, in, out, encOtp, authOtp, auth, codec, ui, newmsg, res, metrics);
 			success = true;
 		}
 		catch (Response e)
@@ -610,211 +725,384 @@ public class OtpWorker
 		}
 		finally
 		{
+			metrics.begin(Metrics.STAGE_FINISH);
 			res.add(in.finish(success));
 			res.add(out.finish(success));
 			res.add(auth.finish(success));
 			res.add(encOtp.finish(success));
 			res.add(authOtp.finish(success));
+			if (codec != null)
+				res.add(codec.finish(success));
+			metrics.begin(Metrics.STAGE_RING_SAVE);
 			res.add(ring.finish(success));
+			metrics.end(Metrics.STAGE_RING_SAVE);
 			res.add(rng.finish(success));
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
 		}
 		return res;
 	}
 	
 	/**
-	 * Verifies the authentication of the given input
+	 * Decrypts a part of the body of a message. Input and key in front of the
+	 * part are skipped, so the MAC of a message in format 2 can not be checked:
+	 * its output is not authenticated and a warning is given. Messages in
+	 * format 3 are authenticated, only the frames covering the part are read.
+	 * The key ring is not changed.
 	 * 
 	 * @param ring
 	 * Settings for the key to be used, without key-id set
 	 * @param in
-	 * Input file to be verified
+	 * Input file to be decrypted
+	 * @param out
+	 * Output file for the decrypted part
+	 * @param encOtp
+	 * Otp used for encryption
 	 * @param authOtp
 	 * Otp used for authentication
 	 * @param auth
 	 * Authentication method
-	 * @param rng
-	 * Random number generator
+	 * @param codec
+	 * Codec for compressed bodies, null if they are not supported
 	 * @param ui
 	 * User interface
-	 * @return Result of verification
+	 * @param offset
+	 * Position of the first body byte to be decrypted
+	 * @param length
+	 * Number of bytes to be decrypted, -1 for all bytes up to the end of the
+	 * body
+	 * @return Result of decryption operation
 	 */
-	public static Result verify(KeyRing ring, Infile in, Otp authOtp, Authenticator auth, Rng rng, UserInterface ui,
-			boolean[] mi)
+	public static Result decryptRange(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, UserInterface ui, long offset, long length)
 	{
-		
 		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
 		boolean success = false;
-		if (mi == null || mi.length < 2)
-			mi = new boolean[2];
-		
-		boolean sosMessage = false;
-		
 		try
 		{
-			rng.initialize();
+			metrics.begin(Metrics.STAGE_SETUP);
 			in.initialize();
+			out.initialize();
+			metrics.end(Metrics.STAGE_SETUP);
 			
-			MessageDigest md = MessageDigest.getInstance("SHA-256");
-			
-			byte[] header = new byte[OtpWorker.headerLength];
-			in.read(header);
-			md.update(header);
-			
-			if (header[0] != 2)
-				throw new WorkResponse(1);
-			
-			byte[] padId = new byte[4];
-			System.arraycopy(header, 1, padId, 0, 4);
-			
-			int participant = header[5];
-			
-			byte[] encPos = new byte[8];
-			byte[] authPos = new byte[8];
-			
-			System.arraycopy(header, 6, encPos, 0, 8);
-			System.arraycopy(header, 14, authPos, 0, 8);
-			
-			ring.selectKey(padId, participant);
-			ring.initialize();
-			
-			BlockPlan eStartPlan, aStartPlan;
-			try
-			// normal blocks
-			{
-				eStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos);
-				aStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos);
-			}
-			catch (KeyringResponse r)
+			if (!OtpWorker.decryptRangeOf(ring, in, out, encOtp, authOtp, auth, codec, ui, offset, length, metrics))
 			{
-				if (r.getErrorCode() == 10) // try sos blocks
-				{
-					try
-					{
-						eStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, encPos);
-						aStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, authPos);
-						sosMessage = true;
-					}
-					catch (KeyringResponse s)
-					{
-						// maybe try temporary block list
-						// if (s.getErrorCode() == 10)
-						// {
-						// }
-						// else
-						throw new WorkResponse(9);
-					}
-				}
-				else
-					throw r;
+				ui.warningMessage("The decrypted range is NOT authenticated. Only messages encrypted with --framed are authenticated in ranges.");
+				res.add(new WorkResponse(true, 20));
 			}
-			
-			authOtp.setPosition(aStartPlan.clone());
-			authOtp.initialize();
-			
-			long filelength = in.getLength();
-			long messageLength = filelength - OtpWorker.headerLength - ring.getAuthLength();
-			
-			auth.setInputSize(messageLength + OtpWorker.headerLength);
-			auth.initialize();
-			auth.next(header);
-			
-			long read = 0;
-			byte[] inx = new byte[OtpWorker.blocksize];
-			
-			ui.initializeProgress(messageLength);
-			
-			for (; read < messageLength - OtpWorker.blocksize; read += OtpWorker.blocksize)
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		finally
+		{
+			metrics.begin(Metrics.STAGE_FINISH);
+			res.add(in.finish(success));
+			res.add(out.finish(success));
+			res.add(auth.finish(success));
+			res.add(encOtp.finish(success));
+			res.add(authOtp.finish(success));
+			if (codec != null)
+				res.add(codec.finish(success));
+			metrics.begin(Metrics.STAGE_RING_SAVE);
+			res.add(ring.finish(success));
+			metrics.end(Metrics.STAGE_RING_SAVE);
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
+		}
+		return res;
+	}
+	
+	/**
+	 * Walks the containers of a message and decrypts the requested part of its
+	 * body containers, everything else is skipped. Offsets count plaintext
+	 * bytes, compressed containers in the range are decoded as a whole.
+	 * 
+	 * @return True, if the message is authenticated in frames
+	 */
+	private static boolean decryptRangeOf(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, UserInterface ui, long offset, long length, Metrics metrics)
+			throws Response
+	{
+		byte[] header = new byte[OtpWorker.headerLength];
+		in.read(header);
+		
+		if (header[0] != 2 && header[0] != 3)
+			throw new WorkResponse(1);
+		
+		byte[] padId = new byte[4];
+		System.arraycopy(header, 1, padId, 0, 4);
+		int participant = header[5];
+		byte[] encPos = new byte[8];
+		System.arraycopy(header, 6, encPos, 0, 8);
+		byte[] authPos = new byte[8];
+		System.arraycopy(header, 14, authPos, 0, 8);
+		
+		metrics.begin(Metrics.STAGE_RING_LOAD);
+		ring.selectKey(padId, participant);
+		ring.initialize();
+		metrics.end(Metrics.STAGE_RING_LOAD);
+		
+		metrics.begin(Metrics.STAGE_PAD_INIT);
+		encOtp.initialize();
+		metrics.end(Metrics.STAGE_PAD_INIT);
+		
+		// key-sync messages have no body
+		try
+		{
+			encOtp.setPosition(ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos));
+		}
+		catch (KeyringResponse r)
+		{
+			throw new WorkResponse(9, r);
+		}
+		
+		long messageLength = in.getLength() - OtpWorker.headerLength - ring.getAuthLength();
+		
+		// frames in front of the range are skipped, the others are checked
+		boolean framed = header[0] == 3;
+		if (framed)
+		{
+			metrics.begin(Metrics.STAGE_PAD_INIT);
+			authOtp.initialize();
+			metrics.end(Metrics.STAGE_PAD_INIT);
+			try
 			{
-				in.read(inx);
-				md.update(inx);
-				auth.next(inx);
-				ui.updateProgress(read);
+				authOtp.setPosition(ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos));
 			}
-			
-			if (read < messageLength)
+			catch (KeyringResponse r)
 			{
-				inx = new byte[(int) (messageLength - read)];
-				in.read(inx);
-				md.update(inx);
-				auth.next(inx);
-				read += inx.length;
+				throw new WorkResponse(9, r);
 			}
+			in = new FramedInfile(in, new FrameMac(ring, authOtp, auth, header), ring.getAuthLength(),
+					in.getLength() - OtpWorker.headerLength);
+			messageLength = in.getLength();
+		}
+		
+		long end = length < 0 ? Long.MAX_VALUE : offset + length;
+		long read = 0;
+		long body = 0;
+		boolean padding = false;
+		ContainerReader reader = new ContainerReader(in, encOtp, null);
+		byte[] zHead = new byte[5];
+		
+		while (read < messageLength && body < end && !padding)
+		{
+			byte type = reader.readByte();
+			read++;
 			
-			byte[] authCode = in.read(auth.getMacLength());
-			md.update(authCode);
-			
-			byte[] mac = auth.doFinal();
-			
-			ui.finishProgress();
-			
-			if (!Arrays.equals(mac, authCode))
-				throw new WorkResponse(2);
-			
-			BlockPlan eEndPlan = eStartPlan.clone();
-			try
+			switch (type)
 			{
-				ring.fastForwardPlan(eEndPlan, read);
+				case 1: // normal content
+					long containerLength = reader.readLong();
+					read += 8;
+					if (containerLength < 0 || containerLength > messageLength - read)
+						throw new WorkResponse(3);
+					
+					long from = Math.min(Math.max(offset - body, 0), containerLength);
+					long to = Math.max(Math.min(end - body, containerLength), from);
+					
+					OtpWorker.skipWorkload(ring, in, encOtp, from);
+					cryptWorkload(to - from, OtpWorker.ACTION_DECRYPT, in, out, null, encOtp, ui, null, metrics);
+					OtpWorker.skipWorkload(ring, in, encOtp, containerLength - to);
+					read += containerLength;
+					body += containerLength;
+					break;
+				
+				case 2: // compressed content
+					long zLength = reader.readLong();
+					System.arraycopy(reader.field(5), 0, zHead, 0, 5);
+					read += 13;
+					if (zLength < 6 || zLength > Math.min(messageLength - read + 5, OtpWorker.streamChunkSize + 5))
+						throw new WorkResponse(3);
+					int plainLength = ByteArray.toInt(Arrays.copyOfRange(zHead, 1, 5));
+					
+					// chunks in front of the range are skipped without decoding
+					if (body + plainLength <= offset)
+						OtpWorker.skipWorkload(ring, in, encOtp, zLength - 5);
+					else
+					{
+						byte[] z = reader.field((int) zLength - 5);
+						byte[] plain = OtpWorker.decodeChunk(zHead, z, (int) zLength - 5, codec, metrics);
+						int zFrom = (int) Math.max(offset - body, 0);
+						int zTo = (int) Math.min(end - body, plainLength);
+						out.write(plain, zFrom, zTo - zFrom);
+					}
+					read += zLength - 5;
+					body += plainLength;
+					break;
+				
+				case 3: // normal key management
+				case 6: // compact key management
+					reader.readByte();
+					int eLen = reader.readInt();
+					int aLen = reader.readInt();
+					read += 9;
+					if (eLen < 0 || aLen < 0 || (long) eLen + aLen > messageLength - read)
+						throw new WorkResponse(3);
+					
+					OtpWorker.skipWorkload(ring, in, encOtp, eLen + aLen);
+					read += eLen + aLen;
+					break;
+				
+				case 4: // sync-req
+				case 5: // sync-ack
+				case 7: // compact sync-ack
+					throw new WorkResponse(10);
+				
+				default: // padding up to the MAC
+					padding = true;
 			}
-			catch (KeyringResponse r)
+		}
+		
+		if (offset > body || (length >= 0 && end > body))
+			throw new WorkResponse(19);
+		
+		// skipped bytes are not covered by any check in format 2
+		return framed;
+	}
+	
+	/**
+	 * Skips bytes of the input together with the key bytes they were encrypted
+	 * with.
+	 */
+	private static void skipWorkload(KeyRing ring, Infile in, Otp otp, long count) throws Response
+	{
+		if (count <= 0)
+			return;
+		
+		in.skip(count);
+		try
+		{
+			ring.fastForwardPlan(otp.getPosition(), count);
+		}
+		catch (KeyringResponse r)
+		{
+			throw new WorkResponse(9, r);
+		}
+	}
+	
+	/**
+	 * Verifies and decrypts a list of messages, each to its own output. The
+	 * messages are grouped by the key id of their header, the key ring and the
+	 * Otps are initialized once per key and the key ring is stored once after
+	 * all messages of the key. A failing message does not stop the batch.
+	 * 
+	 * @param ring
+	 * Key ring module without key-id set
+	 * @param in
+	 * Input files to be decrypted
+	 * @param out
+	 * Output files for the plaintexts, one for each input file
+	 * @param encOtp
+	 * Otp used for encryption
+	 * @param authOtp
+	 * Otp used for authentication
+	 * @param auth
+	 * Authentication method
+	 * @param codec
+	 * Codec for compressed bodies, null if they are not supported
+	 * @param rng
+	 * Random number generator
+	 * @param ui
+	 * User interface
+	 * @param perMessage
+	 * Receives the result of every message, may be null
+	 * @return Result of the whole batch, including the errors of all messages
+	 */
+	public static Result decryptBatch(KeyRing ring, Infile[] in, Outfile[] out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, Rng rng, UserInterface ui, Result[] perMessage)
+	{
+		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
+		Result[] results = new Result[in.length];
+		boolean rngReady = false;
+		
+		try
+		{
+			metrics.begin(Metrics.STAGE_SETUP);
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			rng.initialize();
+			rngReady = true;
+			
+			// group the messages by key, in the order of first appearance
+			Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+			byte[][] headers = new byte[in.length][];
+			for (int i = 0; i < in.length; i++)
 			{
-				if (r.getErrorCode() == 9)
+				results[i] = new Result();
+				try
 				{
-					throw new WorkResponse(9, r);
+					in[i].initialize();
+					headers[i] = in[i].read(OtpWorker.headerLength);
+					if (headers[i][0] != 2 && headers[i][0] != 3)
+						throw new WorkResponse(1);
+					
+					String key = ByteArray.toHex(Arrays.copyOfRange(headers[i], 1, 5));
+					List<Integer> group = groups.get(key);
+					if (group == null)
+					{
+						group = new LinkedList<Integer>();
+						groups.put(key, group);
+					}
+					group.add(i);
 				}
-				else
-					throw r;
-			}
-			
-			BlockPlan aEndPlan = authOtp.getPosition();
-			
-			ui.verboseMessage("Message areas: " + eStartPlan + "- " + eEndPlan + ", " + aStartPlan + "- " + aEndPlan);
-			
-			boolean[] msginfo = ring.verifyMessage(md.digest(), eStartPlan, eEndPlan, aStartPlan, aEndPlan);
-			mi[0] = msginfo[0];
-			mi[1] = msginfo[1];
-			
-			if (!msginfo[0] && participant != ring.getKeyOwner())
-			{
-				if (sosMessage)
+				catch (Response e)
 				{
-					ring.updatePlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEndPlan);
-					ring.updatePlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEndPlan);
-					ring.keySetPartnerSync(null);
+					results[i].add(e);
 				}
-				else
+				finally
 				{
-					BlockPlan[] syncPlan = new BlockPlan[4];
-					syncPlan[participant | KeyRing.BLOCKTYPE_E] = eEndPlan;
-					syncPlan[participant | KeyRing.BLOCKTYPE_A] = aEndPlan;
-					ring.keySetPartnerSync(syncPlan);
+					results[i].add(in[i].finish(true));
 				}
-				throw new WorkResponse(13);
 			}
+			metrics.end(Metrics.STAGE_SETUP);
 			
-			if (sosMessage)
-			{
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEndPlan);
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEndPlan);
-			}
-			else
+			for (List<Integer> group : groups.values())
 			{
-				if (participant == ring.getKeyOwner())
+				boolean initialized = false;
+				try
 				{
-					if (eEndPlan.greaterThan(ring.getCurrentPlan(participant, KeyRing.BLOCKTYPE_E)) ||
-							aEndPlan.greaterThan(ring.getCurrentPlan(participant, KeyRing.BLOCKTYPE_A)))
+					byte[] header = headers[group.get(0)];
+					metrics.begin(Metrics.STAGE_RING_LOAD);
+					ring.selectKey(Arrays.copyOfRange(header, 1, 5), header[5]);
+					ring.initialize();
+					metrics.end(Metrics.STAGE_RING_LOAD);
+					initialized = true;
+					
+					metrics.begin(Metrics.STAGE_PAD_INIT);
+					encOtp.initialize();
+					authOtp.initialize();
+					metrics.end(Metrics.STAGE_PAD_INIT);
+					
+					for (int i : group)
 					{
-						if (ring.keyInSync())
-						{
-							ring.keySetSync(false);
-							throw new WorkResponse(12);
-						}
+						ui.verboseMessage("Decrypting message " + (i + 1) + " of " + in.length);
+						OtpWorker.decryptOne(ring, in[i], out[i], encOtp, authOtp, auth, codec, ui, md,
+								headers[i][0] == 3, results[i]);
+						metrics.add(results[i].getMetrics());
 					}
-					
 				}
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_E, eEndPlan);
-				ring.updatePlan(participant, KeyRing.BLOCKTYPE_A, aEndPlan);
+				catch (Response e)
+				{
+					// the key could not be loaded, all messages of the group fail
+					for (int i : group)
+						results[i].add(e);
+				}
+				finally
+				{
+					res.add(encOtp.finish(initialized));
+					res.add(authOtp.finish(initialized));
+					metrics.begin(Metrics.STAGE_RING_SAVE);
+					res.add(ring.finish(initialized));
+					metrics.end(Metrics.STAGE_RING_SAVE);
+				}
 			}
-			success = true;
 		}
 		catch (Response e)
 		{
@@ -826,683 +1114,2365 @@ public class OtpWorker
 		}
 		finally
 		{
+			for (int i = 0; i < in.length; i++)
+			{
+				if (results[i] == null)
+					continue;
+				if (perMessage != null)
+					perMessage[i] = results[i];
+				for (Response e : results[i].getErrors())
+					res.add(e);
+			}
+			res.add(rng.finish(rngReady));
+			if (codec != null)
+				res.add(codec.finish(rngReady));
+			metrics.end(Metrics.STAGE_TOTAL);
+		}
+		return res;
+	}
+	
+	/**
+	 * Verifies and decrypts one message of a batch with the key ring already
+	 * initialized. Framed messages are verified while they are decrypted.
+	 */
+	private static void decryptOne(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, UserInterface ui, MessageDigest md, boolean framed, Result res)
+	{
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
+		boolean[] mi = new boolean[2];
+		boolean verified = false;
+		boolean success = false;
+		
+		try
+		{
+			if (!framed)
+			{
+				in.initialize();
+				md.reset();
+				OtpWorker.verifyMessage(ring, in, authOtp, auth, ui, md, mi, metrics);
+				res.add(in.finish(true));
+				res.add(auth.finish(true));
+			}
+			verified = true;
+			
+			metrics.begin(Metrics.STAGE_SETUP);
+			in.initialize();
+			out.initialize();
+			metrics.end(Metrics.STAGE_SETUP);
+			OtpWorker.decryptMessage(ring, in, out, encOtp, authOtp, auth, codec, ui, mi[1], res, metrics);
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		finally
+		{
+			metrics.begin(Metrics.STAGE_FINISH);
 			res.add(in.finish(success));
+			if (verified)
+				res.add(out.finish(success));
 			res.add(auth.finish(success));
-			res.add(authOtp.finish(success));
-			res.add(ring.finish(success));
-			res.add(rng.finish(success));
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
 		}
-		return res;
 	}
 	
 	/**
-	 * Modifies a key to achieve plausible deniability. The OTP will be changed in
-	 * a way that decrypting one message will reveal a different message
-	 * afterwards.
+	 * Reads the format version of a message, the first byte of its header. The
+	 * input is finished afterwards and can be read again.
 	 * 
-	 * @param set
-	 * The KeySettings of the OTP to be modified
-	 * @param oldin
-	 * The (encrypted) original message
-	 * @param newin
-	 * The (plain) new message
-	 * @param eotp
-	 * The OTP to be modified
+	 * @param in
+	 * Input file of the message
+	 * @return Format version, 3 for messages in frames
+	 * @throws InfileResponse
+	 */
+	public static int messageFormat(Infile in) throws InfileResponse
+	{
+		in.initialize();
+		try
+		{
+			return in.read();
+		}
+		finally
+		{
+			in.finish(true);
+		}
+	}
+	
+	/**
+	 * Verifies the authentication of the given input
+	 * 
+	 * @param ring
+	 * Settings for the key to be used, without key-id set
+	 * @param in
+	 * Input file to be verified
+	 * @param authOtp
+	 * Otp used for authentication
+	 * @param auth
+	 * Authentication method
 	 * @param rng
 	 * Random number generator
 	 * @param ui
-	 * The user interface
-	 * @return
+	 * User interface
+	 * @return Result of verification
 	 */
-	public static Result modifyKey(KeyRing ring, Infile oldIn, Infile newIn, Otp encOtp, Otp authOtp, Authenticator auth,
-			Rng rng, UserInterface ui)
+	public static Result verify(KeyRing ring, Infile in, Otp authOtp, Authenticator auth, Rng rng, UserInterface ui,
+			boolean[] mi)
 	{
 		
 		Result res = new Result();
+		Metrics metrics = res.getMetrics();
+		metrics.begin(Metrics.STAGE_TOTAL);
 		boolean success = false;
+		if (mi == null || mi.length < 2)
+			mi = new boolean[2];
 		
 		try
 		{
-			oldIn.initialize();
+			metrics.begin(Metrics.STAGE_SETUP);
 			rng.initialize();
+			in.initialize();
 			
 			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			metrics.end(Metrics.STAGE_SETUP);
 			
-			byte[] header = new byte[OtpWorker.headerLength];
-			oldIn.read(header);
-			md.update(header);
-			
-			if (header[0] != 2)
-				throw new WorkResponse(1);
-			
-			byte[] padId = new byte[4];
-			System.arraycopy(header, 1, padId, 0, 4);
-			
-			int participant = header[5];
-			
-			byte[] encPos = new byte[8];
-			byte[] authPos = new byte[8];
-			
-			System.arraycopy(header, 6, encPos, 0, 8);
-			System.arraycopy(header, 14, authPos, 0, 8);
-			
-			ring.selectKey(padId, participant);
-			ring.initialize();
-			encOtp.initialize();
-			authOtp.initialize();
-			BlockPlan eStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos);
-			BlockPlan aStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos);
-			
-			encOtp.setPosition(eStartPlan.clone());
-			authOtp.setPosition(aStartPlan.clone());
-			
-			long filelength = oldIn.getLength();
-			
-			long messageLength = filelength - OtpWorker.headerLength - ring.getAuthLength();
-			
-			auth.setInputSize(messageLength + OtpWorker.headerLength);
-			auth.initialize();
-			auth.next(header);
-			
-			long read = 0;
-			byte[] keysync = null;
-			ui.verboseMessage("First pass...");
-			ui.initializeProgress(messageLength);
+			OtpWorker.verifyMessage(ring, in, authOtp, auth, ui, md, mi, metrics);
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			res.add(new WorkResponse(0, e));
+		}
+		finally
+		{
+			metrics.begin(Metrics.STAGE_FINISH);
+			res.add(in.finish(success));
+			res.add(auth.finish(success));
+			res.add(authOtp.finish(success));
+			metrics.begin(Metrics.STAGE_RING_SAVE);
+			res.add(ring.finish(success));
+			metrics.end(Metrics.STAGE_RING_SAVE);
+			res.add(rng.finish(success));
+			metrics.end(Metrics.STAGE_FINISH);
+			metrics.end(Metrics.STAGE_TOTAL);
+		}
+		return res;
+	}
+	
+	/**
+	 * Verifies one message of an initialized input and records it in the key
+	 * ring. Key ring and Otp are initialized if necessary, the authenticator
+	 * must not be initialized.
+	 */
+	private static void verifyMessage(KeyRing ring, Infile in, Otp authOtp, Authenticator auth, UserInterface ui,
+			MessageDigest md, boolean[] mi, Metrics metrics) throws Response
+	{
+		boolean sosMessage = false;
+		
+		byte[] header = new byte[OtpWorker.headerLength];
+		in.read(header);
+		md.update(header);
+		
+		if (header[0] != 2 && header[0] != 3)
+			throw new WorkResponse(1);
+		
+		byte[] padId = new byte[4];
+		System.arraycopy(header, 1, padId, 0, 4);
+		
+		int participant = header[5];
+		
+		byte[] encPos = new byte[8];
+		byte[] authPos = new byte[8];
+		
+		System.arraycopy(header, 6, encPos, 0, 8);
+		System.arraycopy(header, 14, authPos, 0, 8);
+		
+		metrics.begin(Metrics.STAGE_RING_LOAD);
+		ring.selectKey(padId, participant);
+		ring.initialize();
+		metrics.end(Metrics.STAGE_RING_LOAD);
+		
+		BlockPlan eStartPlan, aStartPlan;
+		try
+		// normal blocks
+		{
+			eStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos);
+			aStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos);
+		}
+		catch (KeyringResponse r)
+		{
+			if (r.getErrorCode() == 10) // try sos blocks
+			{
+				try
+				{
+					eStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, encPos);
+					aStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, authPos);
+					sosMessage = true;
+				}
+				catch (KeyringResponse s)
+				{
+					// maybe try temporary block list
+					// if (s.getErrorCode() == 10)
+					// {
+					// }
+					// else
+					throw new WorkResponse(9);
+				}
+			}
+			else
+				throw r;
+		}
+		
+		metrics.begin(Metrics.STAGE_PAD_INIT);
+		authOtp.setPosition(aStartPlan.clone());
+		authOtp.initialize();
+		metrics.end(Metrics.STAGE_PAD_INIT);
+		
+		long filelength = in.getLength();
+		long messageLength = filelength - OtpWorker.headerLength - ring.getAuthLength();
+		
+		// in format 3 every frame is checked while it is read
+		FramedInfile framedIn = null;
+		if (header[0] == 3)
+		{
+			framedIn = new FramedInfile(in, new FrameMac(ring, authOtp, auth, header), ring.getAuthLength(),
+					filelength - OtpWorker.headerLength);
+			in = framedIn;
+			auth = new NoAuth();
+			messageLength = in.getLength();
+		}
+		
+		auth.setInputSize(messageLength + OtpWorker.headerLength);
+		auth.initialize();
+		auth.next(header);
+		
+		long read = 0;
+		byte[] inx = new byte[OtpWorker.blocksize];
+		
+		ui.initializeProgress(messageLength);
+		metrics.begin(Metrics.STAGE_MAC);
+		
+		try
+		{
+			for (; read < messageLength - OtpWorker.blocksize; read += OtpWorker.blocksize)
+			{
+				in.read(inx);
+				md.update(inx);
+				auth.next(inx);
+				ui.updateProgress(read);
+			}
 			
-			while (read < messageLength)
+			if (read < messageLength)
 			{
-				byte[] typeEnc = oldIn.read(1);
-				auth.next(typeEnc);
-				md.update(typeEnc);
+				inx = new byte[(int) (messageLength - read)];
+				in.read(inx);
+				md.update(inx);
+				auth.next(inx);
+				read += inx.length;
+			}
+		}
+		catch (AuthResponse r)
+		{
+			// the authentication key runs into blocks that are not known
+			if (r.getCause() instanceof OtpResponse && ((OtpResponse) r.getCause()).getErrorCode() == 5)
+				throw new WorkResponse(9, r);
+			else
+				throw r;
+		}
+		
+		byte[] authCode = in.read(auth.getMacLength());
+		md.update(authCode);
+		
+		byte[] mac = auth.doFinal();
+		metrics.end(Metrics.STAGE_MAC, messageLength);
+		
+		ui.finishProgress();
+		
+		if (!Arrays.equals(mac, authCode))
+			throw new WorkResponse(2);
+		if (framedIn != null)
+			authOtp.setPosition(framedIn.keyEnd());
+		
+		BlockPlan eEndPlan = eStartPlan.clone();
+		try
+		{
+			ring.fastForwardPlan(eEndPlan, read);
+		}
+		catch (KeyringResponse r)
+		{
+			if (r.getErrorCode() == 9)
+			{
+				throw new WorkResponse(9, r);
+			}
+			else
+				throw r;
+		}
+		
+		BlockPlan aEndPlan = authOtp.getPosition();
+		
+		ui.verboseMessage("Message areas: " + eStartPlan + "- " + eEndPlan + ", " + aStartPlan + "- " + aEndPlan);
+		
+		metrics.begin(Metrics.STAGE_RING_UPDATE);
+		boolean[] msginfo = OtpWorker.recordMessage(ring, md.digest(), participant, sosMessage, eStartPlan, eEndPlan,
+				aStartPlan, aEndPlan);
+		mi[0] = msginfo[0];
+		mi[1] = msginfo[1];
+		metrics.end(Metrics.STAGE_RING_UPDATE);
+	}
+	
+	/**
+	 * Records a verified message in the key ring and moves the positions of its
+	 * sender behind it. A message using key areas of another message puts the
+	 * key out of sync.
+	 * 
+	 * @return [0] message is ok, [1] message is new
+	 */
+	private static boolean[] recordMessage(KeyRing ring, byte[] hash, int participant, boolean sosMessage,
+			BlockPlan eStartPlan, BlockPlan eEndPlan, BlockPlan aStartPlan, BlockPlan aEndPlan) throws Response
+	{
+		boolean[] msginfo = ring.verifyMessage(hash, eStartPlan, eEndPlan, aStartPlan, aEndPlan);
+		
+		if (!msginfo[0] && participant != ring.getKeyOwner())
+		{
+			if (sosMessage)
+			{
+				ring.updatePlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEndPlan);
+				ring.updatePlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEndPlan);
+				ring.keySetPartnerSync(null);
+			}
+			else
+			{
+				BlockPlan[] syncPlan = new BlockPlan[4];
+				syncPlan[participant | KeyRing.BLOCKTYPE_E] = eEndPlan;
+				syncPlan[participant | KeyRing.BLOCKTYPE_A] = aEndPlan;
+				ring.keySetPartnerSync(syncPlan);
+			}
+			throw new WorkResponse(13);
+		}
+		
+		if (sosMessage)
+		{
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEndPlan);
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEndPlan);
+		}
+		else
+		{
+			if (participant == ring.getKeyOwner())
+			{
+				if (eEndPlan.greaterThan(ring.getCurrentPlan(participant, KeyRing.BLOCKTYPE_E)) ||
+						aEndPlan.greaterThan(ring.getCurrentPlan(participant, KeyRing.BLOCKTYPE_A)))
+				{
+					if (ring.keyInSync())
+					{
+						ring.keySetSync(false);
+						throw new WorkResponse(12);
+					}
+				}
 				
-				byte type = ByteArray.xor(encOtp.next(1), typeEnc)[0];
-				read++;
-				switch (type)
+			}
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_E, eEndPlan);
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_A, aEndPlan);
+		}
+		return msginfo;
+	}
+	
+	/**
+	 * Decrypts one verified message of an initialized input to an initialized
+	 * output. Key ring and Otps are initialized if necessary, the authenticator
+	 * must not be initialized. Informational responses are added to res.
+	 * Messages in format 3 need not be verified before: their frames are
+	 * checked while they are read and the message is recorded in the key ring
+	 * afterwards, newmsg is ignored for them.
+	 */
+	private static void decryptMessage(KeyRing ring, Infile in, Outfile out, Otp encOtp, Otp authOtp,
+			Authenticator auth, Codec codec, UserInterface ui, boolean newmsg, Result res, Metrics metrics)
+			throws Response
+	{
+		boolean sosMessage = false;
+		
+		byte[] header = new byte[OtpWorker.headerLength];
+		in.read(header);
+		
+		if (header[0] != 2 && header[0] != 3)
+			throw new WorkResponse(1);
+		
+		byte[] padId = new byte[4];
+		System.arraycopy(header, 1, padId, 0, 4);
+		
+		int participant = header[5];
+		
+		byte[] encPos = new byte[8];
+		byte[] authPos = new byte[8];
+		
+		System.arraycopy(header, 6, encPos, 0, 8);
+		System.arraycopy(header, 14, authPos, 0, 8);
+		
+		metrics.begin(Metrics.STAGE_RING_LOAD);
+		ring.selectKey(padId, participant);
+		ring.initialize();
+		metrics.end(Metrics.STAGE_RING_LOAD);
+		
+		metrics.begin(Metrics.STAGE_PAD_INIT);
+		encOtp.initialize();
+		authOtp.initialize();
+		metrics.end(Metrics.STAGE_PAD_INIT);
+		
+		BlockPlan ePlan, aPlan;
+		try
+		// normal blocks
+		{
+			ePlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos);
+			aPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos);
+		}
+		catch (KeyringResponse r)
+		{
+			if (r.getErrorCode() == 10) // try sos blocks
+			{
+				try
 				{
-					case 1: // normal content
-						byte[] containerHeaderEnc = oldIn.read(8);
-						auth.next(containerHeaderEnc);
-						md.update(containerHeaderEnc);
-						
-						long bodyLength = ByteArray.toLong(ByteArray.xor(encOtp.next(8), containerHeaderEnc));
-						
-						if (bodyLength > messageLength - read - 8)
-							bodyLength = messageLength - read - 8;
+					ePlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, encPos);
+					aPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, authPos);
+					sosMessage = true;
+				}
+				catch (KeyringResponse s)
+				{
+					// unknown blocks, format 3 messages are not verified first
+					throw new WorkResponse(9);
+				}
+			}
+			else
+				throw r;
+		}
+		
+		encOtp.setPosition(ePlan);
+		authOtp.setPosition(aPlan);
+		
+		long filelength = in.getLength();
+		
+		long messageLength = filelength - OtpWorker.headerLength - ring.getAuthLength();
+		
+		// in format 3 no output is written before its frame was checked
+		FramedInfile framedIn = null;
+		MessageDigest md = null;
+		BlockPlan eStartPlan = null, eVerifiedPlan = null, aStartPlan = null, aVerifiedPlan = null;
+		if (header[0] == 3)
+		{
+			framedIn = new FramedInfile(in, new FrameMac(ring, authOtp, auth, header), ring.getAuthLength(),
+					filelength - OtpWorker.headerLength);
+			auth = new NoAuth();
+			messageLength = framedIn.getLength();
+			
+			// the areas are known in advance, a message is new if none of them
+			// was used before
+			eStartPlan = ePlan.clone();
+			aStartPlan = aPlan.clone();
+			eVerifiedPlan = ePlan.clone();
+			try
+			{
+				ring.fastForwardPlan(eVerifiedPlan, messageLength);
+				aVerifiedPlan = framedIn.keyEnd();
+			}
+			catch (KeyringResponse r)
+			{
+				if (r.getErrorCode() == 9)
+					throw new WorkResponse(9, r);
+				else
+					throw r;
+			}
+			newmsg = !ring.isAreaUsed(eStartPlan, eVerifiedPlan, aStartPlan, aVerifiedPlan);
+			
+			try
+			{
+				md = MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new WorkResponse(0, e);
+			}
+			md.update(header);
+			in = new DigestInfile(framedIn, md);
+		}
+		
+		auth.setInputSize(messageLength + OtpWorker.headerLength);
+		auth.initialize();
+		auth.next(header);
+		
+		long read = 0;
+		long bodyLength = 0;
+		ContainerReader reader = new ContainerReader(in, encOtp, auth);
+		byte[] zHead = new byte[5];
+		
+		while (read < messageLength)
+		{
+			byte type = reader.readByte();
+			read++;
+			
+			switch (type)
+			{
+				case 1: // normal content
+					if (sosMessage)
+						throw new WorkResponse(11);
+					long containerLength = reader.readLong();
+					
+					cryptWorkload(containerLength, OtpWorker.ACTION_DECRYPT, in, out, auth, encOtp, ui, null, metrics);
+					read += 8 + containerLength;
+					bodyLength += containerLength;
+					break;
+				
+				case 2: // compressed content
+					if (sosMessage)
+						throw new WorkResponse(11);
+					long zLength = reader.readLong();
+					System.arraycopy(reader.field(5), 0, zHead, 0, 5);
+					if (zLength < 6 || zLength > Math.min(messageLength - read - 8, OtpWorker.streamChunkSize + 5))
+						throw new WorkResponse(3);
+					
+					byte[] z = reader.field((int) zLength - 5);
+					if (codec == null)
+						ui.warningMessage("Compressed content not supported");
+					byte[] plain = OtpWorker.decodeChunk(zHead, z, (int) zLength - 5, codec, metrics);
+					
+					metrics.begin(Metrics.STAGE_WRITE);
+					out.write(plain);
+					metrics.end(Metrics.STAGE_WRITE, plain.length);
+					read += 8 + zLength;
+					bodyLength += plain.length;
+					break;
+				
+				case 3: // normal key management
+				case 6: // compact key management
+					if (sosMessage)
+						throw new WorkResponse(11);
+					
+					byte ksParticip = reader.readByte();
+					
+					if (ksParticip == participant)
+						throw new WorkResponse(0);
+					
+					int eLen = reader.readInt();
+					int aLen = reader.readInt();
+					
+					if (eLen < 0 || aLen < 0 || (long) eLen + aLen > messageLength - read - 9)
+						throw new WorkResponse(3);
+					if (type == 3 && (eLen % 4 > 0 || aLen % 4 > 0))
+						throw new WorkResponse(3);
+					
+					byte[] ksEotp = reader.readBytes(eLen);
+					byte[] ksAotp = reader.readBytes(aLen);
+					
+					read += 9 + eLen + aLen;
+					
+					if (type == 6)
+					{
+						try
+						{
+							ksEotp = BlockPlan.expandPlanCompact(ksEotp);
+							ksAotp = BlockPlan.expandPlanCompact(ksAotp);
+						}
+						catch (IllegalArgumentException e)
+						{
+							throw new WorkResponse(3, e);
+						}
+					}
+					
+					if (newmsg && participant != ring.getKeyOwner())
+					{
+						// the partner reads what it sends
+						if (type == 6)
+							ring.keySetPartnerCompact(true);
 						
-						byte[] msg = new byte[OtpWorker.blocksize];
-						for (long r = 0; r < bodyLength; r += msg.length)
+						try
 						{
-							if (bodyLength - r < msg.length)
-								msg = new byte[(int) (bodyLength - r)];
+							BlockPlan ksEnewPlan = ring.importPlan(ksParticip, KeyRing.BLOCKTYPE_E, ksEotp);
+							BlockPlan ksAnewPlan = ring.importPlan(ksParticip, KeyRing.BLOCKTYPE_A, ksAotp);
 							
-							oldIn.read(msg);
-							auth.next(msg);
-							md.update(msg);
-							encOtp.next(msg.length);
-							ui.updateProgress(read + r);
+							BlockPlan ksEcurPlan = ring.getCurrentPlan(ksParticip, KeyRing.BLOCKTYPE_E);
+							BlockPlan ksAcurPlan = ring.getCurrentPlan(ksParticip, KeyRing.BLOCKTYPE_A);
+							ring.addBlocks(ksParticip, KeyRing.BLOCKTYPE_E, ksEotp, 4);
+							ring.addBlocks(ksParticip, KeyRing.BLOCKTYPE_A, ksAotp, 4);
+							
+							if (ksEnewPlan.greaterThan(ksEcurPlan) || ksAnewPlan.greaterThan(ksAcurPlan))
+							{
+								if (ring.keyInSync())
+								{
+									ring.keySetSync(false);
+									throw new WorkResponse(12);
+								}
+							}
 						}
-						read += 8 + bodyLength;
-						break;
+						catch (KeyringResponse r)
+						{
+							if (ring.keyInSync())
+							{
+								ring.keySetSync(false);
+								throw new WorkResponse(12);
+							}
+						}
+					}
+					break;
+				
+				case 4: // sync-req
+					if (!sosMessage)
+						throw new WorkResponse(10);
+					int pLen = reader.readByte() & 0xff;
+					read++;
 					
-					case 2: // compressed content
-						throw new WorkResponse(6);
-						// break;
-						
-					case 3: // normal key-sync
-						
-						byte[] ksParticipEnc = oldIn.read(1);
-						auth.next(ksParticipEnc);
-						md.update(ksParticipEnc);
-						byte[] ksParticip = ByteArray.xor(ksParticipEnc, encOtp.next(1));
-						
-						byte[] eotpLenEnc = oldIn.read(4);
-						auth.next(eotpLenEnc);
-						md.update(eotpLenEnc);
-						byte[] eotpLen = ByteArray.xor(eotpLenEnc, encOtp.next(4));
-						
-						byte[] aotpLenEnc = oldIn.read(4);
-						auth.next(aotpLenEnc);
-						md.update(aotpLenEnc);
-						byte[] aotpLen = ByteArray.xor(aotpLenEnc, encOtp.next(4));
-						
-						byte[] syncE = oldIn.read(ByteArray.toInt(eotpLen) + ByteArray.toInt(aotpLen));
-						auth.next(syncE);
-						md.update(syncE);
-						byte[] sync = ByteArray.xor(syncE, encOtp.next(syncE.length));
-						
-						keysync = new byte[9 + sync.length];
-						System.arraycopy(ksParticip, 0, keysync, 0, 1);
-						System.arraycopy(eotpLen, 0, keysync, 1, 4);
-						System.arraycopy(aotpLen, 0, keysync, 5, 4);
-						System.arraycopy(sync, 0, keysync, 9, sync.length);
-						
-						read += keysync.length;
-						ui.updateProgress(read);
-						break;
+					reader.skip(pLen);
+					read += pLen;
 					
-					case 4:
-						throw new WorkResponse(8);
-						// break;
-						
-					case 5:
-						throw new WorkResponse(8);
-						// break;
+					BlockPlan[] syncPlans = new BlockPlan[4];
+					{
+						byte[] sync0eP = reader.readBytes(8);
+						byte[] sync0aP = reader.readBytes(8);
+						byte[] sync1eP = reader.readBytes(8);
+						byte[] sync1aP = reader.readBytes(8);
+						read += 32;
 						
-					default: // message padding
-						byte[] padd = new byte[OtpWorker.blocksize];
-						while (read < messageLength)
+						if (newmsg && participant != ring.getKeyOwner())
 						{
-							if (messageLength - read < padd.length)
-								padd = new byte[(int) (messageLength - read)];
-							
-							oldIn.read(padd);
-							auth.next(padd);
-							md.update(padd);
-							encOtp.next(padd);
-							read += padd.length;
-							ui.updateProgress(read);
+							try
+							{
+								syncPlans[KeyRing.BLOCKTYPE_E | 0] = ring.importPlan(0, KeyRing.BLOCKTYPE_E, sync0eP);
+								syncPlans[KeyRing.BLOCKTYPE_A | 0] = ring.importPlan(0, KeyRing.BLOCKTYPE_A, sync0aP);
+								syncPlans[KeyRing.BLOCKTYPE_E | 1] = ring.importPlan(1, KeyRing.BLOCKTYPE_E, sync1eP);
+								syncPlans[KeyRing.BLOCKTYPE_A | 1] = ring.importPlan(1, KeyRing.BLOCKTYPE_A, sync1aP);
+							}
+							catch (KeyringResponse r)
+							{
+								throw new WorkResponse(11, r);
+							}
+							ring.keySetPartnerSync(syncPlans);
+							// ui.warningMessage("Key-sync request recieved. Please generate and send a sync message as soon as possible by using the '--syncronize' parameter.");
+							res.add(new WorkResponse(true, 13));
 						}
+						else
+						{
+							if (newmsg)
+								throw new WorkResponse(11);
+							else
+								throw new WorkResponse(14);
+						}
+					}
+					break;
+				
+				case 5: // sync-ack
+				case 7: // compact sync-ack
+					if (!sosMessage)
+						throw new WorkResponse(10);
+					
+					ui.message("Syncing key...");
+					
+					int dateP = reader.readInt();
+					int now = (int) (System.currentTimeMillis() / 1000);
+					
+					// current date has to be within message creation and validity
+					// treshold
+					if (dateP > now + 60 || dateP + OtpWorker.syncValidityThreshold < now)
+						throw new WorkResponse(16);
+					
+					int sync0eLenP = reader.readInt();
+					int sync0aLenP = reader.readInt();
+					int sync1eLenP = reader.readInt();
+					int sync1aLenP = reader.readInt();
+					
+					byte[] sync0eP = reader.readBytes(sync0eLenP);
+					byte[] sync0aP = reader.readBytes(sync0aLenP);
+					byte[] sync1eP = reader.readBytes(sync1eLenP);
+					byte[] sync1aP = reader.readBytes(sync1aLenP);
+					
+					byte[] syncSoseP = reader.readBytes(8);
+					byte[] syncSosaP = reader.readBytes(8);
+					
+					read += sync0eLenP + sync0aLenP + sync1eLenP + sync1aLenP + 36;
+					
+					if (type == 7)
+					{
+						try
+						{
+							sync0eP = BlockPlan.expandPlanBetweenCompact(sync0eP);
+							sync0aP = BlockPlan.expandPlanBetweenCompact(sync0aP);
+							sync1eP = BlockPlan.expandPlanBetweenCompact(sync1eP);
+							sync1aP = BlockPlan.expandPlanBetweenCompact(sync1aP);
+						}
+						catch (IllegalArgumentException e)
+						{
+							throw new WorkResponse(11, e);
+						}
+					}
+					
+					if (newmsg && participant != ring.getKeyOwner())
+					{
+						// the partner reads what it sends
+						if (type == 7)
+							ring.keySetPartnerCompact(true);
+						
+						BlockPlan[] syncPlan = new BlockPlan[8];
+						int me = ring.getKeyOwner();
+						
+						ring.addBlocks(0, KeyRing.BLOCKTYPE_E, sync0eP, 4);
+						ring.addBlocks(0, KeyRing.BLOCKTYPE_A, sync0aP, 4);
+						ring.addBlocks(1, KeyRing.BLOCKTYPE_E, sync1eP, 4);
+						ring.addBlocks(1, KeyRing.BLOCKTYPE_A, sync1aP, 4);
+						
+						syncPlan[0 | KeyRing.BLOCKTYPE_E] = ring.importPlan(0, KeyRing.BLOCKTYPE_E, sync0eP);
+						syncPlan[0 | KeyRing.BLOCKTYPE_A] = ring.importPlan(0, KeyRing.BLOCKTYPE_A, sync0aP);
+						syncPlan[1 | KeyRing.BLOCKTYPE_E] = ring.importPlan(1, KeyRing.BLOCKTYPE_E, sync1eP);
+						syncPlan[1 | KeyRing.BLOCKTYPE_A] = ring.importPlan(1, KeyRing.BLOCKTYPE_A, sync1aP);
+						
+						syncPlan[me | KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS] = ring.importPlan(me, KeyRing.BLOCKTYPE_E |
+								KeyRing.BLOCKTYPE_SOS, syncSoseP);
+						syncPlan[me | KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS] = ring.importPlan(me, KeyRing.BLOCKTYPE_A |
+								KeyRing.BLOCKTYPE_SOS, syncSosaP);
+						
+						boolean possible = true;
+						int[] syncTypes = { 0 | KeyRing.BLOCKTYPE_E, 0 | KeyRing.BLOCKTYPE_A, 1 | KeyRing.BLOCKTYPE_E,
+								1 | KeyRing.BLOCKTYPE_A, me | KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS,
+								me | KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, };
+						
+						for (int bType : syncTypes)
+						{
+							BlockPlan curPlan = ring.getCurrentPlan(0, bType);
+							if (curPlan.greaterThan(syncPlan[bType]))
+							{
+								possible = false;
+							}
+						}
+						
+						if (ring.keyInSync())
+						{
+							if (syncPlan[me | KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS].greaterThan(ring.getCurrentPlan(me,
+									KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS)) ||
+									syncPlan[me | KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS].greaterThan(ring.getCurrentPlan(me,
+											KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS)))
+								ring.keySetSync(false);
+						}
+						
+						if (possible)
+						{
+							for (int bType : syncTypes)
+							{
+								ring.updatePlan(0, bType, syncPlan[bType]);
+							}
+							ring.keySetSync(true);
+							// ui.warningMessage("Key synced successfully.");
+							res.add(new WorkResponse(true, 15));
+						}
+						else
+							throw new WorkResponse(11);
+						
+					}
+					else
+						throw new WorkResponse(14);
+					break;
+				
+				default:
+					// message padding
+					reader.skip(messageLength - read);
+					read = messageLength;
+					break;
+				
+			}
+		}
+		
+		byte[] mac = auth.doFinal();
+		byte[] mac2 = in.read(mac.length);
+		
+		if (!Arrays.equals(mac, mac2))
+			throw new WorkResponse(2);
+		
+		if (!sosMessage && bodyLength == 0)
+		{
+			ui.warningMessage("Decoded message does not contain any output data");
+		}
+		
+		if (framedIn != null)
+			authOtp.setPosition(framedIn.keyEnd());
+		
+		metrics.begin(Metrics.STAGE_RING_UPDATE);
+		if (md != null)
+			OtpWorker.recordMessage(ring, md.digest(), participant, sosMessage, eStartPlan, eVerifiedPlan, aStartPlan,
+					aVerifiedPlan);
+		
+		BlockPlan eEndPlan = encOtp.getPosition();
+		BlockPlan aEndPlan = authOtp.getPosition();
+		
+		if (sosMessage)
+		{
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEndPlan);
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEndPlan);
+		}
+		else
+		{
+			if (participant != ring.getKeyOwner())
+			{
+				ring.fillPlan(eEndPlan);
+				ring.fillPlan(aEndPlan);
+			}
+			
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_E, eEndPlan);
+			ring.updatePlan(participant, KeyRing.BLOCKTYPE_A, aEndPlan);
+		}
+		metrics.end(Metrics.STAGE_RING_UPDATE);
+	}
+	
+	/**
+	 * Modifies a key to achieve plausible deniability. The OTP will be changed in
+	 * a way that decrypting one message will reveal a different message
+	 * afterwards. The message is checked and the key rewritten in a single pass;
+	 * if the message turns out to be invalid, the old key is restored.
+	 * 
+	 * @param set
+	 * The KeySettings of the OTP to be modified
+	 * @param oldin
+	 * The (encrypted) original message
+	 * @param newin
+	 * The (plain) new message
+	 * @param eotp
+	 * The OTP to be modified
+	 * @param codec
+	 * Codec to compress the new message with, if the original was compressed.
+	 * May be null
+	 * @param rng
+	 * Random number generator
+	 * @param ui
+	 * The user interface
+	 * @return
+	 */
+	public static Result modifyKey(KeyRing ring, Infile oldIn, Infile newIn, Otp encOtp, Otp authOtp, Authenticator auth,
+			Codec codec, Rng rng, UserInterface ui)
+	{
+		
+		Result res = new Result();
+		boolean success = false;
+		KeyRewriter rewriter = null;
+		
+		try
+		{
+			oldIn.initialize();
+			rng.initialize();
+			
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			
+			byte[] header = new byte[OtpWorker.headerLength];
+			oldIn.read(header);
+			md.update(header);
+			
+			if (header[0] != 2 && header[0] != 3)
+				throw new WorkResponse(1);
+			
+			byte[] padId = new byte[4];
+			System.arraycopy(header, 1, padId, 0, 4);
+			
+			int participant = header[5];
+			
+			byte[] encPos = new byte[8];
+			byte[] authPos = new byte[8];
+			
+			System.arraycopy(header, 6, encPos, 0, 8);
+			System.arraycopy(header, 14, authPos, 0, 8);
+			
+			ring.selectKey(padId, participant);
+			ring.initialize();
+			// the pad is rewritten, other processes must not use the key meanwhile
+			ring.lockExclusive();
+			encOtp.initialize();
+			authOtp.initialize();
+			BlockPlan eStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_E, encPos);
+			BlockPlan aStartPlan = ring.importPlan(participant, KeyRing.BLOCKTYPE_A, authPos);
+			
+			encOtp.setPosition(eStartPlan.clone());
+			authOtp.setPosition(aStartPlan.clone());
+			
+			long filelength = oldIn.getLength();
+			
+			long messageLength = filelength - OtpWorker.headerLength - ring.getAuthLength();
+			
+			// messages in format 3 are read and checked frame by frame
+			Infile old = oldIn;
+			FramedInfile framedOld = null;
+			if (header[0] == 3)
+			{
+				FrameMac frameMac = new FrameMac(ring, authOtp, auth, header);
+				framedOld = new FramedInfile(oldIn, frameMac, ring.getAuthLength(), filelength - OtpWorker.headerLength);
+				old = framedOld;
+				auth = new NoAuth();
+				messageLength = old.getLength();
+			}
+			
+			auth.setInputSize(messageLength + OtpWorker.headerLength);
+			auth.initialize();
+			auth.next(header);
+			
+			newIn.initialize();
+			rewriter = new KeyRewriter(encOtp, ring.getDirectory(), ByteArray.toHex(ring.getKeyId()));
+			
+			long read = 0;
+			ui.initializeProgress(messageLength);
+			
+			while (read < messageLength)
+			{
+				byte[] typeEnc = old.read(1);
+				auth.next(typeEnc);
+				md.update(typeEnc);
+				
+				byte type = rewriter.open(typeEnc)[0];
+				read++;
+				
+				// the new message replaces everything behind the key-sync
+				if (!rewriter.isStarted() && type != 3 && type != 6)
+				{
+					if (type == 4 || type == 5 || type == 7)
+						throw new WorkResponse(8);
+					
+					OtpWorker.startNewMessage(rewriter, newIn, type == 2 ? codec : null, messageLength - read + 1, rng,
+							ui, res.getMetrics());
+				}
+				
+				switch (type)
+				{
+					case 1: // normal content
+					case 2: // compressed content
+						byte[] containerHeaderEnc = old.read(8);
+						auth.next(containerHeaderEnc);
+						md.update(containerHeaderEnc);
+						
+						long bodyLength = ByteArray.toLong(rewriter.open(containerHeaderEnc));
+						
+						if (bodyLength > messageLength - read - 8)
+							bodyLength = messageLength - read - 8;
+						
+						read += 8;
+						read = OtpWorker.rewriteRun(old, auth, md, rewriter, bodyLength, read, ui);
+						break;
+					
+					case 3: // normal key-sync, kept as it is
+					case 6: // compact key-sync
+						if (rewriter.isStarted())
+							throw new WorkResponse(3);
+						
+						byte[] ksHeadEnc = old.read(9);
+						auth.next(ksHeadEnc);
+						md.update(ksHeadEnc);
+						byte[] ksHead = rewriter.open(ksHeadEnc);
+						
+						int syncLength = ByteArray.toInt(Arrays.copyOfRange(ksHead, 1, 5))
+								+ ByteArray.toInt(Arrays.copyOfRange(ksHead, 5, 9));
+						byte[] syncE = old.read(syncLength);
+						auth.next(syncE);
+						md.update(syncE);
+						rewriter.open(syncE);
+						
+						read += 9 + syncLength;
+						ui.updateProgress(read);
+						break;
+					
+					case 4:
+						throw new WorkResponse(8);
+						// break;
+					
+					case 5:
+					case 7:
+						throw new WorkResponse(8);
+						// break;
+					
+					default: // message padding
+						read = OtpWorker.rewriteRun(old, auth, md, rewriter, messageLength - read, read, ui);
 				}
 			}
+			rewriter.flush();
 			ui.finishProgress();
 			
+			if (!rewriter.isStarted())
+				throw new WorkResponse(5);
+			
 			byte[] mac = auth.doFinal();
-			byte[] mac2 = oldIn.read(mac.length);
+			byte[] mac2 = old.read(mac.length);
 			md.update(mac2);
 			
 			if (!Arrays.equals(mac, mac2))
 				throw new WorkResponse(2);
 			
+			if (framedOld != null)
+				authOtp.setPosition(framedOld.keyEnd());
+			
 			BlockPlan eEndPlan = encOtp.getPosition();
 			BlockPlan aEndPlan = authOtp.getPosition();
 			
 			if (!ring.verifyMessage(md.digest(), eStartPlan, eEndPlan, aStartPlan, aEndPlan)[0])
 				throw new WorkResponse(9);
 			
-			int identBytes = 3;
-			if (keysync == null)
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			res.add(new WorkResponse(0, e));
+		}
+		finally
+		{
+			// undo the new key before the OTP stores it
+			if (rewriter != null)
+				res.add(rewriter.finish(success));
+			res.add(oldIn.finish(success));
+			res.add(newIn.finish(success));
+			res.add(auth.finish(success));
+			res.add(encOtp.finish(success));
+			res.add(authOtp.finish(success));
+			if (codec != null)
+				res.add(codec.finish(success));
+			res.add(ring.finish(success));
+			res.add(rng.finish(success));
+		}
+		return res;
+		
+	}
+	
+	/**
+	 * Prepares the new message of modifyKey, which starts at the current region
+	 * of the rewriter. It is compressed like the original, so both look alike.
+	 * 
+	 * @param rewriter
+	 * @param newIn
+	 * The (plain) new message
+	 * @param codec
+	 * Codec to compress the new message with, null to store it uncompressed
+	 * @param available
+	 * Bytes left in the original message, from the current region on
+	 * @param rng
+	 * Random number generator for the padding
+	 * @param ui
+	 * @param metrics
+	 * @throws Response
+	 */
+	private static void startNewMessage(KeyRewriter rewriter, Infile newIn, Codec codec, long available, Rng rng,
+			UserInterface ui, Metrics metrics) throws Response
+	{
+		List<byte[]> parts = new ArrayList<byte[]>();
+		long bodySize = 9 + newIn.getLength();
+		long streamed = newIn.getLength();
+		
+		if (codec != null)
+		{
+			codec.reset();
+			List<BodyChunk> chunks = OtpWorker.compressBody(newIn, codec, metrics);
+			bodySize = 0;
+			streamed = 0;
+			for (BodyChunk c : chunks)
+			{
+				parts.add(c.head);
+				parts.add(c.data);
+				bodySize += c.size();
+			}
+		}
+		else
+		{
+			byte[] bodyHeader = new byte[9];
+			bodyHeader[0] = 1; // Type Body container
+			System.arraycopy(ByteArray.fromLong(newIn.getLength()), 0, bodyHeader, 1, 8);
+			parts.add(bodyHeader);
+		}
+		
+		// at least the first byte of the padding has to fit
+		if (bodySize + 1 > available)
+		{
+			ui.warningMessage("Given message length: " + newIn.getLength() + " byte");
+			if (codec != null)
+				ui.warningMessage("Compressed message length: " + (bodySize - 9) + " byte");
+			ui.warningMessage("Maximal message length: " + (available - 10) + " byte");
+			throw new WorkResponse(5);
+		}
+		
+		rewriter.start(parts, newIn, streamed, rng);
+	}
+	
+	/**
+	 * Reads a run of ciphertext in modifyKey and passes it to the rewriter
+	 * 
+	 * @return The number of message bytes read after the run
+	 * @throws Response
+	 */
+	private static long rewriteRun(Infile old, Authenticator auth, MessageDigest md, KeyRewriter rewriter, long length,
+			long read, UserInterface ui) throws Response
+	{
+		byte[] msg = new byte[OtpWorker.streamChunkSize];
+		for (long r = 0; r < length; r += msg.length)
+		{
+			if (length - r < msg.length)
+				msg = new byte[(int) (length - r)];
+			
+			old.read(msg);
+			auth.next(msg);
+			md.update(msg);
+			rewriter.open(msg);
+			ui.updateProgress(read + r);
+		}
+		return read + length;
+	}
+	
+	/**
+	 * Creates a synchronisation request, if the key is suspected out of date
+	 * 
+	 * @param ring
+	 * Settings for the key to be used, with key-id set
+	 * @param out
+	 * Output file for the result to be written to
+	 * @param encOtp
+	 * Otp used for encryption
+	 * @param authOtp
+	 * Otp used for authentication
+	 * @param auth
+	 * Authentication method
+	 * @param rng
+	 * Random number generator
+	 * @param ui
+	 * User interface
+	 * @return
+	 */
+	public static Result createSyncReq(KeyRing ring, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth, Rng rng,
+			UserInterface ui)
+	{
+		Result res = new Result();
+		boolean success = false;
+		
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			rng.initialize();
+			out.initialize();
+			
+			ring.initialize();
+			encOtp.initialize();
+			authOtp.initialize();
+			
+			BlockPlan eStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS);
+			BlockPlan aStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS);
+			
+			encOtp.setPosition(eStart.clone());
+			authOtp.setPosition(aStart.clone());
+			
+			int syncPadd = rng.nextInt(128);
+			int inputLength = syncPadd + 34;
+			int paddingLength = OtpWorker.getPaddingLength(ring.getPaddingParam1(), ring.getPaddingParam2(), rng);
+			
+			byte[] header = new byte[OtpWorker.headerLength];
+			
+			byte[] syncReq = new byte[inputLength];
+			
+			long size = 9 + inputLength + paddingLength;
+			
+			if (ring.remainingBytes(eStart) < size)
+				throw new WorkResponse(7);
+			
+			if (ring.remainingBytes(aStart) < auth.setInputSize(size + OtpWorker.headerLength))
+				throw new WorkResponse(7);
+			
+			auth.initialize();
+			
+			header[0] = 2; // message format version
+			System.arraycopy(ring.getKeyId(), 0, header, 1, 4);
+			header[5] = (byte) ring.getKeyOwner();
+			System.arraycopy(eStart.exportPlanShort(), 0, header, 6, 8);
+			System.arraycopy(aStart.exportPlanShort(), 0, header, 14, 8);
+			
+			out.write(header);
+			auth.next(header);
+			md.update(header);
+			
+			byte[] padd = rng.next(syncPadd);
+			byte[] syncPlan0e = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_E).exportPlanShort();
+			byte[] syncPlan0a = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_A).exportPlanShort();
+			byte[] syncPlan1e = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_E).exportPlanShort();
+			byte[] syncPlan1a = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_A).exportPlanShort();
+			
+			syncReq[0] = 4; // sync-req
+			syncReq[1] = ByteArray.fromInt(syncPadd)[3];
+			
+			System.arraycopy(padd, 0, syncReq, 2, syncPadd);
+			
+			System.arraycopy(syncPlan0e, 0, syncReq, syncPadd + 2, 8);
+			System.arraycopy(syncPlan0a, 0, syncReq, syncPadd + 10, 8);
+			System.arraycopy(syncPlan1e, 0, syncReq, syncPadd + 18, 8);
+			System.arraycopy(syncPlan1a, 0, syncReq, syncPadd + 26, 8);
+			
+			byte[] srEnc = ByteArray.xor(syncReq, encOtp.next(syncReq.length));
+			
+			out.write(srEnc);
+			auth.next(srEnc);
+			md.update(srEnc);
+			
+			byte[] padding = rng.next(paddingLength);
+			while (padding[0] > 0 && padding[0] < 10)
+				padding[0] = rng.next();
+			// Don't mimic other container types
+			
+			byte[] paddE = ByteArray.xor(padding, encOtp.next(padding.length));
+			out.write(paddE);
+			auth.next(paddE);
+			md.update(paddE);
+			
+			byte[] mac = auth.doFinal();
+			
+			out.write(mac);
+			md.update(mac);
+			
+			BlockPlan eEnd = encOtp.getPosition();
+			BlockPlan aEnd = authOtp.getPosition();
+			
+			ui.verboseMessage("Message areas: " + eStart + "- " + eEnd + ", " + aStart + "- " + aEnd);
+			
+			if (!ring.verifyMessage(md.digest(), eStart, eEnd, aStart, aEnd)[0])
+				throw new WorkResponse(0);
+			
+			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEnd);
+			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEnd);
+			
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			res.add(new WorkResponse(0, e));
+		}
+		finally
+		{
+			res.add(out.finish(success));
+			res.add(auth.finish(success));
+			res.add(encOtp.finish(success));
+			res.add(authOtp.finish(success));
+			res.add(ring.finish(success));
+			res.add(rng.finish(success));
+		}
+		return res;
+	}
+	
+	/**
+	 * Creates a synchronisation response, if the partners key is suspected out of
+	 * date
+	 * 
+	 * @param ring
+	 * Settings for the key to be used, with key-id set
+	 * @param out
+	 * Output file for the result to be written to
+	 * @param encOtp
+	 * Otp used for encryption
+	 * @param authOtp
+	 * Otp used for authentication
+	 * @param auth
+	 * Authentication method
+	 * @param rng
+	 * Random number generator
+	 * @param ui
+	 * User interface
+	 * @return
+	 */
+	public static Result createSyncAck(KeyRing ring, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth, Rng rng,
+			UserInterface ui)
+	{
+		Result res = new Result();
+		boolean success = false;
+		
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			rng.initialize();
+			out.initialize();
+			
+			ring.initialize();
+			encOtp.initialize();
+			authOtp.initialize();
+			
+			if (!ring.keyInSync())
+				throw new WorkResponse(12);
+			
+			BlockPlan eStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS);
+			BlockPlan aStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS);
+			
+			encOtp.setPosition(eStart.clone());
+			authOtp.setPosition(aStart.clone());
+			
+			BlockPlan[] oldPlan = ring.keyGetPartnerSync();
+			
+			// skip possibly dirty bytes
+			BlockPlan otherEPlan = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_E);
+			BlockPlan otherAPlan = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_A);
+			
+			ring.fastForwardPlan(otherEPlan, ring.remainingBytes(otherEPlan));
+			ring.fastForwardPlan(otherAPlan, ring.remainingBytes(otherAPlan));
+			ring.fillPlan(otherEPlan);
+			ring.fillPlan(otherAPlan);
+			ring.updatePlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_E, otherEPlan);
+			ring.updatePlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_A, otherAPlan);
+			
+			if (oldPlan[0 | KeyRing.BLOCKTYPE_E] != null &&
+					oldPlan[0 | KeyRing.BLOCKTYPE_E].greaterThan(ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_E)) ||
+					oldPlan[0 | KeyRing.BLOCKTYPE_A] != null &&
+					oldPlan[0 | KeyRing.BLOCKTYPE_A].greaterThan(ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_A)) ||
+					oldPlan[1 | KeyRing.BLOCKTYPE_E] != null &&
+					oldPlan[1 | KeyRing.BLOCKTYPE_E].greaterThan(ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_E)) ||
+					oldPlan[1 | KeyRing.BLOCKTYPE_A] != null &&
+					oldPlan[1 | KeyRing.BLOCKTYPE_A].greaterThan(ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_A)))
+			{
+				ui.warningMessage("Inconsistent key state, syncronisation not possible.");
+				throw new WorkResponse(12);
+			}
+			
+			// compact plans only for a partner known to read them
+			boolean compactSync = ring.keyPartnerCompact();
+			BlockPlan cur0e = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_E);
+			BlockPlan cur0a = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_A);
+			BlockPlan cur1e = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_E);
+			BlockPlan cur1a = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_A);
+			byte[] sync0e = compactSync ? cur0e.exportPlanBetweenCompact(oldPlan[0 | KeyRing.BLOCKTYPE_E]) : cur0e
+					.exportPlanBetween(oldPlan[0 | KeyRing.BLOCKTYPE_E]);
+			byte[] sync0a = compactSync ? cur0a.exportPlanBetweenCompact(oldPlan[0 | KeyRing.BLOCKTYPE_A]) : cur0a
+					.exportPlanBetween(oldPlan[0 | KeyRing.BLOCKTYPE_A]);
+			byte[] sync1e = compactSync ? cur1e.exportPlanBetweenCompact(oldPlan[1 | KeyRing.BLOCKTYPE_E]) : cur1e
+					.exportPlanBetween(oldPlan[1 | KeyRing.BLOCKTYPE_E]);
+			byte[] sync1a = compactSync ? cur1a.exportPlanBetweenCompact(oldPlan[1 | KeyRing.BLOCKTYPE_A]) : cur1a
+					.exportPlanBetween(oldPlan[1 | KeyRing.BLOCKTYPE_A]);
+			
+			byte[] sync0eLen = ByteArray.fromInt(sync0e.length);
+			byte[] sync0aLen = ByteArray.fromInt(sync0a.length);
+			byte[] sync1eLen = ByteArray.fromInt(sync1e.length);
+			byte[] sync1aLen = ByteArray.fromInt(sync1a.length);
+			
+			byte[] syncSose = ring.getCurrentPlan(1 - ring.getKeyOwner(), KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS).exportPlanShort();
+			byte[] syncSosa = ring.getCurrentPlan(1 - ring.getKeyOwner(), KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS).exportPlanShort();
+			
+			int inputLength = sync0e.length + sync0a.length + sync1e.length + sync1a.length + 37;
+			int paddingLength = OtpWorker.getPaddingLength(ring.getPaddingParam1(), ring.getPaddingParam2(), rng);
+			byte[] header = new byte[OtpWorker.headerLength];
+			
+			byte[] syncAck = new byte[inputLength];
+			
+			long size = 9 + inputLength + paddingLength;
+			
+			if (ring.remainingBytes(eStart) < size)
+				throw new WorkResponse(7);
+			
+			if (ring.remainingBytes(aStart) < auth.setInputSize(size + OtpWorker.headerLength))
+				throw new WorkResponse(7);
+			
+			auth.initialize();
+			
+			header[0] = 2; // message format version
+			System.arraycopy(ring.getKeyId(), 0, header, 1, 4);
+			header[5] = (byte) ring.getKeyOwner();
+			System.arraycopy(eStart.exportPlanShort(), 0, header, 6, 8);
+			System.arraycopy(aStart.exportPlanShort(), 0, header, 14, 8);
+			
+			out.write(header);
+			auth.next(header);
+			md.update(header);
+			
+			syncAck[0] = (byte) (compactSync ? 7 : 5); // (compact) sync-ack
+			System.arraycopy(ByteArray.fromInt((int) (System.currentTimeMillis() / 1000)), 0, syncAck, 1, 4);
+			
+			System.arraycopy(sync0eLen, 0, syncAck, 5, 4);
+			System.arraycopy(sync0aLen, 0, syncAck, 9, 4);
+			System.arraycopy(sync1eLen, 0, syncAck, 13, 4);
+			System.arraycopy(sync1aLen, 0, syncAck, 17, 4);
+			
+			System.arraycopy(sync0e, 0, syncAck, 21, sync0e.length);
+			System.arraycopy(sync0a, 0, syncAck, 21 + sync0e.length, sync0a.length);
+			System.arraycopy(sync1e, 0, syncAck, 21 + sync0e.length + sync0a.length, sync1e.length);
+			System.arraycopy(sync1a, 0, syncAck, 21 + sync0e.length + sync0a.length + sync1e.length, sync1a.length);
+			
+			System.arraycopy(syncSose, 0, syncAck, 21 + sync0e.length + sync0a.length + sync1e.length + sync1a.length, 8);
+			System.arraycopy(syncSosa, 0, syncAck, 21 + sync0e.length + sync0a.length + sync1e.length + sync1a.length + 8, 8);
+			
+			byte[] saEnc = ByteArray.xor(syncAck, encOtp.next(syncAck.length));
+			
+			out.write(saEnc);
+			auth.next(saEnc);
+			md.update(saEnc);
+			
+			byte[] padding = rng.next(paddingLength);
+			while (padding[0] > 0 && padding[0] < 10)
+				padding[0] = rng.next();
+			// Don't mimic other container types
+			
+			byte[] paddE = ByteArray.xor(padding, encOtp.next(padding.length));
+			out.write(paddE);
+			auth.next(paddE);
+			md.update(paddE);
+			
+			byte[] mac = auth.doFinal();
+			
+			out.write(mac);
+			md.update(mac);
+			
+			BlockPlan eEnd = encOtp.getPosition();
+			BlockPlan aEnd = authOtp.getPosition();
+			
+			ui.verboseMessage("Message areas: " + eStart + "- " + eEnd + ", " + aStart + "- " + aEnd);
+			
+			if (!ring.verifyMessage(md.digest(), eStart, eEnd, aStart, aEnd)[0])
+				throw new WorkResponse(0);
+			
+			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEnd);
+			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEnd);
+			
+			ring.keySetPartnerSync(null);
+			success = true;
+		}
+		catch (Response e)
+		{
+			res.add(e);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			res.add(new WorkResponse(0, e));
+		}
+		finally
+		{
+			res.add(out.finish(success));
+			res.add(auth.finish(success));
+			res.add(encOtp.finish(success));
+			res.add(authOtp.finish(success));
+			res.add(ring.finish(success));
+			res.add(rng.finish(success));
+		}
+		return res;
+	}
+	
+	private static void cryptWorkload(Long length, int direction, Infile in, Outfile out, Authenticator auth, Otp otp,
+			UserInterface ui, MessageDigest md, Metrics metrics) throws Response
+	{
+		long i = 0;
+		
+		if (length == null)
+			length = in.getLength();
+		
+		// the buffers are reused for every chunk, data is encrypted in place
+		int chunk = (int) Math.min(length, OtpWorker.streamChunkSize);
+		byte[] data = new byte[chunk];
+		byte[] key = new byte[chunk];
+		
+		// no progress is shown if ui is null
+		if (ui != null)
+			ui.initializeProgress(length);
+		
+		while (i < length)
+		{
+			if (ui != null)
+				ui.updateProgress(i);
+			
+			int n = (int) Math.min(chunk, length - i);
+			metrics.begin(Metrics.STAGE_READ);
+			in.read(data, 0, n);
+			metrics.end(Metrics.STAGE_READ, n);
+			
+			// authentication always covers the ciphertext
+			if (direction == OtpWorker.ACTION_DECRYPT && auth != null)
+			{
+				metrics.begin(Metrics.STAGE_MAC);
+				auth.next(data, 0, n);
+				if (md != null)
+					md.update(data, 0, n);
+				metrics.end(Metrics.STAGE_MAC, n);
+			}
+			
+			metrics.begin(Metrics.STAGE_PAD);
+			otp.next(key, 0, n);
+			metrics.end(Metrics.STAGE_PAD, n);
+			
+			metrics.begin(Metrics.STAGE_XOR);
+			ByteArray.xor(data, 0, key, 0, data, 0, n);
+			metrics.end(Metrics.STAGE_XOR, n);
+			
+			if (direction != OtpWorker.ACTION_DECRYPT)
+			{
+				metrics.begin(Metrics.STAGE_MAC);
+				auth.next(data, 0, n);
+				if (md != null)
+					md.update(data, 0, n);
+				metrics.end(Metrics.STAGE_MAC, n);
+			}
+			
+			metrics.begin(Metrics.STAGE_WRITE);
+			out.write(data, 0, n);
+			metrics.end(Metrics.STAGE_WRITE, n);
+			i += n;
+		}
+		if (ui != null)
+			ui.finishProgress();
+	}
+	
+	/**
+	 * Encrypts a stream of unknown length. The input is read in chunks, each
+	 * chunk is written as a separate body container, so no length has to be
+	 * known in advance.
+	 */
+	private static void streamWorkload(long capacity, Infile in, Outfile out, Authenticator auth, Otp otp,
+			Codec codec, MessageDigest md, Metrics metrics) throws Response
+	{
+		byte[] p = new byte[OtpWorker.streamChunkSize];
+		byte[] o = new byte[OtpWorker.streamChunkSize];
+		byte[] z = codec == null ? null : new byte[OtpWorker.streamChunkSize];
+		
+		boolean eof = false;
+		boolean first = true;
+		while (!eof)
+		{
+			// fill the chunk as far as possible to keep the container overhead low
+			metrics.begin(Metrics.STAGE_READ);
+			int len = 0;
+			while (len < p.length && !eof)
+			{
+				int r = in.readAvailable(p, len, p.length - len);
+				if (r < 0)
+					eof = true;
+				else
+					len += r;
+			}
+			metrics.end(Metrics.STAGE_READ, len);
+			
+			if (len == 0 && !first)
+				break;
+			first = false;
+			
+			BodyChunk c = new BodyChunk(p, len, codec, z, metrics);
+			capacity -= c.size();
+			if (capacity < 0)
+				throw new WorkResponse(7);
+			
+			c.write(out, auth, otp, o, md, metrics);
+		}
+	}
+	
+	/**
+	 * Reads the whole input and compresses it chunk by chunk
+	 */
+	private static List<BodyChunk> compressBody(Infile in, Codec codec, Metrics metrics) throws Response
+	{
+		long length = in.getLength();
+		List<BodyChunk> chunks = new ArrayList<BodyChunk>();
+		byte[] p = new byte[(int) Math.min(length, OtpWorker.streamChunkSize)];
+		byte[] z = new byte[p.length];
+		
+		long i = 0;
+		do
+		{
+			int n = (int) Math.min(p.length, length - i);
+			metrics.begin(Metrics.STAGE_READ);
+			in.read(p, 0, n);
+			metrics.end(Metrics.STAGE_READ, n);
+			
+			chunks.add(new BodyChunk(p, n, codec, z, metrics).detach());
+			i += n;
+		}
+		while (i < length);
+		
+		return chunks;
+	}
+	
+	/**
+	 * Restores the plaintext of a compressed container
+	 * 
+	 * @param head
+	 * Decrypted codec id and plain length
+	 * @param z
+	 * Decrypted compressed chunk
+	 * @param zLength
+	 * @param codec
+	 * @param metrics
+	 * @return Plain chunk
+	 * @throws WorkResponse
+	 */
+	private static byte[] decodeChunk(byte[] head, byte[] z, int zLength, Codec codec, Metrics metrics)
+			throws WorkResponse
+	{
+		if (codec == null || head[0] != codec.getId())
+			throw new WorkResponse(6);
+		
+		int plainLength = ByteArray.toInt(Arrays.copyOfRange(head, 1, 5));
+		if (plainLength <= 0 || plainLength > OtpWorker.streamChunkSize)
+			throw new WorkResponse(21);
+		
+		byte[] plain = new byte[plainLength];
+		metrics.begin(Metrics.STAGE_CODEC);
+		codec.decode(z, 0, zLength, plain, plainLength);
+		metrics.end(Metrics.STAGE_CODEC, plainLength);
+		return plain;
+	}
+	
+	/**
+	 * One chunk of the body together with its container header, compressed if
+	 * that makes it smaller
+	 */
+	private static class BodyChunk
+	{
+		private byte[] head;
+		private byte[] data;
+		private int length;
+		
+		private BodyChunk(byte[] p, int len, Codec codec, byte[] z, Metrics metrics) throws WorkResponse
+		{
+			// a compressed container has 5 bytes more header than a plain one
+			int zLength = -1;
+			if (codec != null)
+			{
+				metrics.begin(Metrics.STAGE_CODEC);
+				zLength = codec.compress(p, 0, len, z, len - 6);
+				metrics.end(Metrics.STAGE_CODEC, len);
+			}
+			
+			if (zLength < 0)
+			{
+				this.head = new byte[9];
+				this.head[0] = 1; // Type Body container
+				System.arraycopy(ByteArray.fromLong(len), 0, this.head, 1, 8);
+				this.data = p;
+				this.length = len;
+			}
+			else
+			{
+				this.head = new byte[14];
+				this.head[0] = 2; // Type Compressed body container
+				System.arraycopy(ByteArray.fromLong(zLength + 5), 0, this.head, 1, 8);
+				this.head[9] = codec.getId();
+				System.arraycopy(ByteArray.fromInt(len), 0, this.head, 10, 4);
+				this.data = z;
+				this.length = zLength;
+			}
+		}
+		
+		/**
+		 * Size of the container in the message
+		 */
+		private long size()
+		{
+			return this.head.length + this.length;
+		}
+		
+		/**
+		 * Copies the data, so the buffers it was created from can be reused
+		 */
+		private BodyChunk detach()
+		{
+			this.data = Arrays.copyOf(this.data, this.length);
+			return this;
+		}
+		
+		/**
+		 * Encrypts the container in place and writes it. key is a buffer of at least
+		 * the data length.
+		 */
+		private void write(Outfile out, Authenticator auth, Otp otp, byte[] key, MessageDigest md,
+				Metrics metrics) throws Response
+		{
+			byte[] hEnc = ByteArray.xor(this.head, otp.next(this.head.length));
+			out.write(hEnc);
+			auth.next(hEnc);
+			md.update(hEnc);
+			
+			int n = this.length;
+			metrics.begin(Metrics.STAGE_PAD);
+			otp.next(key, 0, n);
+			metrics.end(Metrics.STAGE_PAD, n);
+			
+			metrics.begin(Metrics.STAGE_XOR);
+			ByteArray.xor(this.data, 0, key, 0, this.data, 0, n);
+			metrics.end(Metrics.STAGE_XOR, n);
+			
+			metrics.begin(Metrics.STAGE_WRITE);
+			out.write(this.data, 0, n);
+			metrics.end(Metrics.STAGE_WRITE, n);
+			
+			metrics.begin(Metrics.STAGE_MAC);
+			auth.next(this.data, 0, n);
+			md.update(this.data, 0, n);
+			metrics.end(Metrics.STAGE_MAC, n);
+		}
+		
+	}
+	
+	/**
+	 * Reads and decrypts the container headers of a message through one reused
+	 * buffer. Fields are decoded in place, bodies are left to the bulk workload.
+	 */
+	private static class ContainerReader
+	{
+		private Infile in;
+		private Otp otp;
+		private Authenticator auth;
+		private byte[] buffer = new byte[OtpWorker.blocksize];
+		private byte[] key = new byte[OtpWorker.blocksize];
+		
+		/**
+		 * @param in
+		 * @param otp
+		 * @param auth
+		 * May be null if the message is not authenticated while it is read
+		 */
+		private ContainerReader(Infile in, Otp otp, Authenticator auth)
+		{
+			this.in = in;
+			this.otp = otp;
+			this.auth = auth;
+		}
+		
+		/**
+		 * Reads and decrypts a field
+		 * 
+		 * @param len
+		 * @return The internal buffer, holding the field in its first len bytes
+		 * until the next call
+		 */
+		private byte[] field(int len) throws Response
+		{
+			if (len < 0)
+				throw new WorkResponse(3);
+			if (len > this.buffer.length)
 			{
-				identBytes--;
-				keysync = new byte[0];
+				this.buffer = new byte[len];
+				this.key = new byte[len];
 			}
 			
-			ui.verboseMessage("Second pass...");
-			oldIn.initialize();
-			newIn.initialize();
-			
-			long newPaddingSize = messageLength - newIn.getLength() - 8 - keysync.length - identBytes;
-			if (newPaddingSize < 0)
+			this.in.read(this.buffer, 0, len);
+			if (this.auth != null)
+				this.auth.next(this.buffer, 0, len);
+			this.otp.next(this.key, 0, len);
+			ByteArray.xor(this.buffer, 0, this.key, 0, this.buffer, 0, len);
+			return this.buffer;
+		}
+		
+		private byte readByte() throws Response
+		{
+			return this.field(1)[0];
+		}
+		
+		private int readInt() throws Response
+		{
+			byte[] b = this.field(4);
+			return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+		}
+		
+		private long readLong() throws Response
+		{
+			byte[] b = this.field(8);
+			long l = 0;
+			for (int i = 0; i < 8; i++)
+				l = l << 8 | (b[i] & 0xff);
+			return l;
+		}
+		
+		/**
+		 * Reads and decrypts a field that is kept
+		 * 
+		 * @param len
+		 * @return A copy of the field
+		 */
+		private byte[] readBytes(int len) throws Response
+		{
+			return Arrays.copyOf(this.field(len), len);
+		}
+		
+		/**
+		 * Reads over padding, the key is consumed as well
+		 * 
+		 * @param count
+		 */
+		private void skip(long count) throws Response
+		{
+			while (count > 0)
 			{
-				ui.warningMessage("Given message length: " + newIn.getLength() + " byte");
-				ui.warningMessage("Maximal message length: " + (messageLength - 8 - keysync.length - identBytes) + " byte");
-				throw new WorkResponse(5);
+				int n = (int) Math.min(count, this.buffer.length);
+				this.field(n);
+				count -= n;
 			}
+		}
+	}
+	
+	/**
+	 * Replaces the key of a message while its ciphertext is read, so it decrypts
+	 * to a new message. Every region is decrypted with the old key first, and
+	 * only rewritten when the next region is opened, so the caller can decide
+	 * on the new message after looking at the region. Until the new message is
+	 * started, the old content is kept. The old key of every rewritten region is
+	 * journaled, so the changes can be undone.
+	 */
+	private static class KeyRewriter
+	{
+		private Otp otp;
+		private KeyJournal journal;
+		
+		// region opened last, not yet rewritten
+		private BlockPlan position = null;
+		private byte[] cipher;
+		private byte[] key;
+		
+		// new message: parts in memory, then streamed body, then padding
+		private boolean started = false;
+		private List<byte[]> parts;
+		private int part = 0;
+		private int partPos = 0;
+		private Infile body;
+		private long bodyLeft;
+		private Rng rng;
+		private boolean padding = false;
+		
+		private KeyRewriter(Otp otp, File journalDir, String keyId)
+		{
+			this.otp = otp;
+			this.journal = new KeyJournal(journalDir, keyId);
+		}
+		
+		/**
+		 * Decrypts the next region with the old key
+		 * 
+		 * @param c
+		 * Ciphertext of the region
+		 * @return The old plain text
+		 */
+		private byte[] open(byte[] c) throws Response
+		{
+			this.flush();
+			this.position = this.otp.getPosition().clone();
+			this.key = this.otp.next(c.length);
+			this.cipher = c;
+			return ByteArray.xor(c, this.key);
+		}
+		
+		private boolean isStarted()
+		{
+			return this.started;
+		}
+		
+		/**
+		 * Starts the new message at the region opened last
+		 * 
+		 * @param parts
+		 * Content of the new message held in memory
+		 * @param body
+		 * Input streamed after the parts
+		 * @param bodyLength
+		 * Bytes to be streamed from body
+		 * @param rng
+		 * Source of the padding behind the message
+		 */
+		private void start(List<byte[]> parts, Infile body, long bodyLength, Rng rng)
+		{
+			this.started = true;
+			this.parts = parts;
+			this.body = body;
+			this.bodyLeft = bodyLength;
+			this.rng = rng;
+		}
+		
+		/**
+		 * Rewrites the key of the region opened last
+		 */
+		private void flush() throws Response
+		{
+			if (this.cipher == null)
+				return;
 			
-			encOtp.setPosition(eStartPlan);
-			oldIn.read(OtpWorker.headerLength);
-			
-			byte[] in1, in2, newKey;
-			
-			// write key-sync
-			if (keysync.length > 0)
+			if (this.started)
 			{
-				in1 = oldIn.read(1);
-				in2 = new byte[] { 3 };
-				newKey = ByteArray.xor(in1, in2);
-				encOtp.writeNext(newKey);
+				int n = this.cipher.length;
+				byte[] newKey = new byte[n];
+				this.nextPlain(newKey, 0, n);
+				ByteArray.xor(this.cipher, newKey, newKey);
 				
-				in1 = oldIn.read(keysync.length);
-				in2 = keysync;
-				newKey = ByteArray.xor(in1, in2);
-				encOtp.writeNext(newKey);
+				try
+				{
+					this.journal.record(this.position, this.key, 0, n);
+				}
+				catch (IOException e)
+				{
+					throw new WorkResponse(0, e);
+				}
+				this.otp.setPosition(this.position);
+				this.otp.writeNext(newKey);
 			}
-			
-			// write message
-			in1 = oldIn.read(1);
-			in2 = new byte[] { 1 };
-			newKey = ByteArray.xor(in1, in2);
-			encOtp.writeNext(newKey);
-			
-			long bodyLength = newIn.getLength();
-			in1 = oldIn.read(8);
-			in2 = ByteArray.fromLong(bodyLength);
-			newKey = ByteArray.xor(in1, in2);
-			encOtp.writeNext(newKey);
-			
-			in1 = new byte[OtpWorker.blocksize];
-			in2 = new byte[OtpWorker.blocksize];
-			newKey = new byte[OtpWorker.blocksize];
-			
-			for (long r = 0; r < bodyLength; r += in1.length)
+			this.cipher = null;
+			this.key = null;
+		}
+		
+		private void nextPlain(byte[] b, int off, int len) throws Response
+		{
+			while (len > 0)
 			{
-				if (bodyLength - r < in1.length)
+				int n;
+				if (this.part < this.parts.size())
+				{
+					byte[] p = this.parts.get(this.part);
+					n = Math.min(len, p.length - this.partPos);
+					System.arraycopy(p, this.partPos, b, off, n);
+					this.partPos += n;
+					if (this.partPos == p.length)
+					{
+						this.part++;
+						this.partPos = 0;
+					}
+				}
+				else if (this.bodyLeft > 0)
 				{
-					in1 = new byte[(int) (bodyLength - r)];
-					in2 = new byte[(int) (bodyLength - r)];
-					newKey = new byte[(int) (bodyLength - r)];
+					n = (int) Math.min(len, this.bodyLeft);
+					this.body.read(b, off, n);
+					this.bodyLeft -= n;
 				}
-				
-				oldIn.read(in1);
-				newIn.read(in2);
-				ByteArray.xor(in1, in2, newKey);
-				encOtp.writeNext(newKey);
+				else if (!this.padding)
+				{
+					// Don't mimic other container types
+					n = 1;
+					b[off] = this.rng.next();
+					while (b[off] > 0 && b[off] < 10)
+						b[off] = this.rng.next();
+					this.padding = true;
+				}
+				else
+				{
+					n = len;
+					this.rng.next(b, off, n);
+				}
+				off += n;
+				len -= n;
 			}
-			
-			// write padding
-			in1 = oldIn.read(1);
-			in2 = rng.next(1);
-			
-			while (in2[0] > 0 && in2[0] < 10)
-				in2[0] = rng.next();
-			
-			newKey = ByteArray.xor(in1, in2);
-			encOtp.writeNext(newKey);
-			
-			in1 = new byte[OtpWorker.blocksize];
-			in2 = new byte[OtpWorker.blocksize];
-			newKey = new byte[OtpWorker.blocksize];
-			
-			for (long r = 0; r < newPaddingSize; r += in1.length)
+		}
+		
+		/**
+		 * Restores the old key of all rewritten regions, unless successful
+		 * 
+		 * @param success
+		 * @return
+		 */
+		private WorkResponse finish(boolean success)
+		{
+			try
 			{
-				if (newPaddingSize - r < in1.length)
+				if (!success)
 				{
-					in1 = new byte[(int) (newPaddingSize - r)];
-					in2 = new byte[(int) (newPaddingSize - r)];
-					newKey = new byte[(int) (newPaddingSize - r)];
+					for (int i = this.journal.size() - 1; i >= 0; i--)
+					{
+						this.otp.setPosition(this.journal.getPosition(i));
+						this.otp.writeNext(this.journal.getData(i));
+					}
 				}
-				
-				oldIn.read(in1);
-				rng.next(in2);
-				ByteArray.xor(in1, in2, newKey);
-				encOtp.writeNext(newKey);
 			}
-			
-			BlockPlan eEnd2 = encOtp.getPosition();
-			
-			if (!eEnd2.equalTo(eEndPlan))
-				throw new WorkResponse(0);
-			
-			success = true;
+			catch (Response e)
+			{
+				return new WorkResponse(0, e);
+			}
+			catch (IOException e)
+			{
+				return new WorkResponse(0, e);
+			}
+			finally
+			{
+				this.journal.clear();
+			}
+			return new WorkResponse(true);
 		}
-		catch (Response e)
+	}
+	
+	/**
+	 * Authenticates the frames of a message in format 3. Every frame has its own
+	 * MAC over the message header, the frame number, a flag for the last frame
+	 * and the ciphertext of the frame. Each frame uses a fixed share of the
+	 * authentication key, so a frame can be checked without the frames in front
+	 * of it.
+	 */
+	private static class FrameMac
+	{
+		private KeyRing ring;
+		private Otp otp;
+		private Authenticator auth;
+		private byte[] header;
+		private BlockPlan start;
+		private int frameKey;
+		
+		private FrameMac(KeyRing ring, Otp otp, Authenticator auth, byte[] header) throws Response
 		{
-			res.add(e);
+			this.ring = ring;
+			this.otp = otp;
+			this.auth = auth;
+			this.header = header;
+			this.start = otp.getPosition().clone();
+			this.frameKey = FrameMac.frameKey(auth);
 		}
-		catch (NoSuchAlgorithmException e)
+		
+		private static int frameKey(Authenticator auth) throws AuthResponse
 		{
-			res.add(new WorkResponse(0, e));
+			return auth.setInputSize(OtpWorker.headerLength + 9 + OtpWorker.frameSize);
 		}
-		finally
+		
+		/**
+		 * Authentication key used by a message of the given length
+		 */
+		private static long keyLength(Authenticator auth, long messageLength) throws AuthResponse
 		{
-			res.add(oldIn.finish(success));
-			res.add(newIn.finish(success));
-			res.add(auth.finish(success));
-			res.add(encOtp.finish(success));
-			res.add(authOtp.finish(success));
-			res.add(ring.finish(success));
-			res.add(rng.finish(success));
+			long frames = Math.max(1, (messageLength + OtpWorker.frameSize - 1) / OtpWorker.frameSize);
+			return frames * FrameMac.frameKey(auth);
 		}
-		return res;
 		
+		/**
+		 * Position of the authentication key of a frame
+		 */
+		private BlockPlan keyPosition(long frame) throws KeyringResponse
+		{
+			BlockPlan plan = this.start.clone();
+			this.ring.fastForwardPlan(plan, frame * this.frameKey);
+			return plan;
+		}
+		
+		private byte[] mac(long frame, boolean last, byte[] b, int off, int len) throws Response
+		{
+			BlockPlan end = this.keyPosition(frame + 1);
+			this.otp.setPosition(this.keyPosition(frame));
+			
+			this.auth.setInputSize(OtpWorker.headerLength + 9 + OtpWorker.frameSize);
+			this.auth.initialize();
+			byte[] mac;
+			try
+			{
+				this.auth.next(this.header);
+				this.auth.next(ByteArray.fromLong(frame));
+				this.auth.next((byte) (last ? 1 : 0));
+				this.auth.next(b, off, len);
+				mac = this.auth.doFinal();
+			}
+			finally
+			{
+				this.auth.finish(true);
+			}
+			
+			// a frame must not use the key of the next one
+			if (this.otp.getPosition().greaterThan(end))
+				throw new WorkResponse(0);
+			return mac;
+		}
 	}
 	
 	/**
-	 * Creates a synchronisation request, if the key is suspected out of date
-	 * 
-	 * @param ring
-	 * Settings for the key to be used, with key-id set
-	 * @param out
-	 * Output file for the result to be written to
-	 * @param encOtp
-	 * Otp used for encryption
-	 * @param authOtp
-	 * Otp used for authentication
-	 * @param auth
-	 * Authentication method
-	 * @param rng
-	 * Random number generator
-	 * @param ui
-	 * User interface
-	 * @return
+	 * Writes the ciphertext of a message in format 3, every frame followed by
+	 * its MAC. The last frame is written by writeLast(). The underlying output
+	 * is neither initialized nor finished here.
 	 */
-	public static Result createSyncReq(KeyRing ring, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth, Rng rng,
-			UserInterface ui)
+	private static class FramedOutfile extends Outfile
 	{
-		Result res = new Result();
-		boolean success = false;
+		private Outfile out;
+		private FrameMac mac;
+		private byte[] frame = new byte[OtpWorker.frameSize];
+		private int filled = 0;
+		private long frames = 0;
 		
-		try
+		private FramedOutfile(Outfile out, FrameMac mac)
 		{
-			MessageDigest md = MessageDigest.getInstance("SHA-256");
-			rng.initialize();
-			out.initialize();
-			
-			ring.initialize();
-			encOtp.initialize();
-			authOtp.initialize();
-			
-			BlockPlan eStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS);
-			BlockPlan aStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS);
-			
-			encOtp.setPosition(eStart.clone());
-			authOtp.setPosition(aStart.clone());
-			
-			int syncPadd = rng.nextInt(128);
-			int inputLength = syncPadd + 34;
-			int paddingLength = OtpWorker.getPaddingLength(ring.getPaddingParam1(), ring.getPaddingParam2(), rng);
-			
-			byte[] header = new byte[OtpWorker.headerLength];
-			
-			byte[] syncReq = new byte[inputLength];
-			
-			long size = 9 + inputLength + paddingLength;
-			
-			if (ring.remainingBytes(eStart) < size)
-				throw new WorkResponse(7);
-			
-			if (ring.remainingBytes(aStart) < auth.setInputSize(size + OtpWorker.headerLength))
-				throw new WorkResponse(7);
-			
-			auth.initialize();
-			
-			header[0] = 2; // message format version
-			System.arraycopy(ring.getKeyId(), 0, header, 1, 4);
-			header[5] = (byte) ring.getKeyOwner();
-			System.arraycopy(eStart.exportPlanShort(), 0, header, 6, 8);
-			System.arraycopy(aStart.exportPlanShort(), 0, header, 14, 8);
-			
-			out.write(header);
-			auth.next(header);
-			md.update(header);
-			
-			byte[] padd = rng.next(syncPadd);
-			byte[] syncPlan0e = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_E).exportPlanShort();
-			byte[] syncPlan0a = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_A).exportPlanShort();
-			byte[] syncPlan1e = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_E).exportPlanShort();
-			byte[] syncPlan1a = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_A).exportPlanShort();
-			
-			syncReq[0] = 4; // sync-req
-			syncReq[1] = ByteArray.fromInt(syncPadd)[3];
-			
-			System.arraycopy(padd, 0, syncReq, 2, syncPadd);
-			
-			System.arraycopy(syncPlan0e, 0, syncReq, syncPadd + 2, 8);
-			System.arraycopy(syncPlan0a, 0, syncReq, syncPadd + 10, 8);
-			System.arraycopy(syncPlan1e, 0, syncReq, syncPadd + 18, 8);
-			System.arraycopy(syncPlan1a, 0, syncReq, syncPadd + 26, 8);
-			
-			byte[] srEnc = ByteArray.xor(syncReq, encOtp.next(syncReq.length));
-			
-			out.write(srEnc);
-			auth.next(srEnc);
-			md.update(srEnc);
-			
-			byte[] padding = rng.next(paddingLength);
-			while (padding[0] > 0 && padding[0] < 10)
-				padding[0] = rng.next();
-			// Don't mimic other container types
-			
-			byte[] paddE = ByteArray.xor(padding, encOtp.next(padding.length));
-			out.write(paddE);
-			auth.next(paddE);
-			md.update(paddE);
-			
-			byte[] mac = auth.doFinal();
-			
-			out.write(mac);
-			md.update(mac);
-			
-			BlockPlan eEnd = encOtp.getPosition();
-			BlockPlan aEnd = authOtp.getPosition();
-			
-			ui.verboseMessage("Message areas: " + eStart + "- " + eEnd + ", " + aStart + "- " + aEnd);
-			
-			if (!ring.verifyMessage(md.digest(), eStart, eEnd, aStart, aEnd)[0])
-				throw new WorkResponse(0);
-			
-			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEnd);
-			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEnd);
-			
-			success = true;
+			this.out = out;
+			this.mac = mac;
+		}
+		
+		@Override
+		public void initialize()
+		{
+			this.filled = 0;
+			this.frames = 0;
+		}
+		
+		@Override
+		public void write(byte b) throws OutfileResponse
+		{
+			if (this.filled == this.frame.length)
+				this.writeFrame(false);
+			this.frame[this.filled++] = b;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws OutfileResponse
+		{
+			while (len > 0)
+			{
+				// a full frame is kept until more data follows, it might be the last
+				if (this.filled == this.frame.length)
+					this.writeFrame(false);
+				
+				int n = Math.min(len, this.frame.length - this.filled);
+				System.arraycopy(b, off, this.frame, this.filled, n);
+				this.filled += n;
+				off += n;
+				len -= n;
+			}
 		}
-		catch (Response e)
+		
+		/**
+		 * Writes the last frame and returns the end of the authentication key of
+		 * the message
+		 */
+		private BlockPlan writeLast() throws Response
 		{
-			res.add(e);
+			this.writeFrame(true);
+			return this.mac.keyPosition(this.frames);
 		}
-		catch (NoSuchAlgorithmException e)
+		
+		private void writeFrame(boolean last) throws OutfileResponse
 		{
-			res.add(new WorkResponse(0, e));
+			byte[] tag;
+			try
+			{
+				tag = this.mac.mac(this.frames, last, this.frame, 0, this.filled);
+			}
+			catch (Response e)
+			{
+				throw new OutfileResponse(4, e);
+			}
+			this.out.write(this.frame, 0, this.filled);
+			this.out.write(tag);
+			this.frames++;
+			this.filled = 0;
 		}
-		finally
+		
+		@Override
+		public OutfileResponse finish(boolean success)
 		{
-			res.add(out.finish(success));
-			res.add(auth.finish(success));
-			res.add(encOtp.finish(success));
-			res.add(authOtp.finish(success));
-			res.add(ring.finish(success));
-			res.add(rng.finish(success));
+			return new OutfileResponse(true);
 		}
-		return res;
 	}
 	
 	/**
-	 * Creates a synchronisation response, if the partners key is suspected out of
-	 * date
-	 * 
-	 * @param ring
-	 * Settings for the key to be used, with key-id set
-	 * @param out
-	 * Output file for the result to be written to
-	 * @param encOtp
-	 * Otp used for encryption
-	 * @param authOtp
-	 * Otp used for authentication
-	 * @param auth
-	 * Authentication method
-	 * @param rng
-	 * Random number generator
-	 * @param ui
-	 * User interface
-	 * @return
+	 * Reads the ciphertext of a message in format 3. A frame is checked before
+	 * any of its bytes are returned, skipped frames are not read at all. The
+	 * underlying input must be positioned behind the header and is not finished
+	 * here.
 	 */
-	public static Result createSyncAck(KeyRing ring, Outfile out, Otp encOtp, Otp authOtp, Authenticator auth, Rng rng,
-			UserInterface ui)
+	private static class FramedInfile extends Infile
 	{
-		Result res = new Result();
-		boolean success = false;
+		private Infile in;
+		private FrameMac mac;
+		private byte[] frame = new byte[OtpWorker.frameSize];
+		private byte[] tag;
+		private long length;
+		private long frames;
+		private long loaded = -1;
+		private long position = 0;
+		private long inPosition = 0;
 		
-		try
+		private FramedInfile(Infile in, FrameMac mac, int macLength, long framedLength) throws WorkResponse
 		{
-			MessageDigest md = MessageDigest.getInstance("SHA-256");
-			rng.initialize();
-			out.initialize();
-			
-			ring.initialize();
-			encOtp.initialize();
-			authOtp.initialize();
-			
-			if (!ring.keyInSync())
-				throw new WorkResponse(12);
-			
-			BlockPlan eStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS);
-			BlockPlan aStart = ring.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS);
-			
-			encOtp.setPosition(eStart.clone());
-			authOtp.setPosition(aStart.clone());
-			
-			BlockPlan[] oldPlan = ring.keyGetPartnerSync();
-			
-			// skip possibly dirty bytes
-			BlockPlan otherEPlan = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_E);
-			BlockPlan otherAPlan = ring.getCurrentPlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_A);
+			this.in = in;
+			this.mac = mac;
+			this.tag = new byte[macLength];
 			
-			ring.fastForwardPlan(otherEPlan, ring.remainingBytes(otherEPlan));
-			ring.fastForwardPlan(otherAPlan, ring.remainingBytes(otherAPlan));
-			ring.fillPlan(otherEPlan);
-			ring.fillPlan(otherAPlan);
-			ring.updatePlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_E, otherEPlan);
-			ring.updatePlan(KeyRing.PARTICIP_OTHER, KeyRing.BLOCKTYPE_A, otherAPlan);
+			long frameTotal = OtpWorker.frameSize + macLength;
+			this.frames = (framedLength + frameTotal - 1) / frameTotal;
+			this.length = framedLength - this.frames * macLength;
 			
-			if (oldPlan[0 | KeyRing.BLOCKTYPE_E] != null &&
-					oldPlan[0 | KeyRing.BLOCKTYPE_E].greaterThan(ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_E)) ||
-					oldPlan[0 | KeyRing.BLOCKTYPE_A] != null &&
-					oldPlan[0 | KeyRing.BLOCKTYPE_A].greaterThan(ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_A)) ||
-					oldPlan[1 | KeyRing.BLOCKTYPE_E] != null &&
-					oldPlan[1 | KeyRing.BLOCKTYPE_E].greaterThan(ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_E)) ||
-					oldPlan[1 | KeyRing.BLOCKTYPE_A] != null &&
-					oldPlan[1 | KeyRing.BLOCKTYPE_A].greaterThan(ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_A)))
+			// the last frame holds at least one byte
+			if (this.frames < 1 || this.length <= (this.frames - 1) * OtpWorker.frameSize)
+				throw new WorkResponse(3);
+		}
+		
+		@Override
+		public void initialize()
+		{
+		}
+		
+		@Override
+		public byte read() throws InfileResponse
+		{
+			this.load();
+			return this.frame[(int) (this.position++ % OtpWorker.frameSize)];
+		}
+		
+		@Override
+		public void read(byte[] b, int off, int len) throws InfileResponse
+		{
+			while (len > 0)
 			{
-				ui.warningMessage("Inconsistent key state, syncronisation not possible.");
-				throw new WorkResponse(12);
+				this.load();
+				int p = (int) (this.position % OtpWorker.frameSize);
+				int n = (int) Math.min(len, Math.min(OtpWorker.frameSize - p, this.length - this.position));
+				System.arraycopy(this.frame, p, b, off, n);
+				this.position += n;
+				off += n;
+				len -= n;
 			}
+		}
+		
+		@Override
+		public void skip(long count) throws InfileResponse
+		{
+			if (count > this.length - this.position)
+				throw new InfileResponse(2);
+			this.position += count;
+		}
+		
+		/**
+		 * Loads and checks the frame of the current position
+		 */
+		private void load() throws InfileResponse
+		{
+			if (this.position >= this.length)
+				throw new InfileResponse(2);
 			
-			byte[] sync0e = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_E).exportPlanBetween(oldPlan[0 | KeyRing.BLOCKTYPE_E]);
-			byte[] sync0a = ring.getCurrentPlan(0, KeyRing.BLOCKTYPE_A).exportPlanBetween(oldPlan[0 | KeyRing.BLOCKTYPE_A]);
-			byte[] sync1e = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_E).exportPlanBetween(oldPlan[1 | KeyRing.BLOCKTYPE_E]);
-			byte[] sync1a = ring.getCurrentPlan(1, KeyRing.BLOCKTYPE_A).exportPlanBetween(oldPlan[1 | KeyRing.BLOCKTYPE_A]);
-			
-			byte[] sync0eLen = ByteArray.fromInt(sync0e.length);
-			byte[] sync0aLen = ByteArray.fromInt(sync0a.length);
-			byte[] sync1eLen = ByteArray.fromInt(sync1e.length);
-			byte[] sync1aLen = ByteArray.fromInt(sync1a.length);
-			
-			byte[] syncSose = ring.getCurrentPlan(1 - ring.getKeyOwner(), KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS).exportPlanShort();
-			byte[] syncSosa = ring.getCurrentPlan(1 - ring.getKeyOwner(), KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS).exportPlanShort();
-			
-			int inputLength = sync0e.length + sync0a.length + sync1e.length + sync1a.length + 37;
-			int paddingLength = OtpWorker.getPaddingLength(ring.getPaddingParam1(), ring.getPaddingParam2(), rng);
-			byte[] header = new byte[OtpWorker.headerLength];
-			
-			byte[] syncAck = new byte[inputLength];
-			
-			long size = 9 + inputLength + paddingLength;
-			
-			if (ring.remainingBytes(eStart) < size)
-				throw new WorkResponse(7);
-			
-			if (ring.remainingBytes(aStart) < auth.setInputSize(size + OtpWorker.headerLength))
-				throw new WorkResponse(7);
-			
-			auth.initialize();
-			
-			header[0] = 2; // message format version
-			System.arraycopy(ring.getKeyId(), 0, header, 1, 4);
-			header[5] = (byte) ring.getKeyOwner();
-			System.arraycopy(eStart.exportPlanShort(), 0, header, 6, 8);
-			System.arraycopy(aStart.exportPlanShort(), 0, header, 14, 8);
-			
-			out.write(header);
-			auth.next(header);
-			md.update(header);
-			
-			syncAck[0] = 5; // sync-ack
-			System.arraycopy(ByteArray.fromInt((int) (System.currentTimeMillis() / 1000)), 0, syncAck, 1, 4);
-			
-			System.arraycopy(sync0eLen, 0, syncAck, 5, 4);
-			System.arraycopy(sync0aLen, 0, syncAck, 9, 4);
-			System.arraycopy(sync1eLen, 0, syncAck, 13, 4);
-			System.arraycopy(sync1aLen, 0, syncAck, 17, 4);
-			
-			System.arraycopy(sync0e, 0, syncAck, 21, sync0e.length);
-			System.arraycopy(sync0a, 0, syncAck, 21 + sync0e.length, sync0a.length);
-			System.arraycopy(sync1e, 0, syncAck, 21 + sync0e.length + sync0a.length, sync1e.length);
-			System.arraycopy(sync1a, 0, syncAck, 21 + sync0e.length + sync0a.length + sync1e.length, sync1a.length);
-			
-			System.arraycopy(syncSose, 0, syncAck, 21 + sync0e.length + sync0a.length + sync1e.length + sync1a.length, 8);
-			System.arraycopy(syncSosa, 0, syncAck, 21 + sync0e.length + sync0a.length + sync1e.length + sync1a.length + 8, 8);
-			
-			byte[] saEnc = ByteArray.xor(syncAck, encOtp.next(syncAck.length));
-			
-			out.write(saEnc);
-			auth.next(saEnc);
-			md.update(saEnc);
-			
-			byte[] padding = rng.next(paddingLength);
-			while (padding[0] > 0 && padding[0] < 10)
-				padding[0] = rng.next();
-			// Don't mimic other container types
-			
-			byte[] paddE = ByteArray.xor(padding, encOtp.next(padding.length));
-			out.write(paddE);
-			auth.next(paddE);
-			md.update(paddE);
-			
-			byte[] mac = auth.doFinal();
-			
-			out.write(mac);
-			md.update(mac);
-			
-			BlockPlan eEnd = encOtp.getPosition();
-			BlockPlan aEnd = authOtp.getPosition();
-			
-			ui.verboseMessage("Message areas: " + eStart + "- " + eEnd + ", " + aStart + "- " + aEnd);
+			long n = this.position / OtpWorker.frameSize;
+			if (n == this.loaded)
+				return;
 			
-			if (!ring.verifyMessage(md.digest(), eStart, eEnd, aStart, aEnd)[0])
-				throw new WorkResponse(0);
+			long start = n * (OtpWorker.frameSize + this.tag.length);
+			if (start < this.inPosition)
+				throw new InfileResponse(4);
 			
-			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E | KeyRing.BLOCKTYPE_SOS, eEnd);
-			ring.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS, aEnd);
+			int len = (int) Math.min(OtpWorker.frameSize, this.length - n * OtpWorker.frameSize);
+			this.in.skip(start - this.inPosition);
+			this.in.read(this.frame, 0, len);
+			this.in.read(this.tag);
+			this.inPosition = start + len + this.tag.length;
 			
-			ring.keySetPartnerSync(null);
-			success = true;
+			byte[] expected;
+			try
+			{
+				expected = this.mac.mac(n, n == this.frames - 1, this.frame, 0, len);
+			}
+			catch (Response e)
+			{
+				throw new InfileResponse(6, e);
+			}
+			if (!Arrays.equals(expected, this.tag))
+				throw new InfileResponse(5);
+			this.loaded = n;
 		}
-		catch (Response e)
+		
+		/**
+		 * End of the authentication key of the message
+		 */
+		private BlockPlan keyEnd() throws KeyringResponse
 		{
-			res.add(e);
+			return this.mac.keyPosition(this.frames);
 		}
-		catch (NoSuchAlgorithmException e)
+		
+		@Override
+		public long getLength()
 		{
-			res.add(new WorkResponse(0, e));
+			return this.length;
 		}
-		finally
+		
+		@Override
+		public long getRemainingLength()
 		{
-			res.add(out.finish(success));
-			res.add(auth.finish(success));
-			res.add(encOtp.finish(success));
-			res.add(authOtp.finish(success));
-			res.add(ring.finish(success));
-			res.add(rng.finish(success));
+			return this.length - this.position;
+		}
+		
+		@Override
+		public InfileResponse finish(boolean success)
+		{
+			return new InfileResponse(true);
 		}
-		return res;
 	}
 	
-	private static void cryptWorkload(Long length, int direction, Infile in, Outfile out, Authenticator auth, Otp otp,
-			UserInterface ui, MessageDigest md) throws Response
+	/**
+	 * Passes all bytes read from an input to a message digest. Skipped bytes
+	 * are read as well.
+	 */
+	private static class DigestInfile extends Infile
 	{
-		long i = 0;
-		int block_size = OtpWorker.blocksize;
-		byte[] p = new byte[block_size];
-		byte[] e = new byte[block_size];
-		byte[] o = new byte[block_size];
+		private Infile in;
+		private MessageDigest md;
 		
-		if (length == null)
-			length = in.getLength();
+		private DigestInfile(Infile in, MessageDigest md)
+		{
+			this.in = in;
+			this.md = md;
+		}
 		
-		ui.initializeProgress(length);
+		@Override
+		public void initialize() throws InfileResponse
+		{
+			this.in.initialize();
+		}
 		
-		while (i < length)
+		@Override
+		public byte read() throws InfileResponse
 		{
-			ui.updateProgress(i);
-			
-			if (i + block_size > length)
-			{
-				block_size = (int) (length - i);
-				p = new byte[block_size];
-				o = new byte[block_size];
-				e = new byte[block_size];
-			}
-			
-			in.read(p);
-			otp.next(o);
-			ByteArray.xor(p, o, e);
-			
-			auth.next(direction == OtpWorker.ACTION_DECRYPT ? p : e);
-			if (md != null)
-				md.update(direction == OtpWorker.ACTION_DECRYPT ? p : e);
-			out.write(e);
-			i += block_size;
+			byte b = this.in.read();
+			this.md.update(b);
+			return b;
+		}
+		
+		@Override
+		public void read(byte[] b, int off, int len) throws InfileResponse
+		{
+			this.in.read(b, off, len);
+			this.md.update(b, off, len);
+		}
+		
+		@Override
+		public long getLength() throws InfileResponse
+		{
+			return this.in.getLength();
+		}
+		
+		@Override
+		public long getRemainingLength() throws InfileResponse
+		{
+			return this.in.getRemainingLength();
+		}
+		
+		@Override
+		public InfileResponse finish(boolean success)
+		{
+			return this.in.finish(success);
+		}
+	}
+	
+	/**
+	 * Stands in for the message authenticator in format 3, where the frames are
+	 * authenticated instead of the message as a whole
+	 */
+	private static class NoAuth extends Authenticator
+	{
+		@Override
+		public int setInputSize(long filelength)
+		{
+			return 0;
+		}
+		
+		@Override
+		public void initialize()
+		{
+		}
+		
+		@Override
+		public void next(byte e)
+		{
+		}
+		
+		@Override
+		public void next(byte[] b, int off, int len)
+		{
+		}
+		
+		@Override
+		public byte[] doFinal()
+		{
+			return new byte[0];
+		}
+		
+		@Override
+		public int getMacLength()
+		{
+			return 0;
+		}
+		
+		@Override
+		public AuthResponse finish(boolean success)
+		{
+			return new AuthResponse(true);
 		}
-		ui.finishProgress();
 	}
 	
 	private static int getPaddingLength(int param1, int param2, Rng rng) throws RngResponse
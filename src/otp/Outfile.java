@@ -1,5 +1,7 @@
 package otp;
 
+import java.nio.ByteBuffer;
+
 import otp.response.OutfileResponse;
 
 public abstract class Outfile
@@ -31,10 +33,45 @@ public abstract class Outfile
 	 */
 	public void write(byte[] b) throws OutfileResponse
 	{
-		for (byte b1 : b)
+		this.write(b, 0, b.length);
+	}
+	
+	/**
+	 * Writes a part of a bytearray to the output stream. Needs to be initialized
+	 * first.
+	 * 
+	 * @param b
+	 * The bytearray to be written.
+	 * @param off
+	 * Position of the first byte to be written
+	 * @param len
+	 * Number of bytes to be written
+	 * @throws OutfileResponse
+	 */
+	public void write(byte[] b, int off, int len) throws OutfileResponse
+	{
+		for (int i = off; i < off + len; i++)
+			this.write(b[i]);
+	}
+	
+	/**
+	 * Writes the remaining bytes of the given buffer to the output stream. Needs to
+	 * be initialized first.
+	 * 
+	 * @param b
+	 * The buffer to be written.
+	 * @throws OutfileResponse
+	 */
+	public void write(ByteBuffer b) throws OutfileResponse
+	{
+		if (b.hasArray())
 		{
-			this.write(b1);
+			this.write(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
 		}
+		else
+			while (b.hasRemaining())
+				this.write(b.get());
 	}
 	
 	/**
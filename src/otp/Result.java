@@ -11,6 +11,7 @@ public class Result
 	private List<Response> errors;
 	private boolean success = true;
 	private int exitCode = 0;
+	private Metrics metrics = new Metrics();
 	
 	/**
 	 * Creates a new Result object.
@@ -85,6 +86,16 @@ public class Result
 		return this.responses;
 	}
 	
+	/**
+	 * Returns the timing and throughput counters of the operation.
+	 * 
+	 * @return The metrics, never null
+	 */
+	public Metrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
 	/**
 	 * Returns a List of all Responses that contain errors or nonzero exit codes.
 	 * 
@@ -1,11 +1,24 @@
 package otp;
 
-import otp.helpr.ByteArray;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import otp.response.RngResponse;
 
+/**
+ * Base class of all Rng modules. Random bytes are generated in blocks by the
+ * fill() method of the implementation and served from a buffer, so single
+ * bytes, integers and doubles are cheap to get.
+ */
 public abstract class Rng
 {
 	
+	private final static int bufferSize = 4096;
+	
+	private byte[] buffer = null;
+	private int position = 0;
+	private int available = 0;
+	
 	/**
 	 * Initializes the used PRNG or opens the random number stream.
 	 * 
@@ -21,13 +34,35 @@ public abstract class Rng
 	 */
 	public abstract void reseed() throws RngResponse;
 	
+	/**
+	 * Fills a part of an array with new random bytes from the underlying
+	 * source. Called by the buffer whenever it runs empty and directly for large
+	 * requests.
+	 * 
+	 * @param b
+	 * The array to be filled with random bytes
+	 * @param off
+	 * Position of the first byte to be filled
+	 * @param len
+	 * Number of bytes to be filled
+	 * @throws RngResponse
+	 */
+	protected abstract void fill(byte[] b, int off, int len) throws RngResponse;
+	
 	/**
 	 * Returns the next random byte. Needs to be initialized first.
 	 * 
 	 * @return The random byte
 	 * @throws RngResponse
 	 */
-	public abstract byte next() throws RngResponse;
+	public byte next() throws RngResponse
+	{
+		if (this.available == 0)
+			this.refill();
+		
+		this.available--;
+		return this.buffer[this.position++];
+	}
 	
 	/**
 	 * Returns an array of random bytes. Needs to be initialized first.
@@ -40,8 +75,7 @@ public abstract class Rng
 	public byte[] next(int numBytes) throws RngResponse
 	{
 		byte[] b = new byte[numBytes];
-		for (int i = 0; i < numBytes; i++)
-			b[i] = this.next();
+		this.next(b);
 		
 		return b;
 	}
@@ -55,8 +89,65 @@ public abstract class Rng
 	 */
 	public void next(byte[] b) throws RngResponse
 	{
-		for (int i = 0; i < b.length; i++)
-			b[i] = this.next();
+		this.next(b, 0, b.length);
+	}
+	
+	/**
+	 * Fills a part of an array with random bytes. Needs to be initialized first.
+	 * 
+	 * @param b
+	 * The array to be filled with random bytes
+	 * @param off
+	 * Position of the first byte to be filled
+	 * @param len
+	 * Number of bytes to be filled
+	 * @throws RngResponse
+	 */
+	public void next(byte[] b, int off, int len) throws RngResponse
+	{
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		
+		// use buffered bytes first
+		int n = Math.min(len, this.available);
+		if (n > 0)
+		{
+			System.arraycopy(this.buffer, this.position, b, off, n);
+			this.position += n;
+			this.available -= n;
+			off += n;
+			len -= n;
+		}
+		
+		if (len >= Rng.bufferSize)
+			this.fill(b, off, len);
+		else if (len > 0)
+		{
+			this.refill();
+			System.arraycopy(this.buffer, 0, b, off, len);
+			this.position = len;
+			this.available -= len;
+		}
+	}
+	
+	/**
+	 * Fills the remaining space of a buffer with random bytes. Needs to be
+	 * initialized first.
+	 * 
+	 * @param b
+	 * The buffer to be filled with random bytes
+	 * @throws RngResponse
+	 */
+	public void next(ByteBuffer b) throws RngResponse
+	{
+		if (b.hasArray())
+		{
+			this.next(b.array(), b.arrayOffset() + b.position(), b.remaining());
+			b.position(b.limit());
+		}
+		else
+			while (b.hasRemaining())
+				b.put(this.next());
 	}
 	
 	/**
@@ -74,14 +165,11 @@ public abstract class Rng
 		if (i <= 0)
 			throw new RngResponse(0);
 		
-		byte[] b = new byte[4];
 		int rand, res;
 		
 		do
 		{
-			this.next(b);
-			b[0] &= 127;
-			rand = ByteArray.toInt(b);
+			rand = (int) this.nextBits(4) & 0x7FFFFFFF;
 			res = rand % i;
 		}
 		while (rand - res + (i - 1) < 0);
@@ -96,9 +184,46 @@ public abstract class Rng
 	 */
 	public double nextDouble() throws RngResponse
 	{
-		byte[] r = new byte[8];
-		System.arraycopy(this.next(7), 0, r, 1, 7);
-		return (double) (ByteArray.toLong(r) & 0x001FFFFFFFFFFFFFL) / 9007199254740992D;
+		return (double) (this.nextBits(7) & 0x001FFFFFFFFFFFFFL) / 9007199254740992D;
+	}
+	
+	/**
+	 * Drops all buffered random bytes and overwrites the buffer. Implementations
+	 * call this when reseeding or finishing, so no bytes generated before are
+	 * returned afterwards.
+	 */
+	protected void discard()
+	{
+		if (this.buffer != null)
+			Arrays.fill(this.buffer, (byte) 0);
+		this.position = 0;
+		this.available = 0;
+	}
+	
+	/**
+	 * Reads a number of bytes from the buffer as big endian value.
+	 * 
+	 * @param numBytes
+	 * Number of bytes, at most 8
+	 * @return The value
+	 * @throws RngResponse
+	 */
+	private long nextBits(int numBytes) throws RngResponse
+	{
+		long r = 0;
+		for (int i = 0; i < numBytes; i++)
+			r = (r << 8) | (this.next() & 0xFF);
+		return r;
+	}
+	
+	private void refill() throws RngResponse
+	{
+		if (this.buffer == null)
+			this.buffer = new byte[Rng.bufferSize];
+		
+		this.fill(this.buffer, 0, this.buffer.length);
+		this.position = 0;
+		this.available = this.buffer.length;
 	}
 	
 	/**
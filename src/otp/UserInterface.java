@@ -6,7 +6,8 @@ public abstract class UserInterface
 {
 	
 	/**
-	 * Initializes the progress-display.
+	 * Initializes the progress-display. Progress is counted in bytes, so the
+	 * display may show the throughput.
 	 * 
 	 * @param max
 	 * The maximum number the progress will reach
@@ -14,7 +15,9 @@ public abstract class UserInterface
 	public abstract void initializeProgress(long max);
 	
 	/**
-	 * Updates a progress-display. Needs to be initialized first.
+	 * Updates a progress-display. Needs to be initialized first. Called very
+	 * often by the workers, so implementations should only store the value and
+	 * display it asynchronously.
 	 * 
 	 * @param current
 	 * The current number the progress has reached
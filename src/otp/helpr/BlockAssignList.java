@@ -1,6 +1,6 @@
 package otp.helpr;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class BlockAssignList
@@ -10,13 +10,13 @@ public class BlockAssignList
 	
 	public BlockAssignList(BlockAssignList[] others)
 	{
-		this.blocks = new LinkedList<Integer>();
+		this.blocks = new ArrayList<Integer>();
 		this.others = others;
 	}
 	
 	public BlockAssignList(byte[] importList, BlockAssignList[] others)
 	{
-		this.blocks = new LinkedList<Integer>();
+		this.blocks = new ArrayList<Integer>(importList.length / 4);
 		
 		byte[] n = new byte[4];
 		
@@ -36,12 +36,51 @@ public class BlockAssignList
 	 */
 	public byte[] exportList()
 	{
-		ByteArrayBuilder out = new ByteArrayBuilder();
-		for (int i = 0; i < this.blocks.size(); i++)
-			out.addAll(ByteArray.fromInt(this.blocks.get(i)));
+		ByteArrayBuilder out = new ByteArrayBuilder(4 * this.blocks.size());
+		for (Integer blockId : this.blocks)
+			out.addInt(blockId);
+		return out.toArray();
+	}
+	
+	/**
+	 * Generates a byte array containing all block ids, encoded by BlockListCodec
+	 * 
+	 * @return
+	 */
+	public byte[] exportCompact()
+	{
+		int[] bl = new int[this.blocks.size()];
+		for (int i = 0; i < bl.length; i++)
+			bl[i] = this.blocks.get(i);
+		
+		ByteArrayBuilder out = new ByteArrayBuilder(16);
+		BlockListCodec.encode(out, bl, 0, bl.length);
 		return out.toArray();
 	}
 	
+	/**
+	 * Creates a list from the output of exportCompact()
+	 * 
+	 * @param compact
+	 * @param others
+	 * @return
+	 * @throws IllegalArgumentException
+	 * if the compact list is malformed
+	 */
+	public static BlockAssignList importCompact(byte[] compact, BlockAssignList[] others)
+			throws IllegalArgumentException
+	{
+		int[] pos = new int[] { 0 };
+		int[] bl = BlockListCodec.decode(compact, pos);
+		if (pos[0] != compact.length)
+			throw new IllegalArgumentException("Invalid block list");
+		
+		BlockAssignList list = new BlockAssignList(others);
+		for (int b : bl)
+			list.blocks.add(b);
+		return list;
+	}
+	
 	/**
 	 * Checks if a certain block id is contained in the list
 	 * 
@@ -1,5 +1,7 @@
 package otp.helpr;
 
+import java.util.Arrays;
+
 public class BlockData
 {
 	private int blockId;
@@ -7,12 +9,54 @@ public class BlockData
 	private int length;
 	private int[] skipBytes;
 	
+	// readable runs: first key byte, position in the block and length
+	private int[] runOffset;
+	private int[] runStart;
+	private int[] runLength;
+	
+	/**
+	 * Creates new BlockData and precomputes the runs of readable bytes between
+	 * the skip bytes
+	 * 
+	 * @param blockId
+	 * @param startAddress
+	 * @param length
+	 * @param skipBytes
+	 * Positions of the skip bytes, sorted
+	 */
 	public BlockData(int blockId, long startAddress, int length, int[] skipBytes)
 	{
 		this.blockId = blockId;
 		this.startAddress = startAddress;
 		this.length = length;
 		this.skipBytes = skipBytes;
+		
+		int[] offset = new int[skipBytes.length + 1];
+		int[] start = new int[skipBytes.length + 1];
+		int[] len = new int[skipBytes.length + 1];
+		int runs = 0;
+		
+		// a key byte is moved behind every skip byte up to its own position, a
+		// skip byte listed twice moves it twice
+		int size = this.calculateSize();
+		int pos = 0;
+		int k = 0;
+		while (pos < size)
+		{
+			while (k < skipBytes.length && skipBytes[k] <= pos + k)
+				k++;
+			int stop = k < skipBytes.length ? skipBytes[k] : length;
+			
+			offset[runs] = pos;
+			start[runs] = pos + k;
+			len[runs] = Math.min(stop - (pos + k), size - pos);
+			pos += len[runs];
+			runs++;
+		}
+		
+		this.runOffset = Arrays.copyOf(offset, runs);
+		this.runStart = Arrays.copyOf(start, runs);
+		this.runLength = Arrays.copyOf(len, runs);
 	}
 	
 	/**
@@ -46,7 +90,7 @@ public class BlockData
 	}
 	
 	/**
-	 * Returns the positions of skip bytes in the block
+	 * Returns the positions of skip bytes in the block, sorted
 	 * 
 	 * @return
 	 */
@@ -64,4 +108,54 @@ public class BlockData
 	{
 		return this.length - this.skipBytes.length;
 	}
+	
+	/**
+	 * Returns the run of readable bytes a key byte lies in
+	 * 
+	 * @param pointer
+	 * Number of the key byte in the block
+	 * @return Index of the run, the number of runs if pointer lies behind the
+	 * last one
+	 */
+	public int findRun(int pointer)
+	{
+		if (pointer >= this.calculateSize())
+			return this.runOffset.length;
+		
+		int run = Arrays.binarySearch(this.runOffset, pointer);
+		return run >= 0 ? run : -run - 2;
+	}
+	
+	/**
+	 * Returns the number of the first key byte of a run
+	 * 
+	 * @param run
+	 * @return
+	 */
+	public int getRunOffset(int run)
+	{
+		return this.runOffset[run];
+	}
+	
+	/**
+	 * Returns the position of a run in the block
+	 * 
+	 * @param run
+	 * @return
+	 */
+	public int getRunStart(int run)
+	{
+		return this.runStart[run];
+	}
+	
+	/**
+	 * Returns the number of key bytes in a run
+	 * 
+	 * @param run
+	 * @return
+	 */
+	public int getRunLength(int run)
+	{
+		return this.runLength[run];
+	}
 }
@@ -0,0 +1,122 @@
+package otp.helpr;
+
+/**
+ * Compact encoding of block id lists. Blocks are mostly assigned in order from
+ * either end of the pad, so a list consists of a few ascending or descending
+ * runs. The encoding holds the number of blocks and the first block id as
+ * varints, followed by the runs of blocks with the same distance to their
+ * predecessor, each as the zigzag encoded distance and the length of the run.
+ */
+public class BlockListCodec
+{
+	// most blocks a list may decode to
+	private final static int blockLimit = 1 << 24;
+	
+	/**
+	 * Encodes a part of a block id list
+	 * 
+	 * @param out
+	 * Builder the encoded list is added to
+	 * @param blocks
+	 * Block ids, not negative
+	 * @param off
+	 * @param len
+	 * Number of blocks
+	 */
+	public static void encode(ByteArrayBuilder out, int[] blocks, int off, int len)
+	{
+		out.addVarInt(len);
+		if (len == 0)
+			return;
+		
+		int prev = blocks[off];
+		out.addVarInt(prev);
+		
+		int i = off + 1;
+		int end = off + len;
+		while (i < end)
+		{
+			int step = blocks[i] - prev;
+			int run = 0;
+			while (i < end && blocks[i] - prev == step)
+			{
+				prev = blocks[i];
+				i++;
+				run++;
+			}
+			out.addVarInt((step << 1) ^ (step >> 31));
+			out.addVarInt(run);
+		}
+	}
+	
+	/**
+	 * Decodes a block id list
+	 * 
+	 * @param in
+	 * @param pos
+	 * Position of the list in in, moved behind it
+	 * @return The block ids
+	 * @throws IllegalArgumentException
+	 * if the list is malformed
+	 */
+	public static int[] decode(byte[] in, int[] pos) throws IllegalArgumentException
+	{
+		int count = BlockListCodec.readVarInt(in, pos);
+		if (count < 0 || count > BlockListCodec.blockLimit)
+			throw new IllegalArgumentException("Invalid block list");
+		if (count == 0)
+			return new int[0];
+		
+		int block = BlockListCodec.readVarInt(in, pos);
+		if (block < 0)
+			throw new IllegalArgumentException("Invalid block list");
+		
+		int[] blocks = new int[count];
+		blocks[0] = block;
+		
+		int added = 1;
+		while (added < count)
+		{
+			int zigzag = BlockListCodec.readVarInt(in, pos);
+			int step = (zigzag >>> 1) ^ -(zigzag & 1);
+			int run = BlockListCodec.readVarInt(in, pos);
+			if (run < 1 || run > count - added)
+				throw new IllegalArgumentException("Invalid block list");
+			
+			for (int r = 0; r < run; r++)
+			{
+				block += step;
+				if (block < 0)
+					throw new IllegalArgumentException("Invalid block list");
+				blocks[added++] = block;
+			}
+		}
+		return blocks;
+	}
+	
+	/**
+	 * Reads a varint as written by ByteArrayBuilder.addVarInt()
+	 * 
+	 * @param in
+	 * @param pos
+	 * Position of the varint in in, moved behind it
+	 * @return
+	 * @throws IllegalArgumentException
+	 * if the varint is truncated or too long
+	 */
+	public static int readVarInt(byte[] in, int[] pos) throws IllegalArgumentException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			if (pos[0] >= in.length)
+				throw new IllegalArgumentException("Truncated varint");
+			
+			byte b = in[pos[0]++];
+			value |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Varint too long");
+	}
+}
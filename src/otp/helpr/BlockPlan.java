@@ -62,12 +62,12 @@ public class BlockPlan implements Comparable<BlockPlan>
 	 */
 	public byte[] exportPlanShort() throws IllegalStateException
 	{
-		ByteArrayBuilder out = new ByteArrayBuilder();
-		out.addAll(ByteArray.fromInt(this.pointer));
+		ByteArrayBuilder out = new ByteArrayBuilder(8);
+		out.addInt(this.pointer);
 		int a = this.blocks.getBlock(this.blockPos);
 		int b = -a - 1;
-		out.addAll(ByteArray.fromInt(b));
-		return out.toArray();
+		out.addInt(b);
+		return out.getBuffer();
 	}
 	
 	/**
@@ -79,8 +79,8 @@ public class BlockPlan implements Comparable<BlockPlan>
 	 */
 	public byte[] exportPlanComplete() throws IllegalStateException
 	{
-		ByteArrayBuilder out = new ByteArrayBuilder();
-		out.addAll(ByteArray.fromInt(this.pointer));
+		ByteArrayBuilder out = new ByteArrayBuilder(4 + 4 * (this.blocks.size() - this.blockPos));
+		out.addInt(this.pointer);
 		
 		for (int i = this.blockPos; i < this.blocks.size(); i++)
 		{
@@ -88,12 +88,114 @@ public class BlockPlan implements Comparable<BlockPlan>
 			if (i == this.blockPos)
 				blockId = -blockId - 1;
 			
-			out.addAll(ByteArray.fromInt(blockId));
+			out.addInt(blockId);
 		}
 		
 		return out.toArray();
 	}
 	
+	/**
+	 * Generates the content of exportPlanComplete in a compact form: the pointer
+	 * as varint, followed by the current and all following blocks encoded by
+	 * BlockListCodec.
+	 * 
+	 * @return
+	 * @throws IllegalStateException
+	 */
+	public byte[] exportPlanCompact() throws IllegalStateException
+	{
+		int[] bl = this.getBlocks();
+		ByteArrayBuilder out = new ByteArrayBuilder(16);
+		out.addVarInt(this.pointer);
+		BlockListCodec.encode(out, bl, 0, bl.length);
+		return out.toArray();
+	}
+	
+	/**
+	 * Restores a plan generated by exportPlanCompact in the form of
+	 * exportPlanComplete
+	 * 
+	 * @param compact
+	 * @return
+	 * @throws IllegalArgumentException
+	 * if the compact plan is malformed
+	 */
+	public static byte[] expandPlanCompact(byte[] compact) throws IllegalArgumentException
+	{
+		int[] pos = new int[] { 0 };
+		int pointer = BlockListCodec.readVarInt(compact, pos);
+		int[] bl = BlockListCodec.decode(compact, pos);
+		if (bl.length == 0 || pos[0] != compact.length)
+			throw new IllegalArgumentException("Invalid compact plan");
+		
+		return BlockPlan.expand(pointer, bl, 0);
+	}
+	
+	/**
+	 * Generates the content of exportPlanBetween in a compact form: the pointer
+	 * and the index of the current block as varints, followed by the blocks
+	 * encoded by BlockListCodec.
+	 * 
+	 * @param from
+	 * @return
+	 * @throws IllegalStateException
+	 * @throws IllegalArgumentException
+	 */
+	public byte[] exportPlanBetweenCompact(BlockPlan from) throws IllegalStateException, IllegalArgumentException
+	{
+		int start = 0;
+		if (from != null)
+		{
+			if (this.blocks != from.blocks)
+				throw new IllegalArgumentException("Blocks not comparable");
+			start = Math.min(from.blockPos, this.blockPos);
+		}
+		
+		int[] bl = new int[this.blocks.size() - start];
+		for (int i = 0; i < bl.length; i++)
+			bl[i] = this.blocks.getBlock(start + i);
+		
+		ByteArrayBuilder out = new ByteArrayBuilder(16);
+		out.addVarInt(this.pointer);
+		out.addVarInt(this.blockPos - start);
+		BlockListCodec.encode(out, bl, 0, bl.length);
+		return out.toArray();
+	}
+	
+	/**
+	 * Restores a plan generated by exportPlanBetweenCompact in the form of
+	 * exportPlanBetween
+	 * 
+	 * @param compact
+	 * @return
+	 * @throws IllegalArgumentException
+	 * if the compact plan is malformed
+	 */
+	public static byte[] expandPlanBetweenCompact(byte[] compact) throws IllegalArgumentException
+	{
+		int[] pos = new int[] { 0 };
+		int pointer = BlockListCodec.readVarInt(compact, pos);
+		int current = BlockListCodec.readVarInt(compact, pos);
+		int[] bl = BlockListCodec.decode(compact, pos);
+		if (current < 0 || current >= bl.length || pos[0] != compact.length)
+			throw new IllegalArgumentException("Invalid compact plan");
+		
+		return BlockPlan.expand(pointer, bl, current);
+	}
+	
+	/**
+	 * Writes a plan in the form of exportPlanBetween, the current block is
+	 * marked negative
+	 */
+	private static byte[] expand(int pointer, int[] bl, int current)
+	{
+		ByteArrayBuilder out = new ByteArrayBuilder(4 + 4 * bl.length);
+		out.addInt(pointer);
+		for (int i = 0; i < bl.length; i++)
+			out.addInt(i == current ? -bl[i] - 1 : bl[i]);
+		return out.toArray();
+	}
+	
 	/**
 	 * Generates a byte array containing all block ids between a certain position
 	 * and the end of the list
@@ -105,8 +207,6 @@ public class BlockPlan implements Comparable<BlockPlan>
 	 */
 	public byte[] exportPlanBetween(BlockPlan from) throws IllegalStateException, IllegalArgumentException
 	{
-		ByteArrayBuilder out = new ByteArrayBuilder();
-		
 		int start = 0;
 		if (from != null)
 		{
@@ -115,7 +215,8 @@ public class BlockPlan implements Comparable<BlockPlan>
 			start = Math.min(from.blockPos, this.blockPos);
 		}
 		
-		out.addAll(ByteArray.fromInt(this.pointer));
+		ByteArrayBuilder out = new ByteArrayBuilder(4 + 4 * (this.blocks.size() - start));
+		out.addInt(this.pointer);
 		for (int i = start; i < this.blocks.size(); i++)
 		{
 			int blockId = this.blocks.getBlock(i);
@@ -123,7 +224,7 @@ public class BlockPlan implements Comparable<BlockPlan>
 			{
 				blockId = -blockId - 1;
 			}
-			out.addAll(ByteArray.fromInt(blockId));
+			out.addInt(blockId);
 		}
 		
 		return out.toArray();
@@ -149,6 +250,40 @@ public class BlockPlan implements Comparable<BlockPlan>
 		this.pointer = pointer;
 	}
 	
+	/**
+	 * Returns the position of the current block in the block list
+	 * 
+	 * @return
+	 */
+	public int getBlockPos()
+	{
+		return this.blockPos;
+	}
+	
+	/**
+	 * Moves to another position of the block list
+	 * 
+	 * @param blockPos
+	 * @throws IllegalStateException
+	 * if the position does not exist
+	 */
+	public void setBlockPos(int blockPos) throws IllegalStateException
+	{
+		if (blockPos < 0 || blockPos >= this.blocks.size())
+			throw new IllegalStateException("Requestet block does not exist");
+		this.blockPos = blockPos;
+	}
+	
+	/**
+	 * Returns the block list the plan refers to
+	 * 
+	 * @return
+	 */
+	public BlockAssignList getBlockList()
+	{
+		return this.blocks;
+	}
+	
 	/**
 	 * Returns the current block id
 	 * 
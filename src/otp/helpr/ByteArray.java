@@ -83,7 +83,7 @@ public class ByteArray
 	 */
 	public static byte[] fromRadix64(String s)
 	{
-		ByteArrayBuilder b = new ByteArrayBuilder();
+		ByteArrayBuilder b = new ByteArrayBuilder(s.length() / 4 * 3 + 3);
 		int col = 0;
 		int end = 4;
 		byte[] buffer = new byte[4];
@@ -383,4 +383,29 @@ public class ByteArray
 		}
 	}
 	
+	/**
+	 * Writes the xor representation of two byte ranges into a third one. The
+	 * output range may be identical to one of the input ranges.
+	 * 
+	 * @param in1
+	 * Input 1
+	 * @param off1
+	 * Position of the first byte of input 1
+	 * @param in2
+	 * Input 2
+	 * @param off2
+	 * Position of the first byte of input 2
+	 * @param out
+	 * Output = Input 1 (xor) Input 2
+	 * @param offOut
+	 * Position of the first byte of the output
+	 * @param len
+	 * Number of bytes
+	 */
+	public static void xor(byte[] in1, int off1, byte[] in2, int off2, byte[] out, int offOut, int len)
+	{
+		for (int i = 0; i < len; i++)
+			out[offOut + i] = (byte) (in1[off1 + i] ^ in2[off2 + i]);
+	}
+	
 }
@@ -1,28 +1,59 @@
 package otp.helpr;
 
 import java.io.UnsupportedEncodingException;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 public class ByteArrayBuilder
 {
 	
-	private List<byte[]> collector;
-	private byte[] current;
+	private byte[] buffer;
 	private int collected;
-	private final int array_length = 128;
+	private final static int initial_length = 128;
 	
 	/**
 	 * Creates a empty ByteArrayBuilder.
 	 */
 	public ByteArrayBuilder()
 	{
-		this.collector = new LinkedList<byte[]>();
-		this.current = new byte[this.array_length];
+		this(ByteArrayBuilder.initial_length);
+	}
+	
+	/**
+	 * Creates a empty ByteArrayBuilder with a given initial capacity. Use this if
+	 * the final size is known in advance to avoid any resizing.
+	 * 
+	 * @param capacity
+	 * The initial capacity in bytes
+	 */
+	public ByteArrayBuilder(int capacity)
+	{
+		this.buffer = new byte[Math.max(capacity, 1)];
 		this.collected = 0;
 	}
 	
+	/**
+	 * Makes sure that at least the given number of bytes can be added without
+	 * resizing. The capacity is doubled at least, so that adding is amortized
+	 * constant per byte.
+	 * 
+	 * @param additional
+	 * Number of bytes that will be added
+	 */
+	public void ensureCapacity(int additional)
+	{
+		int required = this.collected + additional;
+		if (required < 0)
+			throw new OutOfMemoryError("ByteArrayBuilder size exceeded");
+		
+		if (required > this.buffer.length)
+		{
+			int newLength = this.buffer.length << 1;
+			if (newLength < required || newLength < 0)
+				newLength = required;
+			this.buffer = Arrays.copyOf(this.buffer, newLength);
+		}
+	}
+	
 	/**
 	 * Adds a new byte to the ByteArrayBuilder
 	 * 
@@ -32,12 +63,9 @@ public class ByteArrayBuilder
 	 */
 	public boolean add(byte b)
 	{
-		this.current[this.collected++] = b;
-		if (this.collected == this.array_length)
-		{
-			this.collector.add(this.current.clone());
-			this.collected = 0;
-		}
+		if (this.collected == this.buffer.length)
+			this.ensureCapacity(1);
+		this.buffer[this.collected++] = b;
 		return true;
 	}
 	
@@ -50,17 +78,86 @@ public class ByteArrayBuilder
 	 */
 	public boolean addAll(byte[] b)
 	{
-		for (byte a : b)
-			this.add(a);
+		return this.addAll(b, 0, b.length);
+	}
+	
+	/**
+	 * Adds a part of a bytearray to the ByteArrayBuilder
+	 * 
+	 * @param b
+	 * The bytearray to be added.
+	 * @param off
+	 * Offset of the first byte to be added
+	 * @param len
+	 * Number of bytes to be added
+	 * @return Success of the operation.
+	 */
+	public boolean addAll(byte[] b, int off, int len)
+	{
+		if (off < 0 || len < 0 || off + len > b.length)
+			throw new IndexOutOfBoundsException();
+		
+		this.ensureCapacity(len);
+		System.arraycopy(b, off, this.buffer, this.collected, len);
+		this.collected += len;
+		return true;
+	}
+	
+	/**
+	 * Adds a integer value as 4 bytes in big endian order, as
+	 * ByteArray.fromInt() would return it.
+	 * 
+	 * @param i
+	 * The value to be added.
+	 * @return Success of the operation.
+	 */
+	public boolean addInt(int i)
+	{
+		this.ensureCapacity(4);
+		this.buffer[this.collected++] = (byte) (i >>> 24);
+		this.buffer[this.collected++] = (byte) (i >>> 16);
+		this.buffer[this.collected++] = (byte) (i >>> 8);
+		this.buffer[this.collected++] = (byte) i;
+		return true;
+	}
+	
+	/**
+	 * Adds a integer value as varint: 7 bits per byte, least significant first,
+	 * the highest bit set on all but the last byte. Negative values take 5
+	 * bytes.
+	 * 
+	 * @param i
+	 * The value to be added.
+	 * @return Success of the operation.
+	 */
+	public boolean addVarInt(int i)
+	{
+		this.ensureCapacity(5);
+		while ((i & ~0x7f) != 0)
+		{
+			this.buffer[this.collected++] = (byte) ((i & 0x7f) | 0x80);
+			i >>>= 7;
+		}
+		this.buffer[this.collected++] = (byte) i;
 		return true;
 	}
 	
 	/**
-	 * Empties the ByteArrayBuilder
+	 * Empties the ByteArrayBuilder. The allocated buffer is kept, so the
+	 * ByteArrayBuilder can be reused without allocating again.
 	 */
 	public void clear()
 	{
-		this.collector.clear();
+		this.collected = 0;
+	}
+	
+	/**
+	 * Empties the ByteArrayBuilder and overwrites the collected bytes. Use this
+	 * instead of clear() if the content was secret.
+	 */
+	public void reset()
+	{
+		Arrays.fill(this.buffer, 0, this.collected, (byte) 0);
 		this.collected = 0;
 	}
 	
@@ -71,7 +168,19 @@ public class ByteArrayBuilder
 	 */
 	public int size()
 	{
-		return this.collector.size() * this.array_length + this.collected;
+		return this.collected;
+	}
+	
+	/**
+	 * Returns the internal buffer without copying it. Only the first size() bytes
+	 * are valid, the array is only valid until the next modification of the
+	 * ByteArrayBuilder.
+	 * 
+	 * @return The internal buffer
+	 */
+	public byte[] getBuffer()
+	{
+		return this.buffer;
 	}
 	
 	/**
@@ -81,27 +190,17 @@ public class ByteArrayBuilder
 	 */
 	public byte[] toArray()
 	{
-		byte[] a = new byte[this.size()];
-		int j;
-		
-		Iterator<byte[]> i = this.collector.iterator();
-		for (j = 0; i.hasNext(); j++)
-			System.arraycopy(i.next(), 0, a, j * this.array_length, this.array_length);
-		
-		if (this.collected > 0)
-			System.arraycopy(this.current, 0, a, j * this.array_length, this.collected);
-		
-		return a;
+		return Arrays.copyOf(this.buffer, this.collected);
 	}
 	
 	@Override
 	public String toString()
 	{
-		return new String(this.toArray());
+		return new String(this.buffer, 0, this.collected);
 	}
-
+	
 	public String toString(String charset) throws UnsupportedEncodingException
 	{
-		return new String(this.toArray(), charset);
+		return new String(this.buffer, 0, this.collected, charset);
 	}
 }
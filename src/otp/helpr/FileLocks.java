@@ -0,0 +1,84 @@
+package otp.helpr;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Acquires advisory locks on files shared by several otp processes. A busy
+ * lock is retried with a growing pause until the timeout is reached. A lock
+ * held by another thread of this process counts as busy as well.
+ */
+public class FileLocks
+{
+	private final static long firstPause = 5;
+	private final static long maxPause = 250;
+	
+	/**
+	 * Locks a whole file
+	 * 
+	 * @param channel
+	 * Channel of the file, opened for writing if an exclusive lock is requested
+	 * @param shared
+	 * true for a shared (read) lock, false for an exclusive (write) lock
+	 * @param timeout
+	 * Time in milliseconds to wait for a busy lock
+	 * @return The lock, null if it could not be acquired in time
+	 * @throws IOException
+	 */
+	public static FileLock acquire(FileChannel channel, boolean shared, long timeout) throws IOException
+	{
+		long deadline = System.currentTimeMillis() + timeout;
+		long pause = FileLocks.firstPause;
+		
+		while (true)
+		{
+			try
+			{
+				FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+				if (lock != null)
+					return lock;
+			}
+			catch (OverlappingFileLockException e)
+			{
+				// held by another thread of this process
+			}
+			
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return null;
+			
+			try
+			{
+				Thread.sleep(Math.min(pause, left));
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			pause = Math.min(2 * pause, FileLocks.maxPause);
+		}
+	}
+	
+	/**
+	 * Releases a lock, ignores locks that are null or no longer valid
+	 * 
+	 * @param lock
+	 */
+	public static void release(FileLock lock)
+	{
+		if (lock == null || !lock.isValid())
+			return;
+		
+		try
+		{
+			lock.release();
+		}
+		catch (IOException e)
+		{
+			// the lock is dropped with its channel anyway
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package otp.helpr;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the previous content of overwritten key regions, so the overwrites can
+ * be undone later. The first regions are kept in memory, the rest is stored in
+ * a temporary file only the owner can access. The file is overwritten with
+ * random bytes before it is removed.
+ * 
+ * The file is created with the first region and locked until the journal is
+ * cleared, so it marks a running rewrite. A file that is not locked is left
+ * from an interrupted rewrite. Its key regions can not be restored, as the
+ * positions are only kept in memory.
+ */
+public class KeyJournal
+{
+	private final static int memoryLimit = 16 * 1024 * 1024;
+	private final static String suffix = ".jnl";
+	
+	private File dir;
+	private String name;
+	private List<Region> regions = new ArrayList<Region>();
+	private ByteArrayBuilder memory = new ByteArrayBuilder();
+	private File spillFile = null;
+	private RandomAccessFile spill = null;
+	private FileLock lock = null;
+	private long spilled = 0;
+	
+	/**
+	 * Creates a new journal
+	 * 
+	 * @param dir
+	 * Directory for the temporary file, e.g. the one of the key ring
+	 * @param name
+	 * Name of the rewritten key, part of the file name
+	 */
+	public KeyJournal(File dir, String name)
+	{
+		this.dir = dir;
+		this.name = name;
+	}
+	
+	/**
+	 * Finds journal files of interrupted rewrites, i.e. files that are not
+	 * locked by a running one
+	 * 
+	 * @param dir
+	 * Directory of the journal files
+	 * @param name
+	 * Name of the rewritten key
+	 * @return The files, an empty array if there are none
+	 */
+	public static File[] findInterrupted(File dir, String name)
+	{
+		final String end = "-" + name + KeyJournal.suffix;
+		File[] files = dir.listFiles(new FilenameFilter()
+		{
+			@Override
+			public boolean accept(File d, String n)
+			{
+				return n.endsWith(end);
+			}
+		});
+		
+		List<File> left = new ArrayList<File>();
+		for (int i = 0; files != null && i < files.length; i++)
+		{
+			try
+			{
+				RandomAccessFile raf = new RandomAccessFile(files[i], "rw");
+				try
+				{
+					FileLock l = FileLocks.acquire(raf.getChannel(), false, 0);
+					if (l != null)
+					{
+						left.add(files[i]);
+						FileLocks.release(l);
+					}
+				}
+				finally
+				{
+					raf.close();
+				}
+			}
+			catch (IOException e)
+			{
+				// not accessible, so not ours
+			}
+		}
+		return left.toArray(new File[left.size()]);
+	}
+	
+	/**
+	 * Records the content of a key region before it is overwritten
+	 * 
+	 * @param position
+	 * Start of the region, copied
+	 * @param b
+	 * Previous content of the region
+	 * @param off
+	 * @param len
+	 * @throws IOException
+	 */
+	public void record(BlockPlan position, byte[] b, int off, int len) throws IOException
+	{
+		if (len <= 0)
+			return;
+		
+		// the file is there before the first region is overwritten
+		if (this.spill == null)
+		{
+			this.spillFile = PrivateFiles.createTemp(this.dir, "-" + this.name + KeyJournal.suffix);
+			this.spillFile.deleteOnExit();
+			this.spill = new RandomAccessFile(this.spillFile, "rw");
+			this.lock = FileLocks.acquire(this.spill.getChannel(), false, 0);
+			if (this.lock == null)
+				throw new IOException("Journal file not lockable");
+		}
+		
+		Region r = new Region(position.clone(), len);
+		if (this.spilled == 0 && this.memory.size() + len <= KeyJournal.memoryLimit)
+		{
+			r.offset = this.memory.size();
+			this.memory.addAll(b, off, len);
+		}
+		else
+		{
+			r.spilled = true;
+			r.offset = this.spilled;
+			this.spill.seek(this.spilled);
+			this.spill.write(b, off, len);
+			this.spilled += len;
+		}
+		this.regions.add(r);
+	}
+	
+	/**
+	 * Number of recorded regions
+	 * 
+	 * @return
+	 */
+	public int size()
+	{
+		return this.regions.size();
+	}
+	
+	/**
+	 * Start of a recorded region
+	 * 
+	 * @param i
+	 * Number of the region, in the order of recording
+	 * @return A copy of the position
+	 */
+	public BlockPlan getPosition(int i)
+	{
+		return this.regions.get(i).position.clone();
+	}
+	
+	/**
+	 * Previous content of a recorded region
+	 * 
+	 * @param i
+	 * Number of the region, in the order of recording
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] getData(int i) throws IOException
+	{
+		Region r = this.regions.get(i);
+		byte[] data = new byte[r.length];
+		if (r.spilled)
+		{
+			this.spill.seek(r.offset);
+			this.spill.readFully(data);
+		}
+		else
+			System.arraycopy(this.memory.getBuffer(), (int) r.offset, data, 0, r.length);
+		return data;
+	}
+	
+	/**
+	 * Forgets all regions, overwrites the temporary file and removes it
+	 */
+	public void clear()
+	{
+		this.regions.clear();
+		Arrays.fill(this.memory.getBuffer(), (byte) 0);
+		this.memory = new ByteArrayBuilder();
+		
+		// removed while still locked where possible, so it is never taken for
+		// the journal of an interrupted rewrite
+		try
+		{
+			if (this.spill != null)
+			{
+				PrivateFiles.overwrite(this.spill, this.spilled);
+				this.spillFile.delete();
+				FileLocks.release(this.lock);
+				this.spill.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// the file is removed anyway
+		}
+		if (this.spillFile != null)
+			this.spillFile.delete();
+		this.spill = null;
+		this.spillFile = null;
+		this.lock = null;
+		this.spilled = 0;
+	}
+	
+	private static class Region
+	{
+		private BlockPlan position;
+		private int length;
+		private boolean spilled = false;
+		private long offset;
+		
+		private Region(BlockPlan position, int length)
+		{
+			this.position = position;
+			this.length = length;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package otp.helpr;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -68,9 +69,9 @@ public class KnownMsgs
 	 */
 	public byte[] exportHashes()
 	{
-		ByteArrayBuilder exp = new ByteArrayBuilder();
-		for (int i = 0; i < this.msgHashes.size(); i++)
-			exp.addAll(msgHashes.get(i));
+		ByteArrayBuilder exp = new ByteArrayBuilder(this.msgHashes.size() * KnownMsgs.hashLen);
+		for (byte[] hash : this.msgHashes)
+			exp.addAll(hash);
 		
 		return exp.toArray();
 	}
@@ -82,11 +83,11 @@ public class KnownMsgs
 	 */
 	public byte[] exportAreas()
 	{
-		ByteArrayBuilder exp = new ByteArrayBuilder();
-		for (int i = 0; i < this.mAreas.size(); i++)
+		ByteArrayBuilder exp = new ByteArrayBuilder(this.mAreas.size() * 16);
+		for (BlockPlan[] area : this.mAreas)
 		{
-			exp.addAll(mAreas.get(i)[0].exportPlanShort());
-			exp.addAll(mAreas.get(i)[1].exportPlanShort());
+			exp.addAll(area[0].exportPlanShort());
+			exp.addAll(area[1].exportPlanShort());
 		}
 		return exp.toArray();
 	}
@@ -153,9 +154,7 @@ public class KnownMsgs
 					try
 					{
 						
-						if ((blEnd.greaterThan(mStart) && !blStart.greaterThan(mStart)) ||
-								(mEnd.greaterThan(blStart) && !mEnd.greaterThan(blEnd)) ||
-								(!mStart.greaterThan(blStart) && !blEnd.greaterThan(mEnd)))
+						if (KnownMsgs.overlaps(blStart, blEnd, mStart, mEnd))
 							return new boolean[] { false, false };
 						
 						if (this.mAreas.get(i)[1].equalTo(mStart))
@@ -192,6 +191,103 @@ public class KnownMsgs
 		}
 	}
 	
+	/**
+	 * Checks if the OTP areas of a message overlap the areas of messages seen
+	 * before, without storing anything. A known message always overlaps its
+	 * own areas.
+	 * 
+	 * @param eStart
+	 * The encryption start
+	 * @param eEnd
+	 * The encryption end
+	 * @param aStart
+	 * The Authenticaton Start
+	 * @param aEnd
+	 * The Authentication End
+	 * @return true if any of the areas was used before
+	 */
+	public boolean isUsed(BlockPlan eStart, BlockPlan eEnd, BlockPlan aStart, BlockPlan aEnd)
+	{
+		for (BlockPlan[] area : this.mAreas)
+		{
+			try
+			{
+				if (KnownMsgs.overlaps(area[0], area[1], eStart, eEnd))
+					return true;
+			}
+			catch (IllegalArgumentException e)
+			{
+				// incomparable positions, nothing to do here
+			}
+			try
+			{
+				if (KnownMsgs.overlaps(area[0], area[1], aStart, aEnd))
+					return true;
+			}
+			catch (IllegalArgumentException e)
+			{
+				// incomparable positions, nothing to do here
+			}
+		}
+		return false;
+	}
+	
+	private static boolean overlaps(BlockPlan blStart, BlockPlan blEnd, BlockPlan mStart, BlockPlan mEnd)
+			throws IllegalArgumentException
+	{
+		return (blEnd.greaterThan(mStart) && !blStart.greaterThan(mStart)) ||
+				(mEnd.greaterThan(blStart) && !mEnd.greaterThan(blEnd)) ||
+				(!mStart.greaterThan(blStart) && !blEnd.greaterThan(mEnd));
+	}
+	
+	/**
+	 * Adds the hashes and areas of another list, e.g. one stored meanwhile by
+	 * another process. Overlapping or adjacent areas are united.
+	 * 
+	 * @param other
+	 * A list based on the same block lists
+	 */
+	public void merge(KnownMsgs other)
+	{
+		for (byte[] hash : other.msgHashes)
+		{
+			boolean contains = false;
+			for (int i = 0; i < this.msgHashes.size() && !contains; i++)
+				if (Arrays.equals(this.msgHashes.get(i), hash))
+					contains = true;
+			if (!contains)
+				this.msgHashes.add(hash);
+		}
+		
+		for (BlockPlan[] area : other.mAreas)
+		{
+			BlockPlan start = area[0];
+			BlockPlan end = area[1];
+			
+			Iterator<BlockPlan[]> it = this.mAreas.iterator();
+			while (it.hasNext())
+			{
+				BlockPlan[] own = it.next();
+				try
+				{
+					if (!own[0].greaterThan(end) && !start.greaterThan(own[1]))
+					{
+						if (start.greaterThan(own[0]))
+							start = own[0];
+						if (own[1].greaterThan(end))
+							end = own[1];
+						it.remove();
+					}
+				}
+				catch (IllegalArgumentException e)
+				{
+					// incomparable positions, nothing to do here
+				}
+			}
+			this.mAreas.add(new BlockPlan[] { start, end });
+		}
+	}
+	
 	@Override
 	public String toString()
 	{
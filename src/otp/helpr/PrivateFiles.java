@@ -0,0 +1,96 @@
+package otp.helpr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+/**
+ * Temporary files holding plaintext or key material. They are only accessible
+ * by the owner and are overwritten with random bytes before they are removed.
+ */
+public class PrivateFiles
+{
+	private final static int noiseSize = 64 * 1024;
+	
+	/**
+	 * Creates a temporary file only the owner can read and write
+	 * 
+	 * @param dir
+	 * Directory of the file, null for the default temporary directory
+	 * @param suffix
+	 * @return
+	 * @throws IOException
+	 */
+	public static File createTemp(File dir, String suffix) throws IOException
+	{
+		try
+		{
+			FileAttribute<?> owner = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+			if (dir == null)
+				return Files.createTempFile("otp", suffix, owner).toFile();
+			return Files.createTempFile(dir.toPath(), "otp", suffix, owner).toFile();
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// no POSIX permissions, restricted after creation
+			File f = File.createTempFile("otp", suffix, dir);
+			f.setReadable(false, false);
+			f.setWritable(false, false);
+			f.setReadable(true, true);
+			f.setWritable(true, true);
+			return f;
+		}
+	}
+	
+	/**
+	 * Overwrites a file with random bytes and removes it
+	 * 
+	 * @param f
+	 * @return True, if the file is gone
+	 */
+	public static boolean wipe(File f)
+	{
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(f, "rw");
+			try
+			{
+				PrivateFiles.overwrite(raf, raf.length());
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// the file is removed anyway
+		}
+		return f.delete() || !f.exists();
+	}
+	
+	/**
+	 * Overwrites the start of an open file with random bytes
+	 * 
+	 * @param raf
+	 * @param length
+	 * Number of bytes to overwrite
+	 * @throws IOException
+	 */
+	public static void overwrite(RandomAccessFile raf, long length) throws IOException
+	{
+		SecureRandom random = new SecureRandom();
+		byte[] noise = new byte[(int) Math.min(length, PrivateFiles.noiseSize)];
+		raf.seek(0);
+		for (long done = 0; done < length; done += noise.length)
+		{
+			random.nextBytes(noise);
+			raf.write(noise, 0, (int) Math.min(noise.length, length - done));
+		}
+		raf.getFD().sync();
+	}
+}
@@ -97,7 +97,7 @@ public class ArmoredInfile extends Infile
 			this.outerInput.read(remaining);
 			this.bain.useBytesFrom(remaining);
 		}
-			
+		
 		this.outerInput.finish(true);
 		
 		int len = lines.length();
@@ -140,11 +140,17 @@ public class ArmoredInfile extends Infile
 	
 	@Override
 	public void read(byte[] b) throws InfileResponse
+	{
+		this.read(b, 0, b.length);
+	}
+	
+	@Override
+	public void read(byte[] b, int off, int len) throws InfileResponse
 	{
 		try
 		{
-			System.arraycopy(this.bytes, this.counter, b, 0, b.length);
-			this.counter += b.length;
+			System.arraycopy(this.bytes, this.counter, b, off, len);
+			this.counter += len;
 		}
 		catch (ArrayIndexOutOfBoundsException e)
 		{
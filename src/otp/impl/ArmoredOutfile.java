@@ -37,6 +37,12 @@ public class ArmoredOutfile extends Outfile
 		this.bab.add(b);
 	}
 	
+	@Override
+	public void write(byte[] b, int off, int len) throws OutfileResponse
+	{
+		this.bab.addAll(b, off, len);
+	}
+	
 	@Override
 	public OutfileResponse finish(boolean success)
 	{
@@ -50,9 +56,10 @@ public class ArmoredOutfile extends Outfile
 				{
 					out.write("-----BEGIN OTP MESSAGE-----\r\n".getBytes());
 					out.write("\r\n".getBytes());
-					out.write((ByteArray.toRadix64(this.bab.toArray()) + "\r\n").getBytes());
+					byte[] content = this.bab.toArray();
+					out.write((ByteArray.toRadix64(content) + "\r\n").getBytes());
 					
-					byte[] crc0 = ByteArray.fromInt(ByteArray.crc24(bab.toArray(), 0xb704ce));
+					byte[] crc0 = ByteArray.fromInt(ByteArray.crc24(content, 0xb704ce));
 					byte[] crc1 = new byte[] { crc0[1], crc0[2], crc0[3] };
 					String crc = "=" + ByteArray.toRadix64(crc1) + "\r\n";
 					out.write(crc.getBytes());
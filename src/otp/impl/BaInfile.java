@@ -31,6 +31,33 @@ public class BaInfile extends Infile
 		return this.content[this.counter++];
 	}
 	
+	@Override
+	public void read(byte[] b, int off, int len) throws InfileResponse
+	{
+		if (len > this.content.length - this.counter)
+			throw new InfileResponse(2);
+		System.arraycopy(this.content, this.counter, b, off, len);
+		this.counter += len;
+	}
+	
+	@Override
+	public int readAvailable(byte[] b, int off, int len) throws InfileResponse
+	{
+		if (this.counter >= this.content.length)
+			return -1;
+		int n = Math.min(len, this.content.length - this.counter);
+		this.read(b, off, n);
+		return n;
+	}
+	
+	@Override
+	public void skip(long count) throws InfileResponse
+	{
+		if (count > this.content.length - this.counter)
+			throw new InfileResponse(2);
+		this.counter += (int) count;
+	}
+	
 	@Override
 	public long getLength()
 	{
@@ -21,6 +21,12 @@ public class BaOutfile extends Outfile
 		this.bab.add(b);
 	}
 	
+	@Override
+	public void write(byte[] b, int off, int len) throws OutfileResponse
+	{
+		this.bab.addAll(b, off, len);
+	}
+	
 	@Override
 	public OutfileResponse finish(boolean success)
 	{
@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import otp.UserInterface;
 import otp.response.UiResponse;
@@ -18,9 +21,17 @@ public class CommandLineUI extends UserInterface
 	private InputStreamReader stdin = new InputStreamReader(System.in);
 	private Console con = System.console();
 	
+	// progress is sampled by a timer, workers only store the current value
+	private final static long progressInterval = 500;
+	private final static long progressMinimum = 10000;
+	
 	private long max = 100;
-	private long step = 1;
-	private int last = -1;
+	private AtomicLong current = new AtomicLong();
+	private Timer progressTimer = null;
+	private volatile boolean progressShown = false;
+	// no progress line is printed once the timer is stopped
+	private final Object progressLock = new Object();
+	private boolean progressStopped = true;
 	
 	private boolean quiet = false;
 	private boolean verbose = false;
@@ -110,39 +121,90 @@ public class CommandLineUI extends UserInterface
 	@Override
 	public void initializeProgress(long max)
 	{
-		this.last = 0;
-		this.max = max;
-		this.step = 0;
+		this.stopProgressTimer();
 		
-		this.step = (long) max / 100;
-		
-		if (this.step < 100)
-			this.step = -1;
+		this.max = max;
+		this.current.set(0);
+		this.progressShown = false;
 		this.before = System.currentTimeMillis();
+		
+		if (!this.quiet && max >= CommandLineUI.progressMinimum)
+		{
+			synchronized (this.progressLock)
+			{
+				this.progressStopped = false;
+			}
+			this.progressTimer = new Timer("progress", true);
+			this.progressTimer.schedule(new TimerTask()
+			{
+				@Override
+				public void run()
+				{
+					CommandLineUI.this.showProgress();
+				}
+			}, CommandLineUI.progressInterval, CommandLineUI.progressInterval);
+		}
 	}
 	
 	@Override
 	public void updateProgress(long current)
 	{
-		if (current / step > this.last)
-		{
-			if (!this.quiet)
-				System.out.print((int) (current * 100 / this.max) + "% done\r");
-			this.last = (int) (current / step);
-		}
+		this.current.lazySet(current);
 	}
 	
 	@Override
 	public void finishProgress()
 	{
-		if (!this.quiet && this.step > 1)
-			System.out.println("100% done\r");
+		this.stopProgressTimer();
+		if (this.progressShown)
+			System.out.println("100% done                                        \r");
 		
 		long after = System.currentTimeMillis();
 		if (after - this.before > 1000)
 			this.verboseMessage("Time taken: " + ((double) (after - this.before) / 1000) + "s");
 	}
 	
+	/**
+	 * Stops the progress timer. Waits for a progress line that is being printed,
+	 * Timer.cancel() alone does not.
+	 */
+	private void stopProgressTimer()
+	{
+		synchronized (this.progressLock)
+		{
+			this.progressStopped = true;
+		}
+		if (this.progressTimer != null)
+		{
+			this.progressTimer.cancel();
+			this.progressTimer = null;
+		}
+	}
+	
+	/**
+	 * Prints percentage, throughput and estimated remaining time. Called by the
+	 * progress timer.
+	 */
+	private void showProgress()
+	{
+		synchronized (this.progressLock)
+		{
+			if (this.progressStopped)
+				return;
+			
+			long c = this.current.get();
+			long elapsed = System.currentTimeMillis() - this.before;
+			if (c <= 0 || elapsed <= 0)
+				return;
+			
+			double rate = (double) c * 1000 / elapsed;
+			long eta = (long) ((this.max - c) / rate);
+			System.out.print(String.format("%d%% done, %.1f MB/s, %d:%02d remaining   \r", c * 100 / this.max,
+					rate / (1024 * 1024), eta / 60, eta % 60));
+			this.progressShown = true;
+		}
+	}
+	
 	/**
 	 * Defines passphrase from string
 	 * 
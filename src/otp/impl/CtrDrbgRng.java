@@ -0,0 +1,275 @@
+package otp.impl;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import otp.Rng;
+import otp.UserInterface;
+import otp.response.RngResponse;
+
+/**
+ * Rng module that uses AES-256 in counter mode as deterministic random bit
+ * generator. The generator is seeded from the random source of the operating
+ * system, combined with the bytes of an optional seed Rng (e.g. an InfileRNG).
+ * After every request the key is replaced by fresh output, so earlier output
+ * can not be reconstructed from the state. Independent generators for other
+ * threads can be created with fork().
+ */
+public class CtrDrbgRng extends Rng
+{
+	private final static String drbgCipher = "AES/CTR/NoPadding";
+	private final static int keyLength = 32;
+	private final static int ivLength = 16;
+	private final static int seedLength = CtrDrbgRng.keyLength + CtrDrbgRng.ivLength;
+	
+	// maximal number of bytes generated with one key
+	private final static int maxRequest = 1024 * 1024;
+	
+	private Rng seedRng;
+	// forked generators take their seed bytes from the generator they were
+	// forked from
+	private CtrDrbgRng parent = null;
+	private UserInterface ui;
+	private SecureRandom osRng = null;
+	private Cipher cipher = null;
+	
+	private long reseedInterval = 1024L * 1024 * 1024;
+	private long sinceReseed = 0;
+	private boolean seeded = false;
+	private boolean firstbyte = true;
+	
+	/**
+	 * Creates new CtrDrbgRng
+	 * 
+	 * @param seedRng
+	 * Rng module whose output is mixed into every seed, may be null if only
+	 * the operating system source should be used
+	 * @param ui
+	 * UserInterface for status messages, may be null
+	 */
+	public CtrDrbgRng(Rng seedRng, UserInterface ui)
+	{
+		this.seedRng = seedRng;
+		this.ui = ui;
+	}
+	
+	/**
+	 * Sets the number of bytes after which the generator reseeds itself
+	 * automatically.
+	 * 
+	 * @param bytes
+	 * The interval in bytes, 0 to disable automatic reseeding
+	 */
+	public void setReseedInterval(long bytes)
+	{
+		this.reseedInterval = bytes;
+	}
+	
+	/**
+	 * Replaces the operating system source, e.g. by a seeded generator to get
+	 * repeatable output in tests. Has to be called before initialize().
+	 * 
+	 * @param source
+	 * The source mixed into every seed
+	 */
+	public void setSystemSource(SecureRandom source)
+	{
+		this.osRng = source;
+	}
+	
+	@Override
+	public void initialize() throws RngResponse
+	{
+		if (this.cipher != null)
+			return;
+		
+		try
+		{
+			if (this.osRng == null)
+				this.osRng = new SecureRandom();
+			this.cipher = Cipher.getInstance(CtrDrbgRng.drbgCipher);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RngResponse(0, e);
+		}
+		
+		if (this.seedRng != null)
+			this.seedRng.initialize();
+		this.reseed();
+	}
+	
+	@Override
+	public void reseed() throws RngResponse
+	{
+		if (this.cipher == null)
+			throw new RngResponse(0);
+		
+		this.discard();
+		
+		byte[] seed = new byte[CtrDrbgRng.seedLength];
+		this.osRng.nextBytes(seed);
+		this.mixSeed(seed);
+		
+		// keep the old state if there is one
+		if (this.seeded)
+		{
+			byte[] old = new byte[CtrDrbgRng.seedLength];
+			this.generate(old, 0, old.length);
+			for (int i = 0; i < seed.length; i++)
+				seed[i] ^= old[i];
+			Arrays.fill(old, (byte) 0);
+		}
+		
+		this.rekey(seed);
+		this.sinceReseed = 0;
+	}
+	
+	/**
+	 * Creates a new generator that is independent of this one. It is seeded
+	 * from the output of this generator, the operating system source and the
+	 * seed Rng, so it can be used by another thread without synchronization.
+	 * Its reseeds draw from the seed Rng of this generator as well.
+	 * 
+	 * @return The new generator, already initialized
+	 * @throws RngResponse
+	 */
+	public synchronized CtrDrbgRng fork() throws RngResponse
+	{
+		if (this.cipher == null)
+			throw new RngResponse(0);
+		
+		CtrDrbgRng child = new CtrDrbgRng(null, null);
+		child.parent = this;
+		child.reseedInterval = this.reseedInterval;
+		try
+		{
+			child.cipher = Cipher.getInstance(CtrDrbgRng.drbgCipher);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RngResponse(0, e);
+		}
+		child.osRng = this.osRng;
+		
+		byte[] seed = new byte[CtrDrbgRng.seedLength];
+		this.osRng.nextBytes(seed);
+		byte[] own = this.next(CtrDrbgRng.seedLength);
+		for (int i = 0; i < seed.length; i++)
+			seed[i] ^= own[i];
+		Arrays.fill(own, (byte) 0);
+		this.mixSeed(seed);
+		
+		child.rekey(seed);
+		return child;
+	}
+	
+	/**
+	 * Mixes output of the seed Rng into a seed. Forked generators use the seed
+	 * Rng of their parent, which is shared between the threads.
+	 */
+	private void mixSeed(byte[] seed) throws RngResponse
+	{
+		if (this.parent != null)
+		{
+			this.parent.mixSeed(seed);
+			return;
+		}
+		
+		synchronized (this)
+		{
+			if (this.seedRng == null)
+				return;
+			
+			byte[] extra = this.seedRng.next(CtrDrbgRng.seedLength);
+			for (int i = 0; i < seed.length; i++)
+				seed[i] ^= extra[i];
+			Arrays.fill(extra, (byte) 0);
+		}
+	}
+	
+	@Override
+	protected void fill(byte[] b, int off, int len) throws RngResponse
+	{
+		if (this.cipher == null)
+			throw new RngResponse(0);
+		
+		if (this.firstbyte && this.ui != null)
+			this.ui.message("Collecting randomness...");
+		this.firstbyte = false;
+		
+		while (len > 0)
+		{
+			if (this.reseedInterval > 0 && this.sinceReseed >= this.reseedInterval)
+				this.reseed();
+			
+			int n = Math.min(len, CtrDrbgRng.maxRequest);
+			this.generate(b, off, n);
+			this.sinceReseed += n;
+			off += n;
+			len -= n;
+			
+			// replace the key after every request
+			byte[] next = new byte[CtrDrbgRng.seedLength];
+			this.generate(next, 0, next.length);
+			this.rekey(next);
+		}
+	}
+	
+	@Override
+	public RngResponse finish(boolean success)
+	{
+		this.discard();
+		this.cipher = null;
+		this.seeded = false;
+		this.sinceReseed = 0;
+		
+		if (this.seedRng != null)
+			return this.seedRng.finish(success);
+		return new RngResponse(true);
+	}
+	
+	/**
+	 * Writes key stream into a part of an array.
+	 */
+	private void generate(byte[] b, int off, int len) throws RngResponse
+	{
+		try
+		{
+			Arrays.fill(b, off, off + len, (byte) 0);
+			this.cipher.update(b, off, len, b, off);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RngResponse(3, e);
+		}
+	}
+	
+	/**
+	 * Sets key and counter from the seed and overwrites the seed.
+	 */
+	private void rekey(byte[] seed) throws RngResponse
+	{
+		try
+		{
+			SecretKeySpec key = new SecretKeySpec(seed, 0, CtrDrbgRng.keyLength, "AES");
+			IvParameterSpec iv = new IvParameterSpec(seed, CtrDrbgRng.keyLength, CtrDrbgRng.ivLength);
+			this.cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+			this.seeded = true;
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RngResponse(3, e);
+		}
+		finally
+		{
+			Arrays.fill(seed, (byte) 0);
+		}
+	}
+	
+}
@@ -0,0 +1,112 @@
+package otp.impl;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import otp.Codec;
+import otp.response.WorkResponse;
+
+/**
+ * Codec using raw deflate streams, one per chunk
+ */
+public class DeflateCodec extends Codec
+{
+	public static final byte ID = 1;
+	
+	private int level;
+	private Deflater deflater;
+	private Inflater inflater;
+	
+	/**
+	 * Creates a deflate codec with the default compression level
+	 */
+	public DeflateCodec()
+	{
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+	
+	/**
+	 * Creates a deflate codec
+	 * 
+	 * @param level
+	 * Compression level, 1 (fastest) to 9 (smallest)
+	 */
+	public DeflateCodec(int level)
+	{
+		this.level = level;
+	}
+	
+	@Override
+	public byte getId()
+	{
+		return DeflateCodec.ID;
+	}
+	
+	@Override
+	protected int encode(byte[] in, int off, int len, byte[] out, int limit)
+	{
+		if (this.deflater == null)
+			this.deflater = new Deflater(this.level, true);
+		
+		this.deflater.reset();
+		this.deflater.setInput(in, off, len);
+		this.deflater.finish();
+		
+		int n = 0;
+		while (!this.deflater.finished())
+		{
+			// stop as soon as the chunk does not get smaller
+			if (n >= limit)
+				return -1;
+			n += this.deflater.deflate(out, n, limit - n);
+		}
+		return n;
+	}
+	
+	@Override
+	public void decode(byte[] in, int off, int len, byte[] out, int plainLen) throws WorkResponse
+	{
+		if (this.inflater == null)
+			this.inflater = new Inflater(true);
+		
+		this.inflater.reset();
+		this.inflater.setInput(in, off, len);
+		
+		try
+		{
+			int n = 0;
+			while (!this.inflater.finished())
+			{
+				// one byte more than expected shows an oversized chunk
+				int r;
+				if (n < plainLen)
+					r = this.inflater.inflate(out, n, plainLen - n);
+				else
+					r = this.inflater.inflate(new byte[1]);
+				if (r == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary()))
+					break;
+				n += r;
+			}
+			
+			if (n != plainLen || !this.inflater.finished() || this.inflater.getRemaining() > 0)
+				throw new WorkResponse(21);
+		}
+		catch (DataFormatException e)
+		{
+			throw new WorkResponse(21, e);
+		}
+	}
+	
+	@Override
+	public WorkResponse finish(boolean success)
+	{
+		if (this.deflater != null)
+			this.deflater.end();
+		if (this.inflater != null)
+			this.inflater.end();
+		this.deflater = null;
+		this.inflater = null;
+		return new WorkResponse(true);
+	}
+}
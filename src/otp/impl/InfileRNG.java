@@ -54,7 +54,7 @@ public class InfileRNG extends Rng
 			try
 			{
 				this.finput = new FileInputStream(this.filename);
-				this.binput = new BufferedInputStream(this.finput);
+				this.binput = new BufferedInputStream(this.finput, 64 * 1024);
 				this.filelength = this.binput.available();
 				this.ui.verboseMessage("Random number file " + filename + " opened, " + this.filelength + " bytes available.");
 				this.rng.initialize();
@@ -76,47 +76,39 @@ public class InfileRNG extends Rng
 	@Override
 	public void reseed() throws RngResponse
 	{
+		this.discard();
 		this.rng.reseed();
 	}
 	
 	@Override
-	public byte next() throws RngResponse
+	protected void fill(byte[] b, int off, int len) throws RngResponse
 	{
 		if (!this.initialized)
 			throw new RngResponse(0);
 		
-		if (this.read < this.filelength)
-			try
-			{
-				Byte a = (byte) this.binput.read();
-				this.read++;
-				return a;
-			}
-			catch (IOException e)
+		try
+		{
+			// use file content first, the remainder comes from the rng module
+			while (len > 0 && this.read < this.filelength)
 			{
-				throw new RngResponse(1, e);
+				int r = this.binput.read(b, off, (int) Math.min(len, this.filelength - this.read));
+				if (r < 0)
+				{
+					this.filelength = this.read;
+					break;
+				}
+				this.read += r;
+				off += r;
+				len -= r;
 			}
-		else
-			return this.rng.next();
-	}
-	
-	@Override
-	public void next(byte[] b) throws RngResponse
-	{
-		if (!this.initialized)
-			throw new RngResponse(0);
+		}
+		catch (IOException e)
+		{
+			throw new RngResponse(1, e);
+		}
 		
-		if (this.read + b.length < this.filelength)
-			try
-			{
-				this.binput.read(b);
-			}
-			catch (IOException e)
-			{
-				throw new RngResponse(1, e);
-			}
-		else
-			super.next(b);
+		if (len > 0)
+			this.rng.next(b, off, len);
 	}
 	
 	@Override
@@ -125,6 +117,7 @@ public class InfileRNG extends Rng
 		if (!this.initialized)
 			return new RngResponse(true);
 		
+		this.discard();
 		try
 		{
 			if (this.binput != null)
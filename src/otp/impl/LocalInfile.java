@@ -1,10 +1,11 @@
 package otp.impl;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import otp.Infile;
 import otp.response.InfileResponse;
@@ -14,11 +15,12 @@ import otp.response.InfileResponse;
  */
 public class LocalInfile extends Infile
 {
+	private final static int bufferSize = 64 * 1024;
 	
 	File file = null;
 	String filename = null;
-	FileInputStream finput = null;
-	BufferedInputStream binput = null;
+	FileChannel channel = null;
+	ByteBuffer buffer = null;
 	
 	long filelength = 0;
 	long read = 0;
@@ -44,10 +46,19 @@ public class LocalInfile extends Infile
 		{
 			try
 			{
+				if (this.channel != null)
+					this.channel.close();
+				
 				this.file = new File(this.filename);
-				this.finput = new FileInputStream(this.file);
-				this.binput = new BufferedInputStream(this.finput);
-				this.filelength = this.binput.available();
+				this.channel = new FileInputStream(this.file).getChannel();
+				this.filelength = this.channel.size();
+				this.read = 0;
+				
+				// the buffer is kept if initialized again
+				if (this.buffer == null)
+					this.buffer = ByteBuffer.allocateDirect(LocalInfile.bufferSize);
+				this.buffer.clear();
+				this.buffer.flip();
 			}
 			catch (FileNotFoundException e)
 			{
@@ -64,25 +75,62 @@ public class LocalInfile extends Infile
 	@Override
 	public byte read() throws InfileResponse
 	{
-		try
-		{
-			Byte a = (byte) this.binput.read();
-			this.read++;
-			return a;
-		}
-		catch (IOException e)
+		if (!this.buffer.hasRemaining() && this.fill() < 0)
+			throw new InfileResponse(2);
+		
+		this.read++;
+		return this.buffer.get();
+	}
+	
+	@Override
+	public void read(byte[] b, int off, int len) throws InfileResponse
+	{
+		int done = 0;
+		while (done < len)
 		{
-			throw new InfileResponse(2, e);
+			int r = this.readAvailable(b, off + done, len - done);
+			if (r < 0)
+				throw new InfileResponse(2);
+			done += r;
 		}
 	}
 	
 	@Override
-	public void read(byte[] b) throws InfileResponse
+	public void read(ByteBuffer b) throws InfileResponse
 	{
 		try
 		{
-			this.binput.read(b);
-			this.read += b.length;
+			// use buffered bytes first
+			while (b.hasRemaining() && this.buffer.hasRemaining())
+			{
+				int n = Math.min(b.remaining(), this.buffer.remaining());
+				ByteBuffer part = this.buffer.duplicate();
+				part.limit(part.position() + n);
+				b.put(part);
+				this.buffer.position(this.buffer.position() + n);
+				this.read += n;
+			}
+			
+			// large requests are read without copying
+			while (b.remaining() >= LocalInfile.bufferSize)
+			{
+				int r = this.channel.read(b);
+				if (r < 0)
+					throw new InfileResponse(2);
+				this.read += r;
+			}
+			
+			while (b.hasRemaining())
+			{
+				if (this.fill() < 0)
+					throw new InfileResponse(2);
+				int n = Math.min(b.remaining(), this.buffer.remaining());
+				ByteBuffer part = this.buffer.duplicate();
+				part.limit(part.position() + n);
+				b.put(part);
+				this.buffer.position(this.buffer.position() + n);
+				this.read += n;
+			}
 		}
 		catch (IOException e)
 		{
@@ -90,6 +138,44 @@ public class LocalInfile extends Infile
 		}
 	}
 	
+	@Override
+	public int readAvailable(byte[] b, int off, int len) throws InfileResponse
+	{
+		if (!this.buffer.hasRemaining() && this.fill() < 0)
+			return -1;
+		
+		int n = Math.min(len, this.buffer.remaining());
+		this.buffer.get(b, off, n);
+		this.read += n;
+		return n;
+	}
+	
+	@Override
+	public void skip(long count) throws InfileResponse
+	{
+		if (count > this.filelength - this.read)
+			throw new InfileResponse(2);
+		
+		// drop buffered bytes first
+		int n = (int) Math.min(count, this.buffer.remaining());
+		this.buffer.position(this.buffer.position() + n);
+		this.read += n;
+		count -= n;
+		
+		if (count > 0)
+		{
+			try
+			{
+				this.channel.position(this.channel.position() + count);
+				this.read += count;
+			}
+			catch (IOException e)
+			{
+				throw new InfileResponse(2, e);
+			}
+		}
+	}
+	
 	@Override
 	public long getLength()
 	{
@@ -99,14 +185,7 @@ public class LocalInfile extends Infile
 	@Override
 	public long getRemainingLength() throws InfileResponse
 	{
-		try
-		{
-			return this.binput.available();
-		}
-		catch (IOException e)
-		{
-			throw new InfileResponse(2, e);
-		}
+		return this.filelength - this.read;
 	}
 	
 	@Override
@@ -117,8 +196,11 @@ public class LocalInfile extends Infile
 		
 		try
 		{
-			if (this.binput != null)
-				this.binput.close();
+			if (this.channel != null)
+			{
+				this.channel.close();
+				this.channel = null;
+			}
 			return s;
 		}
 		catch (IOException e)
@@ -127,4 +209,30 @@ public class LocalInfile extends Infile
 		}
 	}
 	
+	/**
+	 * Refills the buffer from the file.
+	 * 
+	 * @return Number of bytes available, -1 at the end of the file
+	 * @throws InfileResponse
+	 */
+	private int fill() throws InfileResponse
+	{
+		try
+		{
+			this.buffer.compact();
+			int r = 0;
+			while (r == 0)
+				r = this.channel.read(this.buffer);
+			this.buffer.flip();
+			
+			if (r < 0 && !this.buffer.hasRemaining())
+				return -1;
+			return this.buffer.remaining();
+		}
+		catch (IOException e)
+		{
+			throw new InfileResponse(2, e);
+		}
+	}
+	
 }
@@ -1,10 +1,11 @@
 package otp.impl;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import otp.Outfile;
 import otp.UserInterface;
@@ -16,9 +17,11 @@ import otp.response.UiResponse;
  */
 public class LocalOutfile extends Outfile
 {
+	private final static int bufferSize = 64 * 1024;
+	
 	private File file = null;
-	private FileOutputStream foutput = null;
-	private BufferedOutputStream boutput = null;
+	private FileChannel channel = null;
+	private ByteBuffer buffer = null;
 	private UserInterface ui = null;
 	
 	/**
@@ -49,8 +52,12 @@ public class LocalOutfile extends Outfile
 					if (!ui.promptYN("Overwrite file " + this.file.getName() + "?", false))
 						throw new OutfileResponse(3);
 				
-				this.foutput = new FileOutputStream(this.file);
-				this.boutput = new BufferedOutputStream(foutput);
+				this.channel = new FileOutputStream(this.file).getChannel();
+				
+				// the buffer is kept if initialized again
+				if (this.buffer == null)
+					this.buffer = ByteBuffer.allocateDirect(LocalOutfile.bufferSize);
+				this.buffer.clear();
 			}
 			catch (FileNotFoundException e)
 			{
@@ -66,49 +73,98 @@ public class LocalOutfile extends Outfile
 	@Override
 	public void write(byte b) throws OutfileResponse
 	{
+		if (!this.buffer.hasRemaining())
+			this.flush();
+		this.buffer.put(b);
+	}
+	
+	@Override
+	public void write(byte b[]) throws OutfileResponse
+	{
+		this.write(ByteBuffer.wrap(b));
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws OutfileResponse
+	{
+		this.write(ByteBuffer.wrap(b, off, len));
+	}
+	
+	@Override
+	public void write(ByteBuffer b) throws OutfileResponse
+	{
+		if (b.remaining() <= this.buffer.remaining())
+		{
+			this.buffer.put(b);
+			return;
+		}
+		
+		this.flush();
 		try
 		{
-			this.boutput.write(b);
+			// large blocks are written without copying
+			if (b.remaining() >= LocalOutfile.bufferSize)
+				while (b.hasRemaining())
+					this.channel.write(b);
+			else
+				this.buffer.put(b);
 		}
 		catch (IOException e)
 		{
-			throw new OutfileResponse(2);
+			throw new OutfileResponse(2, e);
 		}
 	}
 	
 	@Override
-	public void write(byte b[]) throws OutfileResponse
+	public OutfileResponse finish(boolean success)
 	{
+		if (this.channel == null)
+			return new OutfileResponse(true);
+		
+		OutfileResponse res = new OutfileResponse(true);
+		try
+		{
+			// nothing of a failed output is kept, so it is not flushed
+			if (success)
+				this.flush();
+		}
+		catch (OutfileResponse r)
+		{
+			res = r;
+		}
+		
 		try
 		{
-			this.boutput.write(b);
+			this.channel.close();
 		}
 		catch (IOException e)
 		{
-			throw new OutfileResponse(2);
+			if (res.getSuccess())
+				res = new OutfileResponse(2, e);
+		}
+		this.channel = null;
+		
+		// partial output is removed on every failure
+		if (!success || !res.getSuccess())
+		{
+			if (this.file.exists() && this.file.canWrite())
+				this.file.delete();
 		}
+		return res;
 	}
 	
-	@Override
-	public OutfileResponse finish(boolean success)
+	private void flush() throws OutfileResponse
 	{
 		try
 		{
-			if (this.boutput != null)
-			{
-				this.boutput.close();
-				if (!success)
-				{
-					if (this.file.exists() && this.file.canWrite())
-						this.file.delete();
-				}
-			}
-			
-			return new OutfileResponse(true);
+			this.buffer.flip();
+			while (this.buffer.hasRemaining())
+				this.channel.write(this.buffer);
+			this.buffer.clear();
 		}
 		catch (IOException e)
 		{
-			return new OutfileResponse(2, e);
+			throw new OutfileResponse(2, e);
 		}
 	}
 	
@@ -0,0 +1,361 @@
+package otp.impl;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import otp.Rng;
+import otp.UserInterface;
+import otp.response.RngResponse;
+
+/**
+ * Rng module that mixes the output of several source Rngs through SHA-256. Each
+ * output block of 32 bytes is the hash of a block counter and 32 bytes of every
+ * source, so the result is unpredictable as long as one source is. A
+ * background thread mixes the bytes while they are consumed, but only as many
+ * as were requested, so no source output is wasted on bytes nobody uses.
+ */
+public class MixingPoolRng extends Rng
+{
+	private final static String extractor = "SHA-256";
+	private final static int hashLength = 32;
+	private final static int inputPerHash = 32;
+	
+	// largest block mixed at once, and the least bytes ordered at once
+	private final static int blockSize = 1024 * 1024;
+	private final static int minOrder = 4096;
+	private final static int queueLength = 4;
+	
+	private Rng[] sources;
+	private UserInterface ui;
+	
+	private BlockingQueue<Block> queue = null;
+	// mixed bytes requested from the worker, as size and epoch
+	private BlockingQueue<int[]> orders = null;
+	// ordered bytes, that were not taken from the queue yet
+	private long outstanding = 0;
+	// blocks ordered before the last drain are thrown away
+	private int epoch = 0;
+	private Thread worker = null;
+	private volatile boolean running = false;
+	private volatile RngResponse error = null;
+	
+	private byte[] current = null;
+	private int position = 0;
+	
+	private AtomicLongArray sourceBytes;
+	private AtomicLong outputBytes = new AtomicLong();
+	private long startTime = 0;
+	
+	/**
+	 * Creates new MixingPoolRng
+	 * 
+	 * @param sources
+	 * The Rng modules to be mixed. They are initialized and finished by the
+	 * pool and must not be used by anyone else while the pool is running
+	 * @param ui
+	 * UserInterface for status messages
+	 */
+	public MixingPoolRng(Rng[] sources, UserInterface ui)
+	{
+		this.sources = sources;
+		this.ui = ui;
+		this.sourceBytes = new AtomicLongArray(sources.length);
+	}
+	
+	@Override
+	public void initialize() throws RngResponse
+	{
+		if (this.running)
+			return;
+		if (this.sources.length == 0)
+			throw new RngResponse(0);
+		
+		for (int i = 0; i < this.sources.length; i++)
+			this.sources[i].initialize();
+		
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance(MixingPoolRng.extractor);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RngResponse(0, e);
+		}
+		
+		this.queue = new ArrayBlockingQueue<Block>(MixingPoolRng.queueLength);
+		this.orders = new LinkedBlockingQueue<int[]>();
+		this.outstanding = 0;
+		this.error = null;
+		this.running = true;
+		this.startTime = System.nanoTime();
+		
+		this.worker = new Thread(new Refill(md), "MixingPoolRng");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+	
+	@Override
+	public void reseed() throws RngResponse
+	{
+		// drop everything mixed so far, the following bytes are mixed afterwards
+		this.drain();
+	}
+	
+	@Override
+	protected void fill(byte[] b, int off, int len) throws RngResponse
+	{
+		if (!this.running)
+			throw new RngResponse(0);
+		
+		// order what is missing, the worker mixes while blocks are taken
+		long buffered = this.current == null ? 0 : this.current.length - this.position;
+		long missing = len - buffered - this.outstanding;
+		if (missing > 0)
+		{
+			int order = (int) Math.max(missing, MixingPoolRng.minOrder);
+			order = (order + MixingPoolRng.hashLength - 1) / MixingPoolRng.hashLength * MixingPoolRng.hashLength;
+			this.orders.add(new int[] { order, this.epoch });
+			this.outstanding += order;
+		}
+		
+		while (len > 0)
+		{
+			if (this.current == null || this.position == this.current.length)
+			{
+				this.wipeCurrent();
+				this.current = this.take();
+				this.outstanding -= this.current.length;
+				this.position = 0;
+			}
+			
+			int n = Math.min(len, this.current.length - this.position);
+			System.arraycopy(this.current, this.position, b, off, n);
+			this.position += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes read from a source so far.
+	 * 
+	 * @param source
+	 * Index of the source, in the order given to the constructor
+	 * @return Number of bytes
+	 */
+	public long getSourceBytes(int source)
+	{
+		return this.sourceBytes.get(source);
+	}
+	
+	/**
+	 * Returns the number of mixed bytes produced so far.
+	 * 
+	 * @return Number of bytes
+	 */
+	public long getOutputBytes()
+	{
+		return this.outputBytes.get();
+	}
+	
+	/**
+	 * Returns the average production rate since initialization.
+	 * 
+	 * @return Bytes per second
+	 */
+	public double getThroughput()
+	{
+		double seconds = (System.nanoTime() - this.startTime) / 1e9;
+		return seconds > 0 ? this.outputBytes.get() / seconds : 0;
+	}
+	
+	@Override
+	public RngResponse finish(boolean success)
+	{
+		if (this.worker != null)
+		{
+			this.running = false;
+			this.worker.interrupt();
+			try
+			{
+				this.worker.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			this.worker = null;
+			
+			this.ui.verboseMessage(String.format("Random pool: %d bytes mixed, %.1f MB/s", this.outputBytes.get(),
+					this.getThroughput() / (1024 * 1024)));
+			for (int i = 0; i < this.sources.length; i++)
+				this.ui.verboseMessage("  Source " + i + " (" + this.sources[i].getClass().getSimpleName() + "): "
+						+ this.sourceBytes.get(i) + " bytes");
+		}
+		
+		this.drain();
+		
+		RngResponse res = new RngResponse(true);
+		for (int i = 0; i < this.sources.length; i++)
+		{
+			RngResponse r = this.sources[i].finish(success);
+			if (!r.getSuccess())
+				res = r;
+		}
+		return res;
+	}
+	
+	private byte[] take() throws RngResponse
+	{
+		try
+		{
+			Block b = null;
+			while (b == null)
+			{
+				if (this.error != null)
+					throw this.error;
+				if (!this.running)
+					throw new RngResponse(0);
+				b = this.queue.poll(100, TimeUnit.MILLISECONDS);
+				if (b != null && b.epoch != this.epoch)
+				{
+					Arrays.fill(b.data, (byte) 0);
+					b = null;
+				}
+			}
+			return b.data;
+		}
+		catch (InterruptedException e)
+		{
+			throw new RngResponse(3, e);
+		}
+	}
+	
+	private void drain()
+	{
+		this.discard();
+		this.wipeCurrent();
+		this.epoch++;
+		this.outstanding = 0;
+		if (this.orders != null)
+			this.orders.clear();
+		if (this.queue != null)
+		{
+			Block b;
+			while ((b = this.queue.poll()) != null)
+				Arrays.fill(b.data, (byte) 0);
+		}
+	}
+	
+	private void wipeCurrent()
+	{
+		if (this.current != null)
+			Arrays.fill(this.current, (byte) 0);
+		this.current = null;
+		this.position = 0;
+	}
+	
+	/**
+	 * Mixed bytes together with the epoch they were ordered in
+	 */
+	private static class Block
+	{
+		private byte[] data;
+		private int epoch;
+		
+		private Block(byte[] data, int epoch)
+		{
+			this.data = data;
+			this.epoch = epoch;
+		}
+	}
+	
+	/**
+	 * Background task producing the ordered blocks until the pool is finished.
+	 */
+	private class Refill implements Runnable
+	{
+		private MessageDigest md;
+		private long counter = 0;
+		
+		private Refill(MessageDigest md)
+		{
+			this.md = md;
+		}
+		
+		@Override
+		public void run()
+		{
+			Rng[] src = MixingPoolRng.this.sources;
+			int maxHashes = MixingPoolRng.blockSize / MixingPoolRng.hashLength;
+			byte[][] input = new byte[src.length][maxHashes * MixingPoolRng.inputPerHash];
+			byte[] ctr = new byte[8];
+			
+			try
+			{
+				int order = 0;
+				int epoch = 0;
+				while (MixingPoolRng.this.running)
+				{
+					if (order == 0)
+					{
+						int[] o = MixingPoolRng.this.orders.take();
+						order = o[0];
+						epoch = o[1];
+					}
+					int size = Math.min(order, MixingPoolRng.blockSize);
+					order -= size;
+					int hashes = size / MixingPoolRng.hashLength;
+					
+					for (int i = 0; i < src.length; i++)
+					{
+						src[i].next(input[i], 0, hashes * MixingPoolRng.inputPerHash);
+						MixingPoolRng.this.sourceBytes.addAndGet(i, hashes * MixingPoolRng.inputPerHash);
+					}
+					
+					byte[] block = new byte[size];
+					for (int h = 0; h < hashes; h++)
+					{
+						this.counter++;
+						for (int j = 0; j < 8; j++)
+							ctr[j] = (byte) (this.counter >>> (56 - 8 * j));
+						this.md.update(ctr);
+						for (int i = 0; i < src.length; i++)
+							this.md.update(input[i], h * MixingPoolRng.inputPerHash, MixingPoolRng.inputPerHash);
+						this.md.digest(block, h * MixingPoolRng.hashLength, MixingPoolRng.hashLength);
+					}
+					
+					MixingPoolRng.this.queue.put(new Block(block, epoch));
+					MixingPoolRng.this.outputBytes.addAndGet(block.length);
+				}
+			}
+			catch (RngResponse r)
+			{
+				MixingPoolRng.this.error = r;
+			}
+			catch (InterruptedException e)
+			{
+				// finished
+			}
+			catch (DigestException e)
+			{
+				MixingPoolRng.this.error = new RngResponse(3, e);
+			}
+			finally
+			{
+				for (int i = 0; i < input.length; i++)
+					Arrays.fill(input[i], (byte) 0);
+			}
+		}
+	}
+	
+}
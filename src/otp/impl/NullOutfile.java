@@ -24,6 +24,11 @@ public class NullOutfile extends Outfile
 	{
 	}
 	
+	@Override
+	public void write(byte[] b, int off, int len)
+	{
+	}
+	
 	@Override
 	public OutfileResponse finish(boolean success)
 	{
@@ -0,0 +1,66 @@
+package otp.impl;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import otp.Rng;
+import otp.response.RngResponse;
+
+/**
+ * Rng module that reads the non-blocking random source of the operating system
+ * (/dev/urandom on unix systems).
+ */
+public class OsRng extends Rng
+{
+	SecureRandom rng = null;
+	
+	@Override
+	public void initialize() throws RngResponse
+	{
+		if (this.rng != null)
+			return;
+		
+		try
+		{
+			this.rng = SecureRandom.getInstance("NativePRNGNonBlocking");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// platform default, also seeded by the operating system
+			this.rng = new SecureRandom();
+		}
+	}
+	
+	@Override
+	public void reseed() throws RngResponse
+	{
+		// the operating system keeps its own state
+		this.discard();
+	}
+	
+	@Override
+	protected void fill(byte[] b, int off, int len) throws RngResponse
+	{
+		if (this.rng == null)
+			throw new RngResponse(0);
+		
+		if (off == 0 && len == b.length)
+			this.rng.nextBytes(b);
+		else
+		{
+			byte[] r = new byte[len];
+			this.rng.nextBytes(r);
+			System.arraycopy(r, 0, b, off, len);
+			Arrays.fill(r, (byte) 0);
+		}
+	}
+	
+	@Override
+	public RngResponse finish(boolean success)
+	{
+		this.discard();
+		return new RngResponse(true);
+	}
+	
+}
@@ -2,6 +2,7 @@ package otp.impl;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import otp.Rng;
 import otp.UserInterface;
@@ -44,22 +45,12 @@ public class PseudoRNG extends Rng
 	@Override
 	public void reseed() throws RngResponse
 	{
+		this.discard();
 		this.initialize();
 	}
 	
 	@Override
-	public byte next() throws RngResponse
-	{
-		if (this.rng == null)
-			throw new RngResponse(0);
-		
-		byte[] b = new byte[1];
-		this.rng.nextBytes(b);
-		return b[0];
-	}
-	
-	@Override
-	public byte[] next(int numBytes) throws RngResponse
+	protected void fill(byte[] b, int off, int len) throws RngResponse
 	{
 		if (this.rng == null)
 			throw new RngResponse(0);
@@ -68,41 +59,22 @@ public class PseudoRNG extends Rng
 			this.ui.message("Collecting randomness...");
 		this.firstbyte = false;
 		
-		byte[] b = new byte[numBytes];
-		this.rng.nextBytes(b);
-		return b;
+		if (off == 0 && len == b.length)
+			this.rng.nextBytes(b);
+		else
+		{
+			byte[] r = new byte[len];
+			this.rng.nextBytes(r);
+			System.arraycopy(r, 0, b, off, len);
+			Arrays.fill(r, (byte) 0);
+		}
 	}
 	
 	@Override
 	public RngResponse finish(boolean success)
 	{
+		this.discard();
 		return new RngResponse(true);
 	}
 	
-	@Override
-	public int nextInt(int i) throws RngResponse
-	{
-		if (this.rng == null)
-			throw new RngResponse(0);
-		
-		if (this.firstbyte)
-			this.ui.message("Collecting randomness...");
-		this.firstbyte = false;
-		
-		return this.rng.nextInt(i);
-	}
-	
-	@Override
-	public double nextDouble() throws RngResponse
-	{
-		if (this.rng == null)
-			throw new RngResponse(0);
-		
-		if (this.firstbyte)
-			this.ui.message("Collecting randomness...");
-		this.firstbyte = false;
-		
-		return this.rng.nextDouble();
-	}
-	
 }
@@ -9,6 +9,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileLock;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -18,10 +19,9 @@ import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -39,7 +39,9 @@ import otp.helpr.BlockData;
 import otp.helpr.BlockPlan;
 import otp.helpr.ByteArray;
 import otp.helpr.ByteArrayBuilder;
+import otp.helpr.FileLocks;
 import otp.helpr.IniFileParser;
+import otp.helpr.KeyJournal;
 import otp.helpr.KnownMsgs;
 import otp.response.KeyringResponse;
 import otp.response.RngResponse;
@@ -63,8 +65,30 @@ public class RealKeyRing extends KeyRing
 	private Key ringKey;
 	private IvParameterSpec ringIv;
 	private IniFileParser ringSettings;
+	// file content as last read or written, to detect changes of others
+	private byte[] ringImage;
+	// exclusive lock held until finish, null if not locked
+	private FileLock ringLock;
+	private final long lockTimeout = 1000 * 30;
+	
+	// names of the stored block lists and plans, by index in otpBlocks
+	private static final int[] listIndex = { KeyRing.BLOCKTYPE_E | 0, KeyRing.BLOCKTYPE_A | 0, KeyRing.BLOCKTYPE_E | 1,
+			KeyRing.BLOCKTYPE_A | 1, KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_E | 0,
+			KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_A | 0, KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_E | 1,
+			KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_A | 1 };
+	private static final String[] listNames = { "eBlocks0", "aBlocks0", "eBlocks1", "aBlocks1", "eSosBlocks0",
+			"aSosBlocks0", "eSosBlocks1", "aSosBlocks1" };
+	private static final String[] planNames = { "ePlan0", "aPlan0", "ePlan1", "aPlan1", "eSosPlan0", "aSosPlan0",
+			"eSosPlan1", "aSosPlan1" };
+	private static final String[] partnerNames = { "partnerE0", "partnerA0", "partnerE1", "partnerA1" };
+	// block lists in BlockListCodec format, stored under their own names so
+	// older versions do not read them as 4 byte lists
+	private static final String[] compactNames = { "eBlockRuns0", "aBlockRuns0", "eBlockRuns1", "aBlockRuns1",
+			"eSosBlockRuns0", "aSosBlockRuns0", "eSosBlockRuns1", "aSosBlockRuns1" };
 	
 	private Map<Integer, BlockData> blockDataCache = new HashMap<Integer, BlockData>();
+	// sorted positions of the ident bytes, for every block holding some
+	private Map<Integer, int[]> identSkips = new HashMap<Integer, int[]>();
 	
 	// global properties
 	private boolean createNewRing;
@@ -87,14 +111,18 @@ public class RealKeyRing extends KeyRing
 	private String keyAlias;
 	// private boolean keyIsValid = false;
 	private boolean keyOutOfSync = false;
+	// partner reads compact key-sync containers
+	private boolean keyPartnerCompact = false;
 	private BlockPlan[] partnerPlan = new BlockPlan[(KeyRing.BLOCKTYPE_A | 1) + 1];
 	
 	private long keyWarnSize = -1;
 	private long keyWindowSize = -1;
 	
 	private KnownMsgs keyKnownMsgs;
+	// one path per stripe, separated by File.pathSeparator
 	private String otpPath;
-	private File otpFile;
+	private File[] otpFiles;
+	private int otpStripes = 1;
 	private String otpPathOverwrite;
 	private byte[] otpKey;
 	private byte[] otpIv;
@@ -107,6 +135,8 @@ public class RealKeyRing extends KeyRing
 	
 	private BlockAssignList[] otpBlocks;
 	private BlockPlan[] otpPlan;
+	// key bytes in front of each block position, by block list
+	private Map<BlockAssignList, CapacityIndex> capacityIndex = new HashMap<BlockAssignList, CapacityIndex>();
 	
 	private int paddParam1 = -1;
 	private int paddParam2 = -1;
@@ -224,7 +254,8 @@ public class RealKeyRing extends KeyRing
 	 * will be prompted to save that new location as default.
 	 * 
 	 * @param path
-	 * Directory and filename of the OTP file to be used.
+	 * Directory and filename of the OTP file to be used. A striped pad lists the
+	 * files of all stripes, separated by File.pathSeparator.
 	 */
 	public void overwritePath(String path)
 	{
@@ -275,27 +306,35 @@ public class RealKeyRing extends KeyRing
 			throw new KeyringResponse(2, e);
 		}
 		
-		String padfile;
-		
 		if (this.otpPathOverwrite != null) // specific override
-			padfile = this.otpPathOverwrite;
-		else if (this.basePath != null) // global override
-			if (!this.otpPath.contains(File.separator))
-				padfile = this.basePath + File.separator + this.otpPath;
-			else
-				padfile = this.otpPath;
+			this.otpFiles = RealKeyRing.padFiles(this.otpPathOverwrite, null);
 		else
-			padfile = this.otpPath;
-		
-		this.otpFile = new File(padfile);
+			// global override
+			this.otpFiles = RealKeyRing.padFiles(this.otpPath, this.basePath);
 		
-		if (!this.otpFile.canRead())
+		if (this.otpFiles.length != this.otpStripes)
 		{
-			this.ui.warningMessage("OTP file " + this.otpFile.getAbsolutePath() +
-					" not found. Please use '--otplocation' to specify path!");
+			this.ui.warningMessage("Key " + ByteArray.toHex(this.keyId) + " is striped across " + this.otpStripes +
+					" pad files, " + this.otpFiles.length + " given. Please use '--otplocation' to specify all paths!");
 			throw new KeyringResponse(7);
 		}
 		
+		for (File f : this.otpFiles)
+			if (!f.canRead())
+			{
+				this.ui.warningMessage("OTP file " + f.getAbsolutePath() +
+						" not found. Please use '--otplocation' to specify path!");
+				throw new KeyringResponse(7);
+			}
+		
+		// the old key of a partly rewritten message is lost, it can not be undone
+		for (File f : KeyJournal.findInterrupted(this.getDirectory(), ByteArray.toHex(this.keyId)))
+		{
+			this.ui.warningMessage("Journal " + f.getAbsolutePath() + " of an interrupted key modification found. "
+					+ "Please check if messages still decrypt with this key and remove the journal afterwards.");
+			throw new KeyringResponse(14);
+		}
+		
 		this.initialized = true;
 		this.updateLastAction();
 	}
@@ -378,6 +417,7 @@ public class RealKeyRing extends KeyRing
 				// create ring
 				
 				this.ringFile = new RandomAccessFile(sf, "rwd");
+				this.ringImage = null;
 				this.ringSettings = new IniFileParser();
 				this.ringSettings.setValue(null, "keyRingId", hexring);
 				this.rng.next(this.ringSalt);
@@ -399,6 +439,7 @@ public class RealKeyRing extends KeyRing
 			this.keyAlias = alias == null ? "" : alias;
 			// this.keyIsValid = true;
 			this.keyOutOfSync = false;
+			this.keyPartnerCompact = false;
 			
 			if (this.otpPathOverwrite != null) // specific override
 			{
@@ -408,10 +449,8 @@ public class RealKeyRing extends KeyRing
 			else
 				this.otpPath = hexkey + ".pad";
 			
-			if (this.basePath == null || this.otpPath.contains(File.separator))
-				this.otpFile = new File(this.otpPath);
-			else
-				this.otpFile = new File(this.basePath + File.separator + this.otpPath);
+			this.otpFiles = RealKeyRing.padFiles(this.otpPath, this.basePath);
+			this.otpStripes = this.otpFiles.length;
 			
 			this.otpKey = this.rng.next(16);
 			this.otpIv = this.rng.next(16);
@@ -438,6 +477,7 @@ public class RealKeyRing extends KeyRing
 				this.otpIdentPos[i][0] = this.rng.nextInt(this.otpBlockCount);
 				this.otpIdentPos[i][1] = this.rng.nextInt(this.otpBlockSize);
 			}
+			this.indexIdentBytes();
 			
 			this.paddParam1 = paddParam1;
 			this.paddParam2 = paddParam2;
@@ -539,15 +579,17 @@ public class RealKeyRing extends KeyRing
 			this.readSettings();
 			this.importing = false;
 			this.ringFile.close();
+			this.ringImage = null;
 			
 			this.participant = this.keyOwner;
 			
-			this.otpFile = new File(sf.getParent() + File.separator + this.otpPath);
-			if (!this.otpFile.exists())
-			{
-				this.ui.warningMessage("Import pad file " + this.otpFile.getAbsolutePath() + " not found.");
-				throw new KeyringResponse(7);
-			}
+			this.otpFiles = RealKeyRing.padFiles(this.otpPath, sf.getParent());
+			for (File f : this.otpFiles)
+				if (!f.exists())
+				{
+					this.ui.warningMessage("Import pad file " + f.getAbsolutePath() + " not found.");
+					throw new KeyringResponse(7);
+				}
 			
 			this.initialized = true;
 		}
@@ -613,6 +655,7 @@ public class RealKeyRing extends KeyRing
 				this.cacheSettings.setValue(null, "defaultKeyRing", ByteArray.toHex(this.ringId));
 				
 				this.ringFile = new RandomAccessFile(sf, "rwd");
+				this.ringImage = null;
 				this.ringSettings = new IniFileParser();
 				this.ringSettings.setValue(null, "keyRingId", hexring);
 				this.rng.next(this.ringSalt);
@@ -639,24 +682,25 @@ public class RealKeyRing extends KeyRing
 			else
 				this.otpPath = ByteArray.toHex(this.keyId) + ".pad";
 			
-			if (this.basePath == null || this.otpPath.contains(File.separator))
-				this.otpFile = new File(this.otpPath);
-			else
-				this.otpFile = new File(this.basePath + File.separator + this.otpPath);
+			this.otpFiles = RealKeyRing.padFiles(this.otpPath, this.basePath);
+			this.otpStripes = this.otpFiles.length;
 			
 			this.otpKey = this.rng.next(16);
 			this.otpIv = this.rng.next(16);
 			this.dirty = true;
 			
-			if (this.otpFile.exists())
-			{
-				this.ui.warningMessage("Pad file " + this.otpFile.getAbsolutePath() + " already exists.");
-				throw new KeyringResponse(4);
-			}
-			if (this.otpFile.canWrite())
+			for (File f : this.otpFiles)
 			{
-				this.ui.warningMessage("Pad file " + this.otpFile.getAbsolutePath() + " cannot be written.");
-				throw new KeyringResponse(4);
+				if (f.exists())
+				{
+					this.ui.warningMessage("Pad file " + f.getAbsolutePath() + " already exists.");
+					throw new KeyringResponse(4);
+				}
+				if (f.canWrite())
+				{
+					this.ui.warningMessage("Pad file " + f.getAbsolutePath() + " cannot be written.");
+					throw new KeyringResponse(4);
+				}
 			}
 		}
 		catch (FileNotFoundException e)
@@ -716,7 +760,8 @@ public class RealKeyRing extends KeyRing
 			this.otpKey = this.rng.next(16);
 			this.otpIv = this.rng.next(16);
 			this.otpPath = hexkey + ".pad";
-			this.otpFile = new File(dir.getAbsolutePath() + File.separator + hexkey + ".pad");
+			this.otpFiles = new File[] { new File(dir.getAbsolutePath() + File.separator + hexkey + ".pad") };
+			this.otpStripes = 1;
 			
 			this.dirty = true;
 			this.exported = true;
@@ -749,6 +794,9 @@ public class RealKeyRing extends KeyRing
 			if (pwd.length < 3)
 				throw new KeyringResponse(8);
 			
+			// others' changes can only be read with the old passphrase
+			this.lockExclusive();
+			
 			byte[] keys;
 			
 			this.rng.next(this.ringSalt);
@@ -813,6 +861,26 @@ public class RealKeyRing extends KeyRing
 		
 	}
 	
+	@Override
+	public boolean keyPartnerCompact() throws KeyringResponse
+	{
+		if (!this.initialized)
+			throw new KeyringResponse(0);
+		return this.keyPartnerCompact;
+	}
+	
+	@Override
+	public void keySetPartnerCompact(boolean compact) throws KeyringResponse
+	{
+		if (!this.initialized)
+			throw new KeyringResponse(0);
+		if (this.keyPartnerCompact != compact)
+		{
+			this.keyPartnerCompact = compact;
+			this.dirty = true;
+		}
+	}
+	
 	@Override
 	public BlockPlan[] keyGetPartnerSync() throws KeyringResponse
 	{
@@ -837,7 +905,7 @@ public class RealKeyRing extends KeyRing
 	}
 	
 	@Override
-	public BlockPlan getCurrentPlan(int participant, int type) throws KeyringResponse
+	public synchronized BlockPlan getCurrentPlan(int participant, int type) throws KeyringResponse
 	{
 		if (!this.initialized)
 			throw new KeyringResponse(0);
@@ -954,7 +1022,7 @@ public class RealKeyRing extends KeyRing
 	}
 	
 	@Override
-	public void updatePlan(int participant, int type, BlockPlan plan) throws KeyringResponse
+	public synchronized void updatePlan(int participant, int type, BlockPlan plan) throws KeyringResponse
 	{
 		if (!this.initialized)
 			throw new KeyringResponse(0);
@@ -989,29 +1057,29 @@ public class RealKeyRing extends KeyRing
 		if (!this.initialized)
 			throw new KeyringResponse(0);
 		
-		BlockData b = this.getBlockData(plan.getBlockId());
-		int pointer = plan.getPointer();
+		if (forward <= 0)
+			return;
+		
+		// the target ends in the first block whose end reaches it
+		long[] sums = this.capacityIndex(plan.getBlockList());
+		int blocks = plan.getBlockList().size();
+		long target = sums[plan.getBlockPos()] + plan.getPointer() + forward;
+		if (target > sums[blocks])
+			throw new KeyringResponse(9);
+		
+		int end = Arrays.binarySearch(sums, 0, blocks + 1, target);
+		if (end < 0)
+			end = -end - 1;
 		
 		try
 		{
-			while (forward > 0)
-			{
-				int space = b.calculateSize() - pointer;
-				int move = (int) Math.min(forward, space);
-				pointer += move;
-				forward -= move;
-				if (forward > 0)
-				{
-					b = this.getBlockData(plan.nextBlock());
-					pointer = 0;
-				}
-			}
+			plan.setBlockPos(end - 1);
 		}
-		catch (NoSuchElementException e)
+		catch (IllegalStateException e)
 		{
 			throw new KeyringResponse(9, e);
 		}
-		plan.setPointer(pointer);
+		plan.setPointer((int) (target - sums[end - 1]));
 	}
 	
 	@Override
@@ -1076,22 +1144,17 @@ public class RealKeyRing extends KeyRing
 		
 	}
 	
-	public BlockData getBlockData(int blockId)
+	public synchronized BlockData getBlockData(int blockId)
 	{
 		if (this.blockDataCache.containsKey(blockId))
 			return this.blockDataCache.get(blockId);
 		else
 		{
-			int startAddress = blockId * this.otpBlockSize;
-			
-			List<Integer> blocks = new LinkedList<Integer>();
-			for (int i = 0; i < this.otpIdentBytes.length; i++)
-				if (this.otpIdentPos[i][0] == blockId)
-					blocks.add(this.otpIdentPos[i][1]);
+			long startAddress = (long) blockId * this.otpBlockSize;
 			
-			int[] identPos = new int[blocks.size()];
-			for (int i = 0; i < blocks.size(); i++)
-				identPos[i] = blocks.get(i);
+			int[] identPos = this.identSkips.get(blockId);
+			if (identPos == null)
+				identPos = new int[0];
 			
 			BlockData bd = new BlockData(blockId, startAddress, this.otpBlockSize, identPos);
 			this.blockDataCache.put(blockId, bd);
@@ -1099,6 +1162,37 @@ public class RealKeyRing extends KeyRing
 		}
 	}
 	
+	/**
+	 * Groups the ident byte positions by block, sorted within every block. Has
+	 * to be called whenever the positions change.
+	 */
+	private synchronized void indexIdentBytes()
+	{
+		this.blockDataCache.clear();
+		this.identSkips.clear();
+		
+		// block in the upper, position in the lower half
+		long[] sorted = new long[this.otpIdentPos.length];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = (long) this.otpIdentPos[i][0] << 32 | this.otpIdentPos[i][1];
+		Arrays.sort(sorted);
+		
+		int from = 0;
+		while (from < sorted.length)
+		{
+			int blockId = (int) (sorted[from] >>> 32);
+			int to = from;
+			while (to < sorted.length && (int) (sorted[to] >>> 32) == blockId)
+				to++;
+			
+			int[] skips = new int[to - from];
+			for (int i = from; i < to; i++)
+				skips[i - from] = (int) sorted[i];
+			this.identSkips.put(blockId, skips);
+			from = to;
+		}
+	}
+	
 	public int getMaxBlockSize() throws KeyringResponse
 	{
 		if (!this.initialized)
@@ -1116,16 +1210,49 @@ public class RealKeyRing extends KeyRing
 	@Override
 	public long remainingBytes(BlockPlan plan)
 	{
-		int[] bl = plan.getBlocks();
-		if (bl.length == 0)
+		int blocks = plan.getBlockList().size();
+		if (plan.getBlockPos() >= blocks)
 			return 0;
 		
-		int rb = this.getBlockData(bl[0]).calculateSize() - plan.getPointer();
-		
-		for (int i = 1; i < bl.length; i++)
-			rb += this.getBlockData(bl[i]).calculateSize();
+		long[] sums = this.capacityIndex(plan.getBlockList());
+		return sums[blocks] - sums[plan.getBlockPos()] - plan.getPointer();
+	}
+	
+	/**
+	 * Returns the number of key bytes in front of every position of a block
+	 * list, with one more entry than the list has blocks. Lists only grow at
+	 * their ends, so the index is extended and every block measured once.
+	 */
+	private synchronized long[] capacityIndex(BlockAssignList list)
+	{
+		CapacityIndex index = this.capacityIndex.get(list);
+		if (index == null)
+		{
+			index = new CapacityIndex();
+			this.capacityIndex.put(list, index);
+		}
 		
-		return rb;
+		int blocks = list.size();
+		if (index.blocks < blocks)
+		{
+			if (index.sums.length < blocks + 1)
+				index.sums = Arrays.copyOf(index.sums, Math.max(blocks + 1, 2 * index.sums.length));
+			
+			for (int i = index.blocks; i < blocks; i++)
+				index.sums[i + 1] = index.sums[i] + this.blockCapacity(list.getBlock(i));
+			index.blocks = blocks;
+		}
+		return index.sums;
+	}
+	
+	/**
+	 * Returns the usable size of a block like BlockData.calculateSize(), without
+	 * caching block data for every block of large lists.
+	 */
+	private int blockCapacity(int blockId)
+	{
+		int[] skips = this.identSkips.get(blockId);
+		return skips == null ? this.otpBlockSize : this.otpBlockSize - skips.length;
 	}
 	
 	@Override
@@ -1154,7 +1281,7 @@ public class RealKeyRing extends KeyRing
 	{
 		if (this.keyId == null)
 			throw new KeyringResponse(0);
-		return this.otpBlockCount * this.otpBlockSize;
+		return (long) this.otpBlockCount * this.otpBlockSize;
 	}
 	
 	@Override
@@ -1182,7 +1309,7 @@ public class RealKeyRing extends KeyRing
 	}
 	
 	@Override
-	public boolean[] verifyMessage(byte[] hash, BlockPlan eStart, BlockPlan eEnd, BlockPlan aStart, BlockPlan aEnd)
+	public synchronized boolean[] verifyMessage(byte[] hash, BlockPlan eStart, BlockPlan eEnd, BlockPlan aStart, BlockPlan aEnd)
 			throws KeyringResponse
 	{
 		try
@@ -1197,6 +1324,15 @@ public class RealKeyRing extends KeyRing
 		}
 	}
 	
+	@Override
+	public synchronized boolean isAreaUsed(BlockPlan eStart, BlockPlan eEnd, BlockPlan aStart, BlockPlan aEnd)
+			throws KeyringResponse
+	{
+		if (!this.initialized)
+			throw new KeyringResponse(0);
+		return this.keyKnownMsgs.isUsed(eStart, eEnd, aStart, aEnd);
+	}
+	
 	/**
 	 * Returns the key for decrypting the corresponding pad file
 	 * 
@@ -1243,16 +1379,38 @@ public class RealKeyRing extends KeyRing
 	}
 	
 	/**
-	 * Returns the file handle for the corresponding pad file
+	 * Returns the file handles for the corresponding pad files, one per stripe.
+	 * Outer block n is stored in stripe n % stripes.
 	 * 
-	 * @return The pad file handle
+	 * @return The pad file handles
 	 * @throws KeyringResponse
 	 */
-	public File getOtpFile() throws KeyringResponse
+	public File[] getOtpFiles() throws KeyringResponse
 	{
 		if (!this.initialized)
 			throw new KeyringResponse(0);
-		return this.otpFile;
+		return this.otpFiles;
+	}
+	
+	/**
+	 * Resolves the pad files of a path list
+	 * 
+	 * @param paths
+	 * Pad file paths, separated by File.pathSeparator
+	 * @param dir
+	 * Directory for paths without a directory part, or null
+	 * @return
+	 */
+	private static File[] padFiles(String paths, String dir)
+	{
+		String[] names = paths.split(Pattern.quote(File.pathSeparator));
+		File[] files = new File[names.length];
+		for (int i = 0; i < names.length; i++)
+			if (dir == null || names[i].contains(File.separator))
+				files[i] = new File(names[i]);
+			else
+				files[i] = new File(dir + File.separator + names[i]);
+		return files;
 	}
 	
 	public void setDefaultKeyRing() throws KeyringResponse
@@ -1269,12 +1427,15 @@ public class RealKeyRing extends KeyRing
 		this.ui.message("Ring ID: " + ByteArray.toHex(this.ringId));
 		this.ui.message("Key owner: " + this.keyOwner + (this.keyOwner == 0 ? " (key created here)" : " (imported key)"));
 		this.ui.message("OTP file path: " + this.otpPath);
+		if (this.otpStripes > 1)
+			this.ui.message("OTP stripes: " + this.otpStripes);
 		this.ui.message("Last used at: " + DateFormat.getDateInstance(DateFormat.MEDIUM).format(new Date(this.lastAction)));
+		this.ui.message("Partner reads compact key-sync: " + (this.keyPartnerCompact ? "yes" : "no"));
 		if (this.keyOutOfSync)
 			this.ui.message("\nKey is temporarily deactivated, because it has been found out of sync!\n");
 		
-		this.ui.message("OTP total size: " + (this.otpBlockSize * this.otpBlockCount / (1024 * 1024)) + " MByte");
-		this.ui.verboseMessage(" (" + (this.otpBlockSize * this.otpBlockCount) + " byte)");
+		this.ui.message("OTP total size: " + (this.getOtpSize() / (1024 * 1024)) + " MByte");
+		this.ui.verboseMessage(" (" + this.getOtpSize() + " byte)");
 		
 		this.ui.message("OTP block size: " + (this.otpBlockSize / 1024) + " kByte");
 		this.ui.verboseMessage(" (" + (this.otpBlockSize) + " byte)");
@@ -1295,7 +1456,7 @@ public class RealKeyRing extends KeyRing
 		long freespace = this.getOtpSize();
 		for (BlockAssignList bal : this.otpBlocks)
 		{
-			freespace -= bal.size() * this.otpBlockSize;
+			freespace -= (long) bal.size() * this.otpBlockSize;
 		}
 		
 		this.ui.message("Encryption:     " + (enc / 1024) + " kByte");
@@ -1365,6 +1526,83 @@ public class RealKeyRing extends KeyRing
 		}
 	}
 	
+	@Override
+	public synchronized BlockPlan[] reservePlans(long encBytes, long authBytes) throws KeyringResponse
+	{
+		if (!this.initialized)
+			throw new KeyringResponse(0);
+		
+		if (this.ringLock != null)
+			return this.reserveLocked(encBytes, authBytes);
+		
+		// take over reservations of other processes and store this one before
+		// the key areas are used
+		FileLock lock = this.lockRingFile(false);
+		try
+		{
+			this.refreshSettings();
+			BlockPlan[] reserved = this.reserveLocked(encBytes, authBytes);
+			this.writeSettings(true);
+			return reserved;
+		}
+		finally
+		{
+			FileLocks.release(lock);
+		}
+	}
+	
+	private BlockPlan[] reserveLocked(long encBytes, long authBytes) throws KeyringResponse
+	{
+		BlockPlan eStart = this.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E);
+		BlockPlan aStart = this.getCurrentPlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A);
+		if (this.remainingBytes(eStart) < encBytes || this.remainingBytes(aStart) < authBytes)
+			throw new KeyringResponse(11);
+		
+		BlockPlan eEnd = eStart.clone();
+		BlockPlan aEnd = aStart.clone();
+		this.fastForwardPlan(eEnd, encBytes);
+		this.fastForwardPlan(aEnd, authBytes);
+		this.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_E, eEnd);
+		this.updatePlan(KeyRing.PARTICIP_ME, KeyRing.BLOCKTYPE_A, aEnd);
+		
+		return new BlockPlan[] { eStart, aStart };
+	}
+	
+	@Override
+	public synchronized void commit() throws KeyringResponse
+	{
+		if (!this.initialized)
+			throw new KeyringResponse(0);
+		
+		if (this.dirty)
+		{
+			this.storeSettings(true);
+			this.ui.verboseMessage("Key Ring settings saved.");
+		}
+	}
+	
+	@Override
+	public synchronized void lockExclusive() throws KeyringResponse
+	{
+		if (!this.initialized)
+			throw new KeyringResponse(0);
+		
+		if (this.ringLock != null)
+			return;
+		
+		FileLock lock = this.lockRingFile(false);
+		try
+		{
+			this.refreshSettings();
+		}
+		catch (KeyringResponse e)
+		{
+			FileLocks.release(lock);
+			throw e;
+		}
+		this.ringLock = lock;
+	}
+	
 	@Override
 	public KeyringResponse finish(boolean success)
 	{
@@ -1378,7 +1616,7 @@ public class RealKeyRing extends KeyRing
 				long freespace = this.getOtpSize();
 				for (BlockAssignList bal : this.otpBlocks)
 				{
-					freespace -= bal.size() * this.otpBlockSize;
+					freespace -= (long) bal.size() * this.otpBlockSize;
 				}
 				if (freespace < this.keyWarnSize)
 					this.ui.warningMessage("Remaining unassociated OTP Capacity: " + (freespace / 1024) + " kByte (" +
@@ -1418,6 +1656,9 @@ public class RealKeyRing extends KeyRing
 			else
 				this.ui.verboseMessage("Key Ring settings not " + (this.dirty ? "successfull." : "dirty."));
 			
+			FileLocks.release(this.ringLock);
+			this.ringLock = null;
+			
 			// update and save cacheSettings
 			if (!this.exported)
 			{
@@ -1460,6 +1701,12 @@ public class RealKeyRing extends KeyRing
 		return res;
 	}
 	
+	@Override
+	public File getDirectory() throws KeyringResponse
+	{
+		return this.getRingFile().getAbsoluteFile().getParentFile();
+	}
+	
 	private File getRingFile() throws KeyringResponse
 	{
 		if (this.cacheSettings == null)
@@ -1612,12 +1859,12 @@ public class RealKeyRing extends KeyRing
 		try
 		{
 			Cipher ciph = Cipher.getInstance("AES/PCBC/NoPadding");
+			byte[] image = this.readRingFile(this.ringLock == null);
 			
-			if (ringFile.length() <= this.ringSalt.length + 2 * ciph.getBlockSize())
+			if (image.length <= this.ringSalt.length + 2 * ciph.getBlockSize())
 				throw new KeyringResponse(3);
 			
-			this.ringFile.seek(0);
-			this.ringFile.read(this.ringSalt);
+			System.arraycopy(image, 0, this.ringSalt, 0, this.ringSalt.length);
 			
 			byte[] pwd;
 			if (this.importing)
@@ -1634,26 +1881,9 @@ public class RealKeyRing extends KeyRing
 			
 			this.ringKey = new SecretKeySpec(keys, 0, 16, "AES");
 			this.ringIv = new IvParameterSpec(keys, 16, 16);
-			ciph.init(Cipher.DECRYPT_MODE, this.ringKey, this.ringIv);
-			byte[] encrypted = new byte[(int) this.ringFile.length() - this.ringSalt.length];
-			this.ringFile.read(encrypted);
-			
-			byte[] clear = ciph.doFinal(encrypted);
-			
-			byte[] chcksm = new byte[ciph.getBlockSize()];
-			byte[] params = new byte[clear.length - 2 * ciph.getBlockSize()];
 			
-			System.arraycopy(clear, clear.length - ciph.getBlockSize(), chcksm, 0, ciph.getBlockSize());
-			
-			// wrong authkey ==> probably invalid passphrase
-			if (!Arrays.equals(chcksm, new byte[ciph.getBlockSize()]))
-			{
-				throw new KeyringResponse(6);
-			}
-			
-			System.arraycopy(clear, ciph.getBlockSize(), params, 0, clear.length - 2 * ciph.getBlockSize());
-			
-			this.ringSettings = new IniFileParser(new String(params));
+			this.ringSettings = this.decryptSettings(image);
+			this.ringImage = image;
 			
 			if (this.importing)
 			{
@@ -1692,8 +1922,10 @@ public class RealKeyRing extends KeyRing
 				// this.keyIsValid = this.ringSettings.getValueBool(hexkey,
 				// "keyIsValid");
 				this.keyOutOfSync = this.ringSettings.getValueBool(hexkey, "keyOutOfSync");
+				this.keyPartnerCompact = this.ringSettings.getValueBool(hexkey, "partnerCompact");
 				
 				this.otpPath = this.ringSettings.getValueString(hexkey, "otpPath");
+				this.otpStripes = Math.max(1, this.ringSettings.getValueInt(hexkey, "otpStripes"));
 				this.otpKey = this.ringSettings.getValueBytes(hexkey, "otpKey");
 				this.otpIv = this.ringSettings.getValueBytes(hexkey, "otpIv");
 				
@@ -1709,6 +1941,7 @@ public class RealKeyRing extends KeyRing
 					System.arraycopy(ip, 8 * i + 4, n, 0, 4);
 					this.otpIdentPos[i][1] = ByteArray.toInt(n);
 				}
+				this.indexIdentBytes();
 				
 				this.otpBlockSize = this.ringSettings.getValueInt(hexkey, "otpBlockSize");
 				this.otpBlockCount = this.ringSettings.getValueInt(hexkey, "otpBlockCount");
@@ -1721,22 +1954,9 @@ public class RealKeyRing extends KeyRing
 				this.keyWindowSize = this.ringSettings.getValueLong(hexkey, "keyWindowSize");
 				
 				this.otpBlocks = new BlockAssignList[(KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS | 1) + 1];
-				this.otpBlocks[KeyRing.BLOCKTYPE_E | 0] = new BlockAssignList(this.ringSettings.getValueBytes(hexkey,
-						"eBlocks0"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_A | 0] = new BlockAssignList(this.ringSettings.getValueBytes(hexkey,
-						"aBlocks0"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_E | 1] = new BlockAssignList(this.ringSettings.getValueBytes(hexkey,
-						"eBlocks1"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_A | 1] = new BlockAssignList(this.ringSettings.getValueBytes(hexkey,
-						"aBlocks1"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_E | 0] = new BlockAssignList(
-						this.ringSettings.getValueBytes(hexkey, "eSosBlocks0"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_A | 0] = new BlockAssignList(
-						this.ringSettings.getValueBytes(hexkey, "aSosBlocks0"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_E | 1] = new BlockAssignList(
-						this.ringSettings.getValueBytes(hexkey, "eSosBlocks1"), this.otpBlocks);
-				this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_A | 1] = new BlockAssignList(
-						this.ringSettings.getValueBytes(hexkey, "aSosBlocks1"), this.otpBlocks);
+				for (int i = 0; i < RealKeyRing.listIndex.length; i++)
+					this.otpBlocks[RealKeyRing.listIndex[i]] = RealKeyRing.importBlocks(this.ringSettings, hexkey, i,
+							this.otpBlocks);
 				
 				this.otpPlan = new BlockPlan[(KeyRing.BLOCKTYPE_A | KeyRing.BLOCKTYPE_SOS | 1) + 1];
 				this.otpPlan[KeyRing.BLOCKTYPE_E | 0] = new BlockPlan(this.ringSettings.getValueBytes(hexkey, "ePlan0"),
@@ -1775,13 +1995,10 @@ public class RealKeyRing extends KeyRing
 				byte[] areas = this.ringSettings.getValueBytes(hexkey, "knownAreas");
 				
 				this.keyKnownMsgs = new KnownMsgs(hashes, areas, this.otpBlocks);
+				this.capacityIndex.clear();
 			}
 			
 		}
-		catch (IOException e)
-		{
-			throw new KeyringResponse(4, e);
-		}
 		catch (IllegalBlockSizeException e)
 		{
 			throw new KeyringResponse(0, e);
@@ -1824,11 +2041,239 @@ public class RealKeyRing extends KeyRing
 		}
 	}
 	
+	private byte[] readRingFile(boolean lock) throws KeyringResponse
+	{
+		FileLock shared = null;
+		try
+		{
+			if (lock)
+				shared = this.lockRingFile(true);
+			
+			byte[] image = new byte[(int) this.ringFile.length()];
+			this.ringFile.seek(0);
+			this.ringFile.readFully(image);
+			return image;
+		}
+		catch (IOException e)
+		{
+			throw new KeyringResponse(2, e);
+		}
+		finally
+		{
+			FileLocks.release(shared);
+		}
+	}
+	
+	private FileLock lockRingFile(boolean shared) throws KeyringResponse
+	{
+		try
+		{
+			FileLock lock = FileLocks.acquire(this.ringFile.getChannel(), shared, this.lockTimeout);
+			if (lock == null)
+				throw new KeyringResponse(12);
+			return lock;
+		}
+		catch (IOException e)
+		{
+			throw new KeyringResponse(2, e);
+		}
+	}
+	
+	private IniFileParser decryptSettings(byte[] image) throws KeyringResponse, NoSuchAlgorithmException,
+			NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException,
+			BadPaddingException, ParseException
+	{
+		Cipher ciph = Cipher.getInstance("AES/PCBC/NoPadding");
+		ciph.init(Cipher.DECRYPT_MODE, this.ringKey, this.ringIv);
+		
+		byte[] clear = ciph.doFinal(image, this.ringSalt.length, image.length - this.ringSalt.length);
+		
+		byte[] chcksm = new byte[ciph.getBlockSize()];
+		byte[] params = new byte[clear.length - 2 * ciph.getBlockSize()];
+		
+		System.arraycopy(clear, clear.length - ciph.getBlockSize(), chcksm, 0, ciph.getBlockSize());
+		
+		// wrong authkey ==> probably invalid passphrase
+		if (!Arrays.equals(chcksm, new byte[ciph.getBlockSize()]))
+		{
+			throw new KeyringResponse(6);
+		}
+		
+		System.arraycopy(clear, ciph.getBlockSize(), params, 0, clear.length - 2 * ciph.getBlockSize());
+		
+		return new IniFileParser(new String(params));
+	}
+	
+	/**
+	 * Takes over the changes another process stored since the ring file was
+	 * read or written by this one. Must be called while holding the exclusive
+	 * lock.
+	 * 
+	 * @throws KeyringResponse
+	 */
+	private void refreshSettings() throws KeyringResponse
+	{
+		if (this.ringImage == null || this.exported)
+			return;
+		
+		byte[] image = this.readRingFile(false);
+		if (Arrays.equals(image, this.ringImage))
+			return;
+		
+		// a changed passphrase can not be merged
+		for (int i = 0; i < this.ringSalt.length; i++)
+			if (image.length <= i || image[i] != this.ringSalt[i])
+				throw new KeyringResponse(13);
+		
+		try
+		{
+			this.mergeSettings(this.decryptSettings(image));
+			this.ringImage = image;
+			this.ui.verboseMessage("Key ring was changed by another process, changes taken over.");
+		}
+		catch (KeyringResponse e)
+		{
+			throw e;
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new KeyringResponse(13, e);
+		}
+		catch (IllegalStateException e)
+		{
+			throw new KeyringResponse(13, e);
+		}
+		catch (ParseException e)
+		{
+			throw new KeyringResponse(3, e);
+		}
+		catch (Exception e)
+		{
+			throw new KeyringResponse(0, e);
+		}
+	}
+	
+	/**
+	 * Merges stored settings into the current ones. Block lists may only have
+	 * grown at their ends, plans are only moved forward and known messages are
+	 * united. All other keys are taken as stored.
+	 * 
+	 * @param stored
+	 * The settings currently stored in the ring file
+	 * @throws KeyringResponse
+	 */
+	private void mergeSettings(IniFileParser stored) throws KeyringResponse
+	{
+		String hexkey = ByteArray.toHex(this.keyId);
+		
+		if (stored.getSections().contains(hexkey) && this.otpBlocks != null)
+		{
+			for (int i = 0; i < RealKeyRing.listIndex.length; i++)
+			{
+				BlockAssignList own = this.otpBlocks[RealKeyRing.listIndex[i]];
+				BlockAssignList theirs = RealKeyRing.importBlocks(stored, hexkey, i, new BlockAssignList[0]);
+				
+				int common = Math.min(own.size(), theirs.size());
+				for (int j = 0; j < common; j++)
+					if (own.getBlock(j) != theirs.getBlock(j))
+						throw new KeyringResponse(13);
+				
+				for (int j = common; j < theirs.size(); j++)
+					own.addBlock(theirs.getBlock(j));
+			}
+			
+			for (int i = 0; i < RealKeyRing.listIndex.length; i++)
+			{
+				int idx = RealKeyRing.listIndex[i];
+				BlockPlan theirs = new BlockPlan(stored.getValueBytes(hexkey, RealKeyRing.planNames[i]), this.otpBlocks[idx]);
+				if (theirs.greaterThan(this.otpPlan[idx]))
+					this.otpPlan[idx] = theirs;
+			}
+			
+			for (int i = 0; i < RealKeyRing.partnerNames.length; i++)
+			{
+				int idx = RealKeyRing.listIndex[i];
+				byte[] readPlan = stored.getValueBytes(hexkey, RealKeyRing.partnerNames[i]);
+				if (readPlan != null && readPlan.length > 1)
+				{
+					BlockPlan theirs = new BlockPlan(readPlan, this.otpBlocks[idx]);
+					if (this.partnerPlan[idx] == null || theirs.greaterThan(this.partnerPlan[idx]))
+						this.partnerPlan[idx] = theirs;
+				}
+			}
+			
+			this.keyKnownMsgs.merge(new KnownMsgs(stored.getValueBytes(hexkey, "knownHashes"), stored.getValueBytes(
+					hexkey, "knownAreas"), this.otpBlocks));
+			
+			// staying out of sync is the safe side
+			this.keyOutOfSync = this.keyOutOfSync || stored.getValueBool(hexkey, "keyOutOfSync");
+			this.keyPartnerCompact = this.keyPartnerCompact || stored.getValueBool(hexkey, "partnerCompact");
+		}
+		
+		this.lastAction = Math.max(this.lastAction, stored.getValueLong(null, "lastAction"));
+		this.ringSettings = stored;
+	}
+	
+	/**
+	 * Reads a stored block list. Compact lists are preferred, sections without
+	 * them hold 4 byte lists (older versions and exported keys).
+	 * 
+	 * @param set
+	 * @param hexkey
+	 * @param list
+	 * Index in listNames
+	 * @param others
+	 * @return
+	 * @throws KeyringResponse
+	 */
+	private static BlockAssignList importBlocks(IniFileParser set, String hexkey, int list, BlockAssignList[] others)
+			throws KeyringResponse
+	{
+		byte[] stored = set.getValueBytes(hexkey, RealKeyRing.compactNames[list]);
+		
+		if (stored == null)
+		{
+			stored = set.getValueBytes(hexkey, RealKeyRing.listNames[list]);
+			if (stored == null)
+				throw new KeyringResponse(3);
+			return new BlockAssignList(stored, others);
+		}
+		
+		try
+		{
+			return BlockAssignList.importCompact(stored, others);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new KeyringResponse(3, e);
+		}
+	}
+	
 	private void storeSettings(boolean success) throws KeyringResponse
 	{
 		if (!this.initialized)
 			throw new KeyringResponse(0);
 		
+		if (this.ringLock != null || this.exported)
+		{
+			this.writeSettings(success);
+			return;
+		}
+		
+		FileLock lock = this.lockRingFile(false);
+		try
+		{
+			this.refreshSettings();
+			this.writeSettings(success);
+		}
+		finally
+		{
+			FileLocks.release(lock);
+		}
+	}
+	
+	private void writeSettings(boolean success) throws KeyringResponse
+	{
 		String hexkey = ByteArray.toHex(this.keyId);
 		IniFileParser set;
 		
@@ -1851,18 +2296,21 @@ public class RealKeyRing extends KeyRing
 			set.setValue(hexkey, "keyAlias", this.keyAlias);
 			// set.setValue(hexkey, "keyIsValid", this.keyIsValid);
 			set.setValue(hexkey, "keyOutOfSync", this.keyOutOfSync);
+			// the partner of an exported key is this side
+			set.setValue(hexkey, "partnerCompact", this.exported ? false : this.keyPartnerCompact);
 			
 			set.setValue(hexkey, "otpPath", this.otpPath);
+			set.setValue(hexkey, "otpStripes", this.otpStripes);
 			set.setValue(hexkey, "otpKey", this.otpKey);
 			set.setValue(hexkey, "otpIv", this.otpIv);
 			
 			set.setValue(hexkey, "otpIdentBytes", this.otpIdentBytes);
 			
-			ByteArrayBuilder bab = new ByteArrayBuilder();
+			ByteArrayBuilder bab = new ByteArrayBuilder(8 * this.otpIdentBytes.length);
 			for (int i = 0; i < this.otpIdentBytes.length; i++)
 			{
-				bab.addAll(ByteArray.fromInt(this.otpIdentPos[i][0]));
-				bab.addAll(ByteArray.fromInt(this.otpIdentPos[i][1]));
+				bab.addInt(this.otpIdentPos[i][0]);
+				bab.addInt(this.otpIdentPos[i][1]);
 			}
 			
 			set.setValue(hexkey, "otpIdentPos", bab.toArray());
@@ -1879,14 +2327,20 @@ public class RealKeyRing extends KeyRing
 			
 			// if (success)
 			// {
-			set.setValue(hexkey, "eBlocks0", this.otpBlocks[KeyRing.BLOCKTYPE_E | 0].exportList());
-			set.setValue(hexkey, "aBlocks0", this.otpBlocks[KeyRing.BLOCKTYPE_A | 0].exportList());
-			set.setValue(hexkey, "eBlocks1", this.otpBlocks[KeyRing.BLOCKTYPE_E | 1].exportList());
-			set.setValue(hexkey, "aBlocks1", this.otpBlocks[KeyRing.BLOCKTYPE_A | 1].exportList());
-			set.setValue(hexkey, "eSosBlocks0", this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_E | 0].exportList());
-			set.setValue(hexkey, "aSosBlocks0", this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_A | 0].exportList());
-			set.setValue(hexkey, "eSosBlocks1", this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_E | 1].exportList());
-			set.setValue(hexkey, "aSosBlocks1", this.otpBlocks[KeyRing.BLOCKTYPE_SOS | KeyRing.BLOCKTYPE_A | 1].exportList());
+			// exported keys keep the 4 byte lists every version imports, the ring
+			// drops them, so older versions fail on the key instead of using
+			// stale lists
+			for (int i = 0; i < RealKeyRing.listIndex.length; i++)
+			{
+				BlockAssignList list = this.otpBlocks[RealKeyRing.listIndex[i]];
+				if (this.exported)
+					set.setValue(hexkey, RealKeyRing.listNames[i], list.exportList());
+				else
+				{
+					set.setValue(hexkey, RealKeyRing.compactNames[i], list.exportCompact());
+					set.removeValue(hexkey, RealKeyRing.listNames[i]);
+				}
+			}
 			
 			set.setValue(hexkey, "ePlan0", this.otpPlan[KeyRing.BLOCKTYPE_E | 0].exportPlanShort());
 			set.setValue(hexkey, "aPlan0", this.otpPlan[KeyRing.BLOCKTYPE_A | 0].exportPlanShort());
@@ -1925,10 +2379,14 @@ public class RealKeyRing extends KeyRing
 			
 			byte[] encrypted = ciph.doFinal(clear);
 			
+			byte[] image = new byte[this.ringSalt.length + encrypted.length];
+			System.arraycopy(this.ringSalt, 0, image, 0, this.ringSalt.length);
+			System.arraycopy(encrypted, 0, image, this.ringSalt.length, encrypted.length);
+			
 			this.ringFile.seek(0);
 			this.ringFile.setLength(0);
-			this.ringFile.write(this.ringSalt);
-			this.ringFile.write(encrypted);
+			this.ringFile.write(image);
+			this.ringImage = image;
 		}
 		catch (RngResponse e)
 		{
@@ -1973,4 +2431,9 @@ public class RealKeyRing extends KeyRing
 		this.dirty = false;
 	}
 	
+	private static class CapacityIndex
+	{
+		private long[] sums = new long[1];
+		private int blocks = 0;
+	}
 }
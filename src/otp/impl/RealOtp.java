@@ -7,8 +7,12 @@ import java.io.RandomAccessFile;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.crypto.BadPaddingException;
@@ -20,6 +24,8 @@ import javax.crypto.spec.SecretKeySpec;
 import otp.Otp;
 import otp.Rng;
 import otp.UserInterface;
+import otp.helpr.BlockAssignList;
+import otp.helpr.BlockData;
 import otp.helpr.BlockPlan;
 import otp.helpr.ByteArray;
 import otp.response.KeyringResponse;
@@ -33,11 +39,19 @@ public class RealOtp extends Otp
 {
 	private final String padCipher = "AES/ECB/NoPadding";
 	
+	// pad creation works on chunks of this size, a multiple of the cipher
+	// block size
+	private final static int padChunk = 4 * 1024 * 1024;
+	private final static int padThreads = 4;
+	// raw pad bytes read ahead in one go, at most
+	private final static int readAheadLimit = 4 * 1024 * 1024;
+	
 	private RealKeyRing ring;
 	private Rng rng;
 	private UserInterface ui;
 	
-	private RandomAccessFile file;
+	// one file per stripe, outer block n is stored in stripe n % files.length
+	private RandomAccessFile[] files;
 	private static List<String> verifiedFiles;
 	
 	private Cipher[] ciphA = new Cipher[3];
@@ -54,7 +68,7 @@ public class RealOtp extends Otp
 	
 	private int outerSize;
 	private int outerBlock = -1;
-	private int[] outerSkips;
+	private BlockData outerData;
 	
 	private int innerSize;
 	private int innerPerOuter;
@@ -68,6 +82,9 @@ public class RealOtp extends Otp
 	
 	private boolean dirty = false;
 	
+	// raw pad bytes of the current read, by outer block
+	private Map<Integer, Span> spans = new HashMap<Integer, Span>();
+	
 	/**
 	 * Creates new RealOtp, for encryption and decryption
 	 * 
@@ -107,11 +124,14 @@ public class RealOtp extends Otp
 			try
 			{
 				// load stuff
-				File f = this.ring.getOtpFile();
-				if (!f.exists())
-					throw new OtpResponse(4);
+				File[] f = this.ring.getOtpFiles();
+				for (int i = 0; i < f.length; i++)
+					if (!f[i].exists())
+						throw new OtpResponse(4);
 				
-				this.file = new RandomAccessFile(f, "r");
+				this.files = new RandomAccessFile[f.length];
+				for (int i = 0; i < f.length; i++)
+					this.files[i] = new RandomAccessFile(f[i], "r");
 				
 				this.ciphA[CIPH_ENC] = Cipher.getInstance(this.padCipher);
 				this.ciphA[CIPH_DEC] = this.ciphA[CIPH_ENC];
@@ -134,32 +154,36 @@ public class RealOtp extends Otp
 				
 				this.innerPerOuter = this.outerSize / this.innerSize;
 				
-				// verify
+				// verify, Otps of several threads may be initialized at the same time
 				String hexkey = ByteArray.toHex(this.ring.getKeyId());
-				if (RealOtp.verifiedFiles == null)
-					RealOtp.verifiedFiles = new LinkedList<String>();
-				
-				if (!RealOtp.verifiedFiles.contains(hexkey + ";" + f.getCanonicalPath()))
+				synchronized (RealOtp.class)
 				{
-					if (this.ring.getOtpSize() != this.file.length())
-						throw new OtpResponse(1);
+					if (RealOtp.verifiedFiles == null)
+						RealOtp.verifiedFiles = new LinkedList<String>();
 					
-					byte[] verifyBytes = this.ring.getIdentBytes();
-					int[][] verifyPos = this.ring.getIdentPos();
-					byte[] check = new byte[1];
-					int read;
-					
-					for (int i = 0; i < verifyBytes.length; i++)
+					if (!RealOtp.verifiedFiles.contains(hexkey + ";" + f[0].getCanonicalPath()))
 					{
-						read = this.readInner(verifyPos[i][0], verifyPos[i][1], check, 0, 1);
-						if (read < 1 || check[0] != verifyBytes[i])
+						for (int i = 0; i < this.files.length; i++)
+							if (this.files[i].length() != this.stripeLength(i))
+								throw new OtpResponse(1);
+						
+						byte[] verifyBytes = this.ring.getIdentBytes();
+						int[][] verifyPos = this.ring.getIdentPos();
+						byte[] check = new byte[1];
+						int read;
+						
+						for (int i = 0; i < verifyBytes.length; i++)
 						{
-							System.out.println(i + ": " + check[0] + " != " + verifyBytes[i]);
-							throw new OtpResponse(1);
+							read = this.readInner(verifyPos[i][0], verifyPos[i][1], check, 0, 1);
+							if (read < 1 || check[0] != verifyBytes[i])
+							{
+								System.out.println(i + ": " + check[0] + " != " + verifyBytes[i]);
+								throw new OtpResponse(1);
+							}
 						}
+						
+						RealOtp.verifiedFiles.add(hexkey + ";" + f[0].getCanonicalPath());
 					}
-					
-					RealOtp.verifiedFiles.add(hexkey + ";" + f.getCanonicalPath());
 				}
 				
 				this.initialized = true;
@@ -233,33 +257,75 @@ public class RealOtp extends Otp
 				this.ui.verboseMessage("Invalid block size: " + this.outerSize);
 				throw new OtpResponse(0);
 			}
+			size = innerBlocksTotal * this.innerSize;
 			
-			this.file = new RandomAccessFile(this.ring.getOtpFile(), "rw");
+			File[] f = this.ring.getOtpFiles();
+			this.files = new RandomAccessFile[f.length];
+			for (int i = 0; i < f.length; i++)
+				this.files[i] = new RandomAccessFile(f[i], "rw");
 			
-			byte[] block = new byte[this.innerSize];
-			byte[] oldblock = new byte[this.innerSize];
+			// a generator that can be forked fills several chunks in parallel
+			Rng[] sources;
+			if (this.rng instanceof CtrDrbgRng)
+			{
+				int threads = Math.max(1, Math.min(RealOtp.padThreads, Runtime.getRuntime().availableProcessors()));
+				sources = new Rng[threads];
+				for (int i = 0; i < threads; i++)
+					sources[i] = ((CtrDrbgRng) this.rng).fork();
+			}
+			else
+				sources = new Rng[] { this.rng };
+			
+			PadWorker[] workers = new PadWorker[sources.length];
+			for (int i = 0; i < sources.length; i++)
+				workers[i] = new PadWorker(sources[i], new byte[RealOtp.padChunk]);
+			byte[] oldChunk = new byte[RealOtp.padChunk];
 			
-			this.ui.initializeProgress(innerBlocksTotal * iterations);
+			this.ui.initializeProgress(size * iterations);
 			for (int iteration = 0; iteration < iterations; iteration++)
 			{
-				for (long i = 0; i < innerBlocksTotal; i++)
+				long pos = 0;
+				while (pos < size)
 				{
-					this.ui.updateProgress(i + innerBlocksTotal * iteration);
-					this.rng.next(block);
-					
-					if (iteration > 0)
+					int count = 0;
+					for (long p = pos; count < workers.length && p < size; count++)
 					{
-						this.file.seek(i * this.innerSize);
-						this.file.read(oldblock);
-						block = ByteArray.xor(block, oldblock);
+						workers[count].length = (int) Math.min(RealOtp.padChunk, size - p);
+						p += workers[count].length;
 					}
+					PadWorker.runAll(workers, count);
 					
-					this.file.seek(i * this.innerSize);
-					this.file.write(block);
+					for (int i = 0; i < count; i++)
+					{
+						this.ui.updateProgress(pos + size * iteration);
+						byte[] chunk = workers[i].chunk;
+						int len = workers[i].length;
+						
+						if (iteration > 0)
+						{
+							this.padIo(this.files, pos, oldChunk, 0, len, false);
+							ByteArray.xor(chunk, 0, oldChunk, 0, chunk, 0, len);
+						}
+						
+						this.padIo(this.files, pos, chunk, 0, len, true);
+						pos += len;
+					}
 				}
+				
+				for (int i = 0; i < sources.length; i++)
+					if (sources[i] != this.rng)
+						sources[i].reseed();
 				this.rng.reseed();
 			}
 			
+			for (int i = 0; i < workers.length; i++)
+			{
+				Arrays.fill(workers[i].chunk, (byte) 0);
+				if (sources[i] != this.rng)
+					sources[i].finish(true);
+			}
+			Arrays.fill(oldChunk, (byte) 0);
+			
 			int[][] verifyPos = this.ring.getIdentPos();
 			byte[] verifyBytes = new byte[verifyPos.length];
 			
@@ -329,34 +395,41 @@ public class RealOtp extends Otp
 			this.ciphA[CIPH_NEW].init(Cipher.ENCRYPT_MODE, newKeySpecA);
 			this.ciphB[CIPH_NEW].init(Cipher.ENCRYPT_MODE, newKeySpecB);
 			
-			File newFileName = this.ring.getOtpFile();
-			ui.verboseMessage("writing new OTP: " + newFileName.getAbsolutePath());
-			
-			RandomAccessFile oldFile = this.file;
-			RandomAccessFile newFile = new RandomAccessFile(newFileName, "rw");
+			File[] newFileNames = this.ring.getOtpFiles();
+			RandomAccessFile[] newFiles = new RandomAccessFile[newFileNames.length];
+			for (int i = 0; i < newFileNames.length; i++)
+			{
+				ui.verboseMessage("writing new OTP: " + newFileNames[i].getAbsolutePath());
+				newFiles[i] = new RandomAccessFile(newFileNames[i], "rw");
+			}
 			
+			byte[] oldBlock = new byte[this.outerSize];
+			byte[] newBlock = new byte[this.outerSize];
 			byte[] oldEnc = new byte[this.innerSize];
 			byte[] newEnc = new byte[this.innerSize];
 			byte[] plainBl = new byte[this.innerSize];
 			
-			oldFile.seek(0);
-			newFile.seek(0);
-			
-			ui.initializeProgress(oldFile.length() / this.innerSize);
+			long size = this.ring.getOtpSize();
+			ui.initializeProgress(size);
 			
-			int outerBlocks = (int) (oldFile.length() / this.outerSize);
+			long outerBlocks = size / this.outerSize;
 			for (int ob = 0; ob < outerBlocks; ob++)
+			{
+				ui.updateProgress((long) ob * this.outerSize);
+				this.padIo(this.files, (long) ob * this.outerSize, oldBlock, 0, this.outerSize, false);
 				for (int ib = 0; ib < this.innerPerOuter; ib++)
 				{
-					ui.updateProgress(ob * this.innerPerOuter + ib);
-					oldFile.read(oldEnc);
+					System.arraycopy(oldBlock, ib * this.innerSize, oldEnc, 0, this.innerSize);
 					this.cryptBlock(oldEnc, plainBl, ob, ib, CIPH_DEC);
 					this.cryptBlock(plainBl, newEnc, ob, ib, CIPH_NEW);
-					newFile.write(newEnc);
+					System.arraycopy(newEnc, 0, newBlock, ib * this.innerSize, this.innerSize);
 				}
+				this.padIo(newFiles, (long) ob * this.outerSize, newBlock, 0, this.outerSize, true);
+			}
 			ui.finishProgress();
 			
-			newFile.close();
+			for (int i = 0; i < newFiles.length; i++)
+				newFiles[i].close();
 		}
 		catch (KeyringResponse e)
 		{
@@ -403,13 +476,25 @@ public class RealOtp extends Otp
 	@Override
 	public void next(byte[] b) throws OtpResponse
 	{
-		this.rwOuter(b, false);
+		this.rwOuter(b, 0, b.length, false);
+	}
+	
+	@Override
+	public void next(byte[] b, int off, int len) throws OtpResponse
+	{
+		this.rwOuter(b, off, len, false);
 	}
 	
 	@Override
 	public void writeNext(byte[] b) throws OtpResponse
 	{
-		this.rwOuter(b, true);
+		this.rwOuter(b, 0, b.length, true);
+	}
+	
+	@Override
+	public void writeNext(byte[] b, int off, int len) throws OtpResponse
+	{
+		this.rwOuter(b, off, len, true);
 	}
 	
 	@Override
@@ -443,7 +528,9 @@ public class RealOtp extends Otp
 			this.ciphB[CIPH_ENC] = null;
 			this.ciphB[CIPH_NEW] = null;
 			
-			this.file.close();
+			this.spans.clear();
+			for (int i = 0; i < this.files.length; i++)
+				this.files[i].close();
 		}
 		catch (OtpResponse e1)
 		{
@@ -456,7 +543,7 @@ public class RealOtp extends Otp
 		return new OtpResponse(true);
 	}
 	
-	private void rwOuter(byte[] b, boolean write) throws OtpResponse
+	private void rwOuter(byte[] b, int off, int count, boolean write) throws OtpResponse
 	{
 		if (!this.initialized)
 			throw new OtpResponse(0);
@@ -465,56 +552,52 @@ public class RealOtp extends Otp
 		
 		int currentBlock = this.plan.getBlockId();
 		int pos = this.plan.getPointer();
-		int oldskip = 0;
 		if (this.outerBlock != currentBlock)
 		{
 			this.outerBlock = currentBlock;
-			this.outerSkips = this.ring.getBlockData(currentBlock).getSkipBytes();
+			this.outerData = this.ring.getBlockData(currentBlock);
 		}
+		int run = this.outerData.findRun(pos);
+		this.readAhead(pos, count);
 		
-		while (copied < b.length)
+		// the key is copied run by run, between the skip bytes
+		while (copied < count)
 		{
-			if (pos >= this.outerSize - this.outerSkips.length)
+			if (pos >= this.outerData.calculateSize())
 			{
 				try
 				{
 					currentBlock = this.plan.nextBlock();
 					pos = 0;
-					oldskip = 0;
+					run = 0;
 					this.outerBlock = currentBlock;
-					this.outerSkips = this.ring.getBlockData(currentBlock).getSkipBytes();
+					this.outerData = this.ring.getBlockData(currentBlock);
 				}
 				catch (NoSuchElementException e)
 				{
 					throw new OtpResponse(5, e);
 				}
+				if (!this.spans.containsKey(currentBlock))
+					this.readAhead(0, count - copied);
+				continue;
 			}
 			
-			int skip = 0;
-			int stop = this.outerSize;
-			for (int i = 0; i < this.outerSkips.length; i++)
-			{
-				if (this.outerSkips[i] <= (pos + Math.max(skip, oldskip)))
-					skip++;
-				else
-					stop = Math.min(stop, this.outerSkips[i]);
-			}
+			int runPos = pos - this.outerData.getRunOffset(run);
+			int len = Math.min(this.outerData.getRunLength(run) - runPos, count - copied);
+			int absPos = this.outerData.getRunStart(run) + runPos;
 			
-			int len = Math.min(stop - (pos + skip), b.length - copied);
+			if (write)
+				this.writeInner(this.outerBlock, absPos, b, off + copied, len);
+			else
+				this.readInner(this.outerBlock, absPos, b, off + copied, len);
 			
-			if (len > 0)
-			{
-				if (write)
-					this.writeInner(this.outerBlock, pos + skip, b, copied, len);
-				else
-					this.readInner(this.outerBlock, pos + skip, b, copied, len);
-				
-				copied += len;
-				pos += len;
-			}
-			oldskip = skip;
+			copied += len;
+			pos += len;
+			if (runPos + len == this.outerData.getRunLength(run))
+				run++;
 		}
 		
+		this.spans.clear();
 		this.plan.setPointer(pos);
 	}
 	
@@ -569,8 +652,12 @@ public class RealOtp extends Otp
 		try
 		{
 			byte[] read = new byte[this.innerSize];
-			this.file.seek((oBlock * this.innerPerOuter + iBlock) * this.innerSize);
-			this.file.read(read, 0, this.innerSize);
+			int pos = iBlock * this.innerSize;
+			Span span = this.spans.get(oBlock);
+			if (span != null && span.contains(pos, this.innerSize))
+				System.arraycopy(span.data, pos - span.start, read, 0, this.innerSize);
+			else
+				this.padIo(this.files, (long) oBlock * this.outerSize + pos, read, 0, this.innerSize, false);
 			
 			this.cryptBlock(read, this.iBytes, oBlock, iBlock, CIPH_DEC);
 			
@@ -590,7 +677,12 @@ public class RealOtp extends Otp
 		{
 			try
 			{
-				this.file = new RandomAccessFile(this.ring.getOtpFile(), "rw");
+				File[] f = this.ring.getOtpFiles();
+				for (int i = 0; i < f.length; i++)
+				{
+					this.files[i].close();
+					this.files[i] = new RandomAccessFile(f[i], "rw");
+				}
 				this.writeable = true;
 			}
 			catch (IOException e)
@@ -608,8 +700,11 @@ public class RealOtp extends Otp
 			byte[] write = new byte[this.innerSize];
 			this.cryptBlock(this.iBytes, write, this.oBlock, this.iBlock, CIPH_ENC);
 			
-			this.file.seek((oBlock * this.innerPerOuter + iBlock) * this.innerSize);
-			this.file.write(write, 0, this.innerSize);
+			int pos = this.iBlock * this.innerSize;
+			this.padIo(this.files, (long) this.oBlock * this.outerSize + pos, write, 0, this.innerSize, true);
+			Span span = this.spans.get(this.oBlock);
+			if (span != null && span.contains(pos, this.innerSize))
+				System.arraycopy(write, 0, span.data, pos - span.start, this.innerSize);
 			this.dirty = false;
 		}
 		catch (IOException e)
@@ -619,6 +714,115 @@ public class RealOtp extends Otp
 		
 	}
 	
+	/**
+	 * Reads or writes pad bytes. Pad positions are mapped to the stripe of
+	 * their outer block, and may lie beyond 2 GB.
+	 * 
+	 * @param files
+	 * Stripe files of the pad
+	 * @param pos
+	 * Position in the pad
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @param write
+	 * @throws IOException
+	 */
+	private void padIo(RandomAccessFile[] files, long pos, byte[] b, int off, int len, boolean write)
+			throws IOException
+	{
+		while (len > 0)
+		{
+			int oBlock = (int) (pos / this.outerSize);
+			int inner = (int) (pos % this.outerSize);
+			int n = Math.min(len, this.outerSize - inner);
+			
+			RandomAccessFile file = files[oBlock % files.length];
+			file.seek((long) (oBlock / files.length) * this.outerSize + inner);
+			if (write)
+				file.write(b, off, n);
+			else
+				file.readFully(b, off, n);
+			
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Returns the expected length of a stripe file
+	 * 
+	 * @param stripe
+	 * @return
+	 * @throws KeyringResponse
+	 */
+	private long stripeLength(int stripe) throws KeyringResponse
+	{
+		long outerBlocks = this.ring.getOtpSize() / this.outerSize;
+		return (outerBlocks - stripe + this.files.length - 1) / this.files.length * this.outerSize;
+	}
+	
+	/**
+	 * Reads the raw pad bytes needed for the next count bytes of the plan. The
+	 * spans of different stripes are read in parallel.
+	 * 
+	 * @param pointer
+	 * Current pointer in the current block of the plan
+	 * @param count
+	 * @throws OtpResponse
+	 */
+	private void readAhead(int pointer, int count) throws OtpResponse
+	{
+		this.spans.clear();
+		if (this.dirty)
+			this.saveBlock();
+		
+		BlockAssignList list = this.plan.getBlockList();
+		int blockPos = this.plan.getBlockPos();
+		long need = Math.min(count, RealOtp.readAheadLimit);
+		
+		SpanReader[] readers = new SpanReader[this.files.length];
+		SpanReader[] active = new SpanReader[this.files.length];
+		int stripes = 0;
+		while (need > 0 && blockPos < list.size())
+		{
+			int blockId = list.getBlock(blockPos++);
+			int skips = this.ring.getBlockData(blockId).getSkipBytes().length;
+			int usable = this.outerSize - skips - pointer;
+			if (usable > 0)
+			{
+				int take = (int) Math.min(need, usable);
+				int start = pointer / this.innerSize * this.innerSize;
+				int end = Math.min(this.outerSize, pointer + take + skips + this.innerSize - 1) / this.innerSize *
+						this.innerSize;
+				
+				Span span = new Span(start, new byte[end - start]);
+				this.spans.put(blockId, span);
+				
+				int stripe = blockId % this.files.length;
+				if (readers[stripe] == null)
+				{
+					readers[stripe] = new SpanReader(this.files[stripe]);
+					active[stripes++] = readers[stripe];
+				}
+				readers[stripe].add((long) (blockId / this.files.length) * this.outerSize + start, span);
+				need -= take;
+			}
+			pointer = 0;
+		}
+		
+		try
+		{
+			SpanReader.runAll(active, stripes);
+		}
+		catch (IOException e)
+		{
+			this.spans.clear();
+			throw new OtpResponse(1, e);
+		}
+	}
+	
 	void cryptBlock(byte[] input, byte[] output, int outerId, int innerId, int mode) throws OtpResponse
 	{
 		try
@@ -668,4 +872,163 @@ public class RealOtp extends Otp
 		
 		return a;
 	}
+	
+	/**
+	 * Fills a chunk of pad with random bytes from its own generator. Several
+	 * workers are run in parallel if they have independent generators.
+	 */
+	private static class PadWorker implements Runnable
+	{
+		private Rng source;
+		private byte[] chunk;
+		private int length = 0;
+		private RngResponse error = null;
+		
+		private PadWorker(Rng source, byte[] chunk)
+		{
+			this.source = source;
+			this.chunk = chunk;
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				this.source.next(this.chunk, 0, this.length);
+			}
+			catch (RngResponse r)
+			{
+				this.error = r;
+			}
+		}
+		
+		/**
+		 * Runs the first workers, the first one in the calling thread.
+		 */
+		private static void runAll(PadWorker[] workers, int count) throws RngResponse
+		{
+			Thread[] threads = new Thread[count];
+			for (int i = 1; i < count; i++)
+			{
+				threads[i] = new Thread(workers[i]);
+				threads[i].start();
+			}
+			workers[0].run();
+			
+			for (int i = 1; i < count; i++)
+			{
+				while (threads[i].isAlive())
+				{
+					try
+					{
+						threads[i].join();
+					}
+					catch (InterruptedException e)
+					{
+						// wait for the worker anyway
+					}
+				}
+			}
+			
+			for (int i = 0; i < count; i++)
+				if (workers[i].error != null)
+					throw workers[i].error;
+		}
+	}
+	
+	/**
+	 * Raw pad bytes of an outer block, starting at an inner block boundary
+	 */
+	private static class Span
+	{
+		private int start;
+		private byte[] data;
+		
+		private Span(int start, byte[] data)
+		{
+			this.start = start;
+			this.data = data;
+		}
+		
+		private boolean contains(int pos, int len)
+		{
+			return pos >= this.start && pos + len <= this.start + this.data.length;
+		}
+	}
+	
+	/**
+	 * Reads the spans of one stripe file. The readers of different stripes are
+	 * run in parallel.
+	 */
+	private static class SpanReader implements Runnable
+	{
+		private RandomAccessFile file;
+		private List<Long> offsets = new ArrayList<Long>();
+		private List<Span> spans = new ArrayList<Span>();
+		private IOException error = null;
+		
+		private SpanReader(RandomAccessFile file)
+		{
+			this.file = file;
+		}
+		
+		private void add(long offset, Span span)
+		{
+			this.offsets.add(offset);
+			this.spans.add(span);
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				for (int i = 0; i < this.spans.size(); i++)
+				{
+					this.file.seek(this.offsets.get(i));
+					this.file.readFully(this.spans.get(i).data);
+				}
+			}
+			catch (IOException e)
+			{
+				this.error = e;
+			}
+		}
+		
+		/**
+		 * Runs the first readers, the first one in the calling thread.
+		 */
+		private static void runAll(SpanReader[] readers, int count) throws IOException
+		{
+			Thread[] threads = new Thread[count];
+			for (int i = 1; i < count; i++)
+			{
+				threads[i] = new Thread(readers[i]);
+				threads[i].start();
+			}
+			if (count > 0)
+				readers[0].run();
+			
+			for (int i = 1; i < count; i++)
+			{
+				while (threads[i].isAlive())
+				{
+					try
+					{
+						threads[i].join();
+					}
+					catch (InterruptedException e)
+					{
+						// wait for the reader anyway
+					}
+				}
+			}
+			
+			for (int i = 0; i < count; i++)
+				if (readers[i].error != null)
+					throw readers[i].error;
+		}
+	}
+	
 }
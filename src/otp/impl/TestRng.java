@@ -29,7 +29,13 @@ public class TestRng extends Rng
 	}
 	
 	@Override
-	public byte next() throws RngResponse
+	protected void fill(byte[] b, int off, int len) throws RngResponse
+	{
+		for (int i = off; i < off + len; i++)
+			b[i] = this.nextByte();
+	}
+	
+	private byte nextByte()
 	{
 		if (this.length <= 0)
 		{
@@ -29,6 +29,7 @@ public class WegCarAuth extends Authenticator
 	private Otp otp;
 	private KeyRing set;
 	private BigInteger p;
+	private int pFieldSize = 0;
 	private List<BigInteger> keya;
 	private List<BigInteger> keyb;
 	
@@ -89,10 +90,15 @@ public class WegCarAuth extends Authenticator
 		this.stack = new LinkedList<byte[]>();
 		this.counter = 0;
 		
-		byte[] p0 = new byte[2 * this.fieldSize + 2];
-		p0[0] = 0; // sign bit
-		p0[1] = 1; // 2 ^ (2*field-size) + 1
-		this.p = new BigInteger(p0).nextProbablePrime();
+		// the prime only depends on the field size, keep it for following messages
+		if (this.p == null || this.pFieldSize != this.fieldSize)
+		{
+			byte[] p0 = new byte[2 * this.fieldSize + 2];
+			p0[0] = 0; // sign bit
+			p0[1] = 1; // 2 ^ (2*field-size) + 1
+			this.p = new BigInteger(p0).nextProbablePrime();
+			this.pFieldSize = this.fieldSize;
+		}
 		
 		this.initialized = true;
 	}
@@ -118,6 +124,31 @@ public class WegCarAuth extends Authenticator
 		
 	}
 	
+	@Override
+	public void next(byte[] b, int off, int len) throws AuthResponse
+	{
+		if (!this.initialized)
+			throw new AuthResponse(0);
+		
+		this.sum += len;
+		
+		while (len > 0)
+		{
+			int n = Math.min(len, this.fieldSize - this.collected);
+			System.arraycopy(b, off, this.collector, this.collected, n);
+			this.collected += n;
+			off += n;
+			len -= n;
+			
+			if (this.collected == this.fieldSize)
+			{
+				this.counter++;
+				this.put_stack(this.collector.clone(), 0, 2);
+				this.collected = 0;
+			}
+		}
+	}
+	
 	@Override
 	public byte[] doFinal() throws AuthResponse
 	{
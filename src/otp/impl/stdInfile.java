@@ -1,78 +1,301 @@
 package otp.impl;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import otp.Infile;
 import otp.helpr.ByteArrayBuilder;
+import otp.helpr.PrivateFiles;
 import otp.response.InfileResponse;
 
+/**
+ * Infile module that reads from the standard input. The input is streamed as
+ * it arrives. If the length or a second pass over the input is needed, the
+ * input is spooled into a temporary file first, which only the owner can read
+ * and which is overwritten when the input is closed.
+ */
 public class stdInfile extends Infile
 {
 	
-	private byte[] bytes;
-	private int counter;
+	private final static int bufferSize = 64 * 1024;
 	
-	private boolean initialized = false;
+	private InputStream input = null;
+	private File spoolDir = null;
+	private File spool = null;
+	private long spoolLength = 0;
+	private long counter = 0;
+	
+	// start of the streamed input, kept to be able to spool the complete input
+	private ByteArrayBuilder head = null;
+	
+	/**
+	 * Reads the standard input, spooling it into the default temporary
+	 * directory if needed
+	 */
+	public stdInfile()
+	{
+	}
+	
+	/**
+	 * Reads the standard input
+	 * 
+	 * @param spoolDir
+	 * Directory for the spooled input, null for the default temporary directory
+	 */
+	public stdInfile(File spoolDir)
+	{
+		this.spoolDir = spoolDir;
+	}
 	
 	@Override
 	public void initialize() throws InfileResponse
 	{
-		this.counter = 0;
-		if (this.initialized)
-			return;
+		if (this.spool == null && this.input != null && this.counter > 0)
+			this.spool();
 		
-		InputStream stdin = System.in;
-		ByteArrayBuilder bab = new ByteArrayBuilder();
+		if (this.spool != null)
+		{
+			// replay spooled input
+			this.openSpool();
+		}
+		else if (this.input == null)
+		{
+			this.input = new BufferedInputStream(System.in, stdInfile.bufferSize);
+			this.head = new ByteArrayBuilder();
+		}
+		this.counter = 0;
+	}
+	
+	@Override
+	public boolean isLengthKnown()
+	{
+		return this.spool != null;
+	}
+	
+	@Override
+	public long getLength() throws InfileResponse
+	{
+		if (this.spool == null)
+		{
+			long position = this.counter;
+			this.spool();
+			this.skipTo(position);
+		}
 		
-		try
+		return this.spoolLength;
+	}
+	
+	@Override
+	public long getRemainingLength() throws InfileResponse
+	{
+		return this.getLength() - this.counter;
+	}
+	
+	@Override
+	public InfileResponse finish(boolean success)
+	{
+		// the spool file is kept, a second pass may follow
+		if (this.spool != null && this.input != null)
 		{
-			boolean eof = false;
-			while (!eof)
+			try
 			{
-				int in = stdin.read();
-				if (in != -1)
-					bab.add((byte) (in & 0xff));
-				else
-					eof = true;
+				this.input.close();
+				this.input = null;
 			}
-			
-			this.bytes = bab.toArray();
+			catch (IOException e)
+			{
+				return new InfileResponse(2, e);
+			}
+		}
+		return new InfileResponse(true);
+	}
+	
+	@Override
+	public InfileResponse close()
+	{
+		InfileResponse res = new InfileResponse(true);
+		try
+		{
+			if (this.input != null)
+				this.input.close();
 		}
 		catch (IOException e)
 		{
-			throw new InfileResponse(2, e);
+			res = new InfileResponse(2, e);
 		}
+		this.input = null;
+		this.head = null;
 		
-		this.initialized = true;
+		if (this.spool != null && !PrivateFiles.wipe(this.spool))
+			res = new InfileResponse(2);
+		this.spool = null;
+		return res;
 	}
 	
 	@Override
-	public long getLength()
+	public byte read() throws InfileResponse
 	{
-		return this.bytes.length;
+		try
+		{
+			int b = this.input.read();
+			if (b < 0)
+				throw new InfileResponse(2);
+			this.counter++;
+			this.keepHead((byte) b);
+			return (byte) b;
+		}
+		catch (IOException e)
+		{
+			throw new InfileResponse(2, e);
+		}
 	}
 	
 	@Override
-	public long getRemainingLength()
+	public void read(byte[] b, int off, int len) throws InfileResponse
 	{
-		return this.bytes.length;
+		int done = 0;
+		while (done < len)
+		{
+			int r = this.readAvailable(b, off + done, len - done);
+			if (r < 0)
+				throw new InfileResponse(2);
+			done += r;
+		}
 	}
 	
 	@Override
-	public InfileResponse finish(boolean success)
+	public int readAvailable(byte[] b, int off, int len) throws InfileResponse
 	{
-		return new InfileResponse(true);
-		// return super.finish(success);
+		try
+		{
+			int r = this.input.read(b, off, len);
+			if (r > 0)
+			{
+				this.counter += r;
+				if (this.head != null)
+				{
+					if (this.head.size() + r <= stdInfile.bufferSize)
+						this.head.addAll(b, off, r);
+					else
+						this.head = null;
+				}
+			}
+			return r;
+		}
+		catch (IOException e)
+		{
+			throw new InfileResponse(2, e);
+		}
 	}
 	
-	@Override
-	public byte read() throws InfileResponse
+	private void keepHead(byte b)
 	{
-		if (this.counter >= this.bytes.length)
-			throw new InfileResponse(2);
-		else
-			return this.bytes[this.counter++];
+		if (this.head != null)
+		{
+			if (this.head.size() < stdInfile.bufferSize)
+				this.head.add(b);
+			else
+				this.head = null;
+		}
+	}
+	
+	/**
+	 * Copies the complete standard input into a temporary file, which is wiped
+	 * by close(). Only possible as long as the streamed part of the input has
+	 * been kept.
+	 * 
+	 * @throws InfileResponse
+	 */
+	private void spool() throws InfileResponse
+	{
+		if (this.input == null)
+			throw new InfileResponse(0);
+		if (this.head == null || this.head.size() != this.counter)
+			throw new InfileResponse(4);
+		
+		OutputStream os = null;
+		File tmp = null;
+		try
+		{
+			tmp = PrivateFiles.createTemp(this.spoolDir, ".in");
+			// only left to the exit if close() is never reached
+			tmp.deleteOnExit();
+			os = new FileOutputStream(tmp);
+			
+			os.write(this.head.getBuffer(), 0, this.head.size());
+			this.spoolLength = this.head.size();
+			this.head = null;
+			
+			byte[] buffer = new byte[stdInfile.bufferSize];
+			int r;
+			while ((r = this.input.read(buffer)) >= 0)
+			{
+				os.write(buffer, 0, r);
+				this.spoolLength += r;
+			}
+			os.close();
+			os = null;
+			
+			this.spool = tmp;
+			this.openSpool();
+		}
+		catch (IOException e)
+		{
+			throw new InfileResponse(2, e);
+		}
+		finally
+		{
+			try
+			{
+				if (os != null)
+					os.close();
+			}
+			catch (IOException e)
+			{
+				// nothing to do
+			}
+			// a partial copy is not kept
+			if (tmp != null && this.spool == null)
+				PrivateFiles.wipe(tmp);
+		}
+	}
+	
+	private void openSpool() throws InfileResponse
+	{
+		try
+		{
+			if (this.input != null)
+				this.input.close();
+			this.input = new BufferedInputStream(new FileInputStream(this.spool), stdInfile.bufferSize);
+			this.counter = 0;
+		}
+		catch (IOException e)
+		{
+			throw new InfileResponse(2, e);
+		}
+	}
+	
+	private void skipTo(long n) throws InfileResponse
+	{
+		try
+		{
+			while (this.counter < n)
+			{
+				long s = this.input.skip(n - this.counter);
+				if (s <= 0)
+					throw new InfileResponse(2);
+				this.counter += s;
+			}
+		}
+		catch (IOException e)
+		{
+			throw new InfileResponse(2, e);
+		}
 	}
 	
 }
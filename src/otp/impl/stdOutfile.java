@@ -53,6 +53,22 @@ public class stdOutfile extends Outfile
 		}
 	}
 	
+	@Override
+	public void write(byte[] b, int off, int len) throws OutfileResponse
+	{
+		if (this.initialized)
+		{
+			try
+			{
+				this.out.write(b, off, len);
+			}
+			catch (IOException e)
+			{
+				throw new OutfileResponse(2, e);
+			}
+		}
+	}
+	
 	@Override
 	public OutfileResponse finish(boolean success)
 	{
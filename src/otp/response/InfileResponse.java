@@ -4,7 +4,8 @@ public class InfileResponse extends Response
 {
 	private static final long serialVersionUID = 1L;
 	private String[] texts = new String[] { "Incorrect infile initialization", "Input file/stream not found",
-			"Read error", "Unexpected input file format", };
+			"Read error", "Unexpected input file format", "Input stream can not be read again",
+			"Incorrect MAC of message frame", "Message frame could not be authenticated", };
 	
 	public InfileResponse(boolean success)
 	{
@@ -13,6 +13,10 @@ public class KeyringResponse extends Response
 			"Could not decrypt key ring. Either you entered a wrong passphrase, or this file might be corrupt.",
 			"OTP key file not found", "New passphrase too short", "Block type or address error",
 			"Specified block id not assigned", // 10
+			"Not enough capacity in current OTP window for the reservation",
+			"Key ring is locked by another process, please try again later.",
+			"Key ring was changed by another process in an incompatible way", // 13
+			"A key modification was interrupted, the key may be damaged.",
 	};
 	
 	public KeyringResponse(boolean success)
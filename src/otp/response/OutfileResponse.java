@@ -5,7 +5,8 @@ public class OutfileResponse extends Response
 	
 	private static final long serialVersionUID = 1L;
 	private String[] texts = new String[] { "Incorrect outfile initialization",
-			"Output file/stream could not be created", "Write error", "Cancelled by user" };
+			"Output file/stream could not be created", "Write error", "Cancelled by user",
+			"Message frame could not be authenticated" };
 	
 	public OutfileResponse(boolean success)
 	{
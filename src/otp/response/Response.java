@@ -9,6 +9,20 @@ public abstract class Response extends Throwable
 	
 	protected String[] errorMessages = {};
 	
+	// responses are mostly used as return values, so the stack is only captured
+	// when debugging
+	private static volatile boolean stackTraces = false;
+	
+	/**
+	 * Sets whether new responses capture the stack trace. Off by default.
+	 * 
+	 * @param enabled
+	 */
+	public static void setStackTraces(boolean enabled)
+	{
+		Response.stackTraces = enabled;
+	}
+	
 	public Response(boolean success, int errorCode, Throwable cause)
 	{
 		this.success = success;
@@ -55,6 +69,14 @@ public abstract class Response extends Throwable
 		this.exitcode = code;
 	}
 	
+	@Override
+	public synchronized Throwable fillInStackTrace()
+	{
+		if (!Response.stackTraces)
+			return this;
+		return super.fillInStackTrace();
+	}
+	
 	protected String generateErrorMsg(int code)
 	{
 		try
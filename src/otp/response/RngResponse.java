@@ -3,7 +3,8 @@ package otp.response;
 public class RngResponse extends Response
 {
 	private static final long serialVersionUID = 1L;
-	private String[] texts = new String[] { "Incorrect RNG initialization", "Random number file read error" };
+	private String[] texts = new String[] { "Incorrect RNG initialization", "Random number file read error",
+			"Random number file close error", "Random number generator failure" };
 	
 	public RngResponse(boolean success)
 	{
@@ -17,7 +17,12 @@ public class WorkResponse extends Response
 			"Key is temporarily deactivated, because it is out of sync! To resync, generate a syncronisation request.", // 12
 			"The senders key is out of sync. Please send synchronisation message as soon as possible.", // 13
 			"This key-sync message has already been processed.", "Key synced successfully.", // 15
-			"Key-sync message is too old. Please check system date or request new sync." };
+			"Key-sync message is too old. Please check system date or request new sync.",
+			"Batch input list could not be read",
+			"Only messages of known length can be encrypted with a shared key ring",
+			"Requested range lies outside of the message body", // 19
+			"Decrypted range is not authenticated, only messages in framed format are authenticated in ranges.",
+			"Compressed body container is corrupt" };
 	
 	public WorkResponse(boolean success)
 	{